@@ -0,0 +1,90 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import manager.SingleResourceManagers;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module once for each number of threads, since
+ * JMH accepts a single number of threads per run.
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [-threads 1,2,4,...] [JMH options]
+ * </pre>
+ *
+ * <p>By default, {@link LockBenchmark}, {@link ManagerBenchmark} and
+ * {@link MapBenchmark} are run with 1, 2, 4, 8, 16, 32 and 64 threads, while
+ * {@link ConditionPingPongBenchmark} always uses a single benchmark thread.
+ * Any other argument is passed to JMH (e.g. {@code -p manager=fsm} or a
+ * regular expression selecting the benchmarks); the results of each run are
+ * written to {@code jmh-<threads>.csv}. Unless the managers are chosen
+ * explicitly, {@code fsm} is skipped when its FSM cannot serve the number of
+ * threads.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class BenchmarkSuite {
+
+    private static final String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+
+    private static String[] managersWithoutFSM() {
+        List<String> names = new ArrayList<>(SingleResourceManagers.names());
+        names.remove("fsm");
+        return names.toArray(new String[names.size()]);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String threads = DEFAULT_THREADS;
+        int n = 0;
+
+        if(args.length >= 2 && args[0].equals("-threads")) {
+            threads = args[1];
+            n = 2;
+        }
+
+        String[] jmhArgs = new String[args.length - n];
+        System.arraycopy(args, n, jmhArgs, 0, jmhArgs.length);
+
+        CommandLineOptions cmd = new CommandLineOptions(jmhArgs);
+        boolean selected = !cmd.getIncludes().isEmpty();
+
+        if(!selected) {
+            new Runner(new OptionsBuilder()
+                    .parent(cmd)
+                    .include(ConditionPingPongBenchmark.class.getSimpleName())
+                    .resultFormat(ResultFormatType.CSV)
+                    .result("jmh-pingpong.csv")
+                    .build()).run();
+        }
+
+        for(String t : threads.split(",")) {
+            int count = Integer.parseInt(t.trim());
+
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(cmd)
+                    .threads(count)
+                    .resultFormat(ResultFormatType.CSV)
+                    .result("jmh-" + count + ".csv");
+
+            if(!selected) {
+                options.include(LockBenchmark.class.getSimpleName())
+                        .include(ManagerBenchmark.class.getSimpleName())
+                        .include(MapBenchmark.class.getSimpleName());
+            }
+
+            if(count > ManagerBenchmark.FSM_MAX_THREADS && !cmd.getParameter("manager").hasValue())
+                options.param("manager", managersWithoutFSM());
+
+            new Runner(options.build()).run();
+        }
+    }
+}
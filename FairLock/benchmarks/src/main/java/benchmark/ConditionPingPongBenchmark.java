@@ -0,0 +1,198 @@
+package benchmark;
+
+import fairlock.FairLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of a signal/await ping-pong between two threads,
+ * using either the conditions of {@link FairLock} or the ones of
+ * {@link ReentrantLock}.
+ *
+ * <p>The benchmark thread sends a ping and waits for the pong of a partner
+ * thread, which is started outside of the measurement. Since each invocation
+ * completes a full round trip, the partner is never left waiting when an
+ * iteration ends.</p>
+ *
+ * @author Gabriele Ara
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class ConditionPingPongBenchmark {
+
+    /**
+     * The two sides of a ping-pong, implemented with one of the compared
+     * locks.
+     */
+    protected static abstract class PingPong {
+        protected boolean pending = false;
+        protected boolean stop = false;
+
+        /**
+         * Sends a ping and waits for the pong.
+         */
+        abstract void ping();
+
+        /**
+         * Answers pings until {@link #stop()} is called.
+         */
+        abstract void pong();
+
+        abstract void stop();
+    }
+
+    protected static class FairLockPingPong extends PingPong {
+        private final FairLock lock = new FairLock();
+        private final FairLock.Condition pinged = lock.newCondition();
+        private final FairLock.Condition ponged = lock.newCondition();
+
+        @Override
+        void ping() {
+            lock.lock();
+            try {
+                pending = true;
+                pinged.signal();
+
+                while(pending)
+                    ponged.await();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void pong() {
+            lock.lock();
+            try {
+                for(;;) {
+                    while(!pending && !stop)
+                        pinged.await();
+
+                    if(stop)
+                        return;
+
+                    pending = false;
+                    ponged.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void stop() {
+            lock.lock();
+            try {
+                stop = true;
+                pinged.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    protected static class ReentrantLockPingPong extends PingPong {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition pinged = lock.newCondition();
+        private final Condition ponged = lock.newCondition();
+
+        @Override
+        void ping() {
+            lock.lock();
+            try {
+                pending = true;
+                pinged.signal();
+
+                while(pending)
+                    ponged.awaitUninterruptibly();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void pong() {
+            lock.lock();
+            try {
+                for(;;) {
+                    while(!pending && !stop)
+                        pinged.awaitUninterruptibly();
+
+                    if(stop)
+                        return;
+
+                    pending = false;
+                    ponged.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void stop() {
+            lock.lock();
+            try {
+                stop = true;
+                pinged.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Param({ "fairlock", "reentrant" })
+    public String lock;
+
+    private PingPong pingPong;
+    private Thread partner;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        switch(lock) {
+            case "fairlock":
+                pingPong = new FairLockPingPong();
+                break;
+            case "reentrant":
+                pingPong = new ReentrantLockPingPong();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown lock: " + lock);
+        }
+
+        partner = new Thread(pingPong::pong, "pong");
+        partner.setDaemon(true);
+        partner.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        pingPong.stop();
+        partner.join();
+    }
+
+    @Benchmark
+    public void roundTrip() {
+        pingPong.ping();
+    }
+}
@@ -0,0 +1,146 @@
+package benchmark;
+
+import fairlock.FairLock;
+import fairlock.OrderingPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link FairLock} with {@link ReentrantLock} (both fair and unfair)
+ * and with the intrinsic lock of an object ({@code synchronized}).
+ * {@link FairLock} is also measured with LIFO and bounded LIFO
+ * {@link OrderingPolicy ordering policies}.
+ *
+ * <p>Each invocation acquires the lock, executes {@code work} tokens of work
+ * (see {@link Blackhole#consumeCPU(long)}) while holding it, releases it and
+ * then executes {@code think} tokens of work without holding it. With a
+ * single thread the lock is never contended; with more threads, the ratio
+ * between {@code work} and {@code think} determines how contended it
+ * is.</p>
+ *
+ * @author Gabriele Ara
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LockBenchmark {
+
+    /**
+     * A critical section protected by one of the compared locks.
+     */
+    protected static abstract class CriticalSection {
+        abstract void execute(long work);
+    }
+
+    protected static class FairLockSection extends CriticalSection {
+        private final FairLock lock;
+
+        FairLockSection(OrderingPolicy policy) {
+            lock = new FairLock(policy);
+        }
+
+        @Override
+        void execute(long work) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(work);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    protected static class ReentrantLockSection extends CriticalSection {
+        private final ReentrantLock lock;
+
+        ReentrantLockSection(boolean fair) {
+            lock = new ReentrantLock(fair);
+        }
+
+        @Override
+        void execute(long work) {
+            lock.lock();
+            try {
+                Blackhole.consumeCPU(work);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    protected static class SynchronizedSection extends CriticalSection {
+        private final Object lock = new Object();
+
+        @Override
+        void execute(long work) {
+            synchronized(lock) {
+                Blackhole.consumeCPU(work);
+            }
+        }
+    }
+
+    @Param({ "fairlock", "fairlock-lifo", "fairlock-bounded-lifo",
+        "reentrant-fair", "reentrant-unfair", "synchronized" })
+    public String lock;
+
+    /**
+     * Tokens of work executed while holding the lock.
+     */
+    @Param({ "0", "100", "1000" })
+    public long work;
+
+    /**
+     * Tokens of work executed without holding the lock.
+     */
+    @Param({ "0", "1000" })
+    public long think;
+
+    private CriticalSection section;
+
+    @Setup
+    public void setup() {
+        switch(lock) {
+            case "fairlock":
+                section = new FairLockSection(OrderingPolicy.fifo());
+                break;
+            case "fairlock-lifo":
+                section = new FairLockSection(OrderingPolicy.lifo());
+                break;
+            case "fairlock-bounded-lifo":
+                section = new FairLockSection(OrderingPolicy.boundedLifo(8));
+                break;
+            case "reentrant-fair":
+                section = new ReentrantLockSection(true);
+                break;
+            case "reentrant-unfair":
+                section = new ReentrantLockSection(false);
+                break;
+            case "synchronized":
+                section = new SynchronizedSection();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown lock: " + lock);
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock() {
+        section.execute(work);
+        Blackhole.consumeCPU(think);
+    }
+}
@@ -0,0 +1,124 @@
+package benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the {@link SingleResourceManager} implementations registered in
+ * {@link SingleResourceManagers}.
+ *
+ * <p>Each invocation requests the resource with a priority class chosen at
+ * random (the {@code mixB} parameter is the percentage of requests with
+ * priority {@link PriorityClass#PRIO_B}), executes {@code work} tokens of work
+ * while holding it, releases it and then executes {@code think} tokens of
+ * work without holding it.</p>
+ *
+ * <p>{@code fsm} can only be run with up to {@link #FSM_MAX_THREADS}
+ * threads; {@link BenchmarkSuite} skips it with more threads.</p>
+ *
+ * @author Gabriele Ara
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagerBenchmark {
+
+    /**
+     * The priority classes used by each thread, drawn in advance so that the
+     * random number generator is not measured.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private static final int SIZE = 1024;
+
+        private final PriorityClass[] priorities = new PriorityClass[SIZE];
+        private int next = 0;
+
+        @Setup
+        public void setup(ManagerBenchmark b) {
+            SplittableRandom rnd = new SplittableRandom();
+
+            for(int i = 0; i < SIZE; ++i)
+                priorities[i] = rnd.nextInt(100) < b.mixB
+                        ? PriorityClass.PRIO_B
+                        : PriorityClass.PRIO_A;
+        }
+
+        PriorityClass nextPriority() {
+            PriorityClass p = priorities[next];
+            next = (next + 1) & (SIZE - 1);
+            return p;
+        }
+    }
+
+    /**
+     * The FSM of {@link manager.SingleResourceManagerFSM} has a bounded number
+     * of waiting clients per class: with more threads, a request may be
+     * rejected depending on the priority mix.
+     */
+    public static final int FSM_MAX_THREADS = 2;
+
+    @Param({ "fairlock", "lock", "fsm", "lease", "weighted", "edf", "eventloop",
+        "shortest-hold" })
+    public String manager;
+
+    /**
+     * Percentage of requests with priority {@link PriorityClass#PRIO_B}.
+     */
+    @Param({ "0", "50", "100" })
+    public int mixB;
+
+    /**
+     * Tokens of work executed while holding the resource.
+     */
+    @Param({ "0", "100", "1000" })
+    public long work;
+
+    /**
+     * Tokens of work executed without holding the resource.
+     */
+    @Param({ "0", "1000" })
+    public long think;
+
+    private SingleResourceManager instance;
+
+    @Setup
+    public void setup(BenchmarkParams params) {
+        if(manager.equals("fsm") && params.getThreads() > FSM_MAX_THREADS)
+            throw new IllegalArgumentException("The fsm manager supports at most "
+                    + FSM_MAX_THREADS + " clients with arbitrary priorities!");
+
+        instance = SingleResourceManagers.create(manager);
+    }
+
+    @Benchmark
+    public void requestRelease(Client client) {
+        instance.request(client.nextPriority());
+        try {
+            Blackhole.consumeCPU(work);
+        } finally {
+            instance.release();
+        }
+
+        Blackhole.consumeCPU(think);
+    }
+}
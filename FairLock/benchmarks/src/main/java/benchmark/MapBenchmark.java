@@ -0,0 +1,105 @@
+package benchmark;
+
+import concurrent.FairConcurrentMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link FairConcurrentMap#compute} with
+ * {@link ConcurrentHashMap#compute} and the reads of the two maps.
+ *
+ * <p>Each invocation of {@code compute} increments the value of a key drawn
+ * at random among {@code keys} keys; each invocation of {@code get} reads
+ * one. With few keys, writers of the same key contend for it: the
+ * {@link FairConcurrentMap} serves them in arrival order, at the price of
+ * handing the segment from one thread to the next, while
+ * {@link ConcurrentHashMap} lets whichever thread wins the race go
+ * first.</p>
+ *
+ * @author Gabriele Ara
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapBenchmark {
+
+    /**
+     * The keys used by each thread, drawn in advance so that the random
+     * number generator is not measured.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private static final int SIZE = 1024;
+
+        private final Integer[] keys = new Integer[SIZE];
+        private int next = 0;
+
+        @Setup
+        public void setup(MapBenchmark b) {
+            SplittableRandom rnd = new SplittableRandom();
+
+            for(int i = 0; i < SIZE; ++i)
+                keys[i] = rnd.nextInt(b.keys);
+        }
+
+        Integer nextKey() {
+            Integer k = keys[next];
+            next = (next + 1) & (SIZE - 1);
+            return k;
+        }
+    }
+
+    @Param({ "fair", "concurrent-hash-map" })
+    public String map;
+
+    /**
+     * Number of distinct keys.
+     */
+    @Param({ "1", "16", "1024" })
+    public int keys;
+
+    private ConcurrentMap<Integer, Long> instance;
+
+    @Setup
+    public void setup() {
+        switch(map) {
+            case "fair":
+                instance = new FairConcurrentMap<>();
+                break;
+            case "concurrent-hash-map":
+                instance = new ConcurrentHashMap<>();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown map: " + map);
+        }
+
+        for(int i = 0; i < keys; ++i)
+            instance.put(i, 0L);
+    }
+
+    @Benchmark
+    public Long compute(Client client) {
+        return instance.compute(client.nextKey(), (Integer k, Long v) -> v + 1);
+    }
+
+    @Benchmark
+    public Long get(Client client) {
+        return instance.get(client.nextKey());
+    }
+}
@@ -0,0 +1,341 @@
+package concurrent;
+
+import fairlock.FairLock;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Bounded FIFO queue in which blocked producers and blocked consumers are
+ * served strictly in the order they started waiting.
+ *
+ * <p>The queue is a monitor built on a {@link FairLock} and two
+ * signal-and-urgent {@link FairLock.Condition conditions}, one for consumers
+ * waiting for an item and one for producers waiting for a free slot. Since
+ * the awakened thread receives the lock directly from the one that signals
+ * it, nobody can steal what it was waiting for:</p>
+ *
+ * <ul>
+ * <li>an item inserted while consumers are waiting is handed directly to the
+ * first of them, without passing through the queue;</li>
+ *
+ * <li>a slot freed while producers are waiting is used by the first of them
+ * before any other thread can access the queue.</li>
+ * </ul>
+ *
+ * <p>Hence consumers wait only while the queue is empty and producers only
+ * while it is full. Items are stored in an array allocated on construction
+ * and used as a ring. {@link #putAll(Collection) putAll} and
+ * {@link #drainTo(Collection, int) drainTo} transfer several items acquiring
+ * the lock only once.</p>
+ *
+ * <p>Differently from {@link java.util.concurrent.BlockingQueue}, waiting
+ * cannot be interrupted nor bounded by a timeout, since {@link FairLock}
+ * conditions do not support them; null items are not allowed.</p>
+ *
+ * @author Gabriele Ara
+ *
+ * @param <E> the type of the items
+ */
+public class FairBoundedQueue<E> {
+    private final FairLock lock;
+    private final FairLock.Condition notEmpty;
+    private final FairLock.Condition notFull;
+
+    private final Object[] items;
+    private int head;
+    // Also read optimistically, without the lock
+    private volatile int count;
+
+    // Item handed to the consumer being awakened, read as soon as it runs
+    private E handoff;
+
+    /**
+     * Creates a new, empty, queue.
+     *
+     * @param capacity the maximum number of items in the queue
+     *
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public FairBoundedQueue(int capacity) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive!");
+
+        lock = new FairLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+
+        items = new Object[capacity];
+        head = 0;
+        count = 0;
+        handoff = null;
+    }
+
+    /**
+     * @return the maximum number of items in the queue
+     */
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * @return the number of items in the queue
+     */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int n = count;
+        if(lock.validate(stamp))
+            return n;
+
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the queue has no items
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of items that can be inserted without waiting
+     */
+    public int remainingCapacity() {
+        return items.length - size();
+    }
+
+    private void enqueue(E e) {
+        int tail = head + count;
+        if(tail >= items.length)
+            tail -= items.length;
+
+        items[tail] = e;
+        ++count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        E e = (E) items[head];
+        items[head] = null;
+
+        if(++head == items.length)
+            head = 0;
+        --count;
+
+        return e;
+    }
+
+    /**
+     * Inserts an item, handing it directly to the first waiting consumer if
+     * any, or waits until there is a free slot if the queue is full. Waiting
+     * producers insert their items in the order they started waiting.
+     *
+     * @param e the item to be inserted
+     *
+     * @throws NullPointerException if the item is null
+     */
+    public void put(E e) {
+        Objects.requireNonNull(e);
+
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(!notEmpty.isEmpty()) {
+                handoff = e;
+                next = notEmpty;
+                return;
+            }
+
+            // Awakened only when a slot has been freed for this producer
+            if(count == items.length)
+                notFull.await();
+
+            enqueue(e);
+        } finally {
+            // Hand the lock directly to the awakened consumer
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts an item if it can be done without waiting.
+     *
+     * @param e the item to be inserted
+     *
+     * @return false if the queue is full
+     *
+     * @throws NullPointerException if the item is null
+     */
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(!notEmpty.isEmpty()) {
+                handoff = e;
+                next = notEmpty;
+                return true;
+            }
+
+            if(count == items.length)
+                return false;
+
+            enqueue(e);
+            return true;
+        } finally {
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts all the given items in order, acquiring the lock once. Like
+     * {@link #put(Object) put}, items are handed to the waiting consumers, if
+     * any; if the queue becomes full, this method waits for a free slot for
+     * each remaining item, so the items of a batch larger than the free space
+     * may be interleaved with the ones of other producers.
+     *
+     * @param c the items to be inserted
+     *
+     * @throws NullPointerException if any item is null
+     */
+    public void putAll(Collection<? extends E> c) {
+        for(E e : c)
+            Objects.requireNonNull(e);
+
+        lock.lock();
+        try {
+            for(E e : c) {
+                if(!notEmpty.isEmpty()) {
+                    // The consumer runs immediately, then this thread gets
+                    // the lock back from the urgent queue
+                    handoff = e;
+                    notEmpty.signal();
+                    continue;
+                }
+
+                if(count == items.length)
+                    notFull.await();
+
+                enqueue(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first item, waiting until there is one if the queue is
+     * empty. Waiting consumers receive the items in the order they started
+     * waiting.
+     *
+     * @return the removed item
+     */
+    public E take() {
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(count == 0) {
+                // The producer that awakens this thread hands the item over
+                notEmpty.await();
+
+                E e = handoff;
+                handoff = null;
+                return e;
+            }
+
+            E e = dequeue();
+            next = notFull;
+            return e;
+        } finally {
+            // Give the freed slot to the first waiting producer, if any
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first item if there is one.
+     *
+     * @return the removed item, or null if the queue is empty
+     */
+    public E poll() {
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(count == 0)
+                return null;
+
+            E e = dequeue();
+            next = notFull;
+            return e;
+        } finally {
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the items in the queue and adds them to the given
+     * collection.
+     *
+     * @param c the collection receiving the items
+     *
+     * @return the number of removed items
+     *
+     * @see #drainTo(Collection, int)
+     */
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of items, in order, and adds them to
+     * the given collection, acquiring the lock once; this method never waits
+     * for items. The freed slots are then given to the waiting producers, in
+     * the order they started waiting.
+     *
+     * @param c the collection receiving the items
+     * @param maxItems the maximum number of items to be removed
+     *
+     * @return the number of removed items
+     */
+    public int drainTo(Collection<? super E> c, int maxItems) {
+        Objects.requireNonNull(c);
+
+        lock.lock();
+        try {
+            int n = Math.min(maxItems, count);
+
+            for(int i = 0; i < n; ++i)
+                c.add(dequeue());
+
+            // Each awakened producer fills at least one slot before giving
+            // the lock back to this thread
+            while(count < items.length && !notFull.isEmpty())
+                notFull.signal();
+
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
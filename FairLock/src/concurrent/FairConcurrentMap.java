@@ -0,0 +1,433 @@
+package concurrent;
+
+import fairlock.FairLock;
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Concurrent map in which the operations that modify the same key are
+ * executed strictly in the order they are invoked, e.g. the updates of the
+ * balance of an account.
+ *
+ * <p>Keys are divided among a fixed number of <i>segments</i>, each one
+ * protected by a {@link FairLock}: every operation that modifies the map
+ * acquires the lock of the segment of its key, so writers of the same key
+ * (and, in general, of the same segment) are served in FIFO order, while
+ * writers of different segments proceed in parallel. Operations on several
+ * keys, like {@link #computeAll(Collection, BiFunction) computeAll}, acquire
+ * the locks of all the involved segments in ascending order, so they cannot
+ * deadlock with each other, and are atomic with respect to the other
+ * writers.</p>
+ *
+ * <p>Entries are stored in a {@link ConcurrentHashMap}, so reads never block
+ * and never wait for a writer; they observe the effects of the completed
+ * operations, and may observe a batch operation only partially while it is
+ * being executed. The views returned by {@link #entrySet()},
+ * {@link #keySet()} and {@link #values()} are read-only.</p>
+ *
+ * <p>Like in {@link ConcurrentHashMap}, neither keys nor values can be null.
+ * Since {@link FairLock} is not reentrant, the functions passed to the
+ * methods of this class must not modify the map.</p>
+ *
+ * @author Gabriele Ara
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class FairConcurrentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    /**
+     * Default number of segments.
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * Maximum number of segments.
+     */
+    public static final int MAX_SEGMENTS = 1 << 16;
+
+    private final FairLock[] segments;
+    private final int mask;
+
+    private final ConcurrentHashMap<K, V> table;
+    private final Map<K, V> view;
+
+    /**
+     * Creates a new, empty, map with {@link #DEFAULT_SEGMENTS} segments.
+     */
+    public FairConcurrentMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Creates a new, empty, map.
+     *
+     * @param segments the number of segments, rounded up to a power of two
+     *
+     * @throws IllegalArgumentException if the number of segments is not
+     * positive or is greater than {@link #MAX_SEGMENTS}
+     */
+    public FairConcurrentMap(int segments) {
+        if(segments <= 0 || segments > MAX_SEGMENTS)
+            throw new IllegalArgumentException("The number of segments must be positive and at most " + MAX_SEGMENTS + "!");
+
+        int n = 1;
+        while(n < segments)
+            n <<= 1;
+
+        this.segments = new FairLock[n];
+        for(int i = 0; i < n; ++i)
+            this.segments[i] = new FairLock();
+
+        this.mask = n - 1;
+
+        this.table = new ConcurrentHashMap<>();
+        this.view = Collections.unmodifiableMap(table);
+    }
+
+    /**
+     * @return the number of segments of this map
+     */
+    public int getSegments() {
+        return segments.length;
+    }
+
+    private int indexFor(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private FairLock segmentFor(Object key) {
+        return segments[indexFor(Objects.requireNonNull(key))];
+    }
+
+    /**
+     * Acquires the locks of the segments of the given keys, in ascending
+     * order.
+     *
+     * @return the indexes of the locked segments, in ascending order
+     */
+    private int[] lockAll(Iterable<?> keys) {
+        BitSet involved = new BitSet(segments.length);
+        for(Object key : keys)
+            involved.set(indexFor(Objects.requireNonNull(key)));
+
+        int[] locked = involved.stream().toArray();
+        for(int i : locked)
+            segments[i].lock();
+
+        return locked;
+    }
+
+    private int[] lockAll() {
+        int[] locked = new int[segments.length];
+        for(int i = 0; i < segments.length; ++i) {
+            segments[i].lock();
+            locked[i] = i;
+        }
+
+        return locked;
+    }
+
+    private void unlockAll(int[] locked) {
+        for(int i = locked.length - 1; i >= 0; --i)
+            segments[locked[i]].unlock();
+    }
+
+    /**
+     * Applies a remapping function to a key, whose segment must be locked.
+     */
+    private V computeLocked(K key, BiFunction<? super K, ? super V, ? extends V> f) {
+        V old = table.get(key);
+        V value = f.apply(key, old);
+
+        if(value != null)
+            table.put(key, value);
+        else if(old != null)
+            table.remove(key);
+
+        return value;
+    }
+
+    // Reads, never blocking
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return table.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return table.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return table.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        return table.get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return table.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        table.forEach(action);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return view.entrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return view.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return view.values();
+    }
+
+    // Writes to a single key, in FIFO order
+
+    @Override
+    public V put(K key, V value) {
+        Objects.requireNonNull(value);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return table.put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return table.putIfAbsent(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return table.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return value != null && table.remove(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return table.replace(key, oldValue, newValue);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        Objects.requireNonNull(value);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return table.replace(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the given function to the key and its current value (null if
+     * absent) and stores the result, or removes the key if it is null. The
+     * function is executed while holding the lock of the segment of the key,
+     * after every operation on the same segment invoked earlier.
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return computeLocked(key, remappingFunction);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+
+        // The common case of a present key does not need the lock
+        V value = table.get(Objects.requireNonNull(key));
+        if(value != null)
+            return value;
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return computeLocked(key, (K k, V old) ->
+                    old != null ? old : mappingFunction.apply(k));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            if(table.get(key) == null)
+                return null;
+
+            return computeLocked(key, remappingFunction);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+
+        FairLock lock = segmentFor(key);
+        lock.lock();
+        try {
+            return computeLocked(key, (K k, V old) ->
+                    old == null ? value : remappingFunction.apply(old, value));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Batch writes, locking the involved segments in ascending order
+
+    /**
+     * Applies the given function to each of the given keys, like
+     * {@link #compute(Object, BiFunction) compute}, atomically with respect
+     * to the other operations that modify the map: the locks of the segments
+     * of all the keys are acquired (in ascending order) before applying the
+     * function to the first key and released after applying it to the last
+     * one. The function is applied in the iteration order of the keys, once
+     * per occurrence.
+     *
+     * @param keys the keys to be updated
+     * @param remappingFunction the function computing the new value of a key
+     * from its current value (null if absent); a null result removes the key
+     *
+     * @return the new value of each key (null if removed)
+     */
+    public Map<K, V> computeAll(Collection<? extends K> keys,
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+
+        Map<K, V> result = new LinkedHashMap<>();
+
+        int[] locked = lockAll(keys);
+        try {
+            for(K key : keys)
+                result.put(key, computeLocked(key, remappingFunction));
+        } finally {
+            unlockAll(locked);
+        }
+
+        return result;
+    }
+
+    /**
+     * Stores all the given mappings atomically with respect to the other
+     * operations that modify the map.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for(V value : m.values())
+            Objects.requireNonNull(value);
+
+        int[] locked = lockAll(m.keySet());
+        try {
+            table.putAll(m);
+        } finally {
+            unlockAll(locked);
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+
+        int[] locked = lockAll();
+        try {
+            table.replaceAll(function);
+        } finally {
+            unlockAll(locked);
+        }
+    }
+
+    @Override
+    public void clear() {
+        int[] locked = lockAll();
+        try {
+            table.clear();
+        } finally {
+            unlockAll(locked);
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import manager.SingleResourceManager.PriorityClass;
+import stats.ConcurrentHistogram;
+import stats.Histogram;
+
+/**
+ * {@link java.util.concurrent.ExecutorService} that runs tasks belonging to
+ * the two {@link PriorityClass priority classes} of the
+ * {@link manager.SingleResourceManager} interface on a fixed set of workers,
+ * granting the workers to the classes with the same rules of the managers.
+ *
+ * <p>When a worker becomes free, it chooses the class of its next task
+ * among the ones with queued tasks:</p>
+ *
+ * <ul>
+ * <li>with strict priority (the default), class
+ * {@link PriorityClass#PRIO_B PRIO_B} always goes first, like in
+ * {@link manager.SingleResourceManagerFairLock};</li>
+ *
+ * <li>with weights, each class receives a share of the execution time of the
+ * workers proportional to its weight, like in
+ * {@link manager.SingleResourceManagerWeighted}: each class has a virtual
+ * time, advanced by the execution time of each of its tasks divided by its
+ * weight, and the class with the smallest one goes first. A class with no
+ * task queued or running is idle: when it becomes active again, its virtual
+ * time is brought forward to a virtual clock, which follows the classes whose
+ * tasks are started and the ones that become idle, so that it cannot
+ * accumulate credit while idle.</li>
+ * </ul>
+ *
+ * <p>Within each class, tasks are started in the order they were submitted
+ * (up to tasks started at the same time by different workers). Tasks
+ * submitted by a worker are queued to that worker, the other ones to the
+ * workers in turn; each worker takes the oldest queued task of the chosen
+ * class, stealing it from the queue of another worker if needed, so no
+ * worker stays idle while tasks are queued. Choosing a task takes time
+ * linear in the number of workers.</p>
+ *
+ * <p>Tasks submitted via the methods without a priority class belong to
+ * class {@link PriorityClass#PRIO_A PRIO_A}. For each class, the time spent
+ * by its tasks in the queues is recorded and can be retrieved via
+ * {@link #getQueueingLatency(PriorityClass)}.</p>
+ *
+ * <p>Workers are created by the given {@link ThreadFactory}; since this
+ * project targets Java 8, virtual threads are not created directly, but they
+ * can be used on Java 21 or later by passing
+ * {@code Thread.ofVirtual().factory()}.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class PriorityClassExecutor extends AbstractExecutorService {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    /**
+     * A queued task.
+     */
+    private static final class Task {
+        final Runnable command;
+        final PriorityClass priority;
+        final long sequence;
+        final long submitted;
+
+        Task(Runnable command, PriorityClass priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.submitted = System.nanoTime();
+        }
+    }
+
+    /**
+     * A worker and its queues, one per class, protected by its monitor.
+     */
+    private final class Worker implements Runnable {
+        final ArrayDeque<Task>[] queues;
+        Thread thread;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Worker() {
+            queues = new ArrayDeque[CLASSES];
+            for(int i = 0; i < CLASSES; ++i)
+                queues[i] = new ArrayDeque<>();
+        }
+
+        @Override
+        public void run() {
+            runWorker(this);
+        }
+    }
+
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker;
+    private final ThreadLocal<Worker> current;
+    private final ConcurrentLinkedQueue<Worker> idle;
+
+    // Null for strict priority
+    private final double[] weights;
+    private final AtomicLongArray virtualTime;
+    private final AtomicLong virtualClock;
+
+    private final AtomicIntegerArray queued;
+    private final AtomicIntegerArray running;
+    private final AtomicLong sequence;
+
+    private final ConcurrentHistogram[] latency;
+    private final LongAdder[] completed;
+    private final LongAdder steals;
+
+    private volatile int runState;
+    private final CountDownLatch terminated;
+
+    /**
+     * Creates a new executor with strict priority and non-daemon workers.
+     *
+     * @param workers the number of workers
+     *
+     * @throws IllegalArgumentException if the number of workers is not
+     * positive
+     */
+    public PriorityClassExecutor(int workers) {
+        this(workers, defaultFactory());
+    }
+
+    /**
+     * Creates a new executor with strict priority.
+     *
+     * @param workers the number of workers
+     * @param factory the factory of the worker threads
+     *
+     * @throws IllegalArgumentException if the number of workers is not
+     * positive
+     */
+    public PriorityClassExecutor(int workers, ThreadFactory factory) {
+        this(workers, factory, null);
+    }
+
+    /**
+     * Creates a new executor that shares the workers between the classes
+     * according to the given weights.
+     *
+     * @param workers the number of workers
+     * @param factory the factory of the worker threads
+     * @param weightA the weight of class {@link PriorityClass#PRIO_A}
+     * @param weightB the weight of class {@link PriorityClass#PRIO_B}
+     *
+     * @throws IllegalArgumentException if the number of workers or any weight
+     * is not positive
+     */
+    public PriorityClassExecutor(int workers, ThreadFactory factory,
+            double weightA, double weightB) {
+        this(workers, factory, weights(weightA, weightB));
+    }
+
+    private PriorityClassExecutor(int workers, ThreadFactory factory, double[] weights) {
+        if(workers <= 0)
+            throw new IllegalArgumentException("The number of workers must be positive!");
+
+        this.weights = weights;
+        this.virtualTime = new AtomicLongArray(CLASSES);
+        this.virtualClock = new AtomicLong();
+
+        this.queued = new AtomicIntegerArray(CLASSES);
+        this.running = new AtomicIntegerArray(CLASSES);
+        this.sequence = new AtomicLong();
+
+        this.latency = new ConcurrentHistogram[CLASSES];
+        this.completed = new LongAdder[CLASSES];
+        for(int i = 0; i < CLASSES; ++i) {
+            latency[i] = new ConcurrentHistogram();
+            completed[i] = new LongAdder();
+        }
+        this.steals = new LongAdder();
+
+        this.nextWorker = new AtomicInteger();
+        this.current = new ThreadLocal<>();
+        this.idle = new ConcurrentLinkedQueue<>();
+
+        this.runState = RUNNING;
+        this.terminated = new CountDownLatch(workers);
+
+        this.workers = new Worker[workers];
+        for(int i = 0; i < workers; ++i) {
+            Worker w = new Worker();
+            w.thread = Objects.requireNonNull(factory.newThread(w));
+            this.workers[i] = w;
+        }
+
+        for(Worker w : this.workers)
+            w.thread.start();
+    }
+
+    private static double[] weights(double weightA, double weightB) {
+        if(!(weightA > 0) || !(weightB > 0) || Double.isInfinite(weightA) || Double.isInfinite(weightB))
+            throw new IllegalArgumentException("Weights must be positive and finite!");
+
+        double[] w = new double[CLASSES];
+        w[PriorityClass.PRIO_A.ordinal()] = weightA;
+        w[PriorityClass.PRIO_B.ordinal()] = weightB;
+        return w;
+    }
+
+    private static ThreadFactory defaultFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return (Runnable r) -> new Thread(r, "PriorityClassExecutor-worker-" + count.getAndIncrement());
+    }
+
+    // Statistics
+
+    /**
+     * @return the number of workers
+     */
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the time spent in the queues by the tasks of the given class
+     *         started so far, in nanoseconds
+     */
+    public Histogram getQueueingLatency(PriorityClass prio) {
+        return latency[prio.ordinal()].snapshot();
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of tasks of the given class completed so far
+     */
+    public long getCompletedCount(PriorityClass prio) {
+        return completed[prio.ordinal()].sum();
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of tasks of the given class currently queued
+     */
+    public int getQueuedCount(PriorityClass prio) {
+        return Math.max(0, queued.get(prio.ordinal()));
+    }
+
+    /**
+     * @return the number of tasks started by a worker other than the one they
+     *         were queued to
+     */
+    public long getStealCount() {
+        return steals.sum();
+    }
+
+    // Submission
+
+    /**
+     * Executes the given command as a task of class
+     * {@link PriorityClass#PRIO_A}.
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(command, PriorityClass.PRIO_A);
+    }
+
+    /**
+     * Executes the given command as a task of the given class.
+     *
+     * @param command the task to be executed
+     * @param prio the priority class of the task
+     *
+     * @throws RejectedExecutionException if this executor has been shut down
+     */
+    public void execute(Runnable command, PriorityClass prio) {
+        Objects.requireNonNull(command);
+        Objects.requireNonNull(prio);
+
+        if(runState != RUNNING)
+            throw new RejectedExecutionException("The executor has been shut down!");
+
+        int c = prio.ordinal();
+        Task t = new Task(command, prio, sequence.getAndIncrement());
+
+        Worker w = current.get();
+        if(w == null)
+            w = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+
+        synchronized(w) {
+            w.queues[c].addLast(t);
+        }
+
+        // A class that was idle starts competing from the virtual time of the
+        // other ones, so that it cannot use the time it was idle to starve
+        // them.
+        if(queued.getAndIncrement(c) <= 0 && running.get(c) == 0 && weights != null)
+            catchUp(c);
+
+        // Workers exit when shut down with no queued tasks: if this one was
+        // enqueued too late, nobody may run it
+        if(runState != RUNNING && remove(w, t))
+            throw new RejectedExecutionException("The executor has been shut down!");
+
+        Worker sleeping = idle.poll();
+        if(sleeping != null)
+            LockSupport.unpark(sleeping.thread);
+    }
+
+    /**
+     * Submits a value-returning task of the given class.
+     *
+     * @param <T> the type of the result of the task
+     * @param task the task to be executed
+     * @param prio the priority class of the task
+     *
+     * @return a future representing the pending result of the task
+     *
+     * @throws RejectedExecutionException if this executor has been shut down
+     */
+    public <T> Future<T> submit(Callable<T> task, PriorityClass prio) {
+        Objects.requireNonNull(task);
+
+        RunnableFuture<T> f = newTaskFor(task);
+        execute(f, prio);
+        return f;
+    }
+
+    /**
+     * Submits a task of the given class.
+     *
+     * @param task the task to be executed
+     * @param prio the priority class of the task
+     *
+     * @return a future whose result is null once the task has completed
+     *
+     * @throws RejectedExecutionException if this executor has been shut down
+     */
+    public Future<?> submit(Runnable task, PriorityClass prio) {
+        Objects.requireNonNull(task);
+
+        RunnableFuture<Void> f = newTaskFor(task, null);
+        execute(f, prio);
+        return f;
+    }
+
+    private boolean remove(Worker w, Task t) {
+        boolean removed;
+
+        synchronized(w) {
+            removed = w.queues[t.priority.ordinal()].remove(t);
+        }
+
+        if(removed)
+            queued.decrementAndGet(t.priority.ordinal());
+
+        return removed;
+    }
+
+    private void catchUp(int c) {
+        virtualTime.accumulateAndGet(c, virtualClock.get(), Math::max);
+    }
+
+    /**
+     * Advances the virtual clock to the virtual time of the given class.
+     */
+    private void advance(int c) {
+        virtualClock.accumulateAndGet(virtualTime.get(c), Math::max);
+    }
+
+    // Workers
+
+    /**
+     * @return the class of the next task to be started, or -1 if no task is
+     *         queued
+     */
+    private int selectClass() {
+        int next = -1;
+
+        // Iterating from the last class gives precedence to B on ties
+        for(int i = CLASSES - 1; i >= 0; --i) {
+            if(queued.get(i) <= 0)
+                continue;
+
+            if(weights == null)
+                return i;
+
+            if(next < 0 || virtualTime.get(i) < virtualTime.get(next))
+                next = i;
+        }
+
+        return next;
+    }
+
+    /**
+     * Removes the oldest task of the given class from the queues of all the
+     * workers.
+     *
+     * @return the task, or null if the oldest one has been taken by another
+     *         worker in the meantime
+     */
+    private Task take(Worker self, int c) {
+        Worker victim = null;
+        long oldest = Long.MAX_VALUE;
+
+        for(Worker w : workers) {
+            synchronized(w) {
+                Task head = w.queues[c].peekFirst();
+                if(head != null && head.sequence < oldest) {
+                    oldest = head.sequence;
+                    victim = w;
+                }
+            }
+        }
+
+        if(victim == null)
+            return null;
+
+        Task t;
+        synchronized(victim) {
+            t = victim.queues[c].peekFirst();
+            if(t == null || t.sequence != oldest)
+                return null;
+
+            victim.queues[c].pollFirst();
+        }
+
+        // Counted as running first, so that the class never looks idle
+        running.incrementAndGet(c);
+        queued.decrementAndGet(c);
+
+        if(weights != null)
+            advance(c);
+
+        if(victim != self)
+            steals.increment();
+
+        return t;
+    }
+
+    private Task next(Worker self) {
+        for(;;) {
+            int c = selectClass();
+            if(c < 0)
+                return null;
+
+            Task t = take(self, c);
+            if(t != null)
+                return t;
+        }
+    }
+
+    private boolean hasQueued() {
+        for(int i = 0; i < CLASSES; ++i)
+            if(queued.get(i) > 0)
+                return true;
+
+        return false;
+    }
+
+    private void runWorker(Worker self) {
+        current.set(self);
+
+        try {
+            while(runState != STOP) {
+                Task t = next(self);
+
+                if(t != null) {
+                    run(t);
+                    continue;
+                }
+
+                if(runState != RUNNING)
+                    break;
+
+                // Submitters check the idle workers after queueing a task, so
+                // either they find this worker or it finds their task here
+                idle.add(self);
+
+                // An interrupt left by a task would make park return at once;
+                // the one sent by shutdownNow follows the change of state
+                Thread.interrupted();
+                if(!hasQueued() && runState == RUNNING)
+                    LockSupport.park(this);
+                idle.remove(self);
+            }
+        } finally {
+            current.remove();
+            terminated.countDown();
+        }
+    }
+
+    private void run(Task t) {
+        int c = t.priority.ordinal();
+        long start = System.nanoTime();
+
+        latency[c].record(start - t.submitted);
+
+        // An interrupt sent by shutdownNow to a previous task must not leak
+        if(runState != STOP)
+            Thread.interrupted();
+
+        try {
+            t.command.run();
+        } catch (Throwable ex) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        } finally {
+            completed[c].increment();
+
+            if(weights != null)
+                virtualTime.addAndGet(c, (long) ((System.nanoTime() - start) / weights[c]));
+
+            if(running.decrementAndGet(c) == 0 && queued.get(c) <= 0 && weights != null)
+                advance(c);
+        }
+    }
+
+    // Lifecycle
+
+    /**
+     * Stops accepting new tasks; the queued ones are still executed.
+     */
+    @Override
+    public void shutdown() {
+        if(runState == RUNNING)
+            runState = SHUTDOWN;
+
+        for(Worker w : workers)
+            LockSupport.unpark(w.thread);
+    }
+
+    /**
+     * Stops accepting new tasks, removes the queued ones and interrupts the
+     * running ones.
+     *
+     * @return the tasks that were queued, never started
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+
+        List<Runnable> dropped = new ArrayList<>();
+
+        for(Worker w : workers) {
+            synchronized(w) {
+                for(int i = 0; i < CLASSES; ++i) {
+                    for(Task t = w.queues[i].pollFirst(); t != null; t = w.queues[i].pollFirst()) {
+                        queued.decrementAndGet(i);
+                        dropped.add(t.command);
+                    }
+                }
+            }
+
+            w.thread.interrupt();
+            LockSupport.unpark(w.thread);
+        }
+
+        return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+}
@@ -0,0 +1,475 @@
+package fairlock;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A variant of {@link FairLock} with the same "signal-and-urgent" semantics
+ * and FIFO guarantees, designed to be allocated in millions of instances
+ * (e.g. one per row or per entity).
+ *
+ * <p>A CompactFairLock has a single reference field, whose value encodes the
+ * state of the lock:</p>
+ *
+ * <ul>
+ * <li>null, if the lock is free;</li>
+ *
+ * <li>the owner {@link Thread}, if the lock is held and nobody else is waiting
+ * for it; acquiring and releasing the lock in this state requires a single
+ * compare-and-set and no allocation;</li>
+ *
+ * <li>an <i>inflated</i> monitor, allocated only when a second thread
+ * contends for the lock or a thread waits on a {@link Condition}, holding the
+ * owner, the <i>entry queue</i>, the <i>urgent queue</i> and the <i>condition
+ * queues</i>.</li>
+ * </ul>
+ *
+ * <p>When the lock is released and no thread is waiting in any of its queues
+ * the monitor is discarded (the lock is <i>deflated</i>) and the lock returns
+ * to its single word form. Condition objects are also a single reference to
+ * their lock: their queues live in the inflated monitor.</p>
+ *
+ * <p>Waiting threads are suspended via {@link LockSupport}, so no
+ * {@link InterruptedException} is ever thrown and no spurious wakeup is
+ * visible to the caller.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class CompactFairLock {
+
+    private static final AtomicReferenceFieldUpdater<CompactFairLock, Object> WORD =
+            AtomicReferenceFieldUpdater.newUpdater(CompactFairLock.class, Object.class, "word");
+
+    /**
+     * A thread waiting in one of the queues of an inflated lock.
+     */
+    private static final class Waiter {
+        final Thread thread;
+        volatile boolean granted;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+            this.granted = false;
+        }
+
+        void await(Object blocker) {
+            boolean interrupted = false;
+            while(!granted) {
+                LockSupport.park(blocker);
+
+                // Cleared while waiting, or park would return at once, and
+                // restored after the grant
+                if(Thread.interrupted())
+                    interrupted = true;
+            }
+
+            if(interrupted)
+                thread.interrupt();
+        }
+    }
+
+    /**
+     * State of an inflated lock; every field is accessed while holding the
+     * monitor of this object.
+     */
+    private static final class Monitor {
+        Thread owner;
+        boolean deflated;
+        final ArrayDeque<Waiter> entryQueue;
+        final ArrayDeque<Waiter> urgentQueue;
+
+        // Allocated on the first wait on a condition
+        Map<Condition, ArrayDeque<Waiter>> conditionQueues;
+
+        Monitor(Thread owner) {
+            this.owner = owner;
+            this.deflated = false;
+            this.entryQueue = new ArrayDeque<>();
+            this.urgentQueue = new ArrayDeque<>();
+            this.conditionQueues = null;
+        }
+
+        ArrayDeque<Waiter> conditionQueue(Condition c) {
+            return conditionQueues == null ? null : conditionQueues.get(c);
+        }
+
+        /**
+         * Gives the lock to the given waiting thread.
+         */
+        void grant(Waiter w) {
+            owner = w.thread;
+            w.granted = true;
+            LockSupport.unpark(w.thread);
+        }
+    }
+
+    /**
+     * Condition variable bound to a {@link CompactFairLock}, with the same
+     * semantics of {@link FairLock.Condition}.
+     */
+    public class Condition {
+
+        Condition() {
+        }
+
+        /**
+         * @return The number of threads waiting in the <i>condition queue</i>
+         */
+        public int size() {
+            Object w = word;
+
+            if(!(w instanceof Monitor))
+                return 0;
+
+            Monitor m = (Monitor) w;
+            synchronized(m) {
+                ArrayDeque<Waiter> q = m.conditionQueue(this);
+                return q == null ? 0 : q.size();
+            }
+        }
+
+        /**
+         * Checks wether there are threads waiting in the <i>condition queue</i>
+         * or not.
+         *
+         * @return true if there are threads waiting, false otherwise
+         */
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        /**
+         * Adds the current thread in the <i>condition queue</i> of this
+         * Condition object and then releases the lock on the bounded
+         * {@link CompactFairLock}, inflating it if needed.
+         *
+         * <p>When this method terminates its execution, it is ensured that the
+         * given condition variable has been signaled by another thread and that
+         * the current thread is now the owner of the bounded lock.</p>
+         *
+         * @throws IllegalMonitorStateException if the current thread does not
+         * hold the bounded lock
+         */
+        public void await() {
+            Thread current = Thread.currentThread();
+            Monitor m = inflateOwned(current, "You can't execute an await on a condition if you don't hold the bounded lock!");
+            Waiter self = new Waiter(current);
+
+            synchronized(m) {
+                if(m.conditionQueues == null)
+                    m.conditionQueues = new IdentityHashMap<>();
+
+                ArrayDeque<Waiter> q = m.conditionQueues.get(this);
+                if(q == null) {
+                    q = new ArrayDeque<>();
+                    m.conditionQueues.put(this, q);
+                }
+
+                q.add(self);
+                release(m);
+            }
+
+            self.await(CompactFairLock.this);
+        }
+
+        /**
+         * If there is at least one thread waiting in the <i>condition queue</i>
+         * of this Condition object, the first one is awakened and receives the
+         * lock, while the current thread suspends itself in the <i>urgent
+         * queue</i> of the bounded lock. Otherwise this call is a no
+         * operation.
+         *
+         * @throws IllegalMonitorStateException if the current thread does not
+         * hold the bounded lock
+         */
+        public void signal() {
+            Thread current = Thread.currentThread();
+            Monitor m = ownedMonitor(current, "You can't execute a signal on a condition if you don't hold the bounded lock!");
+
+            // A lock that is not inflated has no waiting threads
+            if(m == null)
+                return;
+
+            Waiter self;
+
+            synchronized(m) {
+                Waiter next = pollCondition(m);
+                if(next == null)
+                    return;
+
+                self = new Waiter(current);
+                m.urgentQueue.add(self);
+                m.grant(next);
+            }
+
+            self.await(CompactFairLock.this);
+        }
+
+        /**
+         * If there is at least one thread waiting in the <i>condition queue</i>
+         * of this Condition object, the first one is awakened and the lock is
+         * transferred directly to it, without suspending the current thread in
+         * the <i>urgent queue</i>; otherwise the lock is simply released.
+         *
+         * @throws IllegalMonitorStateException if the current thread does not
+         * hold the bounded lock
+         *
+         * @see FairLock.Condition#signalAndUnlock()
+         */
+        public void signalAndUnlock() {
+            Thread current = Thread.currentThread();
+            Monitor m = ownedMonitor(current, "You can't execute a signal on a condition if you don't hold the bounded lock!");
+
+            if(m != null) {
+                synchronized(m) {
+                    Waiter next = pollCondition(m);
+                    if(next != null) {
+                        m.grant(next);
+                        return;
+                    }
+                }
+            }
+
+            unlock();
+        }
+
+        private Waiter pollCondition(Monitor m) {
+            ArrayDeque<Waiter> q = m.conditionQueue(this);
+            if(q == null)
+                return null;
+
+            Waiter next = q.poll();
+            if(q.isEmpty())
+                m.conditionQueues.remove(this);
+
+            return next;
+        }
+    }
+
+    /**
+     * Null if the lock is free, the owner thread if the lock is held without
+     * contention, a {@link Monitor} if the lock is inflated.
+     */
+    private volatile Object word;
+
+    /**
+     * Creates a new, free, CompactFairLock.
+     */
+    public CompactFairLock() {
+    }
+
+    /**
+     * @return true if the lock has been locked
+     */
+    public boolean isLocked() {
+        Object w = word;
+
+        if(!(w instanceof Monitor))
+            return w != null;
+
+        Monitor m = (Monitor) w;
+        synchronized(m) {
+            return m.owner != null;
+        }
+    }
+
+    /**
+     * @return true if the lock is held by the current thread
+     */
+    public boolean isOwner() {
+        Thread current = Thread.currentThread();
+        Object w = word;
+
+        if(!(w instanceof Monitor))
+            return w == current;
+
+        Monitor m = (Monitor) w;
+        synchronized(m) {
+            return m.owner == current;
+        }
+    }
+
+    /**
+     * @return true if the queues of this lock are currently allocated
+     */
+    public boolean isInflated() {
+        return word instanceof Monitor;
+    }
+
+    /**
+     * Acquires the lock, if free. Otherwise the current thread is suspended in
+     * the <i>entry queue</i>, inflating the lock if needed, until the lock
+     * becomes available for him.
+     *
+     * <p>The <i>entry queue</i> is guaranteed to be FIFO.</p>
+     *
+     * @throws IllegalMonitorStateException if the current thread already holds
+     * this lock
+     */
+    public void lock() {
+        Thread current = Thread.currentThread();
+
+        for(;;) {
+            Object w = word;
+
+            if(w == null) {
+                if(WORD.compareAndSet(this, null, current))
+                    return;
+                continue;
+            }
+
+            if(w == current)
+                throw new IllegalMonitorStateException("You can't acquire more than once a FairLock! Consider moving to a ReentrantLock.");
+
+            if(w instanceof Thread) {
+                // Contended: the holder will find the monitor on release
+                WORD.compareAndSet(this, w, new Monitor((Thread) w));
+                continue;
+            }
+
+            Monitor m = (Monitor) w;
+            Waiter self;
+
+            synchronized(m) {
+                // Deflated after it was read, start again
+                if(m.deflated)
+                    continue;
+
+                if(m.owner == null) {
+                    m.owner = current;
+                    return;
+                }
+
+                if(m.owner == current)
+                    throw new IllegalMonitorStateException("You can't acquire more than once a FairLock! Consider moving to a ReentrantLock.");
+
+                self = new Waiter(current);
+                m.entryQueue.add(self);
+            }
+
+            self.await(this);
+            return;
+        }
+    }
+
+    /**
+     * Releases the lock, giving it to the first thread of the <i>urgent
+     * queue</i> or, if empty, to the first thread of the <i>entry queue</i>;
+     * if no thread is waiting, the lock is set as free and deflated.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not hold
+     * this lock
+     */
+    public void unlock() {
+        Thread current = Thread.currentThread();
+
+        for(;;) {
+            Object w = word;
+
+            if(w == current) {
+                if(WORD.compareAndSet(this, current, null))
+                    return;
+
+                // Inflated by a contending thread in the meanwhile
+                continue;
+            }
+
+            if(!(w instanceof Monitor))
+                throw new IllegalMonitorStateException("You can't release a lock that you don't hold!");
+
+            Monitor m = (Monitor) w;
+            synchronized(m) {
+                if(m.owner != current)
+                    throw new IllegalMonitorStateException("You can't release a lock that you don't hold!");
+
+                release(m);
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * Gives the lock to the next waiting thread or sets it as free, deflating
+     * it if no thread is waiting on a condition either.
+     *
+     * <p>Must be called while holding the monitor of m, by the owner.</p>
+     */
+    private void release(Monitor m) {
+        Waiter next = m.urgentQueue.poll();
+        if(next == null)
+            next = m.entryQueue.poll();
+
+        if(next != null) {
+            m.grant(next);
+            return;
+        }
+
+        m.owner = null;
+
+        if(m.conditionQueues == null || m.conditionQueues.isEmpty()) {
+            // No other thread can change the word while it is a monitor and
+            // its monitor is held
+            m.deflated = true;
+            word = null;
+        }
+    }
+
+    /**
+     * @return the monitor of this lock, or null if it is not inflated
+     *
+     * @throws IllegalMonitorStateException if the given thread does not hold
+     * the lock
+     */
+    private Monitor ownedMonitor(Thread current, String message) {
+        Object w = word;
+
+        if(w == current)
+            return null;
+
+        if(w instanceof Monitor) {
+            Monitor m = (Monitor) w;
+            synchronized(m) {
+                if(m.owner == current)
+                    return m;
+            }
+        }
+
+        throw new IllegalMonitorStateException(message);
+    }
+
+    /**
+     * Inflates this lock, held by the given thread, if not inflated yet.
+     *
+     * @return the monitor of this lock
+     *
+     * @throws IllegalMonitorStateException if the given thread does not hold
+     * the lock
+     */
+    private Monitor inflateOwned(Thread current, String message) {
+        for(;;) {
+            Monitor m = ownedMonitor(current, message);
+            if(m != null)
+                return m;
+
+            m = new Monitor(current);
+            if(WORD.compareAndSet(this, current, m))
+                return m;
+
+            // Inflated by a contending thread in the meanwhile
+        }
+    }
+
+    /**
+     * Returns a new {@link CompactFairLock.Condition} instance that is bound to
+     * this lock.
+     *
+     * @return A new {@link CompactFairLock.Condition} instance for this lock
+     */
+    public Condition newCondition() {
+        return this.new Condition();
+    }
+}
@@ -1,7 +1,10 @@
 package fairlock;
 
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
+import java.util.function.BooleanSupplier;
 
 /**
  * <p>This class implements a synchronization mechanism similar to the one provided
@@ -14,7 +17,35 @@ import java.util.Queue;
  * <p>The implementation of this class guarantees that threads waiting to
  * acquire a FairLock (either via {@link FairLock#lock()}, after
  * being awakened by a {@link FairLock.Condition#signal()} or waiting in
- * the <i>urgent queue</i>) are awakened in a FIFO order.</p>
+ * the <i>urgent queue</i>) are awakened in a FIFO order. A different
+ * {@link OrderingPolicy} can be given when creating the lock or a single
+ * condition; it only affects threads that actually wait, so acquiring a free
+ * lock costs the same with any policy.</p>
+ * 
+ * <p>Besides condition variables, a thread holding the lock can wait for a
+ * predicate on the protected state to become true via
+ * {@link #awaitUntil(BooleanSupplier) awaitUntil}: the lock itself
+ * re-evaluates the predicates of the waiting threads when it is released, so
+ * no explicit signal is required.</p>
+ * 
+ * <p>Short read-only sections can avoid acquiring the lock altogether by
+ * reading the protected state optimistically, between a
+ * {@link #tryOptimisticRead() tryOptimisticRead} and a
+ * {@link #validate(long) validate}, and acquiring the lock only if the
+ * validation fails (the state read this way must be volatile, here
+ * {@code value}):</p>
+ * 
+ * <pre>
+ * long stamp = lock.tryOptimisticRead();
+ * int value = this.value;
+ * if(!lock.validate(stamp)) {
+ *     lock.lock();
+ *     try {
+ *         value = this.value;
+ *     } finally {
+ *         lock.unlock();
+ *     }
+ * }</pre>
  * 
  * @author Gabriele Ara
  * 
@@ -36,7 +67,7 @@ public class FairLock {
      * {@link java.lang.InterruptedException} that can be thrown while waiting
      * for the given event to occur.</p>
      */
-    protected static class PrivateEventSemaphore {
+    protected static class PrivateEventSemaphore implements OrderingPolicy.Waiter {
         private boolean hasSignal;
         private final Thread owner;
         
@@ -57,6 +88,11 @@ public class FairLock {
             return owner;
         }
         
+        @Override
+        public Thread getThread() {
+            return owner;
+        }
+        
         /**
          * Checks if the event monitored by this semaphore is already occurred.
          * If so, it resets the event occurrance and returns.
@@ -109,7 +145,13 @@ public class FairLock {
      * {@link #unlock() unlock} is executed.</li>
      * </ul>
      * 
-     * <p>Every queue is guaranteed to be purely FIFO.
+     * <p>A thread that has nothing left to do inside the monitor after the
+     * signal can use {@link #signalAndUnlock() signalAndUnlock} instead, which
+     * transfers the lock to the awakened thread and leaves the monitor without
+     * passing through the <i>urgent queue</i>.</p>
+     * 
+     * <p>Unless a different {@link OrderingPolicy} is given, every queue is
+     * guaranteed to be purely FIFO.
      */
     public class Condition {
         private final Queue<PrivateEventSemaphore> conditionQueue;
@@ -117,9 +159,11 @@ public class FairLock {
         /**
          * Creates a new Condition instance bound to an instance of a
          * {@link FairLock}.
+         * 
+         * @param policy the ordering policy of the <i>condition queue</i>
          */
-        Condition() {
-            conditionQueue = new LinkedList<>();
+        Condition(OrderingPolicy policy) {
+            conditionQueue = policy.newQueue();
         }
         
         /** 
@@ -132,7 +176,7 @@ public class FairLock {
         /**
          * Checks wether there are threads waiting in the <i>condition queue</i>
          * or not.
-         * 
+         *  
          * @return true if there are threads waiting, false otherwise
          */
         public boolean isEmpty() {
@@ -143,20 +187,20 @@ public class FairLock {
          * Adds the current thread in the <i>condition queue</i> of this
          * Condition object and then releases the lock on the bounded
          * {@link FairLock}.
-         * 
+         *  
          * <p>If the current thread doesn't hold the lock on the bounded
          * {@link FairLock} then {@link IllegalMonitorStateException} is thrown.
          * </p>
-         * 
+         *  
          * <p>When this method terminates its execution, it is ensured that the
          * given condition variable has been signaled by another thread and that
          * the current thread is now the owner of the bounded {@link FairLock}.
          * </p>
-         * 
+         *  
          * <p>Differently from the
          * {@link java.util.concurrent.locks.Condition Condition} implementation
          * provided by the Java API, spurious wakeups cannot happen.</p>
-         * 
+         *  
          * @throws IllegalMonitorStateException if the current thread does not
          * hold the bounded lock
          */
@@ -183,19 +227,19 @@ public class FairLock {
          * of this Condition object, the first one is awakened and this thread
          * suspends itself waiting for the lock to be released in the <i>urgent
          * queue</i> of the bounded {@link FairLock}.
-         * 
+         *  
          * <p>If the <i>condition queue</i> is empty, the call of this method is
          * equivalent to a no operation.</p>
-         * 
+         *  
          * <p>If the current thread doesn't hold the lock on the bounded
          * {@link FairLock} then {@link IllegalMonitorStateException} is thrown.
          * </p>
-         * 
+         *  
          * <p>If the <i>condition queue</i> is not empty, the lock will be given
          * to the awakened thread; if there is no thread to awake the lock will
          * be maintained by the current thread (i.e. this call will result in a
          * no operation).</p>
-         * 
+         *  
          * @throws IllegalMonitorStateException if the current thread does not
          * hold the bounded lock
          */
@@ -229,23 +273,117 @@ public class FairLock {
             semaphore.await();
         }
         
+        /**
+         * If there is at least one thread waiting in the <i>condition queue</i>
+         * of this Condition object, the first one is awakened and the lock on
+         * the bounded {@link FairLock} is transferred directly to it; the
+         * current thread leaves the monitor without being suspended in the
+         * <i>urgent queue</i> ("signal-and-exit").
+         * 
+         * <p>If the <i>condition queue</i> is empty, the call of this method is
+         * equivalent to an {@link FairLock#unlock() unlock}.</p>
+         * 
+         * <p>If the current thread doesn't hold the lock on the bounded
+         * {@link FairLock} then {@link IllegalMonitorStateException} is thrown.
+         * </p>
+         * 
+         * <p>When this method terminates its execution, the current thread no
+         * longer holds the bounded {@link FairLock}: this method should be the
+         * last operation performed inside the monitor, in place of the pair
+         * {@link #signal() signal} and {@link FairLock#unlock() unlock}. The
+         * awakened thread still receives the lock before any thread waiting in
+         * the <i>urgent queue</i> or in the <i>entry queue</i>, but the current
+         * thread is not suspended and awakened again just to release it.</p>
+         * 
+         * @throws IllegalMonitorStateException if the current thread does not
+         * hold the bounded lock
+         */
+        public void signalAndUnlock() throws IllegalMonitorStateException {
+            synchronized(FairLock.this) {
+                if(!isLocked() || !isOwner())
+                    throw new IllegalMonitorStateException("You can't execute a signal on a condition if you don't hold the bounded lock!");
+            }
+            
+            PrivateEventSemaphore awakeningSemaphore;
+            
+            synchronized(this) {
+                awakeningSemaphore = conditionQueue.poll();
+            }
+            
+            // Nobody to awake, just release the lock
+            if(awakeningSemaphore == null) {
+                FairLock.this.unlock();
+                return;
+            }
+            
+            synchronized(FairLock.this) {
+                // The awakening thread becomes the one which holds the lock
+                setOwner(awakeningSemaphore.getOwner());
+            }
+            
+            awakeningSemaphore.signal();
+        }
+        
+    }
+    
+    /**
+     * A thread suspended in {@link FairLock#awaitUntil(BooleanSupplier)
+     * awaitUntil}, with its arrival order among all the threads waiting on a
+     * predicate of the same lock.
+     */
+    private static final class PredicateWaiter {
+        final PrivateEventSemaphore semaphore;
+        final long sequence;
+        
+        PredicateWaiter(PrivateEventSemaphore semaphore, long sequence) {
+            this.semaphore = semaphore;
+            this.sequence = sequence;
+        }
     }
     
     protected final Queue<PrivateEventSemaphore> entryQueue;
     protected final Queue<PrivateEventSemaphore> urgentQueue;
+    private final OrderingPolicy policy;
+    
+    // Threads waiting on a predicate, one FIFO queue per predicate instance;
+    // allocated on the first wait on a predicate
+    private Map<BooleanSupplier, Queue<PredicateWaiter>> predicateQueues;
+    private long predicateSequence;
     
     LockState state;
     Thread owner;
     
+    // Bumped on every ownership change: odd while locked, even while unlocked
+    private volatile long version;
+    
     /**
-     * Creates a new instance of a FairLock.
+     * Creates a new instance of a FairLock, whose queues are FIFO.
      */
     public FairLock() {
-        entryQueue = new LinkedList<>();
-        urgentQueue = new LinkedList<>();
+        this(OrderingPolicy.fifo());
+    }
+    
+    /**
+     * Creates a new instance of a FairLock, whose <i>entry queue</i>,
+     * <i>urgent queue</i> and <i>condition queues</i> are ordered according
+     * to the given policy. Threads waiting via
+     * {@link #awaitUntil(BooleanSupplier) awaitUntil} are always served in
+     * FIFO order.
+     * 
+     * @param policy the ordering policy of the queues of this lock
+     */
+    public FairLock(OrderingPolicy policy) {
+        this.policy = policy;
+        entryQueue = policy.newQueue();
+        urgentQueue = policy.newQueue();
+        predicateQueues = null;
+        predicateSequence = 0;
         state = LockState.UNLOCKED;
         
         owner = null;
+        
+        // Zero is never a valid stamp
+        version = 2;
     }
     
     /**
@@ -282,6 +420,10 @@ public class FairLock {
      * @param owner the new owner for this lock.
      */
     protected synchronized void setOwner(Thread owner) {
+        // Acquiring or releasing flips the parity of the version, a direct
+        // handoff between two threads keeps it odd
+        version += this.owner == null || owner == null ? 1 : 2;
+        
         this.owner = owner;
     }
     
@@ -332,6 +474,31 @@ public class FairLock {
         semaphore.await();
     }
     
+    /**
+     * Acquires the lock only if it is free, without waiting.
+     * 
+     * <p>The lock is free only when no thread is waiting in the <i>entry
+     * queue</i> or in the <i>urgent queue</i>, so this method never overtakes
+     * a waiting thread.</p>
+     * 
+     * @return true if the lock has been acquired, false if it is held by
+     * another thread
+     * 
+     * @throws IllegalMonitorStateException if the current thread already holds
+     * this lock
+     */
+    public synchronized boolean tryLock() {
+        if(isOwner())
+            throw new IllegalMonitorStateException("You can't acquire more than once a FairLock! Consider moving to a ReentrantLock.");
+        
+        if(!isUnlocked())
+            return false;
+        
+        state = LockState.LOCKED;
+        setOwner(Thread.currentThread());
+        return true;
+    }
+    
     /**
      * Releases the lock:
      * 
@@ -340,12 +507,19 @@ public class FairLock {
      * the first one will be awakened and it will receive the lock ownership;
      * </li>
      * 
-     * <li> if there are no thread in the <i>urgent queue</i> and there is at
-     * least one thread waiting in the <i>entry queue</i>, the first one of this
-     * queue will be awakened and it will receive the lock ownership;</li>
+     * <li> if there are no thread in the <i>urgent queue</i> and the predicate
+     * of at least one thread waiting in
+     * {@link #awaitUntil(BooleanSupplier) awaitUntil} is true, the first one
+     * of these threads (in FIFO order) will be awakened and it will receive
+     * the lock ownership;</li>
+     * 
+     * <li> otherwise, if there is at least one thread waiting in the <i>entry
+     * queue</i>, the first one of this queue will be awakened and it will
+     * receive the lock ownership;</li>
      * 
      * <li> if there are no threads waiting either in the <i>urgent queue</i> or
-     * in the <i>entry queue</i>, the lock will be set as free.</li>
+     * in the <i>entry queue</i>, and no waiting predicate is true, the lock
+     * will be set as free.</li>
      * </ul>
      * 
      * <p>If the current thread doesn't hold the lock then
@@ -371,6 +545,16 @@ public class FairLock {
             return;
         }
         
+        PredicateWaiter satisfied = pollSatisfied();
+        
+        if(satisfied != null) {
+            // The awakening thread becomes the one which holds the lock
+            setOwner(satisfied.semaphore.getOwner());
+            satisfied.semaphore.signal();
+            
+            return;
+        }
+        
         if(!entryQueue.isEmpty()) {
             awakeningSemaphore = entryQueue.poll();
             
@@ -385,6 +569,148 @@ public class FairLock {
         state = LockState.UNLOCKED;
     }
     
+    /**
+     * Suspends the current thread until the given predicate becomes true,
+     * releasing the lock in the meanwhile.
+     * 
+     * <p>If the predicate is already true, this method returns immediately.
+     * Otherwise the current thread releases the lock, as in an
+     * {@link #unlock() unlock}, and it is suspended until a thread releasing
+     * the lock finds the predicate true; no signal is needed to wake it. When
+     * this method terminates its execution, the current thread holds the lock
+     * and the predicate is true, so there is no need to check it again in a
+     * loop.</p>
+     * 
+     * <p>Predicates are evaluated by the thread releasing the lock, while it
+     * still holds it: they must only read state protected by this lock, must
+     * not throw exceptions and should be cheap. Threads waiting on the same
+     * predicate instance are grouped together and the predicate is evaluated
+     * at most once per group on each release, so threads that wait for the
+     * same condition should pass the same instance (e.g. one stored in a
+     * final field) rather than a new lambda each time.</p>
+     * 
+     * <p>If the current thread doesn't hold the lock then
+     * {@link IllegalMonitorStateException} is thrown.
+     * </p>
+     * 
+     * @param predicate the condition to wait for
+     * 
+     * @throws IllegalMonitorStateException if the current thread does not hold
+     * this lock
+     */
+    public void awaitUntil(BooleanSupplier predicate) {
+        PrivateEventSemaphore semaphore;
+        
+        synchronized(this) {
+            if(!isLocked() || !isOwner())
+                throw new IllegalMonitorStateException("You can't wait for a predicate if you don't hold the lock!");
+            
+            if(predicate.getAsBoolean())
+                return;
+            
+            semaphore = new PrivateEventSemaphore();
+            
+            if(predicateQueues == null)
+                predicateQueues = new IdentityHashMap<>();
+            
+            Queue<PredicateWaiter> queue = predicateQueues.get(predicate);
+            if(queue == null) {
+                queue = new LinkedList<>();
+                predicateQueues.put(predicate, queue);
+            }
+            
+            queue.add(new PredicateWaiter(semaphore, predicateSequence++));
+            
+            unlock();
+        }
+        
+        semaphore.await();
+    }
+    
+    /**
+     * Removes the first thread, in FIFO order, among the ones waiting on a
+     * predicate that is now true.
+     * 
+     * <p>Must be called while holding the lock and the monitor of this
+     * object.</p>
+     * 
+     * @return the waiting thread, or null if no waiting predicate is true
+     */
+    private PredicateWaiter pollSatisfied() {
+        if(predicateQueues == null || predicateQueues.isEmpty())
+            return null;
+        
+        BooleanSupplier best = null;
+        long bestSequence = Long.MAX_VALUE;
+        
+        for(Map.Entry<BooleanSupplier, Queue<PredicateWaiter>> e : predicateQueues.entrySet()) {
+            long sequence = e.getValue().peek().sequence;
+            
+            // A group whose first thread came later cannot win, so its
+            // predicate is not even evaluated
+            if(sequence < bestSequence && e.getKey().getAsBoolean()) {
+                best = e.getKey();
+                bestSequence = sequence;
+            }
+        }
+        
+        if(best == null)
+            return null;
+        
+        Queue<PredicateWaiter> queue = predicateQueues.get(best);
+        PredicateWaiter waiter = queue.poll();
+        
+        if(queue.isEmpty())
+            predicateQueues.remove(best);
+        
+        return waiter;
+    }
+    
+    /**
+     * Returns a stamp that can be later validated via
+     * {@link #validate(long) validate}, or zero if the lock is currently held.
+     * 
+     * <p>This method neither suspends the current thread nor writes any shared
+     * memory. A thread that obtains a non-zero stamp can read the state
+     * protected by this lock without holding it, and then check with
+     * {@link #validate(long) validate} that no thread acquired the lock in the
+     * meanwhile; only in that case the values read are consistent. Values
+     * read this way must not be used before the validation succeeds, since
+     * they may be the result of a concurrent modification.</p>
+     * 
+     * <p>Only volatile fields (or immutable objects published through them)
+     * can be read this way: their accesses are totally ordered with the ones
+     * to the version checked by {@link #validate(long) validate}, while reads
+     * of plain fields could be reordered after the validation.</p>
+     * 
+     * @return a stamp to be validated, or zero if the lock is held
+     */
+    public long tryOptimisticRead() {
+        long stamp = version;
+        
+        return (stamp & 1) == 0 ? stamp : 0;
+    }
+    
+    /**
+     * Checks whether the lock has not been acquired by any thread since the
+     * given stamp has been obtained via
+     * {@link #tryOptimisticRead() tryOptimisticRead}, so that every value read
+     * in between is consistent.
+     * 
+     * <p>If this method returns false, the values read must be discarded and
+     * read again, usually after acquiring the lock with
+     * {@link #lock() lock}.</p>
+     * 
+     * @param stamp a stamp returned by
+     * {@link #tryOptimisticRead() tryOptimisticRead}
+     * 
+     * @return true if the lock has not been acquired since the stamp was
+     *         obtained, false otherwise or if the stamp is zero
+     */
+    public boolean validate(long stamp) {
+        return stamp != 0 && version == stamp;
+    }
+    
     /**
      * Returns a new {@link FairLock.Condition} instance that is bound to this
      * FairLock instance.
@@ -393,7 +719,21 @@ public class FairLock {
      *         instance
      */
     public Condition newCondition() {
-        return this.new Condition();
+        return this.new Condition(policy);
+    }
+    
+    /**
+     * Returns a new {@link FairLock.Condition} instance that is bound to this
+     * FairLock instance, whose <i>condition queue</i> is ordered according to
+     * the given policy instead of the one of this lock.
+     * 
+     * @param policy the ordering policy of the <i>condition queue</i>
+     * 
+     * @return A new {@link FairLock.Condition} instance for this FairLock
+     *         instance
+     */
+    public Condition newCondition(OrderingPolicy policy) {
+        return this.new Condition(policy);
     }
     
 }
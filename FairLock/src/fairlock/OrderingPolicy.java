@@ -0,0 +1,297 @@
+package fairlock;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Policy that decides the order in which the threads waiting in a queue of a
+ * {@link FairLock} (the <i>entry queue</i>, the <i>urgent queue</i> and the
+ * <i>condition queues</i>) receive the lock.
+ *
+ * <p>A policy is a factory of queues: the lock adds a thread to a queue when
+ * it must wait and removes the next one when the lock is handed off, so the
+ * policy only affects threads that actually wait, and acquiring a free lock
+ * costs the same with any policy. The available policies are:</p>
+ *
+ * <ul>
+ * <li>{@link #fifo()}, the default one: threads receive the lock in the order
+ * they started waiting;</li>
+ *
+ * <li>{@link #lifo()}: the thread that started waiting last receives the lock
+ * first, since it is the most likely to still have its data in the cache;
+ * threads may starve;</li>
+ *
+ * <li>{@link #keyed(ToLongFunction)}: threads with the smallest key first,
+ * FIFO among threads with the same key;</li>
+ *
+ * <li>{@link #boundedLifo(int)}: LIFO, but the thread that has been waiting
+ * for the longest time is served as soon as it has been bypassed a given
+ * number of times, so that no thread can starve.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ *
+ * @see FairLock#FairLock(OrderingPolicy)
+ */
+public abstract class OrderingPolicy {
+
+    /**
+     * A thread waiting in a queue created by a policy.
+     */
+    public interface Waiter {
+        /**
+         * @return the waiting thread
+         */
+        Thread getThread();
+    }
+
+    private static final OrderingPolicy FIFO = new OrderingPolicy() {
+        @Override
+        public <W extends Waiter> Queue<W> newQueue() {
+            return new LinkedList<>();
+        }
+
+        @Override
+        public String toString() {
+            return "fifo";
+        }
+    };
+
+    private static final OrderingPolicy LIFO = new OrderingPolicy() {
+        @Override
+        public <W extends Waiter> Queue<W> newQueue() {
+            return Collections.asLifoQueue(new ArrayDeque<>());
+        }
+
+        @Override
+        public String toString() {
+            return "lifo";
+        }
+    };
+
+    /**
+     * Creates a new, empty, queue ordered according to this policy. Queues
+     * are only accessed while holding the monitor of the lock or of the
+     * condition they belong to, so they do not need to be thread safe.
+     *
+     * @param <W> the type of the waiting threads
+     *
+     * @return a new queue
+     */
+    public abstract <W extends Waiter> Queue<W> newQueue();
+
+    /**
+     * @return the policy in which threads receive the lock in the order they
+     *         started waiting
+     */
+    public static OrderingPolicy fifo() {
+        return FIFO;
+    }
+
+    /**
+     * @return the policy in which the last thread that started waiting
+     *         receives the lock first
+     */
+    public static OrderingPolicy lifo() {
+        return LIFO;
+    }
+
+    /**
+     * Returns the policy in which threads with the smallest key receive the
+     * lock first, and threads with the same key receive it in FIFO order.
+     *
+     * <p>The key of a thread is computed once, when it starts waiting; the
+     * function is executed by the waiting thread itself, so it can also read
+     * thread-local state.</p>
+     *
+     * @param key the function computing the key of a waiting thread
+     *
+     * @return the keyed policy
+     */
+    public static OrderingPolicy keyed(ToLongFunction<Thread> key) {
+        return new OrderingPolicy() {
+            @Override
+            public <W extends Waiter> Queue<W> newQueue() {
+                return new KeyedQueue<>(key);
+            }
+
+            @Override
+            public String toString() {
+                return "keyed";
+            }
+        };
+    }
+
+    /**
+     * Returns the policy in which the last thread that started waiting
+     * receives the lock first, unless the thread waiting for the longest time
+     * has already been bypassed the given number of times: in that case the
+     * latter receives the lock.
+     *
+     * @param maxBypasses how many times the oldest waiting thread can be
+     * bypassed
+     *
+     * @return the bounded LIFO policy
+     *
+     * @throws IllegalArgumentException if the number of bypasses is negative
+     */
+    public static OrderingPolicy boundedLifo(int maxBypasses) {
+        if(maxBypasses < 0)
+            throw new IllegalArgumentException("The number of bypasses cannot be negative!");
+
+        return new OrderingPolicy() {
+            @Override
+            public <W extends Waiter> Queue<W> newQueue() {
+                return new BoundedLifoQueue<>(maxBypasses);
+            }
+
+            @Override
+            public String toString() {
+                return "bounded-lifo:" + maxBypasses;
+            }
+        };
+    }
+
+    /**
+     * Priority queue of waiting threads by key, FIFO on ties.
+     */
+    private static final class KeyedQueue<W extends Waiter> extends AbstractQueue<W> {
+
+        private static final class Entry<W> implements Comparable<Entry<W>> {
+            final W waiter;
+            final long key;
+            final long sequence;
+
+            Entry(W waiter, long key, long sequence) {
+                this.waiter = waiter;
+                this.key = key;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public int compareTo(Entry<W> o) {
+                int c = Long.compare(key, o.key);
+                return c != 0 ? c : Long.compare(sequence, o.sequence);
+            }
+        }
+
+        private final ToLongFunction<Thread> key;
+        private final PriorityQueue<Entry<W>> entries;
+        private long sequence;
+
+        KeyedQueue(ToLongFunction<Thread> key) {
+            this.key = key;
+            this.entries = new PriorityQueue<>();
+            this.sequence = 0;
+        }
+
+        @Override
+        public boolean offer(W w) {
+            return entries.offer(new Entry<>(w, key.applyAsLong(w.getThread()), sequence++));
+        }
+
+        @Override
+        public W poll() {
+            Entry<W> e = entries.poll();
+            return e == null ? null : e.waiter;
+        }
+
+        @Override
+        public W peek() {
+            Entry<W> e = entries.peek();
+            return e == null ? null : e.waiter;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Iterator<W> iterator() {
+            Iterator<Entry<W>> it = entries.iterator();
+
+            return new Iterator<W>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public W next() {
+                    return it.next().waiter;
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+    }
+
+    /**
+     * LIFO queue that serves its oldest element after it has been bypassed a
+     * given number of times.
+     */
+    private static final class BoundedLifoQueue<W extends Waiter> extends AbstractQueue<W> {
+        private final ArrayDeque<W> deque;
+        private final int maxBypasses;
+
+        // Times the current oldest waiting thread has been bypassed
+        private int bypasses;
+
+        BoundedLifoQueue(int maxBypasses) {
+            this.deque = new ArrayDeque<>();
+            this.maxBypasses = maxBypasses;
+            this.bypasses = 0;
+        }
+
+        private boolean oldestFirst() {
+            return bypasses >= maxBypasses || deque.size() == 1;
+        }
+
+        @Override
+        public boolean offer(W w) {
+            return deque.offerLast(w);
+        }
+
+        @Override
+        public W poll() {
+            if(deque.isEmpty())
+                return null;
+
+            if(oldestFirst()) {
+                bypasses = 0;
+                return deque.pollFirst();
+            }
+
+            ++bypasses;
+            return deque.pollLast();
+        }
+
+        @Override
+        public W peek() {
+            if(deque.isEmpty())
+                return null;
+
+            return oldestFirst() ? deque.peekFirst() : deque.peekLast();
+        }
+
+        @Override
+        public int size() {
+            return deque.size();
+        }
+
+        @Override
+        public Iterator<W> iterator() {
+            return deque.iterator();
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package fairlock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A lock shared by several processes running on the same host, whose state
+ * is stored in a memory-mapped file. Like {@link FairLock}, threads acquire
+ * the lock in a strictly FIFO order, no matter which process they belong
+ * to.</p>
+ *
+ * <p>The lock is a ticket lock: each thread that wants to acquire it takes a
+ * ticket by atomically incrementing a counter in the file and then waits for
+ * the "now serving" counter to reach its ticket; releasing the lock
+ * increments the "now serving" counter. Both operations are executed
+ * directly on the mapping, so acquiring and releasing an uncontended lock
+ * never involves a system call. Waiting threads spin for a while and then
+ * poll the counter with short sleeps, since no process can wake up a thread
+ * of another process.</p>
+ *
+ * <p>Each process using the lock reserves a slot in the file, by holding an
+ * exclusive {@link FileLock} on a byte associated with it. The operating
+ * system releases that lock when the process terminates, for any reason.
+ * Each thread records its ticket together with the slot of its process
+ * before holding the lock, so that if the holder of the lock (or a thread
+ * that is going to be served next) belongs to a dead process, the other
+ * waiting threads can detect it and skip its ticket. A ticket that is never
+ * recorded, because its thread died right after taking it, is skipped once
+ * it has been issued for a while. Skipping a ticket marks its entry in the
+ * table, so that a thread that was just going to record it takes another
+ * ticket instead of entering together with the next one. Recovering from a
+ * dead owner does not restore the consistency of the data protected by the
+ * lock: use {@link #getRecoveredCount()} to detect that it happened.</p>
+ *
+ * <p>Differently from {@link FairLock}, this class does not provide
+ * condition variables.</p>
+ *
+ * <p>File layout (longs in native byte order):</p>
+ *
+ * <pre>
+ * 0     magic
+ * 8     next ticket
+ * 16    now serving
+ * 24    unused
+ * 32    number of recovered tickets
+ * 64    ticket table: (ticket + 1) &lt;&lt; 24 | generation &lt;&lt; 8 | process slot,
+ *       or -(ticket + 1) if the ticket has been skipped
+ * ...   generation of each process slot
+ * </pre>
+ *
+ * @author Gabriele Ara
+ */
+public class SharedFileFairLock implements Closeable {
+
+    /**
+     * The maximum number of threads that can hold a ticket at the same time;
+     * any further thread waits before recording its ticket.
+     */
+    public static final int MAX_WAITERS = 4096;
+
+    /**
+     * The maximum number of processes that can use the same file at the same
+     * time.
+     */
+    public static final int MAX_PROCESSES = 256;
+
+    private static final long MAGIC = 0x464c534846494c45L; // "FLSHFILE"
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int NEXT_TICKET_OFFSET = 8;
+    private static final int NOW_SERVING_OFFSET = 16;
+    private static final int RECOVERED_OFFSET = 32;
+    private static final int TICKETS_OFFSET = 64;
+    private static final int PROCESSES_OFFSET = TICKETS_OFFSET + MAX_WAITERS * 8;
+
+    /**
+     * The size of the mapped region of the file.
+     */
+    static final int SIZE = PROCESSES_OFFSET + MAX_PROCESSES * 8;
+
+    // The bytes locked to reserve process slots lie after the mapped region
+    private static final long SLOT_LOCKS_OFFSET = SIZE;
+
+    // A ticket not recorded in the table is skipped once it has been issued
+    // for this time, since its thread may have died before recording it
+    private static final long ORPHAN_TIMEOUT_NANOS = 1_000_000_000L;
+
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = 50_000;
+    private static final long RECOVERY_INTERVAL_NANOS = 10_000_000;
+
+    /**
+     * The mapping of a file, shared by all the locks of this process that use
+     * the same file.
+     */
+    private static final class SharedFile {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final long base;
+        final FileLock slotLock;
+        final int slot;
+        final long generation;
+        int references;
+
+        SharedFile(Path path) throws IOException {
+            this.path = path;
+
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+                base = UnsafeAccess.address(buffer);
+
+                // A new file is all zeros, which is a valid initial state
+                UnsafeAccess.compareAndSwapLong(base + MAGIC_OFFSET, 0, MAGIC);
+                if(UnsafeAccess.getLongVolatile(base + MAGIC_OFFSET) != MAGIC)
+                    throw new IOException(path + " is not a SharedFileFairLock file");
+
+                FileLock lock = null;
+                int s;
+                for(s = 0; s < MAX_PROCESSES && lock == null; ++s) {
+                    try {
+                        lock = channel.tryLock(SLOT_LOCKS_OFFSET + s, 1, false);
+                    } catch (OverlappingFileLockException ex) {
+                        // Held by this process, try the next one
+                    }
+                }
+
+                if(lock == null)
+                    throw new IOException("Too many processes are using " + path);
+
+                slotLock = lock;
+                slot = s - 1;
+                generation = UnsafeAccess.getAndAddLong(processAddress(slot), 1) + 1;
+                references = 0;
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        long processAddress(int s) {
+            return base + PROCESSES_OFFSET + s * 8L;
+        }
+
+        /**
+         * @return true if the process that recorded an entry with the given
+         *         slot and generation is still running
+         */
+        boolean isAlive(int s, long gen) {
+            if(s == slot)
+                return (generation & 0xffff) == gen;
+
+            // The slot has been reused by another process
+            if((UnsafeAccess.getLongVolatile(processAddress(s)) & 0xffff) != gen)
+                return false;
+
+            try {
+                FileLock probe = channel.tryLock(SLOT_LOCKS_OFFSET + s, 1, false);
+                if(probe == null)
+                    return true;
+
+                probe.release();
+                return false;
+            } catch (OverlappingFileLockException ex) {
+                // Another thread of this process is probing it right now
+                return true;
+            } catch (IOException ex) {
+                return true;
+            }
+        }
+    }
+
+    private static final Map<Path, SharedFile> FILES = new HashMap<>();
+
+    private final SharedFile file;
+    private final long base;
+
+    private volatile Thread owner;
+    private long ownerTicket;
+    private boolean closed;
+
+    /**
+     * Opens the lock stored in the given file, creating the file if it does
+     * not exist. All the processes that open the same file share the same
+     * lock.
+     *
+     * @param path the file holding the state of the lock
+     *
+     * @throws IOException if the file cannot be opened or mapped, or if too
+     * many processes are already using it
+     */
+    public SharedFileFairLock(File path) throws IOException {
+        Path key = path.getCanonicalFile().toPath();
+
+        synchronized(FILES) {
+            SharedFile f = FILES.get(key);
+
+            if(f == null) {
+                f = new SharedFile(key);
+                FILES.put(key, f);
+            }
+
+            ++f.references;
+            file = f;
+        }
+
+        base = file.base;
+        owner = null;
+        closed = false;
+    }
+
+    private long ticketAddress(long ticket) {
+        return base + TICKETS_OFFSET + (ticket % MAX_WAITERS) * 8;
+    }
+
+    private long entry(long ticket) {
+        return ((ticket + 1) << 24) | ((file.generation & 0xffff) << 8) | file.slot;
+    }
+
+    private static long entryTicket(long entry) {
+        return (entry >>> 24) - 1;
+    }
+
+    private static long skipped(long ticket) {
+        return -(ticket + 1);
+    }
+
+    private long nowServing() {
+        return UnsafeAccess.getLongVolatile(base + NOW_SERVING_OFFSET);
+    }
+
+    /**
+     * @return true if the lock is held by any thread of any process
+     */
+    public boolean isLocked() {
+        return UnsafeAccess.getLongVolatile(base + NEXT_TICKET_OFFSET) != nowServing();
+    }
+
+    /**
+     * @return true if the lock is held by the current thread
+     */
+    public boolean isOwner() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * @return the number of tickets skipped since the creation of the file,
+     *         because their thread did not release the lock or did not take
+     *         its turn before dying
+     */
+    public long getRecoveredCount() {
+        return UnsafeAccess.getLongVolatile(base + RECOVERED_OFFSET);
+    }
+
+    /**
+     * Acquires the lock, waiting for every thread that requested it before
+     * the current one, in any process, to release it.
+     *
+     * @throws IllegalMonitorStateException if the current thread already holds
+     * this lock
+     */
+    public void lock() {
+        if(isOwner())
+            throw new IllegalMonitorStateException("You can't acquire more than once a FairLock!");
+
+        for(;;) {
+            long ticket = UnsafeAccess.getAndAddLong(base + NEXT_TICKET_OFFSET, 1);
+            long issued = System.nanoTime();
+
+            if(await(ticket, issued)) {
+                owner = Thread.currentThread();
+                ownerTicket = ticket;
+                return;
+            }
+
+            // The ticket has been skipped before it could be recorded, take
+            // another one
+        }
+    }
+
+    /**
+     * Waits for the given ticket to be served.
+     *
+     * @param issued when the ticket has been taken, as given by
+     * {@link System#nanoTime()}
+     *
+     * @return true if the ticket is now being served, false if it has been
+     *         skipped
+     */
+    private boolean await(long ticket, long issued) {
+        boolean recorded = false;
+
+        int spins = 0;
+        long lastCheck = System.nanoTime();
+
+        for(;;) {
+            long serving = nowServing();
+
+            if(serving > ticket) {
+                forget(ticket);
+                return false;
+            }
+
+            // The entry of a ticket can be recorded only when the ticket that
+            // used the same entry before has been served. The ticket being
+            // served is recorded too before holding the lock, or the other
+            // threads would take it for an orphan
+            if(!recorded && ticket - serving < MAX_WAITERS) {
+                if(!record(ticket)) {
+                    forget(ticket);
+                    return false;
+                }
+
+                recorded = true;
+                continue;
+            }
+
+            if(serving == ticket)
+                return true;
+
+            if(spins < SPINS) {
+                ++spins;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+
+            long now = System.nanoTime();
+            if(now - lastCheck > RECOVERY_INTERVAL_NANOS) {
+                lastCheck = now;
+                recover(serving, issued);
+            }
+        }
+    }
+
+    /**
+     * Records the given ticket in the table, unless it has been skipped.
+     *
+     * @return true if the ticket has been recorded, false if it has been
+     *         skipped
+     */
+    private boolean record(long ticket) {
+        long address = ticketAddress(ticket);
+
+        for(;;) {
+            long current = UnsafeAccess.getLongVolatile(address);
+
+            if(current == skipped(ticket))
+                return false;
+
+            // Any other value belongs to a ticket that has already been served
+            if(UnsafeAccess.compareAndSwapLong(address, current, entry(ticket)))
+                return true;
+        }
+    }
+
+    /**
+     * Clears the entry of a ticket that has been skipped.
+     */
+    private void forget(long ticket) {
+        long address = ticketAddress(ticket);
+
+        if(!UnsafeAccess.compareAndSwapLong(address, entry(ticket), 0))
+            UnsafeAccess.compareAndSwapLong(address, skipped(ticket), 0);
+    }
+
+    /**
+     * Skips the ticket currently being served if its thread belongs to a dead
+     * process, or if it has not been recorded for too long.
+     *
+     * @param issued when the ticket of the current thread has been taken;
+     * the ticket being served has been taken before
+     */
+    private void recover(long serving, long issued) {
+        long address = ticketAddress(serving);
+        long entry = UnsafeAccess.getLongVolatile(address);
+
+        if(entry > 0 && entryTicket(entry) == serving) {
+            int s = (int) (entry & 0xff);
+            long gen = (entry >>> 8) & 0xffff;
+
+            if(file.isAlive(s, gen))
+                return;
+        } else if(System.nanoTime() - issued < ORPHAN_TIMEOUT_NANOS) {
+            return;
+        }
+
+        // The entry is marked before skipping the ticket: if its thread
+        // records it first, the ticket is examined again at the next check
+        if(UnsafeAccess.compareAndSwapLong(address, entry, skipped(serving))
+                && UnsafeAccess.compareAndSwapLong(base + NOW_SERVING_OFFSET, serving, serving + 1))
+            UnsafeAccess.getAndAddLong(base + RECOVERED_OFFSET, 1);
+    }
+
+    /**
+     * Releases the lock, giving it to the thread that requested it first
+     * after the current one, in any process.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not hold
+     * this lock
+     */
+    public void unlock() {
+        if(!isOwner())
+            throw new IllegalMonitorStateException("You can't release a lock that you don't hold!");
+
+        long ticket = ownerTicket;
+        owner = null;
+
+        // The entry is cleared only after the ticket has been served, so that
+        // no waiting thread can take it for an orphan in between
+        UnsafeAccess.putLongVolatile(base + NOW_SERVING_OFFSET, ticket + 1);
+        UnsafeAccess.compareAndSwapLong(ticketAddress(ticket), entry(ticket), 0);
+    }
+
+    /**
+     * Releases the resources used by this instance; when every instance using
+     * the same file in this process has been closed, the process slot and the
+     * file channel are released. Java 8 offers no way to unmap a file, so the
+     * mapping itself is released only when its buffer is garbage-collected.
+     * The lock must not be held by any thread of this process when this
+     * method is called.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(FILES) {
+            if(closed)
+                return;
+
+            closed = true;
+
+            if(--file.references > 0)
+                return;
+
+            FILES.remove(file.path);
+        }
+
+        file.slotLock.release();
+        file.channel.close();
+    }
+}
@@ -0,0 +1,123 @@
+package fairlock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Access to the atomic operations of {@code sun.misc.Unsafe}, needed by
+ * {@link SharedFileFairLock} to operate on a memory-mapped file, which the
+ * Java 8 API does not provide.
+ *
+ * <p>The class is looked up reflectively and its methods are called through
+ * constant {@link MethodHandle method handles}, which the JIT compiler
+ * inlines like direct calls: this way the project still compiles against the
+ * public Java 8 API (e.g. with {@code javac --release 8}) and no other class
+ * depends on {@code Unsafe}. Every address is absolute.</p>
+ *
+ * @author Gabriele Ara
+ */
+final class UnsafeAccess {
+
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_LONG_VOLATILE;
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+    private static final MethodHandle GET_AND_ADD_LONG;
+    private static final MethodHandle GET_LONG;
+
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field f = type.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            GET_LONG_VOLATILE = lookup.unreflect(type.getMethod("getLongVolatile",
+                    Object.class, long.class)).bindTo(unsafe);
+            PUT_LONG_VOLATILE = lookup.unreflect(type.getMethod("putLongVolatile",
+                    Object.class, long.class, long.class)).bindTo(unsafe);
+            COMPARE_AND_SWAP_LONG = lookup.unreflect(type.getMethod("compareAndSwapLong",
+                    Object.class, long.class, long.class, long.class)).bindTo(unsafe);
+            GET_AND_ADD_LONG = lookup.unreflect(type.getMethod("getAndAddLong",
+                    Object.class, long.class, long.class)).bindTo(unsafe);
+            GET_LONG = lookup.unreflect(type.getMethod("getLong",
+                    Object.class, long.class)).bindTo(unsafe);
+
+            MethodHandle fieldOffset = lookup.unreflect(type.getMethod("objectFieldOffset",
+                    Field.class)).bindTo(unsafe);
+            ADDRESS_OFFSET = (long) fieldOffset.invokeExact(
+                    Buffer.class.getDeclaredField("address"));
+        } catch (Throwable ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private UnsafeAccess() {
+    }
+
+    private static Error rethrow(Throwable ex) {
+        if(ex instanceof RuntimeException)
+            throw (RuntimeException) ex;
+        if(ex instanceof Error)
+            throw (Error) ex;
+
+        // None of the methods called throws checked exceptions
+        throw new AssertionError(ex);
+    }
+
+    /**
+     * @param buffer a direct buffer
+     *
+     * @return the address of the first byte of the given buffer
+     *
+     * @throws IllegalArgumentException if the buffer is not direct
+     */
+    static long address(ByteBuffer buffer) {
+        if(!buffer.isDirect())
+            throw new IllegalArgumentException("The buffer must be direct!");
+
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static void putLongVolatile(long address, long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static boolean compareAndSwapLong(long address, long expected, long value) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static long getAndAddLong(long address, long delta) {
+        try {
+            return (long) GET_AND_ADD_LONG.invokeExact((Object) null, address, delta);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+}
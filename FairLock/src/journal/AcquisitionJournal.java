@@ -0,0 +1,264 @@
+package journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Journal of the operations executed on a
+ * {@link manager.SingleResourceManager}, stored in a memory-mapped file.
+ *
+ * <p>The journal is a ring of fixed-size binary records: once full, the
+ * oldest records are overwritten by the newest ones. Each record holds the
+ * time of the event (relative to the creation of the journal), the id of the
+ * thread that caused it, its priority class and the kind of event.</p>
+ *
+ * <p>Recording an event never acquires a lock: the writer reserves a slot by
+ * incrementing an atomic counter and writes the record directly into the
+ * mapping. The sequence number of the record is written into the slot as
+ * well, so that records can be ordered when the journal is read back via
+ * {@link #read(File)}.</p>
+ *
+ * <p>Records are written with plain stores, which other threads and
+ * processes may observe in any order: the journal must be read only when no
+ * thread is recording into it any more, e.g. after {@link #close()}. A record
+ * read while it is being written, or overwritten once the ring has wrapped
+ * around, may be torn. For the same reason, the capacity should be much
+ * larger than the number of recording threads, so that a slot is never
+ * overwritten while a preempted thread is still writing it.</p>
+ *
+ * <p>File layout:</p>
+ *
+ * <pre>
+ * header (32 bytes): magic, version, record size, capacity (int each),
+ *                    creation time in milliseconds since the epoch (long),
+ *                    padding
+ * records (32 bytes each): sequence number + 1 (0 if empty), timestamp in
+ *                    nanoseconds, thread id (long each), event, priority
+ *                    class (int each)
+ * </pre>
+ *
+ * @author Gabriele Ara
+ *
+ * @see RecordingResourceManager
+ */
+public class AcquisitionJournal implements Closeable {
+
+    /**
+     * This enum specifies the kind of an event recorded in the journal.
+     */
+    public enum Event {
+        REQUEST,
+        GRANT,
+        RELEASE,
+    }
+
+    /**
+     * A record read back from a journal.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final long timestamp;
+        private final long threadId;
+        private final Event event;
+        private final PriorityClass priority;
+
+        Record(long sequence, long timestamp, long threadId, Event event,
+                PriorityClass priority) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.threadId = threadId;
+            this.event = event;
+            this.priority = priority;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the time of the event in nanoseconds, relative to the
+         *         creation of the journal
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        public PriorityClass getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + timestamp + " " + threadId + " "
+                    + event + " " + priority;
+        }
+    }
+
+    private static final int MAGIC = 0x464c4a31; // "FLJ1"
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+
+    /**
+     * The maximum number of records of a journal, limited by the size of a
+     * single mapping.
+     */
+    public static final int MAX_CAPACITY =
+            (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final Event[] EVENTS = Event.values();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long origin;
+    private final AtomicLong nextSequence;
+
+    /**
+     * Creates a new journal in the given file, overwriting it if it already
+     * exists.
+     *
+     * @param file the file that will hold the journal
+     * @param capacity the maximum number of records kept in the journal
+     *
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public AcquisitionJournal(File file, int capacity) throws IOException {
+        if(capacity <= 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("The capacity must be positive and at most " + MAX_CAPACITY + "!");
+
+        this.capacity = capacity;
+
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.order(ByteOrder.nativeOrder());
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putInt(12, capacity);
+        buffer.putLong(16, System.currentTimeMillis());
+
+        origin = System.nanoTime();
+        nextSequence = new AtomicLong();
+    }
+
+    /**
+     * @return the maximum number of records kept in the journal
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records an event caused by the current thread.
+     *
+     * @param event the kind of the event
+     * @param prio the priority class of the current thread
+     */
+    public void record(Event event, PriorityClass prio) {
+        long timestamp = System.nanoTime() - origin;
+        long sequence = nextSequence.getAndIncrement();
+
+        int offset = HEADER_SIZE
+                + (int) (sequence % capacity) * RECORD_SIZE;
+
+        // Absolute puts don't modify the state of the buffer, so different
+        // threads can write different slots at the same time. The slot is
+        // marked as empty while it is written and the sequence number is
+        // written last; the stores are not ordered, so this is only a best
+        // effort to skip a record left half written by a crash.
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, timestamp);
+        buffer.putLong(offset + 16, Thread.currentThread().getId());
+        buffer.putInt(offset + 24, event.ordinal());
+        buffer.putInt(offset + 28, prio.ordinal());
+        buffer.putLong(offset, sequence + 1);
+    }
+
+    /**
+     * Flushes the journal to the file and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Reads all the complete records of a journal, which must not be written
+     * meanwhile.
+     *
+     * @param file the file holding the journal
+     *
+     * @return the records of the journal, ordered by sequence number
+     *
+     * @throws IOException if the file cannot be read or it is not a journal
+     */
+    public static List<Record> read(File file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                    ch.size());
+            b.order(ByteOrder.nativeOrder());
+
+            if(ch.size() < HEADER_SIZE || b.getInt(0) != MAGIC
+                    || b.getInt(4) != VERSION || b.getInt(8) != RECORD_SIZE)
+                throw new IOException(file + " is not a journal");
+
+            int cap = b.getInt(12);
+            List<Record> records = new ArrayList<>(cap);
+
+            for(int i = 0; i < cap; ++i) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                long sequence = b.getLong(offset) - 1;
+
+                if(sequence < 0)
+                    continue;
+
+                int event = b.getInt(offset + 24);
+                int prio = b.getInt(offset + 28);
+
+                if(event < 0 || event >= EVENTS.length
+                        || prio < 0 || prio >= PRIORITIES.length)
+                    continue;
+
+                records.add(new Record(sequence,
+                        b.getLong(offset + 8),
+                        b.getLong(offset + 16),
+                        EVENTS[event],
+                        PRIORITIES[prio]));
+            }
+
+            records.sort((Record x, Record y) ->
+                    Long.compare(x.sequence, y.sequence));
+
+            return records;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import journal.AcquisitionJournal.Record;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagers;
+import stats.Histogram;
+
+/**
+ * Tool that replays the workload recorded in an {@link AcquisitionJournal}
+ * against one or more {@link SingleResourceManager} implementations and
+ * compares the waiting times they produce.
+ *
+ * <p>The journal is split into the sequences of operations executed by each
+ * recorded thread; each operation is described by the time its request was
+ * issued, its priority class and for how long the resource was held. During
+ * the replay, one thread is started for each recorded thread: it issues each
+ * request at the same time, relative to the beginning of the replay, at which
+ * it was issued in the journal (or immediately, if the previous operation of
+ * the same thread ended later than that) and holds the resource for the same
+ * amount of time.</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java journal.JournalReplay journal-file [manager...]
+ * </pre>
+ *
+ * <p>where each manager is one of the names accepted by
+ * {@link SingleResourceManagers#create(String)}; by default every available
+ * implementation is replayed. For the recorded workload and for each manager,
+ * the distribution of the waiting times of each priority class is printed on
+ * the standard output as CSV, in microseconds. Operations rejected by a
+ * manager (e.g. because it supports a limited number of waiting clients) are
+ * counted as errors.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class JournalReplay {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+
+    /**
+     * A request/release pair reconstructed from the journal.
+     */
+    protected static final class Operation {
+        final long arrival;
+        final PriorityClass priority;
+        final long wait;
+        final long hold;
+
+        Operation(long arrival, PriorityClass priority, long wait, long hold) {
+            this.arrival = arrival;
+            this.priority = priority;
+            this.wait = wait;
+            this.hold = hold;
+        }
+    }
+
+    /**
+     * Waiting times measured during a replay (or recorded in the journal).
+     */
+    protected static final class Result {
+        final Histogram[] waits;
+        long errors;
+
+        Result() {
+            waits = new Histogram[PRIORITIES.length];
+            for(int i = 0; i < waits.length; ++i)
+                waits[i] = new Histogram();
+
+            errors = 0;
+        }
+
+        void add(Result other) {
+            for(int i = 0; i < waits.length; ++i)
+                waits[i].add(other.waits[i]);
+
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * Thread that replays the operations of a recorded thread.
+     */
+    protected static class ReplayThread extends Thread {
+        private final SingleResourceManager manager;
+        private final List<Operation> operations;
+        private final long start;
+        private final Result result;
+
+        public ReplayThread(SingleResourceManager manager,
+                List<Operation> operations,
+                long start) {
+            this.manager = manager;
+            this.operations = operations;
+            this.start = start;
+            this.result = new Result();
+        }
+
+        /**
+         * Waits until the given time; parkNanos may return early, so it is
+         * called until the deadline has passed.
+         */
+        private static void sleepUntil(long deadline) {
+            for(long delay = deadline - System.nanoTime();
+                    delay > 0;
+                    delay = deadline - System.nanoTime())
+                LockSupport.parkNanos(delay);
+        }
+
+        @Override
+        public void run() {
+            for(Operation op : operations) {
+                sleepUntil(start + op.arrival);
+
+                long issued = System.nanoTime();
+
+                try {
+                    manager.request(op.priority);
+                } catch (RuntimeException ex) {
+                    ++result.errors;
+                    continue;
+                }
+
+                result.waits[op.priority.ordinal()].record(
+                        System.nanoTime() - issued);
+
+                sleepUntil(System.nanoTime() + op.hold);
+
+                manager.release();
+            }
+        }
+    }
+
+    /**
+     * Splits the records of a journal into the operations executed by each
+     * thread. Operations whose events are not all in the journal (e.g.
+     * because they have been overwritten) are discarded.
+     *
+     * @param records the records of a journal, ordered by sequence number
+     *
+     * @return the operations of each thread, with arrival times relative to
+     *         the first recorded request
+     */
+    protected static Map<Long, List<Operation>> split(List<Record> records) {
+        Map<Long, List<Operation>> threads = new LinkedHashMap<>();
+        Map<Long, Record> requests = new LinkedHashMap<>();
+        Map<Long, Record> grants = new LinkedHashMap<>();
+
+        long origin = Long.MAX_VALUE;
+        for(Record r : records)
+            if(r.getEvent() == AcquisitionJournal.Event.REQUEST)
+                origin = Math.min(origin, r.getTimestamp());
+
+        for(Record r : records) {
+            Long thread = r.getThreadId();
+
+            switch(r.getEvent()) {
+                case REQUEST:
+                    requests.put(thread, r);
+                    grants.remove(thread);
+                    break;
+                case GRANT:
+                    if(requests.containsKey(thread))
+                        grants.put(thread, r);
+                    break;
+                case RELEASE:
+                    Record request = requests.remove(thread);
+                    Record grant = grants.remove(thread);
+
+                    if(request == null || grant == null)
+                        break;
+
+                    threads.computeIfAbsent(thread,
+                            (Long t) -> new ArrayList<>())
+                            .add(new Operation(
+                                    request.getTimestamp() - origin,
+                                    request.getPriority(),
+                                    grant.getTimestamp() - request.getTimestamp(),
+                                    r.getTimestamp() - grant.getTimestamp()));
+                    break;
+            }
+        }
+
+        return threads;
+    }
+
+    /**
+     * @return the waiting times recorded in the journal
+     */
+    protected static Result recorded(Map<Long, List<Operation>> threads) {
+        Result result = new Result();
+
+        for(List<Operation> ops : threads.values())
+            for(Operation op : ops)
+                result.waits[op.priority.ordinal()].record(op.wait);
+
+        return result;
+    }
+
+    /**
+     * Replays the given operations against the given manager.
+     *
+     * @return the waiting times measured during the replay
+     */
+    protected static Result replay(SingleResourceManager manager,
+            Map<Long, List<Operation>> threads) {
+        // Leave some time to start every thread before the first arrival
+        long start = System.nanoTime() + 100_000_000L;
+
+        List<ReplayThread> replayers = new ArrayList<>();
+        for(List<Operation> ops : threads.values())
+            replayers.add(new ReplayThread(manager, ops, start));
+
+        for(ReplayThread t : replayers)
+            t.start();
+
+        Result total = new Result();
+
+        for(ReplayThread t : replayers) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+
+            total.add(t.result);
+        }
+
+        return total;
+    }
+
+    private static void print(String name, Result result) {
+        for(PriorityClass prio : PRIORITIES) {
+            Histogram h = result.waits[prio.ordinal()];
+
+            System.out.printf("%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f%n",
+                    name, prio, h.getCount(), result.errors,
+                    h.getMean() / 1e3,
+                    h.getValueAtPercentile(50) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3,
+                    h.getValueAtPercentile(99.9) / 1e3,
+                    h.getMax() / 1e3);
+        }
+    }
+
+    /**
+     * Replays a journal against the given managers.
+     *
+     * @param args the journal file, followed by the names of the managers to
+     * be compared
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: JournalReplay journal-file [manager...]");
+            System.err.println("Available managers: " + SingleResourceManagers.names());
+            System.exit(1);
+        }
+
+        List<String> names = args.length > 1 ?
+                Arrays.asList(args).subList(1, args.length) :
+                new ArrayList<>(SingleResourceManagers.names());
+
+        Map<Long, List<Operation>> threads =
+                split(AcquisitionJournal.read(new File(args[0])));
+
+        System.out.println("manager,class,count,errors,mean_us,p50_us,p99_us,p99.9_us,max_us");
+
+        print("recorded", recorded(threads));
+
+        for(String name : names)
+            print(name, replay(SingleResourceManagers.create(name), threads));
+    }
+}
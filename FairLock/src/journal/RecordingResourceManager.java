@@ -0,0 +1,71 @@
+package journal;
+
+import journal.AcquisitionJournal.Event;
+import manager.ResourceSnapshot;
+import manager.SingleResourceManager;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface that records
+ * every operation executed on another manager into an
+ * {@link AcquisitionJournal}.
+ *
+ * <p>For each client, the journal receives an event when the request is
+ * issued, one when the resource is granted and one when it is released, so
+ * that both the arrival times and the hold times can be reconstructed and
+ * replayed later via {@link JournalReplay}.</p>
+ *
+ * <p>Like the {@link SingleResourceManager} interface requires, the resource
+ * must be released by the same client that obtained it, since the release
+ * event is attributed to the current thread.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class RecordingResourceManager implements SingleResourceManager {
+    private final SingleResourceManager manager;
+    private final AcquisitionJournal journal;
+
+    // Written only by the client holding the resource
+    private volatile PriorityClass holder;
+
+    /**
+     * @param manager the manager whose operations must be recorded
+     * @param journal the journal the operations are recorded into
+     */
+    public RecordingResourceManager(SingleResourceManager manager,
+            AcquisitionJournal journal) {
+        this.manager = manager;
+        this.journal = journal;
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return manager.getSnapshot();
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    @Override
+    public void request(PriorityClass prio) {
+        journal.record(Event.REQUEST, prio);
+
+        manager.request(prio);
+
+        holder = prio;
+        journal.record(Event.GRANT, prio);
+    }
+
+    @Override
+    public void release() {
+        PriorityClass prio = holder;
+
+        // Recorded before actually releasing, so that the release event
+        // precedes the grant of the next client in the journal
+        if(prio != null)
+            journal.record(Event.RELEASE, prio);
+
+        manager.release();
+    }
+}
@@ -0,0 +1,237 @@
+package manager;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single thread that owns the state of one or more
+ * {@link SingleResourceManagerEventLoop} instances and executes their
+ * operations.
+ *
+ * <p>Client threads never access the state of those managers: they publish
+ * commands into a preallocated ring buffer, that the scheduler thread drains
+ * in batches. The ring buffer is lock-free: a client claims a slot with a
+ * single compare-and-set on the tail and then publishes its command by
+ * writing the sequence number of the slot; the scheduler is the only
+ * consumer. When the ring buffer is empty the scheduler parks, and the first
+ * client that publishes a command afterwards unparks it.</p>
+ *
+ * <p>If the ring buffer is full, clients yield until the scheduler frees a
+ * slot, so its capacity should be larger than the number of clients that can
+ * issue commands at the same time.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class EventLoopScheduler implements AutoCloseable {
+
+    /**
+     * Default capacity of the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static volatile EventLoopScheduler shared;
+
+    static final int REQUEST = 0;
+    static final int RELEASE = 1;
+
+    /**
+     * A slot of the ring buffer. The fields other than the sequence are
+     * written by the client that claimed the slot before it publishes the
+     * sequence, and read by the scheduler after it sees it.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        int type;
+        SingleResourceManagerEventLoop target;
+        SingleResourceManagerEventLoop.Waiter waiter;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail;
+
+    // Only accessed by the scheduler thread
+    private long head;
+
+    private final Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean running;
+
+    /**
+     * Creates and starts a new scheduler, whose thread is a daemon thread,
+     * with a ring buffer of {@link #DEFAULT_CAPACITY} slots.
+     */
+    public EventLoopScheduler() {
+        this(DEFAULT_CAPACITY, (Runnable r) -> {
+            Thread t = new Thread(r, "SingleResourceManager-event-loop");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Creates and starts a new scheduler.
+     *
+     * @param capacity the number of slots of the ring buffer, rounded up to a
+     * power of two
+     * @param factory the factory of the scheduler thread
+     *
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public EventLoopScheduler(int capacity, ThreadFactory factory) {
+        if(capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Capacity must be positive, and at most 2^30!");
+
+        int n = 1;
+        while(n < capacity)
+            n <<= 1;
+
+        slots = new Slot[n];
+        for(int i = 0; i < n; ++i)
+            slots[i] = new Slot(i);
+
+        mask = n - 1;
+        tail = new AtomicLong();
+        head = 0;
+
+        sleeping = false;
+        running = true;
+
+        thread = factory.newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * @return the scheduler used by the managers that have not been given
+     *         their own, created when first needed
+     */
+    static EventLoopScheduler shared() {
+        EventLoopScheduler s = shared;
+        if(s != null)
+            return s;
+
+        synchronized(EventLoopScheduler.class) {
+            if(shared == null)
+                shared = new EventLoopScheduler();
+
+            return shared;
+        }
+    }
+
+    /**
+     * Publishes a command, to be executed by the scheduler thread.
+     *
+     * @throws IllegalStateException if the scheduler has been closed
+     */
+    void publish(int type, SingleResourceManagerEventLoop target,
+            SingleResourceManagerEventLoop.Waiter waiter) {
+        Slot slot;
+        long pos;
+
+        for(;;) {
+            if(!running)
+                throw new IllegalStateException("The scheduler has been closed!");
+
+            pos = tail.get();
+            slot = slots[(int) pos & mask];
+
+            long diff = slot.sequence - pos;
+
+            if(diff == 0) {
+                if(tail.compareAndSet(pos, pos + 1))
+                    break;
+            } else if(diff < 0) {
+                // Full: let the scheduler free some slot
+                wakeUp();
+                Thread.yield();
+            }
+        }
+
+        slot.type = type;
+        slot.target = target;
+        slot.waiter = waiter;
+        slot.sequence = pos + 1;
+
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if(sleeping)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Body of the scheduler thread.
+     */
+    private void run() {
+        while(running) {
+            if(drain() > 0)
+                continue;
+
+            // Clients check this flag after publishing a command, so either
+            // they see it or the command is seen below.
+            sleeping = true;
+            if(!hasNext() && running)
+                LockSupport.park(this);
+            sleeping = false;
+        }
+
+        drain();
+    }
+
+    private boolean hasNext() {
+        return slots[(int) head & mask].sequence == head + 1;
+    }
+
+    /**
+     * Executes every published command.
+     *
+     * @return the number of executed commands
+     */
+    private int drain() {
+        int n = 0;
+
+        while(hasNext()) {
+            Slot slot = slots[(int) head & mask];
+
+            int type = slot.type;
+            SingleResourceManagerEventLoop target = slot.target;
+            SingleResourceManagerEventLoop.Waiter waiter = slot.waiter;
+
+            slot.target = null;
+            slot.waiter = null;
+            slot.sequence = head + slots.length;
+            ++head;
+
+            switch(type) {
+                case REQUEST:
+                    target.onRequest(waiter);
+                    break;
+                case RELEASE:
+                    target.onRelease();
+                    break;
+            }
+
+            ++n;
+        }
+
+        return n;
+    }
+
+    /**
+     * Stops the scheduler thread, after executing the commands already
+     * published. Clients still waiting for a resource at that time are never
+     * awakened, so a scheduler should be closed only when its managers are
+     * idle.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+}
@@ -0,0 +1,354 @@
+package manager;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManager.ResourceState;
+
+/**
+ * Manager of a (possibly very large) set of independent resources, each
+ * identified by a key, with the same semantics of a
+ * {@link SingleResourceManager} for each key: clients with priority
+ * {@link PriorityClass#PRIO_B} are served before clients with priority
+ * {@link PriorityClass#PRIO_A}, and clients of the same class are served in
+ * FIFO order.
+ *
+ * <p>Differently from creating one {@link SingleResourceManager} per key, the
+ * state of a resource is created lazily on its first request and it is
+ * evicted as soon as the resource is released with no waiting clients, so
+ * that the memory used by this class is proportional to the number of busy
+ * resources, not to the number of keys ever used. A free resource has no
+ * state at all.</p>
+ *
+ * <p>Keys are distributed among a fixed number of stripes, each protected by
+ * its own monitor; the state of a resource is a small object without any lock
+ * or condition variable of its own. Since a resource is created, granted,
+ * released and evicted only while holding the monitor of its stripe, no grant
+ * and no waiting client can be lost because of an eviction. Waiting clients
+ * are suspended via {@link LockSupport}, without holding any monitor. Each
+ * state publishes a {@link ResourceSnapshot} in a volatile field, so
+ * {@link #getSnapshot(Object)} never acquires a monitor.</p>
+ *
+ * <p>Like {@link SingleResourceManagerLease}, the resource associated with a
+ * key can be released only by the thread that holds it.</p>
+ *
+ * @param <K> the type of the keys; keys must implement
+ *            {@link Object#equals(Object)} and {@link Object#hashCode()}
+ *            consistently
+ *
+ * @author Gabriele Ara
+ */
+public class KeyedResourceManager<K> {
+
+    /**
+     * The default number of stripes.
+     */
+    public static final int DEFAULT_STRIPES = 256;
+
+    // Tables are rebuilt only when they can hold at least this many entries
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    private static final ResourceSnapshot BUSY =
+            new ResourceSnapshot(ResourceState.BUSY, 0, 0);
+
+    /**
+     * A client waiting for a resource.
+     */
+    private static final class Waiter {
+        final Thread thread;
+        volatile boolean granted;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+            this.granted = false;
+        }
+    }
+
+    /**
+     * The state of a busy resource; queues are created only when needed.
+     */
+    private static final class Entry {
+        Thread owner;
+        ArrayDeque<Waiter> waitingA;
+        ArrayDeque<Waiter> waitingB;
+
+        // Written only while holding the monitor of the stripe, read without it
+        volatile ResourceSnapshot snapshot;
+
+        Entry(Thread owner) {
+            this.owner = owner;
+            this.snapshot = BUSY;
+        }
+
+        ArrayDeque<Waiter> queue(PriorityClass prio) {
+            return prio == PriorityClass.PRIO_B ? waitingB : waitingA;
+        }
+
+        static int size(ArrayDeque<Waiter> q) {
+            return q == null ? 0 : q.size();
+        }
+
+        void enqueue(PriorityClass prio, Waiter w) {
+            snapshot = snapshot.enqueued(prio);
+
+            if(prio == PriorityClass.PRIO_B) {
+                if(waitingB == null)
+                    waitingB = new ArrayDeque<>(4);
+                waitingB.add(w);
+            } else {
+                if(waitingA == null)
+                    waitingA = new ArrayDeque<>(4);
+                waitingA.add(w);
+            }
+        }
+
+        /**
+         * @return the next client that must receive the resource, removed
+         *         from its queue, or null if there is none
+         */
+        Waiter next() {
+            if(size(waitingB) > 0) {
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_B);
+                Waiter w = waitingB.poll();
+                if(waitingB.isEmpty())
+                    waitingB = null;
+                return w;
+            }
+
+            if(size(waitingA) > 0) {
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_A);
+                Waiter w = waitingA.poll();
+                if(waitingA.isEmpty())
+                    waitingA = null;
+                return w;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A portion of the key space, modified only while holding its monitor.
+     * The table can be read without it.
+     */
+    private static final class Stripe {
+        volatile ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+        // The largest number of entries since the table was last rebuilt
+        int highWater = 0;
+
+        void put(Object key, Entry e) {
+            entries.put(key, e);
+            if(entries.size() > highWater)
+                highWater = entries.size();
+        }
+
+        void remove(Object key) {
+            entries.remove(key);
+
+            // The table never shrinks: rebuild it when it has become mostly
+            // empty, so that the memory is bounded by the number of busy
+            // resources. The cost is amortized over the removals.
+            if(highWater >= MIN_COMPACT_SIZE && entries.size() < highWater >>> 2) {
+                entries = new ConcurrentHashMap<>(entries);
+                highWater = entries.size();
+            }
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * Creates a new manager with {@link #DEFAULT_STRIPES} stripes.
+     */
+    public KeyedResourceManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes the keys are distributed among,
+     * rounded up to a power of two; more stripes reduce the contention
+     * between clients of different keys
+     *
+     * @throws IllegalArgumentException if stripes is not positive
+     */
+    public KeyedResourceManager(int stripes) {
+        if(stripes <= 0)
+            throw new IllegalArgumentException("The number of stripes must be positive!");
+
+        int n = Integer.highestOneBit(stripes);
+        if(n < stripes)
+            n <<= 1;
+
+        this.stripes = new Stripe[n];
+        for(int i = 0; i < n; ++i)
+            this.stripes[i] = new Stripe();
+
+        mask = n - 1;
+    }
+
+    private Stripe stripe(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Requests the resource associated with the given key, with the same
+     * semantics of {@link SingleResourceManager#request(PriorityClass)}.
+     *
+     * @param key the key of the resource
+     * @param prio the priority of the client that is requesting the resource
+     *
+     * @throws IllegalMonitorStateException if the current thread already holds
+     * the resource
+     */
+    public void request(K key, PriorityClass prio) {
+        Stripe s = stripe(key);
+        Thread current = Thread.currentThread();
+        Waiter w;
+
+        synchronized(s) {
+            Entry e = s.entries.get(key);
+
+            if(e == null) {
+                s.put(key, new Entry(current));
+                return;
+            }
+
+            if(e.owner == current)
+                throw new IllegalMonitorStateException("You can't acquire more than once the same resource!");
+
+            w = new Waiter(current);
+            e.enqueue(prio, w);
+        }
+
+        boolean interrupted = false;
+        while(!w.granted) {
+            LockSupport.park(this);
+
+            // The interruption status is restored after the grant, like the
+            // other managers ignore interruptions while waiting
+            if(Thread.interrupted())
+                interrupted = true;
+        }
+
+        if(interrupted)
+            current.interrupt();
+    }
+
+    /**
+     * Requests the resource associated with the given key like
+     * {@link #request(Object, PriorityClass) request} does, but returns a
+     * {@link ResourceHandle} that must be closed to release it.
+     *
+     * @param key the key of the resource
+     * @param prio the priority of the client that is requesting the resource
+     *
+     * @return the handle that grants the resource to the current thread
+     */
+    public ResourceHandle acquire(K key, PriorityClass prio) {
+        return forKey(key).acquire(prio);
+    }
+
+    /**
+     * Releases the resource associated with the given key, with the same
+     * semantics of {@link SingleResourceManager#release()}. If no client is
+     * waiting for it, its state is evicted.
+     *
+     * @param key the key of the resource
+     *
+     * @throws IllegalMonitorStateException if the current thread does not hold
+     * the resource
+     */
+    public void release(K key) {
+        Stripe s = stripe(key);
+        Waiter next;
+
+        synchronized(s) {
+            Entry e = s.entries.get(key);
+
+            if(e == null || e.owner != Thread.currentThread())
+                throw new IllegalMonitorStateException("You can't release a resource that you don't hold!");
+
+            next = e.next();
+
+            if(next == null) {
+                s.remove(key);
+                return;
+            }
+
+            e.owner = next.thread;
+            next.granted = true;
+        }
+
+        LockSupport.unpark(next.thread);
+    }
+
+    /**
+     * Like {@link SingleResourceManager#getSnapshot()}, this method never
+     * acquires a monitor.
+     *
+     * @param key the key of the resource
+     *
+     * @return the current state of the resource associated with the given key
+     *         and the number of clients waiting for it in each priority class
+     */
+    public ResourceSnapshot getSnapshot(K key) {
+        Entry e = stripe(key).entries.get(key);
+
+        return e == null ? ResourceSnapshot.FREE : e.snapshot;
+    }
+
+    /**
+     * @return the number of resources that currently have a state, i.e. that
+     *         are busy
+     */
+    public int size() {
+        int size = 0;
+
+        for(Stripe s : stripes) {
+            synchronized(s) {
+                size += s.entries.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns a view of the resource associated with the given key as a
+     * {@link SingleResourceManager}, so that it can be passed to code written
+     * for a single resource. The view holds no state: creating and discarding
+     * views does not affect the eviction of the resource.
+     *
+     * @param key the key of the resource
+     *
+     * @return a manager whose operations act on the given key
+     */
+    public SingleResourceManager forKey(K key) {
+        return new SingleResourceManager() {
+            @Override
+            public ResourceSnapshot getSnapshot() {
+                return KeyedResourceManager.this.getSnapshot(key);
+            }
+
+            @Override
+            public ResourceState getState() {
+                return getSnapshot().getState();
+            }
+
+            @Override
+            public void request(PriorityClass prio) {
+                KeyedResourceManager.this.request(key, prio);
+            }
+
+            @Override
+            public void release() {
+                KeyedResourceManager.this.release(key);
+            }
+        };
+    }
+}
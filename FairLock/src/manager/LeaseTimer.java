@@ -0,0 +1,58 @@
+package manager;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Timer shared by every {@link SingleResourceManagerLease} instance that has
+ * not been given its own scheduler, and by every
+ * {@link SingleResourceManagerEDF} instance.
+ *
+ * <p>A single daemon thread tracks the expiration of every lease and of every
+ * deadline in the JVM, so the number of threads does not grow with the number
+ * of managers or of granted leases. Cancelled expirations are removed from
+ * the timer queue immediately, so released leases do not accumulate in
+ * it.</p>
+ *
+ * <p>Expirations must never wait for the lock of their manager on the timer
+ * thread, or a single busy manager would delay the expirations of all the
+ * other ones: if the lock is not free, they are retried after
+ * {@link #RETRY_NANOS}.</p>
+ *
+ * @author Gabriele Ara
+ */
+final class LeaseTimer {
+
+    /**
+     * Delay after which an expiration that found the lock of its manager
+     * busy is retried, in nanoseconds.
+     */
+    static final long RETRY_NANOS = 100_000L;
+
+    private static final ScheduledThreadPoolExecutor SHARED = newTimer();
+
+    private LeaseTimer() {
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ThreadFactory factory = (Runnable r) -> {
+            Thread t = new Thread(r, "SingleResourceManager-lease-timer");
+            t.setDaemon(true);
+            return t;
+        };
+
+        ScheduledThreadPoolExecutor timer =
+                new ScheduledThreadPoolExecutor(1, factory);
+        timer.setRemoveOnCancelPolicy(true);
+
+        return timer;
+    }
+
+    /**
+     * @return the timer shared by all the lease and deadline managers of this
+     *         JVM
+     */
+    static ScheduledThreadPoolExecutor shared() {
+        return SHARED;
+    }
+}
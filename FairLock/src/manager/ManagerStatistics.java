@@ -0,0 +1,146 @@
+package manager;
+
+import manager.SingleResourceManager.PriorityClass;
+import stats.Histogram;
+
+/**
+ * Immutable view of the statistics recorded by a {@link StatisticsProvider}
+ * since its creation, for each {@link PriorityClass}.
+ *
+ * <p>Times are expressed in nanoseconds. The waiting time of a request is
+ * measured from the call of
+ * {@link SingleResourceManager#request(PriorityClass) request} to the moment
+ * the resource is granted to it; its hold time from that moment to the
+ * corresponding {@link SingleResourceManager#release() release}.</p>
+ *
+ * @author Gabriele Ara
+ *
+ * @see StatisticsProvider#getStatistics()
+ */
+public final class ManagerStatistics {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+
+    private final long elapsed;
+    private final long busy;
+    private final long passOvers;
+    private final long[] grants;
+    private final Histogram[] waitTimes;
+    private final Histogram[] holdTimes;
+    private final int[] waiting;
+    private final long[] peakWaiting;
+
+    ManagerStatistics(long elapsed, long busy, long passOvers, long[] grants,
+            Histogram[] waitTimes, Histogram[] holdTimes,
+            int[] waiting, long[] peakWaiting) {
+        this.elapsed = elapsed;
+        this.busy = busy;
+        this.passOvers = passOvers;
+        this.grants = grants;
+        this.waitTimes = waitTimes;
+        this.holdTimes = holdTimes;
+        this.waiting = waiting;
+        this.peakWaiting = peakWaiting;
+    }
+
+    /**
+     * @return the time elapsed between the creation of the manager and this
+     *         snapshot
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the total time for which the resource has been held, counting
+     *         only the completed holds
+     */
+    public long getBusyTime() {
+        return busy;
+    }
+
+    /**
+     * @return the fraction of the elapsed time for which the resource has
+     *         been held, between 0 and 1
+     */
+    public double getUtilisation() {
+        return elapsed == 0 ? 0 : Math.min(1.0, (double) busy / elapsed);
+    }
+
+    /**
+     * @return the number of releases that gave the resource to a client of
+     *         class {@link PriorityClass#PRIO_B} while at least one client of
+     *         class {@link PriorityClass#PRIO_A} was waiting
+     */
+    public long getPassOvers() {
+        return passOvers;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of times the resource has been granted to a client
+     *         of the given class
+     */
+    public long getGrants(PriorityClass prio) {
+        return grants[prio.ordinal()];
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the distribution of the waiting times of the given class; the
+     *         histogram belongs to this snapshot and must not be modified
+     */
+    public Histogram getWaitTime(PriorityClass prio) {
+        return waitTimes[prio.ordinal()];
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the distribution of the hold times of the given class; the
+     *         histogram belongs to this snapshot and must not be modified
+     */
+    public Histogram getHoldTime(PriorityClass prio) {
+        return holdTimes[prio.ordinal()];
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of clients of the given class that were waiting for
+     *         the resource when this snapshot was taken
+     */
+    public int getWaiting(PriorityClass prio) {
+        return waiting[prio.ordinal()];
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the largest number of clients of the given class that have been
+     *         waiting for the resource at the same time
+     */
+    public long getPeakWaiting(PriorityClass prio) {
+        return peakWaiting[prio.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("utilisation=%.3f passOvers=%d",
+                getUtilisation(), passOvers));
+
+        for(PriorityClass prio : PRIORITIES) {
+            int c = prio.ordinal();
+
+            sb.append(String.format("%n%s: grants=%d waiting=%d peak=%d%n  wait: %s%n  hold: %s",
+                    prio, grants[c], waiting[c], peakWaiting[c],
+                    waitTimes[c], holdTimes[c]));
+        }
+
+        return sb.toString();
+    }
+}
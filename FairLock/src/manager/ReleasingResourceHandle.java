@@ -0,0 +1,39 @@
+package manager;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Default {@link ResourceHandle} implementation, which simply calls
+ * {@link SingleResourceManager#release()} on the manager that granted it the
+ * first time it is closed.
+ *
+ * @author Gabriele Ara
+ */
+class ReleasingResourceHandle implements ResourceHandle {
+    private final SingleResourceManager manager;
+    private final PriorityClass priority;
+    private final AtomicBoolean released;
+
+    ReleasingResourceHandle(SingleResourceManager manager, PriorityClass priority) {
+        this.manager = manager;
+        this.priority = priority;
+        this.released = new AtomicBoolean(false);
+    }
+
+    @Override
+    public PriorityClass getPriority() {
+        return priority;
+    }
+
+    @Override
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    @Override
+    public void close() {
+        if(released.compareAndSet(false, true))
+            manager.release();
+    }
+}
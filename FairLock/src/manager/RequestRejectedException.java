@@ -0,0 +1,77 @@
+package manager;
+
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Thrown when a request for a resource protected by a
+ * {@link SingleResourceManager} is rejected, either without being queued
+ * because accepting it would violate one of the limits imposed on the
+ * manager, or while waiting because its deadline has passed.
+ *
+ * @author Gabriele Ara
+ */
+public class RequestRejectedException extends RuntimeException {
+
+    /**
+     * This enum specifies why a request has been rejected.
+     */
+    public enum Reason {
+        /**
+         * Too many clients of the same priority class were already waiting.
+         */
+        QUEUE_FULL,
+        /**
+         * The estimated time before the resource could be granted was longer
+         * than the allowed one.
+         */
+        WAIT_TOO_LONG,
+        /**
+         * The deadline of the request had already passed when it was
+         * issued.
+         */
+        DEADLINE_PASSED,
+        /**
+         * The deadline of the request could not be met, given the clients
+         * that would be served before it and the expected hold times.
+         */
+        DEADLINE_UNREACHABLE,
+        /**
+         * The deadline of the request passed while it was waiting for the
+         * resource.
+         */
+        DEADLINE_MISSED,
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final PriorityClass priority;
+    private final Reason reason;
+
+    /**
+     * @param priority the priority class of the rejected request
+     * @param reason the reason of the rejection
+     * @param message the detail message
+     */
+    public RequestRejectedException(PriorityClass priority, Reason reason,
+            String message) {
+        // Rejections are expected to be frequent under overload, so the stack
+        // trace is not filled in to keep them cheap.
+        super(message, null, false, false);
+        this.priority = priority;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the priority class of the rejected request
+     */
+    public PriorityClass getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the reason why the request has been rejected
+     */
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,41 @@
+package manager;
+
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * A grant of the resource protected by a {@link SingleResourceManager},
+ * returned by {@link SingleResourceManager#acquire(PriorityClass)}.
+ *
+ * <p>Holding a handle is the proof of ownership of the resource: the resource
+ * is released by {@link #close() closing} the handle, which releases it
+ * exactly once no matter how many times it is called. This makes handles
+ * suitable for try-with-resources statements:</p>
+ *
+ * <pre>
+ * try (ResourceHandle h = manager.acquire(PriorityClass.PRIO_A)) {
+ *     // access the resource protected by the manager
+ * }
+ * </pre>
+ *
+ * @author Gabriele Ara
+ */
+public interface ResourceHandle extends AutoCloseable {
+
+    /**
+     * @return the priority of the client that obtained this handle
+     */
+    PriorityClass getPriority();
+
+    /**
+     * @return true if the resource granted by this handle has already been
+     *         released
+     */
+    boolean isReleased();
+
+    /**
+     * Releases the resource granted by this handle, if not already released.
+     * Subsequent calls of this method are equivalent to a no operation.
+     */
+    @Override
+    void close();
+}
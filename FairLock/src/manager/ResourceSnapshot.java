@@ -0,0 +1,131 @@
+package manager;
+
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManager.ResourceState;
+
+/**
+ * Immutable view of the state of a {@link SingleResourceManager}: the state
+ * of the resource and the number of clients waiting for it in each
+ * {@link PriorityClass}.
+ *
+ * <p>Implementations of {@link SingleResourceManager} publish a new snapshot
+ * each time their state changes, so that it can be read without acquiring
+ * the lock that protects the manager.</p>
+ *
+ * @author Gabriele Ara
+ *
+ * @see SingleResourceManager#getSnapshot()
+ */
+public final class ResourceSnapshot {
+
+    /**
+     * The snapshot of a manager whose resource is free and that has no
+     * waiting clients.
+     */
+    public static final ResourceSnapshot FREE =
+            new ResourceSnapshot(ResourceState.FREE, 0, 0);
+
+    private final ResourceState state;
+    private final int waitingA;
+    private final int waitingB;
+
+    /**
+     * @param state the state of the resource
+     * @param waitingA the number of waiting clients with priority equal to
+     * {@link PriorityClass#PRIO_A}
+     * @param waitingB the number of waiting clients with priority equal to
+     * {@link PriorityClass#PRIO_B}
+     */
+    public ResourceSnapshot(ResourceState state, int waitingA, int waitingB) {
+        this.state = state;
+        this.waitingA = waitingA;
+        this.waitingB = waitingB;
+    }
+
+    /**
+     * @return the state of the resource
+     */
+    public ResourceState getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the resource is free
+     */
+    public boolean isFree() {
+        return state == ResourceState.FREE;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of clients of the given priority class that are
+     *         waiting for the resource
+     */
+    public int getWaiting(PriorityClass prio) {
+        switch(prio) {
+            case PRIO_A:
+                return waitingA;
+            case PRIO_B:
+                return waitingB;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the number of clients waiting for the resource, of any priority
+     *         class
+     */
+    public int getTotalWaiting() {
+        return waitingA + waitingB;
+    }
+
+    /**
+     * @param newState the new state of the resource
+     *
+     * @return a snapshot equal to this one, except for the resource state
+     */
+    public ResourceSnapshot withState(ResourceState newState) {
+        if(newState == ResourceState.FREE && waitingA == 0 && waitingB == 0)
+            return FREE;
+
+        return new ResourceSnapshot(newState, waitingA, waitingB);
+    }
+
+    /**
+     * @param prio the priority class of the client that started waiting
+     *
+     * @return a snapshot equal to this one, with one more waiting client of
+     *         the given priority class
+     */
+    public ResourceSnapshot enqueued(PriorityClass prio) {
+        return adjust(prio, +1);
+    }
+
+    /**
+     * @param prio the priority class of the client that stopped waiting
+     *
+     * @return a snapshot equal to this one, with one less waiting client of
+     *         the given priority class
+     */
+    public ResourceSnapshot dequeued(PriorityClass prio) {
+        return adjust(prio, -1);
+    }
+
+    private ResourceSnapshot adjust(PriorityClass prio, int delta) {
+        switch(prio) {
+            case PRIO_A:
+                return new ResourceSnapshot(state, waitingA + delta, waitingB);
+            case PRIO_B:
+                return new ResourceSnapshot(state, waitingA, waitingB + delta);
+        }
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return state + "[A=" + waitingA + ", B=" + waitingB + "]";
+    }
+}
@@ -45,6 +45,26 @@ public interface SingleResourceManager {
         }
     }
     
+    /**
+     * Returns the last snapshot published by this manager.
+     * 
+     * <p>The managers of this package publish a new snapshot each time their
+     * state changes, so this method never acquires the lock that protects the
+     * manager and it can be safely polled (e.g. by health checks) without
+     * contending with the clients of the resource.</p>
+     * 
+     * <p>The default implementation only knows the state returned by
+     * {@link #getState() getState}, so it reports no waiting clients.</p>
+     * 
+     * @return the current state of the resource and the number of clients
+     *         waiting for it in each priority class
+     */
+    default ResourceSnapshot getSnapshot() {
+        return getState() == ResourceState.FREE
+                ? ResourceSnapshot.FREE
+                : new ResourceSnapshot(ResourceState.BUSY, 0, 0);
+    }
+    
     /**
      * 
      * @return the state of the resource protected by this instance of the
@@ -59,7 +79,9 @@ public interface SingleResourceManager {
      * @return true id the resource protected by this instance of the manager is
      *         free
      */
-    boolean isFree();
+    default boolean isFree() {
+        return getState() == ResourceState.FREE;
+    }
     
     /**
      * Requests the permission to operate on the shared resource in mutual
@@ -86,6 +108,23 @@ public interface SingleResourceManager {
      */
     void request(PriorityClass prio);
     
+    /**
+     * Requests the resource like {@link #request(PriorityClass) request} does,
+     * but returns a {@link ResourceHandle} that must be closed in order to
+     * release the resource. The handle releases the resource exactly once, no
+     * matter how many times it is closed.
+     * 
+     * @param prio the priority of the client that is requesting the resource
+     * 
+     * @return the handle that grants the resource to the current thread
+     * 
+     * @see ResourceHandle#close()
+     */
+    default ResourceHandle acquire(PriorityClass prio) {
+        request(prio);
+        return new ReleasingResourceHandle(this, prio);
+    }
+    
     /**
      * Releases the permission to operate on the shared resource protected by
      * this manager:
@@ -0,0 +1,287 @@
+package manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import manager.RequestRejectedException.Reason;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface that adds
+ * admission control to another manager: requests that would exceed the limits
+ * set for their priority class are rejected immediately with a
+ * {@link RequestRejectedException}, instead of being queued.
+ *
+ * <p>Two limits can be set for each priority class:</p>
+ *
+ * <ul>
+ * <li>the maximum number of clients of the class that may be waiting for the
+ * resource at the same time;</li>
+ *
+ * <li>the maximum estimated time a client of the class may have to wait
+ * before being granted the resource. The estimate is computed from the
+ * clients that would be served before the new one according to the policy
+ * described in {@link SingleResourceManager#release()} (clients of the same
+ * class or of a higher one) and from an exponentially weighted moving average
+ * of the observed hold times.</li>
+ * </ul>
+ *
+ * <p>By default no limit is set, so every request is accepted. Limits can be
+ * changed at any time; the number of rejected requests is counted for each
+ * priority class and reason.</p>
+ *
+ * <p>Like the {@link SingleResourceManager} interface requires, the resource
+ * must be released by the same client that obtained it, since the hold time
+ * is measured between the grant and the following release.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerAdmission implements SingleResourceManager {
+
+    /**
+     * The value of a limit that has not been set.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final Reason[] REASONS = Reason.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    // Weight of the last observation in the average hold time
+    private static final double HOLD_TIME_GAIN = 0.125;
+
+    private final SingleResourceManager manager;
+
+    // Clients admitted but not granted the resource yet, for each class,
+    // including the ones that found it free and are about to take it
+    private final AtomicIntegerArray waiting;
+
+    private final AtomicIntegerArray maxWaiting;
+    private final AtomicLongArray maxWaitNanos;
+
+    // Indexed by class and reason
+    private final LongAdder[] rejected;
+
+    // Written only by the client holding the resource
+    private volatile long grantTime;
+    private volatile double meanHoldNanos;
+
+    /**
+     * Creates a new manager that applies admission control to the given one.
+     *
+     * @param manager the manager the accepted requests are forwarded to
+     */
+    public SingleResourceManagerAdmission(SingleResourceManager manager) {
+        this.manager = manager;
+
+        waiting = new AtomicIntegerArray(CLASSES);
+        maxWaiting = new AtomicIntegerArray(CLASSES);
+        maxWaitNanos = new AtomicLongArray(CLASSES);
+
+        rejected = new LongAdder[CLASSES * REASONS.length];
+        for(int i = 0; i < rejected.length; ++i)
+            rejected[i] = new LongAdder();
+
+        for(int i = 0; i < CLASSES; ++i) {
+            maxWaiting.set(i, UNLIMITED);
+            maxWaitNanos.set(i, Long.MAX_VALUE);
+        }
+
+        meanHoldNanos = 0;
+    }
+
+    /**
+     * Sets the maximum number of clients of the given class that may be
+     * waiting for the resource at the same time; further requests are
+     * rejected. A client that finds the resource free, with no other client
+     * about to take it, does not wait and is always accepted, even if the
+     * limit is zero.
+     *
+     * @param prio the priority class the limit applies to
+     * @param maxQueueLength the maximum queue length, or {@link #UNLIMITED}
+     *
+     * @throws IllegalArgumentException if maxQueueLength is negative
+     */
+    public void setMaxQueueLength(PriorityClass prio, int maxQueueLength) {
+        if(maxQueueLength < 0)
+            throw new IllegalArgumentException("The maximum queue length cannot be negative!");
+
+        maxWaiting.set(prio.ordinal(), maxQueueLength);
+    }
+
+    /**
+     * Sets the maximum estimated waiting time allowed to clients of the given
+     * class; requests whose estimated waiting time is longer are rejected.
+     *
+     * @param prio the priority class the limit applies to
+     * @param maxWait the maximum waiting time, or a negative value to remove
+     * the limit
+     * @param unit the time unit of the maxWait argument
+     */
+    public void setMaxWait(PriorityClass prio, long maxWait, TimeUnit unit) {
+        maxWaitNanos.set(prio.ordinal(),
+                maxWait < 0 ? Long.MAX_VALUE : unit.toNanos(maxWait));
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of requests of the given class rejected since the
+     *         creation of this manager, for any reason
+     */
+    public long getRejectedCount(PriorityClass prio) {
+        long sum = 0;
+        for(Reason reason : REASONS)
+            sum += getRejectedCount(prio, reason);
+
+        return sum;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     * @param reason the reason of interest
+     *
+     * @return the number of requests of the given class rejected for the given
+     *         reason since the creation of this manager
+     */
+    public long getRejectedCount(PriorityClass prio, Reason reason) {
+        return rejected[index(prio, reason)].sum();
+    }
+
+    /**
+     * @param unit the time unit of the returned value
+     *
+     * @return the moving average of the time the resource is held by a client
+     */
+    public long getMeanHoldTime(TimeUnit unit) {
+        return unit.convert((long) meanHoldNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param prio the priority class of interest
+     * @param unit the time unit of the returned value
+     *
+     * @return the time a new client of the given class is estimated to wait
+     *         before being granted the resource
+     */
+    public long getEstimatedWait(PriorityClass prio, TimeUnit unit) {
+        return unit.convert(estimateWait(prio), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return manager.getSnapshot();
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * Requests the resource to the underlying manager, unless the request
+     * exceeds any of the limits set for its priority class.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     *
+     * @throws RequestRejectedException if the request has been rejected
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        int c = prio.ordinal();
+
+        admit(prio);
+        try {
+            manager.request(prio);
+        } finally {
+            waiting.decrementAndGet(c);
+        }
+
+        grantTime = System.nanoTime();
+    }
+
+    @Override
+    public void release() {
+        long held = System.nanoTime() - grantTime;
+
+        // Only the client holding the resource writes the average, so there
+        // is no need to synchronize with other writers: it must be updated
+        // before the resource is given to the next one.
+        double mean = meanHoldNanos;
+        meanHoldNanos = mean == 0 ? held : mean + HOLD_TIME_GAIN * (held - mean);
+
+        manager.release();
+    }
+
+    /**
+     * Checks the limits of the given class and, if the request can be
+     * accepted, counts it as waiting.
+     *
+     * @throws RequestRejectedException if the request must be rejected
+     */
+    private void admit(PriorityClass prio) {
+        int c = prio.ordinal();
+
+        long maxWait = maxWaitNanos.get(c);
+        if(maxWait != Long.MAX_VALUE && estimateWait(prio) > maxWait)
+            throw reject(prio, Reason.WAIT_TOO_LONG);
+
+        int limit = maxWaiting.get(c);
+
+        for(;;) {
+            int n = waiting.get(c);
+
+            // A client that takes a free resource does not wait, so it does
+            // not count against the limit
+            if(n >= limit && !(n == 0 && nobodyAdmitted() && manager.isFree()))
+                throw reject(prio, Reason.QUEUE_FULL);
+
+            if(waiting.compareAndSet(c, n, n + 1))
+                return;
+        }
+    }
+
+    /**
+     * @return true if no client of any class has been admitted and is still
+     *         waiting for the resource
+     */
+    private boolean nobodyAdmitted() {
+        for(int i = 0; i < CLASSES; ++i)
+            if(waiting.get(i) > 0)
+                return false;
+
+        return true;
+    }
+
+    /**
+     * @return the estimated waiting time in nanoseconds for a new client of
+     *         the given class
+     */
+    private long estimateWait(PriorityClass prio) {
+        double mean = meanHoldNanos;
+
+        if(mean == 0 || manager.isFree())
+            return 0;
+
+        // Clients of the same or of a higher class are served first
+        int ahead = 0;
+        for(int i = prio.ordinal(); i < CLASSES; ++i)
+            ahead += waiting.get(i);
+
+        double remaining = Math.max(0, mean - (System.nanoTime() - grantTime));
+
+        return (long) (remaining + ahead * mean);
+    }
+
+    private RequestRejectedException reject(PriorityClass prio, Reason reason) {
+        rejected[index(prio, reason)].increment();
+
+        return new RequestRejectedException(prio, reason,
+                "Request from a client with priority class " + prio
+                + " rejected: " + reason);
+    }
+
+    private static int index(PriorityClass prio, Reason reason) {
+        return prio.ordinal() * REASONS.length + reason.ordinal();
+    }
+}
@@ -0,0 +1,453 @@
+package manager;
+
+import fairlock.FairLock;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import manager.RequestRejectedException.Reason;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface in which each
+ * request can carry a deadline, i.e. the time by which the resource must be
+ * granted to it, and waiting requests are served Earliest Deadline First.
+ *
+ * <p>The order in which waiting requests are served is chosen on
+ * construction, see {@link Ordering}: deadlines can be compared among all
+ * the waiting requests, only among the requests of the same priority class
+ * (clients with priority {@link PriorityClass#PRIO_B} are served first, like
+ * in the other managers), or not at all, so that this class behaves like
+ * {@link SingleResourceManagerFairLock} and can be used as a baseline. Ties
+ * are broken in favour of class {@link PriorityClass#PRIO_B} and then in FIFO
+ * order; requests issued via {@link #request(PriorityClass)} have no deadline
+ * and are served after every request that has one.</p>
+ *
+ * <p>When dropping is enabled (the default), requests that cannot be served
+ * in time are rejected with a {@link RequestRejectedException} as early as
+ * possible, so that their clients do not wait for nothing:</p>
+ *
+ * <ul>
+ * <li>when issued, if their deadline has already passed
+ * ({@link Reason#DEADLINE_PASSED}) or if it cannot be met given the expected
+ * remaining hold time of the current client and the expected hold times of
+ * the clients that would be served before them
+ * ({@link Reason#DEADLINE_UNREACHABLE}); hold times are estimated via an
+ * exponentially weighted moving average of the observed ones;</li>
+ *
+ * <li>while waiting, as soon as their deadline passes
+ * ({@link Reason#DEADLINE_MISSED}).</li>
+ * </ul>
+ *
+ * <p>When dropping is disabled, every request is eventually granted and the
+ * requests granted after their deadline are counted instead. In both cases,
+ * {@link #getMissedCount(PriorityClass)} returns the number of deadlines
+ * missed for each class, so that different orderings can be compared under
+ * the same workload.</p>
+ *
+ * <p>Each waiting client uses its own {@link FairLock.Condition}, so that the
+ * one to be awakened can be chosen freely. Expired deadlines are detected by
+ * the timer shared with {@link SingleResourceManagerLease}.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerEDF implements SingleResourceManager {
+
+    /**
+     * This enum specifies how the deadlines of waiting requests are compared.
+     */
+    public enum Ordering {
+        /**
+         * Earliest deadline first among all the waiting requests, regardless
+         * of their priority class.
+         */
+        EDF,
+        /**
+         * Requests with priority {@link PriorityClass#PRIO_B} first, earliest
+         * deadline first within each class.
+         */
+        PRIORITY_EDF,
+        /**
+         * Requests with priority {@link PriorityClass#PRIO_B} first, FIFO
+         * within each class: deadlines are only used to drop requests and to
+         * count misses.
+         */
+        PRIORITY_FIFO,
+    }
+
+    /**
+     * The deadline of a request issued without one.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final Reason[] REASONS = Reason.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    // Weight of the last observation in the average hold time
+    private static final double HOLD_TIME_GAIN = 0.125;
+
+    /**
+     * A waiting request.
+     */
+    private final class Waiter {
+        final PriorityClass priority;
+        final long deadline;
+        final long seq;
+        final FairLock.Condition condition;
+        // Also rescheduled by the timer when the lock is busy
+        volatile ScheduledFuture<?> expiration;
+        boolean dropped;
+
+        Waiter(PriorityClass priority, long deadline, long seq) {
+            this.priority = priority;
+            this.deadline = deadline;
+            this.seq = seq;
+            this.condition = lock.newCondition();
+            this.expiration = null;
+            this.dropped = false;
+        }
+
+        boolean hasDeadline() {
+            return deadline != NO_DEADLINE;
+        }
+    }
+
+    private final FairLock lock;
+    private final Ordering ordering;
+    private final boolean drop;
+
+    private final PriorityQueue<Waiter> waiters;
+    private long seq;
+
+    private ResourceState state;
+    private long grantTime;
+    // Also read optimistically, without the lock
+    private volatile double meanHoldNanos;
+
+    private final LongAdder[] rejected;
+    private final LongAdder[] missed;
+
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+
+    /**
+     * Creates a new manager that serves requests in {@link Ordering#EDF}
+     * order and drops the ones that cannot be served in time.
+     */
+    public SingleResourceManagerEDF() {
+        this(Ordering.EDF, true);
+    }
+
+    /**
+     * @param ordering how deadlines of waiting requests are compared
+     * @param drop true if requests that cannot be served in time must be
+     * rejected, false if they must be granted anyway
+     */
+    public SingleResourceManagerEDF(Ordering ordering, boolean drop) {
+        this.lock = new FairLock();
+        this.ordering = ordering;
+        this.drop = drop;
+
+        this.waiters = new PriorityQueue<>(comparator(ordering));
+        this.seq = 0;
+
+        this.state = ResourceState.FREE;
+        this.grantTime = 0;
+        this.meanHoldNanos = 0;
+
+        this.rejected = new LongAdder[CLASSES * REASONS.length];
+        for(int i = 0; i < rejected.length; ++i)
+            rejected[i] = new LongAdder();
+
+        this.missed = new LongAdder[CLASSES];
+        for(int i = 0; i < CLASSES; ++i)
+            missed[i] = new LongAdder();
+
+        this.snapshot = ResourceSnapshot.FREE;
+    }
+
+    private static int compareDeadlines(long d1, long d2) {
+        // Deadlines are System.nanoTime() values, which may overflow
+        if(d1 == NO_DEADLINE || d2 == NO_DEADLINE)
+            return Boolean.compare(d1 == NO_DEADLINE, d2 == NO_DEADLINE);
+
+        return Long.signum(d1 - d2);
+    }
+
+    private Comparator<Waiter> comparator(Ordering o) {
+        Comparator<Waiter> byClass = (Waiter w1, Waiter w2) ->
+                w2.priority.compareTo(w1.priority);
+        Comparator<Waiter> byDeadline = (Waiter w1, Waiter w2) ->
+                compareDeadlines(w1.deadline, w2.deadline);
+        Comparator<Waiter> fifo = (Waiter w1, Waiter w2) ->
+                Long.compare(w1.seq, w2.seq);
+
+        switch(o) {
+            case EDF:
+                return byDeadline.thenComparing(byClass).thenComparing(fifo);
+            case PRIORITY_EDF:
+                return byClass.thenComparing(byDeadline).thenComparing(fifo);
+            default:
+                return byClass.thenComparing(fifo);
+        }
+    }
+
+    /**
+     * @return how deadlines of waiting requests are compared
+     */
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the number of requests of the given class that missed their
+     *         deadline since the creation of this manager: the ones dropped
+     *         while waiting or, if dropping is disabled, the ones granted
+     *         late. Requests rejected when issued are not counted, see
+     *         {@link #getRejectedCount(PriorityClass, Reason)}.
+     */
+    public long getMissedCount(PriorityClass prio) {
+        return missed[prio.ordinal()].sum();
+    }
+
+    /**
+     * @param prio the priority class of interest
+     * @param reason the reason of interest
+     *
+     * @return the number of requests of the given class rejected for the given
+     *         reason since the creation of this manager
+     */
+    public long getRejectedCount(PriorityClass prio, Reason reason) {
+        return rejected[prio.ordinal() * REASONS.length + reason.ordinal()].sum();
+    }
+
+    /**
+     * @param unit the time unit of the returned value
+     *
+     * @return the moving average of the time the resource is held by a client
+     */
+    public long getMeanHoldTime(TimeUnit unit) {
+        long stamp = lock.tryOptimisticRead();
+        double mean = meanHoldNanos;
+        if(lock.validate(stamp))
+            return unit.convert((long) mean, TimeUnit.NANOSECONDS);
+
+        lock.lock();
+        try {
+            return unit.convert((long) meanHoldNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * Requests the resource without a deadline: the request is served after
+     * every waiting request that has one.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        request(prio, NO_DEADLINE);
+    }
+
+    /**
+     * Requests the resource with a deadline relative to the current time.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     * @param timeout the time within which the resource must be granted
+     * @param unit the time unit of the timeout
+     *
+     * @throws RequestRejectedException if dropping is enabled and the request
+     * cannot be served in time
+     *
+     * @see #request(PriorityClass, long)
+     */
+    public void request(PriorityClass prio, long timeout, TimeUnit unit) {
+        request(prio, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Requests the resource with the given deadline. If dropping is enabled,
+     * the request may be rejected immediately or while waiting, see the
+     * description of this class.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     * @param deadline the time by which the resource must be granted, as a
+     * {@link System#nanoTime()} value, or {@link #NO_DEADLINE}
+     *
+     * @throws RequestRejectedException if dropping is enabled and the request
+     * cannot be served in time
+     */
+    public void request(PriorityClass prio, long deadline) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            boolean hasDeadline = deadline != NO_DEADLINE;
+
+            if(drop && hasDeadline && deadline - now <= 0)
+                throw reject(prio, Reason.DEADLINE_PASSED);
+
+            if(state == ResourceState.FREE) {
+                state = ResourceState.BUSY;
+                grantTime = now;
+                snapshot = snapshot.withState(state);
+                return;
+            }
+
+            Waiter w = new Waiter(prio, deadline, seq++);
+
+            if(drop && hasDeadline && estimateGrant(w, now) - deadline > 0)
+                throw reject(prio, Reason.DEADLINE_UNREACHABLE);
+
+            waiters.add(w);
+            snapshot = snapshot.enqueued(prio);
+
+            if(drop && hasDeadline)
+                w.expiration = LeaseTimer.shared().schedule(
+                        () -> expire(w), deadline - now, TimeUnit.NANOSECONDS);
+
+            w.condition.await();
+
+            if(w.dropped)
+                throw new RequestRejectedException(prio, Reason.DEADLINE_MISSED,
+                        "The deadline of the request passed while waiting!");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the time at which the given request is expected to be granted,
+     *         if it was added to the waiting ones now
+     */
+    private long estimateGrant(Waiter w, long now) {
+        // Nothing is known before the first release
+        if(meanHoldNanos == 0)
+            return now;
+
+        int ahead = 0;
+        for(Waiter other : waiters)
+            if(waiters.comparator().compare(other, w) < 0)
+                ++ahead;
+
+        long remaining = Math.max(0, (long) meanHoldNanos - (now - grantTime));
+
+        return now + remaining + (long) (ahead * meanHoldNanos);
+    }
+
+    private RequestRejectedException reject(PriorityClass prio, Reason reason) {
+        rejected[prio.ordinal() * REASONS.length + reason.ordinal()].increment();
+
+        return new RequestRejectedException(prio, reason,
+                "Request of class " + prio + " rejected: " + reason);
+    }
+
+    /**
+     * Drops the given request if it is still waiting; executed by the timer
+     * when its deadline passes.
+     *
+     * <p>The timer is shared with other managers, so it never waits for the
+     * lock: if the lock is busy, the check is retried later.</p>
+     */
+    private void expire(Waiter w) {
+        FairLock.Condition next = null;
+
+        if(!lock.tryLock()) {
+            w.expiration = LeaseTimer.shared().schedule(() -> expire(w),
+                    LeaseTimer.RETRY_NANOS, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        try {
+            if(!waiters.remove(w))
+                return;
+
+            w.dropped = true;
+            missed[w.priority.ordinal()].increment();
+            snapshot = snapshot.dequeued(w.priority);
+
+            next = w.condition;
+        } finally {
+            unlockAndSignal(next);
+        }
+    }
+
+    /**
+     * Gives the resource to the first waiting request according to the
+     * ordering of this manager, dropping the ones whose deadline has passed
+     * if dropping is enabled.
+     *
+     * @throws IllegalMonitorStateException if the resource was already free
+     */
+    @Override
+    public void release() {
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(state != ResourceState.BUSY)
+                throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
+
+            long now = System.nanoTime();
+            long held = now - grantTime;
+            meanHoldNanos = meanHoldNanos == 0
+                    ? held
+                    : meanHoldNanos + HOLD_TIME_GAIN * (held - meanHoldNanos);
+
+            for(Waiter w = waiters.poll(); w != null; w = waiters.poll()) {
+                snapshot = snapshot.dequeued(w.priority);
+
+                if(w.expiration != null)
+                    w.expiration.cancel(false);
+
+                boolean late = w.hasDeadline() && now - w.deadline > 0;
+
+                if(late)
+                    missed[w.priority.ordinal()].increment();
+
+                if(late && drop) {
+                    // The timer did not drop it yet; this thread must get the
+                    // lock back to go on with the next request
+                    w.dropped = true;
+                    w.condition.signal();
+                    now = System.nanoTime();
+                    continue;
+                }
+
+                grantTime = now;
+                next = w.condition;
+                return;
+            }
+
+            state = ResourceState.FREE;
+            snapshot = snapshot.withState(state);
+        } finally {
+            unlockAndSignal(next);
+        }
+    }
+
+    /**
+     * Releases the lock, handing it directly to the client waiting on the
+     * given condition, if not null.
+     */
+    private void unlockAndSignal(FairLock.Condition next) {
+        if(next != null)
+            next.signalAndUnlock();
+        else
+            lock.unlock();
+    }
+}
@@ -0,0 +1,169 @@
+package manager;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface whose state
+ * is owned by the thread of an {@link EventLoopScheduler}, so that client
+ * threads never contend for a lock protecting it.
+ *
+ * <p>A {@link #request(PriorityClass) request} publishes a command in the
+ * ring buffer of the scheduler and parks the current thread until the
+ * scheduler grants it the resource; a {@link #release() release} publishes a
+ * command and returns immediately, the next client being awakened directly by
+ * the scheduler. Commands are executed in the order they are published, in
+ * batches, and a single scheduler can serve any number of managers.</p>
+ *
+ * <p>The policy is the same of {@link SingleResourceManagerFairLock}: clients
+ * of class {@link SingleResourceManager.PriorityClass#PRIO_B PRIO_B} first,
+ * FIFO order within each class.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerEventLoop implements SingleResourceManager {
+
+    private static final AtomicIntegerFieldUpdater<SingleResourceManagerEventLoop> HELD =
+            AtomicIntegerFieldUpdater.newUpdater(SingleResourceManagerEventLoop.class, "held");
+
+    /**
+     * A client waiting for the resource.
+     */
+    static final class Waiter {
+        final Thread thread;
+        final PriorityClass priority;
+        volatile boolean granted;
+
+        Waiter(PriorityClass priority) {
+            this.thread = Thread.currentThread();
+            this.priority = priority;
+            this.granted = false;
+        }
+    }
+
+    private final EventLoopScheduler scheduler;
+
+    // Only accessed by the scheduler thread
+    private ResourceState state;
+    private final ArrayDeque<Waiter> waitingA;
+    private final ArrayDeque<Waiter> waitingB;
+
+    // 1 from the grant of the resource to the call of release, so that a
+    // wrong release can be detected by the caller itself
+    private volatile int held;
+
+    // Written only by the scheduler thread, read by anyone.
+    private volatile ResourceSnapshot snapshot;
+
+    /**
+     * Creates a new manager served by a scheduler shared by all the managers
+     * created this way.
+     */
+    public SingleResourceManagerEventLoop() {
+        this(EventLoopScheduler.shared());
+    }
+
+    /**
+     * @param scheduler the scheduler that will execute the operations of this
+     * manager
+     */
+    public SingleResourceManagerEventLoop(EventLoopScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.state = ResourceState.FREE;
+        this.waitingA = new ArrayDeque<>();
+        this.waitingB = new ArrayDeque<>();
+        this.held = 0;
+        this.snapshot = ResourceSnapshot.FREE;
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * @throws IllegalStateException if the scheduler of this manager has been
+     * closed
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        Waiter w = new Waiter(prio);
+
+        scheduler.publish(EventLoopScheduler.REQUEST, this, w);
+
+        boolean interrupted = false;
+        while(!w.granted) {
+            LockSupport.park(this);
+
+            // The interruption status is restored after the grant, like the
+            // other managers ignore interruptions while waiting
+            if(Thread.interrupted())
+                interrupted = true;
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Releases the resource. The next waiting client, if any, receives it
+     * asynchronously from the scheduler thread.
+     *
+     * @throws IllegalMonitorStateException if the resource was already free
+     * or is being released by another thread at the same time
+     * @throws IllegalStateException if the scheduler of this manager has been
+     * closed
+     */
+    @Override
+    public void release() {
+        if(!HELD.compareAndSet(this, 1, 0))
+            throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
+
+        scheduler.publish(EventLoopScheduler.RELEASE, this, null);
+    }
+
+    /**
+     * Executed by the scheduler thread for each request.
+     */
+    void onRequest(Waiter w) {
+        if(state == ResourceState.FREE) {
+            state = ResourceState.BUSY;
+            snapshot = snapshot.withState(state);
+            grant(w);
+            return;
+        }
+
+        (w.priority == PriorityClass.PRIO_B ? waitingB : waitingA).add(w);
+        snapshot = snapshot.enqueued(w.priority);
+    }
+
+    /**
+     * Executed by the scheduler thread for each release.
+     */
+    void onRelease() {
+        Waiter next = waitingB.poll();
+        if(next == null)
+            next = waitingA.poll();
+
+        if(next == null) {
+            state = ResourceState.FREE;
+            snapshot = snapshot.withState(state);
+            return;
+        }
+
+        snapshot = snapshot.dequeued(next.priority);
+        grant(next);
+    }
+
+    private void grant(Waiter w) {
+        held = 1;
+        w.granted = true;
+        LockSupport.unpark(w.thread);
+    }
+}
@@ -20,7 +20,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * 
  * @author Gabriele Ara
  */
-public class SingleResourceManagerFSM implements SingleResourceManager {
+public class SingleResourceManagerFSM implements SingleResourceManager, StatisticsProvider {
     private final Lock lock;
     private final Condition conditionA;
     private final Condition conditionB;
@@ -43,30 +43,63 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
      * 
      */
     private int state;
+    
+    /**
+     * Snapshot published for each state of the FSM, indexed like the state
+     * attribute. Clients that are being given the resource (RELEASE_TO_X
+     * states) are not counted as waiting anymore.
+     */
+    private static final ResourceSnapshot[] SNAPSHOTS = {
+        ResourceSnapshot.FREE,
+        new ResourceSnapshot(ResourceState.BUSY, 0, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 1, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 2, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 0, 1),
+        new ResourceSnapshot(ResourceState.BUSY, 1, 1),
+        new ResourceSnapshot(ResourceState.BUSY, 0, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 1, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 0, 0),
+        new ResourceSnapshot(ResourceState.BUSY, 1, 0),
+    };
+    
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+    
+    // Null if statistics are not recorded
+    private final StatisticsRecorder stats;
 
     public SingleResourceManagerFSM() {
+        this(false);
+    }
+    
+    /**
+     * @param statistics true to record the statistics returned by
+     * {@link #getStatistics()}
+     */
+    public SingleResourceManagerFSM(boolean statistics) {
         this.lock = new ReentrantLock();
         this.conditionA = lock.newCondition();
         this.conditionB = lock.newCondition();
         this.access = lock.newCondition();
         
         this.state = 0;
+        this.snapshot = SNAPSHOTS[0];
+        this.stats = statistics ? new StatisticsRecorder() : null;
     }
     
     @Override
-    public ResourceState getState() {
-        lock.lock();
-        try {
-            if(state == 0) return ResourceState.FREE;
-            return ResourceState.BUSY;
-        } finally {
-            lock.unlock();
-        }
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
     }
 
     @Override
-    public boolean isFree() {
-        return getState() == ResourceState.FREE;
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+    
+    @Override
+    public ManagerStatistics getStatistics() {
+        return stats == null ? null : stats.snapshot(snapshot);
     }
     
     /**
@@ -80,11 +113,14 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
      * threads waiting for the resource, subsequent calls of this method are
      * delayed until any pending request has been completed.</p>
      * 
+     * @param requested when the request has been issued, only used for
+     * statistics
+     * 
      * @throws IllegalMonitorStateException if a request operation canot be
      * executed by a client with priority equal to {@link PriorityClass#PRIO_A}
      * right now
      */
-    private void requestA() {
+    private void requestA(long requested) {
         if(state == 3 || state == 5 || state == 9)
             throw new IllegalMonitorStateException("A request operation from a client with priority class A is not supported right now!");
         
@@ -100,11 +136,15 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
         // Resource was free, take it.
         if(state == 0) {
             state = 1;
+            granted(PriorityClass.PRIO_A, requested);
             // endacquire[PrioA]
             return;
         }
         
         state += 1;
+        snapshot = SNAPSHOTS[state];
+        if(stats != null)
+            stats.enqueued(PriorityClass.PRIO_A, snapshot.getWaiting(PriorityClass.PRIO_A));
         
         // Waiting for the resource to be assigned to a thread with priority A.
         // Any thread is fine since in this class there's no need for FIFO
@@ -113,6 +153,7 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
             try { conditionA.await(); } catch (InterruptedException ex) { }
         
         state -= 7;
+        granted(PriorityClass.PRIO_A, requested);
         
         // endacquire[PrioA]
     }
@@ -128,11 +169,14 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
      * threads waiting for the resource, subsequent calls of this method are
      * delayed until any pending request has been completed.</p>
      * 
+     * @param requested when the request has been issued, only used for
+     * statistics
+     * 
      * @throws IllegalMonitorStateException if a request operation canot be
      * executed by a client with priority equal to {@link PriorityClass#PRIO_B}
      * right now
      */
-    private void requestB() {
+    private void requestB(long requested) {
         if(state >= 3 && state <= 7)
             throw new IllegalMonitorStateException("A request operation from a client with priority class B is not supported right now!");
         
@@ -148,11 +192,15 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
         // Resource was free, take it.
         if(state == 0) {
             state = 1;
+            granted(PriorityClass.PRIO_B, requested);
             // endacquire[PrioB]
             return;
         }
         
         state += 3;
+        snapshot = SNAPSHOTS[state];
+        if(stats != null)
+            stats.enqueued(PriorityClass.PRIO_B, snapshot.getWaiting(PriorityClass.PRIO_B));
         
         // Waiting for the resource to be assigned to a thread with priority B.
         // Any thread is fine since in this class there's no need for FIFO
@@ -161,23 +209,31 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
             try { conditionB.await(); } catch (InterruptedException ex) { }
         
         state -= 5;
+        granted(PriorityClass.PRIO_B, requested);
         
         // endacquire[PrioB]
     }
     
+    private void granted(PriorityClass prio, long requested) {
+        if(stats != null)
+            stats.granted(prio, requested);
+    }
+    
     @Override
     public void request(PriorityClass prio) {
         // This method simply dispatches requrests to requestA or requestB
         // methods, depending the value of the argument prio.
         
+        long requested = stats == null ? 0 : System.nanoTime();
+        
         lock.lock();
         try {
             switch(prio) {
                 case PRIO_A:
-                    requestA();
+                    requestA(requested);
                     break;
                 case PRIO_B:
-                    requestB();
+                    requestB(requested);
                     break;
             }
         } finally {
@@ -186,6 +242,7 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
             // access queue can now enter the montior, because the pending
             // request they were waiting for has been completed
             access.signalAll();
+            snapshot = SNAPSHOTS[state];
             lock.unlock();
         }
     }
@@ -194,6 +251,10 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
     public void release() {
         lock.lock();
         try {
+            // Class A is passed over when B is served from BUSY[1][1]
+            if(stats != null && state >= 1 && state <= 5)
+                stats.released(state == 5);
+            
             switch(state) {
                 case 4:
                 case 5:
@@ -218,6 +279,7 @@ public class SingleResourceManagerFSM implements SingleResourceManager {
             }
             
         } finally {
+            snapshot = SNAPSHOTS[state];
             lock.unlock();
         }
     }
@@ -13,44 +13,69 @@ import fairlock.FairLock;
  * 
  * @author Gabriele Ara
  */
-public class SingleResourceManagerFairLock implements SingleResourceManager {
+public class SingleResourceManagerFairLock implements SingleResourceManager, StatisticsProvider {
     private final FairLock lock;
     private final FairLock.Condition conditionA;
     private final FairLock.Condition conditionB;
     
     private ResourceState state;
     
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+    
+    // Null if statistics are not recorded
+    private final StatisticsRecorder stats;
+    
     public SingleResourceManagerFairLock() {
+        this(false);
+    }
+    
+    /**
+     * @param statistics true to record the statistics returned by
+     * {@link #getStatistics()}
+     */
+    public SingleResourceManagerFairLock(boolean statistics) {
         lock = new FairLock();
         conditionA = lock.newCondition();
         conditionB = lock.newCondition();
         state = ResourceState.FREE;
+        snapshot = ResourceSnapshot.FREE;
+        stats = statistics ? new StatisticsRecorder() : null;
     }
     
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     @Override
     public ResourceState getState() {
-        lock.lock();
-        try {
-            return state;
-        } finally {
-            lock.unlock();
-        }
+        return getSnapshot().getState();
     }
     
     @Override
-    public boolean isFree() {
-        return getState() == ResourceState.FREE;
+    public ManagerStatistics getStatistics() {
+        return stats == null ? null : stats.snapshot(snapshot);
     }
     
     @Override
     public void request(PriorityClass prio) {
+        long requested = stats == null ? 0 : System.nanoTime();
+        
         lock.lock();
         try {
             if(state == ResourceState.FREE) {
                 state = ResourceState.BUSY;
+                snapshot = snapshot.withState(state);
+                if(stats != null)
+                    stats.granted(prio, requested);
                 return;
             }
             
+            snapshot = snapshot.enqueued(prio);
+            if(stats != null)
+                stats.enqueued(prio, snapshot.getWaiting(prio));
+            
             switch(prio) {
                 case PRIO_A:
                     conditionA.await();
@@ -59,6 +84,9 @@ public class SingleResourceManagerFairLock implements SingleResourceManager {
                     conditionB.await();
                     break;
             }
+            
+            if(stats != null)
+                stats.granted(prio, requested);
         } finally{
             lock.unlock();
         }
@@ -69,19 +97,33 @@ public class SingleResourceManagerFairLock implements SingleResourceManager {
      */
     @Override
     public void release() {
+        FairLock.Condition next = null;
+        
         lock.lock();
         try {
             if(state != ResourceState.BUSY)
                 throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
             
-            if(!conditionB.isEmpty())
-                conditionB.signal();
-            else if(!conditionA.isEmpty())
-                conditionA.signal();
-            else
+            if(stats != null)
+                stats.released(!conditionB.isEmpty() && !conditionA.isEmpty());
+            
+            if(!conditionB.isEmpty()) {
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_B);
+                next = conditionB;
+            } else if(!conditionA.isEmpty()) {
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_A);
+                next = conditionA;
+            } else {
                 state = ResourceState.FREE;
+                snapshot = snapshot.withState(state);
+            }
         } finally {
-            lock.unlock();
+            // Nothing is left to do after the signal, so the lock goes
+            // straight to the awakened client instead of coming back here
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
         }
     }
 }
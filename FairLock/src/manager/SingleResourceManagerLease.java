@@ -0,0 +1,472 @@
+package manager;
+
+import fairlock.FairLock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface which grants
+ * the resource for a limited amount of time, by means of a {@link Lease}.
+ *
+ * <p>A client that obtained the resource via
+ * {@link #request(SingleResourceManager.PriorityClass, long, TimeUnit)} must
+ * either release it or {@link Lease#renew() renew} its lease before the lease
+ * expires. When a lease expires the resource is revoked from its holder and
+ * it is given to the next waiting client, following the same policy of
+ * {@link SingleResourceManagerFairLock} (clients with priority equal to
+ * {@link SingleResourceManager.PriorityClass#PRIO_B PriorityClass.PRIO_B}
+ * first, FIFO ordering between clients of the same class). This way a client
+ * that dies or hangs while holding the resource cannot stall the other ones
+ * forever.</p>
+ *
+ * <p>Any later attempt of the revoked holder to release the resource is
+ * detected and rejected with an {@link IllegalMonitorStateException}.</p>
+ *
+ * <p>Expirations are tracked by a single timer thread shared by all the
+ * instances of this class (unless a different scheduler is given to the
+ * constructor), so no thread is created per lease or per manager.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerLease implements SingleResourceManager {
+
+    /**
+     * This enum specifies the state of a {@link Lease}.
+     */
+    public enum LeaseState {
+        ACTIVE,
+        RELEASED,
+        REVOKED,
+    }
+
+    /**
+     * A grant of the resource protected by a
+     * {@link SingleResourceManagerLease}, valid until its deadline expires.
+     *
+     * <p>Every method of this class can be called by any thread: the lease
+     * object itself is the proof of ownership of the resource.</p>
+     */
+    public final class Lease implements ResourceHandle {
+        private final PriorityClass priority;
+        private final Thread holder;
+        private final long durationNanos;
+
+        private volatile long deadline;
+        // Also read optimistically, without the lock
+        private volatile LeaseState leaseState;
+        // Also rescheduled by the timer when the lock is busy
+        private volatile ScheduledFuture<?> expiration;
+
+        Lease(PriorityClass priority, long durationNanos) {
+            this.priority = priority;
+            this.holder = Thread.currentThread();
+            this.durationNanos = durationNanos;
+            this.deadline = System.nanoTime() + durationNanos;
+            this.leaseState = LeaseState.ACTIVE;
+        }
+
+        /**
+         * @return the priority of the client that obtained this lease
+         */
+        @Override
+        public PriorityClass getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the thread that requested this lease
+         */
+        public Thread getHolder() {
+            return holder;
+        }
+
+        /**
+         * @return the state of this lease
+         */
+        public LeaseState getState() {
+            long stamp = lock.tryOptimisticRead();
+            LeaseState current = leaseState;
+            if(lock.validate(stamp))
+                return current;
+
+            lock.lock();
+            try {
+                return leaseState;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return true if this lease is still active, i.e. it has been neither
+         *         released nor revoked
+         */
+        public boolean isValid() {
+            return getState() == LeaseState.ACTIVE;
+        }
+
+        @Override
+        public boolean isReleased() {
+            return getState() == LeaseState.RELEASED;
+        }
+
+        /**
+         * @param unit the time unit of the returned value
+         *
+         * @return the time left before this lease expires; it may be negative
+         *         if the lease is expired but has not been revoked yet
+         */
+        public long getRemaining(TimeUnit unit) {
+            if(isInfinite())
+                return Long.MAX_VALUE;
+
+            return unit.convert(deadline - System.nanoTime(),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Extends the deadline of this lease, that will expire after the same
+         * duration that was requested when the lease has been obtained,
+         * starting from now.
+         *
+         * @return true if the lease has been renewed, false if it has already
+         *         been released or revoked
+         */
+        public boolean renew() {
+            lock.lock();
+            try {
+                if(leaseState != LeaseState.ACTIVE)
+                    return false;
+
+                // The timer is not rescheduled here: when it fires it will
+                // notice the new deadline and schedule itself again.
+                if(!isInfinite())
+                    deadline = System.nanoTime() + durationNanos;
+
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Releases the resource granted by this lease, exactly like
+         * {@link SingleResourceManagerLease#release()} does.
+         *
+         * @throws IllegalMonitorStateException if this lease has already been
+         * released or if it has been revoked
+         */
+        public void release() {
+            FairLock.Condition next = null;
+
+            lock.lock();
+            try {
+                if(leaseState == LeaseState.REVOKED)
+                    throw new IllegalMonitorStateException("The lease has expired and the resource has been revoked, cannot execute release operation!");
+                if(leaseState == LeaseState.RELEASED)
+                    throw new IllegalMonitorStateException("The lease has already been released, cannot execute release operation!");
+
+                next = terminate(LeaseState.RELEASED);
+            } finally {
+                unlockAndSignal(next);
+            }
+        }
+
+        /**
+         * Releases the resource granted by this lease, if not already
+         * released.
+         *
+         * @throws IllegalMonitorStateException if this lease has been revoked,
+         * since the holder may have used the resource when it was already
+         * granted to another client
+         */
+        @Override
+        public void close() {
+            FairLock.Condition next = null;
+
+            lock.lock();
+            try {
+                if(leaseState == LeaseState.REVOKED)
+                    throw new IllegalMonitorStateException("The lease has expired and the resource has been revoked, cannot execute release operation!");
+
+                if(leaseState == LeaseState.ACTIVE)
+                    next = terminate(LeaseState.RELEASED);
+            } finally {
+                unlockAndSignal(next);
+            }
+        }
+
+        private boolean isInfinite() {
+            return durationNanos == INFINITE;
+        }
+    }
+
+    private static final long INFINITE = 0;
+
+    private final FairLock lock;
+    private final FairLock.Condition conditionA;
+    private final FairLock.Condition conditionB;
+    private final ScheduledExecutorService timer;
+
+    private ResourceState state;
+    private Lease current;
+    // Also read optimistically, without the lock
+    private volatile long revoked;
+
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+
+    /**
+     * Creates a new manager whose leases expire by means of the timer shared
+     * by all the instances of this class.
+     */
+    public SingleResourceManagerLease() {
+        this(LeaseTimer.shared());
+    }
+
+    /**
+     * Creates a new manager whose leases expire by means of the given
+     * scheduler.
+     *
+     * @param timer the scheduler used to track the expiration of leases
+     */
+    public SingleResourceManagerLease(ScheduledExecutorService timer) {
+        lock = new FairLock();
+        conditionA = lock.newCondition();
+        conditionB = lock.newCondition();
+        state = ResourceState.FREE;
+        current = null;
+        revoked = 0;
+        snapshot = ResourceSnapshot.FREE;
+
+        this.timer = timer;
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * @return the number of leases that have been revoked by this manager
+     *         since its creation
+     */
+    public long getRevokedCount() {
+        long stamp = lock.tryOptimisticRead();
+        long count = revoked;
+        if(lock.validate(stamp))
+            return count;
+
+        lock.lock();
+        try {
+            return revoked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests the resource with a lease that never expires: it behaves like
+     * {@link SingleResourceManagerFairLock#request(SingleResourceManager.PriorityClass)}.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        grant(prio, INFINITE);
+    }
+
+    /**
+     * Requests the resource with a lease that never expires.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     *
+     * @return the lease that grants the resource to the current thread
+     */
+    @Override
+    public Lease acquire(PriorityClass prio) {
+        return grant(prio, INFINITE);
+    }
+
+    /**
+     * Requests the resource like
+     * {@link #request(SingleResourceManager.PriorityClass)} does, but the
+     * resource is granted only for the given amount of time. Once that time
+     * elapses without the lease being {@link Lease#renew() renewed} the
+     * resource is revoked and given to the next waiting client, if any.
+     *
+     * <p>The lease duration starts when the resource is actually granted, not
+     * when the request is issued.</p>
+     *
+     * @param prio the priority of the client that is requesting the resource
+     * @param leaseDuration the duration of the lease, must be positive
+     * @param unit the time unit of the leaseDuration argument
+     *
+     * @return the lease that grants the resource to the current thread
+     *
+     * @throws IllegalArgumentException if leaseDuration is not positive
+     */
+    public Lease request(PriorityClass prio, long leaseDuration, TimeUnit unit) {
+        if(leaseDuration <= 0)
+            throw new IllegalArgumentException("The lease duration must be positive!");
+
+        return grant(prio, unit.toNanos(leaseDuration));
+    }
+
+    private Lease grant(PriorityClass prio, long durationNanos) {
+        lock.lock();
+        try {
+            if(state == ResourceState.FREE) {
+                state = ResourceState.BUSY;
+                snapshot = snapshot.withState(state);
+            } else {
+                snapshot = snapshot.enqueued(prio);
+
+                switch(prio) {
+                    case PRIO_A:
+                        conditionA.await();
+                        break;
+                    case PRIO_B:
+                        conditionB.await();
+                        break;
+                }
+            }
+
+            // Either the resource was free or it has been handed to this
+            // thread by a release or by a revocation: the lease starts now.
+            current = new Lease(prio, durationNanos);
+
+            if(durationNanos != INFINITE)
+                scheduleExpiration(current, durationNanos);
+
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the resource held by the current thread.
+     *
+     * <p>Differently from the other implementations of
+     * {@link SingleResourceManager}, only the thread that requested the
+     * resource can release it this way; use {@link Lease#release()} to
+     * release a lease from a different thread.</p>
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     * hold the resource, either because it never obtained it or because its
+     * lease has been revoked
+     */
+    @Override
+    public void release() {
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(state != ResourceState.BUSY)
+                throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
+
+            if(current.holder != Thread.currentThread())
+                throw new IllegalMonitorStateException("The current thread does not hold the resource (its lease may have been revoked), cannot execute release operation!");
+
+            next = terminate(LeaseState.RELEASED);
+        } finally {
+            unlockAndSignal(next);
+        }
+    }
+
+    /**
+     * Schedules the expiration check of the given lease after the given delay.
+     *
+     * <p>Must be called while holding the lock.</p>
+     */
+    private void scheduleExpiration(Lease lease, long delayNanos) {
+        lease.expiration = timer.schedule(() -> expire(lease),
+                delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Called by the timer when the given lease may be expired: if the lease
+     * has been renewed in the meanwhile a new check is scheduled, otherwise
+     * the lease is revoked and the resource is given to the next client.
+     *
+     * <p>The timer may be shared with other managers, so it never waits for
+     * the lock: if the lock is busy, the check is retried later. A retry
+     * scheduled while the lease is being released finds it terminated and
+     * does nothing.</p>
+     */
+    private void expire(Lease lease) {
+        FairLock.Condition next = null;
+
+        if(!lock.tryLock()) {
+            lease.expiration = timer.schedule(() -> expire(lease),
+                    LeaseTimer.RETRY_NANOS, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        try {
+            if(current != lease || lease.leaseState != LeaseState.ACTIVE)
+                return;
+
+            long remaining = lease.deadline - System.nanoTime();
+
+            if(remaining > 0) {
+                scheduleExpiration(lease, remaining);
+                return;
+            }
+
+            ++revoked;
+            next = terminate(LeaseState.REVOKED);
+        } finally {
+            unlockAndSignal(next);
+        }
+    }
+
+    /**
+     * Terminates the current lease and selects the next waiting client, if
+     * any, or sets the resource as free.
+     *
+     * <p>Must be called while holding the lock; the caller must then release
+     * it with {@link #unlockAndSignal(FairLock.Condition)}.</p>
+     *
+     * @return the condition of the client that will receive the resource, or
+     *         null if the resource is now free
+     */
+    private FairLock.Condition terminate(LeaseState finalState) {
+        current.leaseState = finalState;
+
+        if(current.expiration != null)
+            current.expiration.cancel(false);
+
+        current = null;
+
+        if(!conditionB.isEmpty()) {
+            snapshot = snapshot.dequeued(PriorityClass.PRIO_B);
+            return conditionB;
+        } else if(!conditionA.isEmpty()) {
+            snapshot = snapshot.dequeued(PriorityClass.PRIO_A);
+            return conditionA;
+        }
+
+        state = ResourceState.FREE;
+        snapshot = snapshot.withState(state);
+        return null;
+    }
+
+    /**
+     * Releases the lock, handing it directly to the first client waiting on
+     * the given condition, if not null.
+     */
+    private void unlockAndSignal(FairLock.Condition next) {
+        if(next != null)
+            next.signalAndUnlock();
+        else
+            lock.unlock();
+    }
+}
@@ -17,7 +17,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * 
  * @author Gabriele Ara
  */
-public class SingleResourceManagerLock implements SingleResourceManager {
+public class SingleResourceManagerLock implements SingleResourceManager, StatisticsProvider {
     private final Lock lock;
     private final Condition conditionA;
     private final Condition conditionB;
@@ -69,7 +69,21 @@ public class SingleResourceManagerLock implements SingleResourceManager {
     private final Queue<Thread> conditionAQueue;
     private final Queue<Thread> conditionBQueue;
     
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+    
+    // Null if statistics are not recorded
+    private final StatisticsRecorder stats;
+    
     public SingleResourceManagerLock() {
+        this(false);
+    }
+    
+    /**
+     * @param statistics true to record the statistics returned by
+     * {@link #getStatistics()}
+     */
+    public SingleResourceManagerLock(boolean statistics) {
         lock = new ReentrantLock();
         conditionA = lock.newCondition();
         conditionB = lock.newCondition();
@@ -77,21 +91,24 @@ public class SingleResourceManagerLock implements SingleResourceManager {
         
         conditionAQueue = new LinkedList<>();
         conditionBQueue = new LinkedList<>();
+        
+        snapshot = ResourceSnapshot.FREE;
+        stats = statistics ? new StatisticsRecorder() : null;
     }
     
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     @Override
     public ResourceState getState() {
-        lock.lock();
-        try {
-            return state;
-        } finally {
-            lock.unlock();
-        }
+        return getSnapshot().getState();
     }
     
     @Override
-    public boolean isFree() {
-        return getState() == ResourceState.FREE;
+    public ManagerStatistics getStatistics() {
+        return stats == null ? null : stats.snapshot(snapshot);
     }
     
     /**
@@ -114,14 +131,24 @@ public class SingleResourceManagerLock implements SingleResourceManager {
     
     @Override
     public void request(PriorityClass prio) {
+        long requested = stats == null ? 0 : System.nanoTime();
+        
         lock.lock();
         try {
             if(state == ResourceState.FREE) {
                 state = ResourceState.BUSY;
                 owner = Thread.currentThread();
+                snapshot = snapshot.withState(state);
+                if(stats != null)
+                    stats.granted(prio, requested);
                 return;
             }
             
+            // Published before waiting, subclasses may override enqueue
+            snapshot = snapshot.enqueued(prio);
+            if(stats != null)
+                stats.enqueued(prio, snapshot.getWaiting(prio));
+            
             switch(prio) {
                 case PRIO_A:
                     enqueue(conditionA, conditionAQueue);
@@ -130,6 +157,9 @@ public class SingleResourceManagerLock implements SingleResourceManager {
                     enqueue(conditionB, conditionBQueue);
                     break;
             }
+            
+            if(stats != null)
+                stats.granted(prio, requested);
         } finally {
             lock.unlock();
         }
@@ -145,15 +175,21 @@ public class SingleResourceManagerLock implements SingleResourceManager {
             if(state != ResourceState.BUSY)
                 throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
             
+            if(stats != null)
+                stats.released(conditionBQueue.size() > 0 && conditionAQueue.size() > 0);
+            
             if(conditionBQueue.size() > 0) {
                 owner = conditionBQueue.poll();
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_B);
                 conditionB.signalAll();
             } else if(conditionAQueue.size() > 0) {
                 owner = conditionAQueue.poll();
+                snapshot = snapshot.dequeued(PriorityClass.PRIO_A);
                 conditionA.signalAll();
             } else {
                 owner = null;
                 state = ResourceState.FREE;
+                snapshot = snapshot.withState(state);
             }
             
         } finally {
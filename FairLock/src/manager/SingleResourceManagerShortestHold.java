@@ -0,0 +1,309 @@
+package manager;
+
+import fairlock.FairLock;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface that, within
+ * each priority class, grants the resource to the waiting client expected to
+ * hold it for the shortest time, so that a client that holds the resource
+ * for a long time does not delay many short ones.
+ *
+ * <p>Clients of class {@link PriorityClass#PRIO_B} are served first, like in
+ * the other managers. The expected hold time of a client is an exponentially
+ * weighted moving average of the times it held the resource in the past;
+ * clients are identified by a <i>tag</i>, which is the calling thread for
+ * requests issued via {@link #request(PriorityClass)} and can be any object
+ * for requests issued via {@link #request(PriorityClass, Object)}, e.g. the
+ * kind of operation the client is about to execute. Tags never seen before
+ * are expected to hold the resource for the average time of all the clients.
+ * Tags are weakly referenced, so the ones no longer in use are discarded.</p>
+ *
+ * <p>In order to preserve fairness, a client that has been waiting for more
+ * than a maximum waiting time is served before every other client of its
+ * class, in FIFO order with the other clients in the same situation; with a
+ * maximum waiting time of zero, clients of the same class are served in FIFO
+ * order, like in {@link SingleResourceManagerFairLock}.</p>
+ *
+ * <p>Each waiting client uses its own {@link FairLock.Condition}, so that the
+ * one to be awakened can be chosen freely. Choosing it takes time linear in
+ * the number of clients waiting in the same class.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerShortestHold implements SingleResourceManager {
+
+    /**
+     * The default maximum waiting time, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10;
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    // Weight of the last observation in the average hold times
+    private static final double HOLD_TIME_GAIN = 0.125;
+
+    /**
+     * The moving average of the hold times of a tag.
+     */
+    private static final class Estimate {
+        double meanHoldNanos;
+        boolean sampled;
+    }
+
+    /**
+     * A waiting client.
+     */
+    private final class Waiter {
+        final PriorityClass priority;
+        final Estimate estimate;
+        final long arrival;
+        final FairLock.Condition condition;
+
+        Waiter(PriorityClass priority, Estimate estimate, long arrival) {
+            this.priority = priority;
+            this.estimate = estimate;
+            this.arrival = arrival;
+            this.condition = lock.newCondition();
+        }
+    }
+
+    private final FairLock lock;
+    private final long maxWaitNanos;
+
+    // Waiting clients of each class, in arrival order
+    private final ArrayList<Waiter>[] waiting;
+
+    private final Map<Object, Estimate> estimates;
+    private double meanHoldNanos;
+
+    private ResourceState state;
+    private Estimate holder;
+    private long grantTime;
+
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+
+    /**
+     * Creates a new manager with a maximum waiting time of
+     * {@link #DEFAULT_MAX_WAIT_MILLIS} milliseconds.
+     */
+    public SingleResourceManagerShortestHold() {
+        this(DEFAULT_MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxWait the time after which a waiting client is served before
+     * the other clients of its class, regardless of its expected hold time
+     * @param unit the time unit of the maximum waiting time
+     *
+     * @throws IllegalArgumentException if the maximum waiting time is negative
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SingleResourceManagerShortestHold(long maxWait, TimeUnit unit) {
+        if(maxWait < 0)
+            throw new IllegalArgumentException("The maximum waiting time cannot be negative!");
+
+        this.lock = new FairLock();
+        this.maxWaitNanos = unit.toNanos(maxWait);
+
+        this.waiting = new ArrayList[CLASSES];
+        for(int i = 0; i < CLASSES; ++i)
+            waiting[i] = new ArrayList<>();
+
+        this.estimates = new WeakHashMap<>();
+        this.meanHoldNanos = 0;
+
+        this.state = ResourceState.FREE;
+        this.holder = null;
+        this.grantTime = 0;
+
+        this.snapshot = ResourceSnapshot.FREE;
+    }
+
+    /**
+     * @param unit the time unit of the returned value
+     *
+     * @return the time after which a waiting client is served before the
+     *         other clients of its class
+     */
+    public long getMaxWait(TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param tag the tag of interest
+     * @param unit the time unit of the returned value
+     *
+     * @return the time for which a client with the given tag is expected to
+     *         hold the resource
+     */
+    public long getExpectedHoldTime(Object tag, TimeUnit unit) {
+        lock.lock();
+        try {
+            Estimate e = estimates.get(tag);
+            return unit.convert((long) expected(e), TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * Requests the resource, using the current thread as the tag of the
+     * client.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        request(prio, Thread.currentThread());
+    }
+
+    /**
+     * Requests the resource on behalf of a client with the given tag: the
+     * time for which the resource will be held is expected to be similar to
+     * the one of the previous requests with the same tag.
+     *
+     * @param prio the priority of the client that is requesting the resource
+     * @param tag the tag of the client, compared via {@link Object#equals}
+     */
+    public void request(PriorityClass prio, Object tag) {
+        Objects.requireNonNull(tag);
+
+        lock.lock();
+        try {
+            Estimate e = estimates.get(tag);
+            if(e == null) {
+                e = new Estimate();
+                estimates.put(tag, e);
+            }
+
+            if(state == ResourceState.FREE) {
+                state = ResourceState.BUSY;
+                grant(e, System.nanoTime());
+                snapshot = snapshot.withState(state);
+                return;
+            }
+
+            Waiter w = new Waiter(prio, e, System.nanoTime());
+            waiting[prio.ordinal()].add(w);
+            snapshot = snapshot.enqueued(prio);
+
+            // The releasing client grants the resource before signaling
+            w.condition.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if the resource was already free
+     */
+    @Override
+    public void release() {
+        FairLock.Condition next = null;
+
+        lock.lock();
+        try {
+            if(state != ResourceState.BUSY)
+                throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
+
+            long now = System.nanoTime();
+            learn(holder, now - grantTime);
+
+            Waiter w = selectNext(now);
+
+            if(w == null) {
+                holder = null;
+                state = ResourceState.FREE;
+                snapshot = snapshot.withState(state);
+                return;
+            }
+
+            grant(w.estimate, now);
+            snapshot = snapshot.dequeued(w.priority);
+            next = w.condition;
+        } finally {
+            // Hand the lock directly to the awakened client
+            if(next != null)
+                next.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * @return the expected hold time of a tag, the average one if nothing is
+     *         known about it
+     */
+    private double expected(Estimate e) {
+        return e != null && e.sampled ? e.meanHoldNanos : meanHoldNanos;
+    }
+
+    private void learn(Estimate e, long held) {
+        e.meanHoldNanos = e.sampled
+                ? e.meanHoldNanos + HOLD_TIME_GAIN * (held - e.meanHoldNanos)
+                : held;
+        e.sampled = true;
+
+        meanHoldNanos = meanHoldNanos == 0
+                ? held
+                : meanHoldNanos + HOLD_TIME_GAIN * (held - meanHoldNanos);
+    }
+
+    /**
+     * Removes the next client that must receive the resource: the first one
+     * of class B if any, otherwise of class A; within the class, the one that
+     * waited for the longest time if it exceeded the maximum waiting time,
+     * otherwise the one with the shortest expected hold time (the first one
+     * on ties).
+     *
+     * @return the next client, or null if no client is waiting
+     */
+    private Waiter selectNext(long now) {
+        for(int i = CLASSES - 1; i >= 0; --i) {
+            ArrayList<Waiter> q = waiting[i];
+
+            if(q.isEmpty())
+                continue;
+
+            int best = 0;
+
+            if(now - q.get(0).arrival < maxWaitNanos) {
+                double shortest = expected(q.get(0).estimate);
+
+                for(int j = 1; j < q.size(); ++j) {
+                    double hold = expected(q.get(j).estimate);
+                    if(hold < shortest) {
+                        shortest = hold;
+                        best = j;
+                    }
+                }
+            }
+
+            return q.remove(best);
+        }
+
+        return null;
+    }
+
+    private void grant(Estimate e, long now) {
+        holder = e;
+        grantTime = now;
+    }
+}
@@ -0,0 +1,249 @@
+package manager;
+
+import fairlock.FairLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface which shares
+ * the resource between the two priority classes according to a weight
+ * assigned to each of them, instead of always giving precedence to clients
+ * with priority equal to
+ * {@link SingleResourceManager.PriorityClass#PRIO_B PriorityClass.PRIO_B}.
+ *
+ * <p>When clients of both classes are waiting, each class receives a fraction
+ * of the resource time proportional to its weight: with weights 80 and 20,
+ * class B holds the resource for 80% of the time and class A for the
+ * remaining 20%. When one of the classes has no waiting clients, the other
+ * one can use the resource for the whole time.</p>
+ *
+ * <p>The policy is implemented by means of a <i>virtual time</i> for each
+ * class, which is advanced on each release by the time the resource has
+ * actually been held, divided by the weight of the class of the holder. On
+ * each release, the resource is given to the waiting class with the smallest
+ * virtual time. The manager also keeps a <i>virtual clock</i>, which never
+ * goes back and is advanced to the virtual time of each class that is
+ * granted the resource and of the last holder when the resource becomes
+ * free. A class that requests the resource after being idle, even if the
+ * resource is free, has its virtual time brought forward to the clock, so
+ * that it cannot accumulate credit while idle.</p>
+ *
+ * <p>Clients of the same class are served in FIFO order. Weights can be
+ * changed at any time via
+ * {@link #setWeight(SingleResourceManager.PriorityClass, double) setWeight},
+ * without acquiring the lock that protects the resource; new weights are
+ * applied starting from the next release.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SingleResourceManagerWeighted implements SingleResourceManager {
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    private final FairLock lock;
+    private final FairLock.Condition[] conditions;
+
+    private ResourceState state;
+
+    // The class of the client that holds the resource and when it got it.
+    private PriorityClass holder;
+    private long grantTime;
+
+    private final double[] virtualTime;
+    // Written only while holding the lock, read without it.
+    private final AtomicLongArray serviceTime;
+
+    // Never decreases, see the class documentation
+    private double virtualClock;
+
+    // Replaced as a whole each time a weight changes, never modified.
+    private volatile double[] weights;
+
+    // Written only while holding the lock, read without it.
+    private volatile ResourceSnapshot snapshot;
+
+    /**
+     * Creates a new manager in which both classes have the same weight.
+     */
+    public SingleResourceManagerWeighted() {
+        this(1, 1);
+    }
+
+    /**
+     * Creates a new manager with the given weights.
+     *
+     * @param weightA the weight of the clients with priority equal to
+     * {@link SingleResourceManager.PriorityClass#PRIO_A PriorityClass.PRIO_A}
+     * @param weightB the weight of the clients with priority equal to
+     * {@link SingleResourceManager.PriorityClass#PRIO_B PriorityClass.PRIO_B}
+     *
+     * @throws IllegalArgumentException if any weight is not positive
+     */
+    public SingleResourceManagerWeighted(double weightA, double weightB) {
+        checkWeight(weightA);
+        checkWeight(weightB);
+
+        lock = new FairLock();
+        conditions = new FairLock.Condition[CLASSES];
+        for(int i = 0; i < CLASSES; ++i)
+            conditions[i] = lock.newCondition();
+
+        state = ResourceState.FREE;
+        holder = null;
+
+        virtualTime = new double[CLASSES];
+        serviceTime = new AtomicLongArray(CLASSES);
+        virtualClock = 0;
+
+        weights = new double[CLASSES];
+        weights[PriorityClass.PRIO_A.ordinal()] = weightA;
+        weights[PriorityClass.PRIO_B.ordinal()] = weightB;
+
+        snapshot = ResourceSnapshot.FREE;
+    }
+
+    private static void checkWeight(double weight) {
+        if(!(weight > 0) || Double.isInfinite(weight))
+            throw new IllegalArgumentException("Weights must be positive and finite!");
+    }
+
+    /**
+     * @param prio the priority class of interest
+     *
+     * @return the weight currently assigned to the given class
+     */
+    public double getWeight(PriorityClass prio) {
+        return weights[prio.ordinal()];
+    }
+
+    /**
+     * Changes the weight of the given class. This method does not acquire the
+     * lock that protects the resource, so it never delays its clients.
+     *
+     * @param prio the priority class whose weight must be changed
+     * @param weight the new weight, must be positive
+     *
+     * @throws IllegalArgumentException if the weight is not positive
+     */
+    public synchronized void setWeight(PriorityClass prio, double weight) {
+        checkWeight(weight);
+
+        double[] updated = weights.clone();
+        updated[prio.ordinal()] = weight;
+        weights = updated;
+    }
+
+    /**
+     * @param prio the priority class of interest
+     * @param unit the time unit of the returned value
+     *
+     * @return the total time for which clients of the given class have held
+     *         the resource, not counting the current holder
+     */
+    public long getServiceTime(PriorityClass prio, TimeUnit unit) {
+        return unit.convert(serviceTime.get(prio.ordinal()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    @Override
+    public void request(PriorityClass prio) {
+        lock.lock();
+        try {
+            int c = prio.ordinal();
+
+            // A class that was idle starts competing from the virtual clock,
+            // so that it cannot use the time it was idle to starve the other
+            // class. This applies to a free resource too: the other class
+            // may start waiting while this one holds it.
+            if(conditions[c].isEmpty() && holder != prio)
+                virtualTime[c] = Math.max(virtualTime[c], virtualClock);
+
+            if(state == ResourceState.FREE) {
+                state = ResourceState.BUSY;
+                grant(prio);
+                snapshot = snapshot.withState(state);
+                return;
+            }
+
+            snapshot = snapshot.enqueued(prio);
+
+            conditions[c].await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if the resource was already free
+     */
+    @Override
+    public void release() {
+        FairLock.Condition granted = null;
+
+        lock.lock();
+        try {
+            if(state != ResourceState.BUSY)
+                throw new IllegalMonitorStateException("Resource was already free, cannot execute release operation!");
+
+            int c = holder.ordinal();
+            long held = System.nanoTime() - grantTime;
+
+            serviceTime.addAndGet(c, held);
+            virtualTime[c] += held / weights[c];
+
+            PriorityClass next = selectNext();
+
+            if(next == null) {
+                virtualClock = Math.max(virtualClock, virtualTime[c]);
+                holder = null;
+                state = ResourceState.FREE;
+                snapshot = snapshot.withState(state);
+                return;
+            }
+
+            grant(next);
+            snapshot = snapshot.dequeued(next);
+            granted = conditions[next.ordinal()];
+        } finally {
+            // Hand the lock directly to the awakened client
+            if(granted != null)
+                granted.signalAndUnlock();
+            else
+                lock.unlock();
+        }
+    }
+
+    /**
+     * @return the waiting class with the smallest virtual time, preferring
+     *         class B on ties, or null if no client is waiting
+     */
+    private PriorityClass selectNext() {
+        PriorityClass next = null;
+
+        // Iterating from the last class gives precedence to B on ties
+        for(int i = CLASSES - 1; i >= 0; --i) {
+            if(conditions[i].isEmpty())
+                continue;
+
+            if(next == null || virtualTime[i] < virtualTime[next.ordinal()])
+                next = PRIORITIES[i];
+        }
+
+        return next;
+    }
+
+    private void grant(PriorityClass prio) {
+        holder = prio;
+        grantTime = System.nanoTime();
+        virtualClock = Math.max(virtualClock, virtualTime[prio.ordinal()]);
+    }
+}
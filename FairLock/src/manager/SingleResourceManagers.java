@@ -0,0 +1,67 @@
+package manager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Factory of the {@link SingleResourceManager} implementations provided in
+ * this package, identified by a short name.
+ *
+ * <p>This class is used by the tools that need to drive different
+ * implementations with the same workload, so that the implementation can be
+ * chosen on the command line.</p>
+ *
+ * @author Gabriele Ara
+ */
+public final class SingleResourceManagers {
+
+    private static final Map<String, Supplier<SingleResourceManager>> FACTORIES;
+
+    static {
+        Map<String, Supplier<SingleResourceManager>> m = new LinkedHashMap<>();
+
+        m.put("fairlock", SingleResourceManagerFairLock::new);
+        m.put("lock", SingleResourceManagerLock::new);
+        m.put("fsm", SingleResourceManagerFSM::new);
+        m.put("lease", SingleResourceManagerLease::new);
+        m.put("weighted", SingleResourceManagerWeighted::new);
+        m.put("edf", SingleResourceManagerEDF::new);
+        m.put("eventloop", SingleResourceManagerEventLoop::new);
+        m.put("shortest-hold", SingleResourceManagerShortestHold::new);
+
+        FACTORIES = Collections.unmodifiableMap(m);
+    }
+
+    private SingleResourceManagers() {
+    }
+
+    /**
+     * @return the names of the available implementations
+     */
+    public static Set<String> names() {
+        return FACTORIES.keySet();
+    }
+
+    /**
+     * Creates a new manager.
+     *
+     * @param name the name of the implementation, as returned by
+     * {@link #names()}
+     *
+     * @return a new instance of the given implementation
+     *
+     * @throws IllegalArgumentException if there is no implementation with the
+     * given name
+     */
+    public static SingleResourceManager create(String name) {
+        Supplier<SingleResourceManager> factory = FACTORIES.get(name);
+
+        if(factory == null)
+            throw new IllegalArgumentException("Unknown manager: " + name + ", expected one of " + names());
+
+        return factory.get();
+    }
+}
@@ -0,0 +1,22 @@
+package manager;
+
+/**
+ * Optional interface implemented by the {@link SingleResourceManager}
+ * implementations that can record statistics about each priority class.
+ *
+ * <p>Recording is enabled when the manager is created. Statistics are
+ * recorded via striped counters and histograms, without acquiring any lock
+ * besides the one the manager already holds, and a snapshot of them can be
+ * taken at any time without stopping the clients of the manager.</p>
+ *
+ * @author Gabriele Ara
+ */
+public interface StatisticsProvider {
+
+    /**
+     * @return a snapshot of the statistics recorded since the creation of
+     *         this manager, or null if it has been created without
+     *         statistics
+     */
+    ManagerStatistics getStatistics();
+}
@@ -0,0 +1,128 @@
+package manager;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import manager.SingleResourceManager.PriorityClass;
+import stats.ConcurrentHistogram;
+import stats.Histogram;
+
+/**
+ * Records the statistics of a {@link StatisticsProvider} manager.
+ *
+ * <p>Counters and histograms are striped, so recording never blocks. The
+ * class and the grant time of the current holder are plain fields, written
+ * and read only while holding the lock that protects the manager.</p>
+ *
+ * @author Gabriele Ara
+ */
+final class StatisticsRecorder {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    private final long created;
+
+    private final LongAdder[] grants;
+    private final ConcurrentHistogram[] waitTimes;
+    private final ConcurrentHistogram[] holdTimes;
+    private final LongAccumulator[] peakWaiting;
+    private final LongAdder busy;
+    private final LongAdder passOvers;
+
+    // Protected by the lock of the manager
+    private PriorityClass holder;
+    private long grantTime;
+
+    StatisticsRecorder() {
+        created = System.nanoTime();
+
+        grants = new LongAdder[CLASSES];
+        waitTimes = new ConcurrentHistogram[CLASSES];
+        holdTimes = new ConcurrentHistogram[CLASSES];
+        peakWaiting = new LongAccumulator[CLASSES];
+
+        for(int i = 0; i < CLASSES; ++i) {
+            grants[i] = new LongAdder();
+            waitTimes[i] = new ConcurrentHistogram();
+            holdTimes[i] = new ConcurrentHistogram();
+            peakWaiting[i] = new LongAccumulator(Math::max, 0);
+        }
+
+        busy = new LongAdder();
+        passOvers = new LongAdder();
+    }
+
+    /**
+     * Called when a client starts waiting, while holding the lock of the
+     * manager.
+     *
+     * @param prio the class of the client
+     * @param waiting the number of clients of the same class now waiting
+     */
+    void enqueued(PriorityClass prio, int waiting) {
+        peakWaiting[prio.ordinal()].accumulate(waiting);
+    }
+
+    /**
+     * Called by a client when it obtains the resource, while holding the lock
+     * of the manager.
+     *
+     * @param prio the class of the client
+     * @param requested when the client called request, as a
+     * {@link System#nanoTime()} value
+     */
+    void granted(PriorityClass prio, long requested) {
+        long now = System.nanoTime();
+
+        grants[prio.ordinal()].increment();
+        waitTimes[prio.ordinal()].record(now - requested);
+
+        holder = prio;
+        grantTime = now;
+    }
+
+    /**
+     * Called when the resource is released, while holding the lock of the
+     * manager.
+     *
+     * @param passOver true if the resource is being given to a client of
+     * class {@link PriorityClass#PRIO_B} while clients of class
+     * {@link PriorityClass#PRIO_A} are waiting
+     */
+    void released(boolean passOver) {
+        long held = System.nanoTime() - grantTime;
+
+        if(holder != null)
+            holdTimes[holder.ordinal()].record(held);
+        busy.add(held);
+
+        if(passOver)
+            passOvers.increment();
+
+        holder = null;
+    }
+
+    /**
+     * @param current the snapshot currently published by the manager
+     *
+     * @return the statistics recorded so far
+     */
+    ManagerStatistics snapshot(ResourceSnapshot current) {
+        long[] g = new long[CLASSES];
+        Histogram[] w = new Histogram[CLASSES];
+        Histogram[] h = new Histogram[CLASSES];
+        int[] q = new int[CLASSES];
+        long[] p = new long[CLASSES];
+
+        for(int i = 0; i < CLASSES; ++i) {
+            g[i] = grants[i].sum();
+            w[i] = waitTimes[i].snapshot();
+            h[i] = holdTimes[i].snapshot();
+            q[i] = current.getWaiting(PRIORITIES[i]);
+            p[i] = peakWaiting[i].get();
+        }
+
+        return new ManagerStatistics(System.nanoTime() - created,
+                busy.sum(), passOvers.sum(), g, w, h, q, p);
+    }
+}
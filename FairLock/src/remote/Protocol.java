@@ -0,0 +1,113 @@
+package remote;
+
+import java.nio.ByteBuffer;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManager.ResourceState;
+
+/**
+ * Binary protocol used between {@link ResourceManagerServer} and
+ * {@link RemoteSingleResourceManager}.
+ *
+ * <p>Every message is a frame of {@value #FRAME_SIZE} bytes, so that several
+ * frames can be sent back to back in the same write and decoded without any
+ * length prefix:</p>
+ *
+ * <pre>
+ * +------+----------+----------+----------+
+ * | type | priority |    id    |  value   |
+ * |  1B  |    1B    |    4B    |    4B    |
+ * +------+----------+----------+----------+
+ * </pre>
+ *
+ * <p>The id is chosen by the client and identifies a request until the
+ * resource it obtained is released; the meaning of the other fields depends
+ * on the type of the frame.</p>
+ *
+ * @author Gabriele Ara
+ */
+final class Protocol {
+
+    /**
+     * Size in bytes of every frame.
+     */
+    static final int FRAME_SIZE = 10;
+
+    /**
+     * Client to server: requests the resource with the given priority.
+     */
+    static final byte REQUEST = 1;
+
+    /**
+     * Client to server: releases the resource granted to the request with
+     * the given id.
+     */
+    static final byte RELEASE = 2;
+
+    /**
+     * Server to client: the resource has been granted to the request with
+     * the given id.
+     */
+    static final byte GRANT = 3;
+
+    /**
+     * Server to client: the release of the request with the given id has
+     * been rejected, because that request does not hold the resource.
+     */
+    static final byte REJECT = 4;
+
+    /**
+     * Server to client: the state of the resource has changed. The priority
+     * field holds the resource state, the id field the number of waiting
+     * clients of class A and the value field those of class B.
+     */
+    static final byte STATE = 5;
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final ResourceState[] STATES = ResourceState.values();
+
+    private Protocol() {
+    }
+
+    /**
+     * Appends a frame to the given buffer, which must have at least
+     * {@value #FRAME_SIZE} bytes remaining.
+     */
+    static void put(ByteBuffer buffer, byte type, int code, int id, int value) {
+        buffer.put(type);
+        buffer.put((byte) code);
+        buffer.putInt(id);
+        buffer.putInt(value);
+    }
+
+    static PriorityClass priority(int code) {
+        if(code < 0 || code >= PRIORITIES.length)
+            throw new IllegalArgumentException("Unknown priority class code: " + code);
+
+        return PRIORITIES[code];
+    }
+
+    static ResourceState state(int code) {
+        if(code < 0 || code >= STATES.length)
+            throw new IllegalArgumentException("Unknown resource state code: " + code);
+
+        return STATES[code];
+    }
+
+    /**
+     * @return a buffer with enough room for the given additional bytes,
+     *         either the given one or a larger copy of it
+     */
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+        if(buffer.remaining() >= bytes)
+            return buffer;
+
+        int capacity = Math.max(buffer.capacity() * 2,
+                buffer.position() + bytes);
+
+        ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+}
@@ -0,0 +1,322 @@
+package remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import manager.ResourceSnapshot;
+import manager.SingleResourceManager;
+
+/**
+ * Implementation of the {@link SingleResourceManager} interface whose
+ * resource is arbitrated by a {@link ResourceManagerServer}, possibly running
+ * in another process.
+ *
+ * <p>Each instance of this class opens a single connection to the server,
+ * shared by all the threads that use it; a single instance per process is
+ * usually enough. Requests of different threads are pipelined over the
+ * connection: a background thread writes all the messages queued while the
+ * previous write was in progress with a single write, and another one reads
+ * the replies of the server and wakes up the corresponding threads.</p>
+ *
+ * <p>Since the resource is granted to a single client at a time, at most one
+ * thread of this process can hold it; that thread (or any other one) releases
+ * it via {@link #release()}. If the connection is closed, the server releases
+ * the resource held by this client, if any.</p>
+ *
+ * <p>The {@link #getSnapshot() snapshot} of the resource is pushed by the
+ * server each time the state of the resource changes, so reading it never
+ * involves a round trip to the server.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class RemoteSingleResourceManager implements SingleResourceManager,
+        Closeable {
+
+    private static final int BUFFER_SIZE = Protocol.FRAME_SIZE * 1024;
+
+    /**
+     * A request waiting for the reply of the server.
+     */
+    private static class PendingRequest {
+        private final Thread thread;
+        private volatile boolean done;
+        private volatile boolean granted;
+
+        PendingRequest() {
+            thread = Thread.currentThread();
+            done = false;
+            granted = false;
+        }
+
+        void complete(boolean granted) {
+            this.granted = granted;
+            this.done = true;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Waits for the reply of the server, suppressing interrupts like the
+         * other managers do.
+         *
+         * @return true if the resource has been granted
+         */
+        boolean await() {
+            boolean interrupted = false;
+            while(!done) {
+                LockSupport.park(this);
+
+                // Restored after the reply, or park would return at once
+                if(Thread.interrupted())
+                    interrupted = true;
+            }
+
+            if(interrupted)
+                thread.interrupt();
+
+            return granted;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final Thread reader;
+    private final Thread writer;
+
+    private final Map<Integer, PendingRequest> pending;
+    private final AtomicInteger nextId;
+    private final AtomicInteger held;
+
+    // Guards the output buffer shared by the clients and the writer thread.
+    private final Object outputLock;
+    private ByteBuffer output;
+    private ByteBuffer writing;
+
+    private volatile boolean closed;
+    private volatile ResourceSnapshot snapshot;
+    private volatile long rejectedReleases;
+
+    /**
+     * Connects to a server listening on the given port of the loopback
+     * interface.
+     *
+     * @param port the port of the server
+     *
+     * @throws IOException if the connection fails
+     */
+    public RemoteSingleResourceManager(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Connects to a server listening on the given address.
+     *
+     * @param address the address of the server
+     *
+     * @throws IOException if the connection fails
+     */
+    public RemoteSingleResourceManager(InetSocketAddress address)
+            throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+
+        pending = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger();
+        held = new AtomicInteger();
+
+        outputLock = new Object();
+        output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        writing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        closed = false;
+        snapshot = ResourceSnapshot.FREE;
+        rejectedReleases = 0;
+
+        reader = new Thread(this::readLoop, "RemoteSingleResourceManager-reader");
+        writer = new Thread(this::writeLoop, "RemoteSingleResourceManager-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    @Override
+    public ResourceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public ResourceState getState() {
+        return getSnapshot().getState();
+    }
+
+    /**
+     * @return the number of releases rejected by the server because this
+     *         client did not hold the resource anymore
+     */
+    public long getRejectedReleases() {
+        return rejectedReleases;
+    }
+
+    /**
+     * @throws IllegalStateException if the connection to the server is closed
+     * before the resource is granted
+     */
+    @Override
+    public void request(PriorityClass prio) {
+        int id = nextId.incrementAndGet();
+
+        // Zero means that the resource is not held
+        if(id == 0)
+            id = nextId.incrementAndGet();
+
+        PendingRequest request = new PendingRequest();
+        pending.put(id, request);
+
+        // The connection may have been closed before the request was
+        // registered, in which case the reader won't fail it anymore
+        if(closed) {
+            pending.remove(id);
+            throw new IllegalStateException("The connection to the server is closed!");
+        }
+
+        send(Protocol.REQUEST, prio.ordinal(), id);
+
+        if(!request.await())
+            throw new IllegalStateException("The connection to the server has been closed while waiting for the resource!");
+
+        held.set(id);
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if the resource is not held by any
+     * thread of this process
+     */
+    @Override
+    public void release() {
+        int id = held.getAndSet(0);
+
+        if(id == 0)
+            throw new IllegalMonitorStateException("Resource is not held by this client, cannot execute release operation!");
+
+        send(Protocol.RELEASE, 0, id);
+    }
+
+    /**
+     * Closes the connection to the server; the resource is released by the
+     * server if it was held by this client, and every thread still waiting
+     * for it fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+
+        synchronized(outputLock) {
+            outputLock.notifyAll();
+        }
+
+        failPending();
+    }
+
+    private void send(byte type, int code, int id) {
+        synchronized(outputLock) {
+            output = Protocol.ensureRemaining(output, Protocol.FRAME_SIZE);
+            Protocol.put(output, type, code, id, 0);
+
+            // The writer is woken up only for the first frame of a batch
+            if(output.position() == Protocol.FRAME_SIZE)
+                outputLock.notify();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while(!closed) {
+                synchronized(outputLock) {
+                    while(output.position() == 0 && !closed)
+                        try { outputLock.wait(); } catch (InterruptedException ex) { }
+
+                    // Swapping buffers lets clients queue new frames while
+                    // the current batch is being written
+                    ByteBuffer batch = output;
+                    output = writing;
+                    writing = batch;
+                }
+
+                writing.flip();
+                while(writing.hasRemaining())
+                    channel.write(writing);
+                writing.clear();
+            }
+        } catch (IOException ex) {
+            closeQuietly();
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        try {
+            while(!closed) {
+                if(channel.read(in) < 0)
+                    break;
+
+                in.flip();
+
+                while(in.remaining() >= Protocol.FRAME_SIZE) {
+                    byte type = in.get();
+                    int code = in.get();
+                    int id = in.getInt();
+                    int value = in.getInt();
+
+                    dispatch(type, code, id, value);
+                }
+
+                in.compact();
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            // The connection can't be used anymore
+        }
+
+        closeQuietly();
+    }
+
+    private void dispatch(byte type, int code, int id, int value) {
+        switch(type) {
+            case Protocol.GRANT:
+                PendingRequest request = pending.remove(id);
+                if(request != null)
+                    request.complete(true);
+                break;
+            case Protocol.REJECT:
+                ++rejectedReleases;
+                break;
+            case Protocol.STATE:
+                snapshot = new ResourceSnapshot(Protocol.state(code), id, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected frame type " + type);
+        }
+    }
+
+    private void failPending() {
+        for(Integer id : pending.keySet()) {
+            PendingRequest request = pending.remove(id);
+            if(request != null)
+                request.complete(false);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ex) {
+        }
+    }
+}
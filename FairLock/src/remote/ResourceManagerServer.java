@@ -0,0 +1,441 @@
+package remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManager.ResourceState;
+
+/**
+ * Server that arbitrates a single resource shared by several processes, which
+ * access it through {@link RemoteSingleResourceManager} clients.
+ *
+ * <p>The server grants the resource following the same policy of
+ * {@link manager.SingleResourceManagerFairLock}: when the resource is
+ * released it is given to the first waiting request with priority equal to
+ * {@link PriorityClass#PRIO_B}, if any, otherwise to the first one with
+ * priority equal to {@link PriorityClass#PRIO_A}.</p>
+ *
+ * <p>All the connections are served by a single thread using non-blocking
+ * I/O, so waiting requests do not occupy any thread on the server. When a
+ * client disconnects, all its waiting requests are discarded and the
+ * resource, if held by the client, is released.</p>
+ *
+ * <p>A client that does not read its frames fast enough is disconnected
+ * once {@value #MAX_OUTPUT_SIZE} bytes are waiting to be sent to it, so that
+ * it cannot make the server buffer an unbounded amount of data.</p>
+ *
+ * <p>By default the server only accepts connections on the loopback
+ * interface.</p>
+ *
+ * @author Gabriele Ara
+ *
+ * @see Protocol
+ */
+public class ResourceManagerServer implements Closeable {
+
+    private static final int BUFFER_SIZE = Protocol.FRAME_SIZE * 1024;
+
+    /**
+     * The maximum number of bytes waiting to be sent to a client.
+     */
+    public static final int MAX_OUTPUT_SIZE = BUFFER_SIZE * 64;
+
+    /**
+     * A client connected to this server.
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in;
+        ByteBuffer out;
+        boolean overflow;
+        boolean closed;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.overflow = false;
+            this.closed = false;
+        }
+    }
+
+    /**
+     * A request for the resource, waiting or granted.
+     */
+    private static class Request {
+        final Connection connection;
+        final int id;
+
+        Request(Connection connection, int id) {
+            this.connection = connection;
+            this.id = id;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+
+    private final Queue<Request>[] queues;
+    private final Set<Connection> connections;
+    private final Set<Connection> pendingOutput;
+
+    private Request holder;
+    private boolean stateChanged;
+
+    private volatile boolean running;
+    private boolean started;
+
+    /**
+     * Creates a new server listening on the given port of the loopback
+     * interface. The server does not accept connections until it is
+     * {@link #start() started}.
+     *
+     * @param port the port to listen on, or 0 to use any free port
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    public ResourceManagerServer(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Creates a new server listening on the given address. The server does
+     * not accept connections until it is {@link #start() started}.
+     *
+     * @param address the address to listen on
+     *
+     * @throws IOException if the server socket cannot be opened
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ResourceManagerServer(InetSocketAddress address) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        queues = new Queue[PriorityClass.values().length];
+        for(int i = 0; i < queues.length; ++i)
+            queues[i] = new ArrayDeque<>();
+
+        connections = new HashSet<>();
+        pendingOutput = new HashSet<>();
+
+        holder = null;
+        stateChanged = false;
+        started = false;
+
+        thread = new Thread(this::serve, "ResourceManagerServer-" + getPort());
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @return the port this server is listening on
+     */
+    public final int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Starts serving the clients in a background thread.
+     */
+    public synchronized void start() {
+        running = true;
+        started = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the server and closes every connection; if the server was never
+     * started, it closes the server socket.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(!started) {
+            // Nobody else is going to close them
+            closeQuietly(server);
+            closeQuietly(selector);
+            return;
+        }
+
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while(running) {
+                selector.select();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while(it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if(!key.isValid())
+                        continue;
+
+                    if(key.isAcceptable())
+                        accept();
+                    else
+                        handle((Connection) key.attachment());
+                }
+
+                if(stateChanged)
+                    broadcastState();
+
+                flush();
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            // The server can't go on, every connection is closed below
+        } finally {
+            for(Connection c : connections)
+                closeQuietly(c.channel);
+
+            closeQuietly(server);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null)
+            return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        Connection c = new Connection(channel, key);
+        key.attach(c);
+
+        connections.add(c);
+
+        // Every client receives the current state as soon as it connects
+        sendState(c);
+    }
+
+    private void handle(Connection c) {
+        try {
+            if(c.key.isWritable())
+                write(c);
+
+            if(c.key.isValid() && c.key.isReadable())
+                read(c);
+        } catch (IOException | IllegalArgumentException ex) {
+            // Either the connection is broken or the client does not speak
+            // the protocol, in both cases it can't be served anymore
+            disconnect(c);
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        int n = c.channel.read(c.in);
+
+        if(n < 0) {
+            disconnect(c);
+            return;
+        }
+
+        c.in.flip();
+
+        while(c.in.remaining() >= Protocol.FRAME_SIZE) {
+            byte type = c.in.get();
+            int code = c.in.get();
+            int id = c.in.getInt();
+            c.in.getInt();
+
+            switch(type) {
+                case Protocol.REQUEST:
+                    request(c, Protocol.priority(code), id);
+                    break;
+                case Protocol.RELEASE:
+                    release(c, id);
+                    break;
+                default:
+                    throw new IOException("Unexpected frame type " + type);
+            }
+        }
+
+        c.in.compact();
+    }
+
+    private void request(Connection c, PriorityClass prio, int id) {
+        Request r = new Request(c, id);
+        stateChanged = true;
+
+        if(holder == null) {
+            grant(r);
+            return;
+        }
+
+        queues[prio.ordinal()].add(r);
+    }
+
+    private void release(Connection c, int id) {
+        if(holder == null || holder.connection != c || holder.id != id) {
+            send(c, Protocol.REJECT, 0, id, 0);
+            return;
+        }
+
+        grantNext();
+    }
+
+    /**
+     * Gives the resource to the next waiting request, following the policy
+     * described in {@link SingleResourceManager#release()}, or sets it as
+     * free.
+     */
+    private void grantNext() {
+        stateChanged = true;
+        holder = null;
+
+        for(int i = queues.length - 1; i >= 0; --i) {
+            Request next = queues[i].poll();
+
+            if(next != null) {
+                grant(next);
+                return;
+            }
+        }
+    }
+
+    private void grant(Request r) {
+        holder = r;
+        send(r.connection, Protocol.GRANT, 0, r.id, 0);
+    }
+
+    /**
+     * Discards every request of the given connection, releasing the resource
+     * if it was held by the connection, and closes it.
+     */
+    private void disconnect(Connection c) {
+        if(c.closed)
+            return;
+
+        c.closed = true;
+        connections.remove(c);
+        pendingOutput.remove(c);
+
+        for(Queue<Request> q : queues) {
+            if(q.removeIf((Request r) -> r.connection == c))
+                stateChanged = true;
+        }
+
+        if(holder != null && holder.connection == c)
+            grantNext();
+
+        c.key.cancel();
+        closeQuietly(c.channel);
+    }
+
+    private void broadcastState() {
+        stateChanged = false;
+
+        for(Connection c : connections)
+            sendState(c);
+    }
+
+    private void sendState(Connection c) {
+        ResourceState state = holder == null ?
+                ResourceState.FREE : ResourceState.BUSY;
+
+        send(c, Protocol.STATE, state.ordinal(),
+                queues[PriorityClass.PRIO_A.ordinal()].size(),
+                queues[PriorityClass.PRIO_B.ordinal()].size());
+    }
+
+    /**
+     * Appends a frame to the output buffer of the given connection; frames
+     * are actually written at the end of the current iteration, all together.
+     */
+    private void send(Connection c, byte type, int code, int id, int value) {
+        if(c.closed || c.overflow)
+            return;
+
+        if(c.out.position() + Protocol.FRAME_SIZE > MAX_OUTPUT_SIZE) {
+            // Disconnecting now could modify the set being iterated by the
+            // caller, the client is dropped by the next flush
+            c.overflow = true;
+            pendingOutput.add(c);
+            return;
+        }
+
+        c.out = Protocol.ensureRemaining(c.out, Protocol.FRAME_SIZE);
+        Protocol.put(c.out, type, code, id, value);
+
+        pendingOutput.add(c);
+    }
+
+    private void flush() {
+        // Writing may disconnect a client, modifying the set
+        Connection[] pending = pendingOutput.toArray(new Connection[0]);
+        pendingOutput.clear();
+
+        for(Connection c : pending) {
+            if(c.overflow) {
+                disconnect(c);
+                continue;
+            }
+
+            try {
+                write(c);
+            } catch (IOException ex) {
+                disconnect(c);
+            }
+        }
+
+        // Disconnections may have changed the state again
+        if(stateChanged) {
+            broadcastState();
+            flush();
+        }
+    }
+
+    private void write(Connection c) throws IOException {
+        if(c.closed)
+            return;
+
+        c.out.flip();
+        c.channel.write(c.out);
+        c.out.compact();
+
+        // Whatever could not be written now is written when the socket
+        // becomes writable again
+        int ops = SelectionKey.OP_READ;
+        if(c.out.position() > 0)
+            ops |= SelectionKey.OP_WRITE;
+
+        c.key.interestOps(ops);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ex) {
+        }
+    }
+}
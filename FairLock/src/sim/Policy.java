@@ -0,0 +1,313 @@
+package sim;
+
+import java.util.ArrayDeque;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Model of the grant policy of a {@link SingleResourceManager}, used by the
+ * {@link Simulator} to decide which waiting request receives the resource
+ * when it is released.
+ *
+ * <p>A policy only decides the order in which waiting requests are served:
+ * the simulator grants the resource immediately to a request that finds it
+ * free, like every manager does. Use {@link #create(String)} to obtain the
+ * model of one of the managers in the {@code manager} package.</p>
+ *
+ * @author Gabriele Ara
+ */
+public abstract class Policy {
+
+    protected static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    protected static final int CLASSES = PRIORITIES.length;
+
+    private final String name;
+    private final int[] waiting;
+
+    protected Policy(String name) {
+        this.name = name;
+        this.waiting = new int[CLASSES];
+    }
+
+    /**
+     * Adds a request to the waiting ones, since the resource is busy.
+     *
+     * @param r the request
+     * @param holder the class of the request holding the resource
+     *
+     * @return false if the request is rejected by the modeled manager
+     */
+    public final boolean enqueue(Request r, PriorityClass holder) {
+        if(!offer(r, holder))
+            return false;
+
+        ++waiting[r.priority.ordinal()];
+        return true;
+    }
+
+    /**
+     * Removes the next request that must receive the resource, after a
+     * request of the given class held it for the given time.
+     *
+     * @param holder the class of the request that released the resource
+     * @param held for how long it was held, in nanoseconds
+     *
+     * @return the next request, or null if there are no waiting requests
+     */
+    public final Request next(PriorityClass holder, long held) {
+        Request r = poll(holder, held);
+
+        if(r != null)
+            --waiting[r.priority.ordinal()];
+
+        return r;
+    }
+
+    /**
+     * @param prio a priority class
+     *
+     * @return the number of waiting requests of the given class
+     */
+    public final int getWaiting(PriorityClass prio) {
+        return waiting[prio.ordinal()];
+    }
+
+    /**
+     * Notifies this policy that a request of the given class found the
+     * resource free and took it without waiting. Does nothing by default.
+     *
+     * @param prio the class of the request
+     */
+    public void acquired(PriorityClass prio) {
+    }
+
+    protected abstract boolean offer(Request r, PriorityClass holder);
+
+    protected abstract Request poll(PriorityClass holder, long held);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Requests of class {@link PriorityClass#PRIO_B} first, FIFO order within
+     * each class.
+     */
+    protected static class StrictPriority extends Policy {
+        private final ArrayDeque<Request>[] queues;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        StrictPriority(String name) {
+            super(name);
+
+            queues = new ArrayDeque[CLASSES];
+            for(int i = 0; i < CLASSES; ++i)
+                queues[i] = new ArrayDeque<>();
+        }
+
+        @Override
+        protected boolean offer(Request r, PriorityClass holder) {
+            queues[r.priority.ordinal()].add(r);
+            return true;
+        }
+
+        @Override
+        protected Request poll(PriorityClass holder, long held) {
+            for(int i = CLASSES - 1; i >= 0; --i)
+                if(!queues[i].isEmpty())
+                    return queues[i].poll();
+
+            return null;
+        }
+    }
+
+    /**
+     * The state machine of {@link manager.SingleResourceManagerFSM}: B first,
+     * FIFO within each class, but a request is accepted only if the machine
+     * has a busy state for the resulting number of waiting requests, i.e. at
+     * most two waiting requests in total and at most one of class B. Requests
+     * arriving while the resource is being handed over are modeled as if
+     * they arrived right after the handover.
+     */
+    protected static class Fsm extends StrictPriority {
+        // The BUSY[a][b] states of the machine, indexed by the number of
+        // waiting requests of class A and B
+        private static final boolean[][] BUSY = {
+            { true, true },
+            { true, true },
+            { true, false },
+        };
+
+        Fsm() {
+            super("fsm");
+        }
+
+        @Override
+        protected boolean offer(Request r, PriorityClass holder) {
+            int a = getWaiting(PriorityClass.PRIO_A);
+            int b = getWaiting(PriorityClass.PRIO_B);
+
+            if(r.priority == PriorityClass.PRIO_A)
+                ++a;
+            else
+                ++b;
+
+            if(a >= BUSY.length || b >= BUSY[a].length || !BUSY[a][b])
+                return false;
+
+            return super.offer(r, holder);
+        }
+    }
+
+    /**
+     * A single FIFO queue, like a plain {@link fairlock.FairLock}.
+     */
+    protected static class Fifo extends Policy {
+        private final ArrayDeque<Request> queue = new ArrayDeque<>();
+
+        Fifo() {
+            super("fifo");
+        }
+
+        @Override
+        protected boolean offer(Request r, PriorityClass holder) {
+            queue.add(r);
+            return true;
+        }
+
+        @Override
+        protected Request poll(PriorityClass holder, long held) {
+            return queue.poll();
+        }
+    }
+
+    /**
+     * Weighted fair sharing between the classes, like
+     * {@link manager.SingleResourceManagerWeighted}: each class accumulates a
+     * virtual time equal to its hold times divided by its weight, and the
+     * waiting class with the lowest virtual time is served first (B on
+     * ties). An idle class is brought forward to the virtual clock when it
+     * requests the resource, whether it is free or not.
+     */
+    protected static class Weighted extends Policy {
+        private final ArrayDeque<Request>[] queues;
+        private final double[] weights;
+        private final double[] virtualTime;
+        private double virtualClock;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Weighted(String name, double weightA, double weightB) {
+            super(name);
+
+            if(!(weightA > 0) || !(weightB > 0) || Double.isInfinite(weightA) || Double.isInfinite(weightB))
+                throw new IllegalArgumentException("Weights must be positive and finite!");
+
+            queues = new ArrayDeque[CLASSES];
+            for(int i = 0; i < CLASSES; ++i)
+                queues[i] = new ArrayDeque<>();
+
+            weights = new double[CLASSES];
+            weights[PriorityClass.PRIO_A.ordinal()] = weightA;
+            weights[PriorityClass.PRIO_B.ordinal()] = weightB;
+
+            virtualTime = new double[CLASSES];
+            virtualClock = 0;
+        }
+
+        private void advance(int c) {
+            virtualClock = Math.max(virtualClock, virtualTime[c]);
+        }
+
+        @Override
+        public void acquired(PriorityClass prio) {
+            int c = prio.ordinal();
+
+            // The resource is free, so the class was idle
+            virtualTime[c] = Math.max(virtualTime[c], virtualClock);
+            advance(c);
+        }
+
+        @Override
+        protected boolean offer(Request r, PriorityClass holder) {
+            int c = r.priority.ordinal();
+
+            // An idle class starts from the virtual clock
+            if(queues[c].isEmpty() && holder != r.priority)
+                virtualTime[c] = Math.max(virtualTime[c], virtualClock);
+
+            queues[c].add(r);
+            return true;
+        }
+
+        @Override
+        protected Request poll(PriorityClass holder, long held) {
+            virtualTime[holder.ordinal()] += held / weights[holder.ordinal()];
+
+            int next = -1;
+            for(int i = CLASSES - 1; i >= 0; --i) {
+                if(queues[i].isEmpty())
+                    continue;
+
+                if(next < 0 || virtualTime[i] < virtualTime[next])
+                    next = i;
+            }
+
+            // Either the next class or, if the resource becomes free, the
+            // last holder
+            advance(next < 0 ? holder.ordinal() : next);
+
+            return next < 0 ? null : queues[next].poll();
+        }
+    }
+
+    /**
+     * Creates the model of a policy.
+     *
+     * @param name one of:
+     * <ul>
+     * <li>{@code fairlock}, {@code lock}, {@code lease}, {@code eventloop}: B
+     * first, FIFO within each class;</li>
+     * <li>{@code fsm}: like the previous ones, but at most two waiting
+     * requests in total, of which at most one of class B, the others are
+     * rejected;</li>
+     * <li>{@code weighted} or {@code weighted:WA,WB}: weighted fair sharing,
+     * with the given weights (1 and 1 by default);</li>
+     * <li>{@code fifo}: a single FIFO queue, ignoring the classes.</li>
+     * </ul>
+     *
+     * @return a new instance of the policy
+     *
+     * @throws IllegalArgumentException if the name is not valid
+     */
+    public static Policy create(String name) {
+        switch(name) {
+            case "fairlock":
+            case "lock":
+            case "lease":
+            case "eventloop":
+                return new StrictPriority(name);
+            case "fsm":
+                return new Fsm();
+            case "weighted":
+                return new Weighted(name, 1, 1);
+            case "fifo":
+                return new Fifo();
+        }
+
+        if(name.startsWith("weighted:")) {
+            String[] w = name.substring("weighted:".length()).split(",");
+            if(w.length == 2) {
+                try {
+                    return new Weighted(name,
+                            Double.parseDouble(w[0]),
+                            Double.parseDouble(w[1]));
+                } catch (NumberFormatException ex) {
+                    // Reported below
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown policy: " + name);
+    }
+}
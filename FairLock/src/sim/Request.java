@@ -0,0 +1,59 @@
+package sim;
+
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * A simulated request for the resource.
+ *
+ * @author Gabriele Ara
+ */
+public final class Request {
+    final PriorityClass priority;
+    final long arrival;
+    final long hold;
+    final int client;
+
+    /**
+     * @param priority the priority class of the request
+     * @param arrival the virtual time at which the request arrived, in
+     * nanoseconds
+     * @param hold for how long the request will hold the resource, in
+     * nanoseconds
+     * @param client the client that issued the request
+     */
+    public Request(PriorityClass priority, long arrival, long hold, int client) {
+        this.priority = priority;
+        this.arrival = arrival;
+        this.hold = hold;
+        this.client = client;
+    }
+
+    /**
+     * @return the priority class of the request
+     */
+    public PriorityClass getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the virtual time at which the request arrived, in nanoseconds
+     */
+    public long getArrival() {
+        return arrival;
+    }
+
+    /**
+     * @return for how long the request will hold the resource, in
+     *         nanoseconds
+     */
+    public long getHold() {
+        return hold;
+    }
+
+    /**
+     * @return the client that issued the request
+     */
+    public int getClient() {
+        return client;
+    }
+}
@@ -0,0 +1,537 @@
+package sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import manager.SingleResourceManager.PriorityClass;
+import stats.Histogram;
+import tools.Distribution;
+
+/**
+ * Discrete-event simulator of a single resource shared by clients of two
+ * priority classes, whose grants are decided by a {@link Policy} modeling
+ * one of the {@link manager.SingleResourceManager} implementations.
+ *
+ * <p>Time is virtual: the simulator jumps from one event (an arrival or a
+ * release) to the next one, so hours of traffic are simulated in seconds and
+ * the results do not depend on the load of the machine. Given the same seed,
+ * two runs produce exactly the same results. The workload is described like
+ * in {@link tools.LoadGenerator}, either as an open loop (requests of each
+ * class arrive at a given rate) or as a closed loop (a given number of
+ * clients per class, each waiting for a think time between a release and its
+ * next request).</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java sim.Simulator [option value]...
+ *
+ *   --policy P           policy to simulate, see {@link Policy#create(String)};
+ *                        repeat it to compare several policies (fairlock)
+ *   --mode open|closed   open or closed loop (open)
+ *   --rate-a R           requests per second of class A, open loop only (800)
+ *   --rate-b R           requests per second of class B, open loop only (800)
+ *   --arrivals KIND      poisson or fixed inter-arrival times (poisson)
+ *   --clients-a N        number of clients of class A, closed loop only (4)
+ *   --clients-b N        number of clients of class B, closed loop only (4)
+ *   --think DIST         think time, closed loop only (exp:5ms)
+ *   --hold DIST          hold time of both classes (exp:500us)
+ *   --hold-a DIST        hold time of class A (the one given by --hold)
+ *   --hold-b DIST        hold time of class B (the one given by --hold)
+ *   --duration D         simulated time measured (1h)
+ *   --warmup D           simulated time before the measurement (1m)
+ *   --seed N             seed of the random number generator (1)
+ *   --format csv|json    output format (csv)
+ * </pre>
+ *
+ * <p>For each policy and class, the throughput, the number of rejected
+ * requests, the time-averaged number of waiting requests and the
+ * distribution of the waiting times (in microseconds) are printed on the
+ * standard output, together with the utilization of the resource.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class Simulator {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+    private static final int CLASSES = PRIORITIES.length;
+
+    /**
+     * The workload of a simulation, parsed from the command line.
+     */
+    protected static final class Config {
+        List<String> policies = new ArrayList<>();
+        boolean open = true;
+        double[] rates = { 800, 800 };
+        boolean poisson = true;
+        int[] clients = { 4, 4 };
+        Distribution think = Distribution.parse("exp:5ms");
+        Distribution[] hold = {
+            Distribution.parse("exp:500us"),
+            Distribution.parse("exp:500us"),
+        };
+        long duration = Distribution.parseDuration("1h");
+        long warmup = Distribution.parseDuration("1m");
+        long seed = 1;
+        boolean json = false;
+
+        static Config parse(String[] args) {
+            Config c = new Config();
+            Distribution hold = null;
+            Distribution[] classHold = new Distribution[CLASSES];
+
+            if(args.length % 2 != 0)
+                throw new IllegalArgumentException("Missing value for option " + args[args.length - 1]);
+
+            for(int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+
+                switch(args[i]) {
+                    case "--policy":
+                        Policy.create(value);
+                        c.policies.add(value);
+                        break;
+                    case "--mode":
+                        if(!value.equals("open") && !value.equals("closed"))
+                            throw new IllegalArgumentException("Invalid mode: " + value);
+                        c.open = value.equals("open");
+                        break;
+                    case "--rate-a":
+                        c.rates[0] = Double.parseDouble(value);
+                        break;
+                    case "--rate-b":
+                        c.rates[1] = Double.parseDouble(value);
+                        break;
+                    case "--arrivals":
+                        if(!value.equals("poisson") && !value.equals("fixed"))
+                            throw new IllegalArgumentException("Invalid arrivals: " + value);
+                        c.poisson = value.equals("poisson");
+                        break;
+                    case "--clients-a":
+                        c.clients[0] = Integer.parseInt(value);
+                        break;
+                    case "--clients-b":
+                        c.clients[1] = Integer.parseInt(value);
+                        break;
+                    case "--think":
+                        c.think = Distribution.parse(value);
+                        break;
+                    case "--hold":
+                        hold = Distribution.parse(value);
+                        break;
+                    case "--hold-a":
+                        classHold[0] = Distribution.parse(value);
+                        break;
+                    case "--hold-b":
+                        classHold[1] = Distribution.parse(value);
+                        break;
+                    case "--duration":
+                        c.duration = Distribution.parseDuration(value);
+                        break;
+                    case "--warmup":
+                        c.warmup = Distribution.parseDuration(value);
+                        break;
+                    case "--seed":
+                        c.seed = Long.parseLong(value);
+                        break;
+                    case "--format":
+                        if(!value.equals("csv") && !value.equals("json"))
+                            throw new IllegalArgumentException("Invalid format: " + value);
+                        c.json = value.equals("json");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+
+            for(int i = 0; i < CLASSES; ++i) {
+                if(classHold[i] != null)
+                    c.hold[i] = classHold[i];
+                else if(hold != null)
+                    c.hold[i] = hold;
+
+                if(c.clients[i] < 0 || c.rates[i] < 0)
+                    throw new IllegalArgumentException("Rates and clients cannot be negative!");
+            }
+
+            if(c.duration <= 0)
+                throw new IllegalArgumentException("The duration must be positive!");
+
+            if(c.policies.isEmpty())
+                c.policies.add("fairlock");
+
+            return c;
+        }
+    }
+
+    /**
+     * The results of a simulation.
+     */
+    public static final class Result {
+        final Histogram[] waits;
+        final long[] rejected;
+        final double[] queueArea;
+        long busy;
+        final long duration;
+
+        Result(long duration) {
+            waits = new Histogram[CLASSES];
+            for(int i = 0; i < CLASSES; ++i)
+                waits[i] = new Histogram();
+
+            rejected = new long[CLASSES];
+            queueArea = new double[CLASSES];
+            busy = 0;
+            this.duration = duration;
+        }
+
+        /**
+         * @param prio a priority class
+         *
+         * @return the waiting times of the requests of the given class that
+         *         arrived during the measurement, in nanoseconds
+         */
+        public Histogram getWaits(PriorityClass prio) {
+            return waits[prio.ordinal()];
+        }
+
+        /**
+         * @param prio a priority class
+         *
+         * @return the number of requests of the given class rejected by the
+         *         policy during the measurement
+         */
+        public long getRejected(PriorityClass prio) {
+            return rejected[prio.ordinal()];
+        }
+
+        /**
+         * @param prio a priority class
+         *
+         * @return the time-averaged number of waiting requests of the given
+         *         class
+         */
+        public double getMeanWaiting(PriorityClass prio) {
+            return queueArea[prio.ordinal()] / duration;
+        }
+
+        /**
+         * @param prio a priority class
+         *
+         * @return the number of requests of the given class granted per
+         *         second of simulated time
+         */
+        public double getThroughput(PriorityClass prio) {
+            return waits[prio.ordinal()].getCount() / (duration / 1e9);
+        }
+
+        /**
+         * @return the fraction of the measured time in which the resource was
+         *         busy
+         */
+        public double getUtilization() {
+            return (double) busy / duration;
+        }
+    }
+
+    private static final int ARRIVAL = 0;
+    private static final int RELEASE = 1;
+
+    /**
+     * An event of the simulation; events with the same time are processed in
+     * the order they were scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long seq;
+        final int type;
+        final PriorityClass priority;
+        final int client;
+
+        Event(long time, long seq, int type, PriorityClass priority, int client) {
+            this.time = time;
+            this.seq = seq;
+            this.type = type;
+            this.priority = priority;
+            this.client = client;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final Config config;
+    private final Policy policy;
+    private final Random rnd;
+    private final Distribution[] interArrival;
+    private final PriorityQueue<Event> events;
+    private long seq;
+
+    private final long start;
+    private final long end;
+    private final Result result;
+
+    private Request holder;
+    private long grantTime;
+    private long lastTime;
+
+    protected Simulator(Config config, Policy policy) {
+        this.config = config;
+        this.policy = policy;
+        this.rnd = new Random(config.seed);
+        this.events = new PriorityQueue<>();
+        this.seq = 0;
+
+        interArrival = new Distribution[CLASSES];
+        for(int i = 0; i < CLASSES; ++i) {
+            if(config.open && config.rates[i] > 0) {
+                double mean = 1e9 / config.rates[i];
+                interArrival[i] = config.poisson
+                        ? Distribution.exponential(mean)
+                        : Distribution.constant((long) mean);
+            }
+        }
+
+        start = config.warmup;
+        end = start + config.duration;
+        result = new Result(config.duration);
+
+        holder = null;
+        grantTime = 0;
+        lastTime = 0;
+    }
+
+    private void schedule(long time, int type, PriorityClass prio, int client) {
+        events.add(new Event(time, seq++, type, prio, client));
+    }
+
+    /**
+     * @return the length of the intersection between [from, to) and the
+     *         measured interval
+     */
+    private long measured(long from, long to) {
+        return Math.max(0, Math.min(to, end) - Math.max(from, start));
+    }
+
+    private void grant(Request r, long now) {
+        holder = r;
+        grantTime = now;
+
+        if(r.arrival >= start)
+            result.waits[r.priority.ordinal()].record(now - r.arrival);
+
+        schedule(now + r.hold, RELEASE, r.priority, r.client);
+    }
+
+    private void arrive(Event e, long now) {
+        PriorityClass prio = e.priority;
+        int c = prio.ordinal();
+
+        if(config.open)
+            schedule(now + interArrival[c].sample(rnd), ARRIVAL, prio, 0);
+
+        Request r = new Request(prio, now, config.hold[c].sample(rnd), e.client);
+
+        if(holder == null) {
+            policy.acquired(prio);
+            grant(r, now);
+            return;
+        }
+
+        if(!policy.enqueue(r, holder.priority)) {
+            if(now >= start)
+                ++result.rejected[c];
+
+            // A rejected client tries again after thinking
+            if(!config.open)
+                schedule(now + config.think.sample(rnd), ARRIVAL, prio, e.client);
+        }
+    }
+
+    private void release(long now) {
+        Request released = holder;
+
+        result.busy += measured(grantTime, now);
+
+        if(!config.open)
+            schedule(now + config.think.sample(rnd), ARRIVAL, released.priority, released.client);
+
+        Request next = policy.next(released.priority, now - grantTime);
+
+        if(next != null)
+            grant(next, now);
+        else
+            holder = null;
+    }
+
+    /**
+     * Runs the simulation until the end of the measured interval.
+     *
+     * @return the results of the simulation
+     */
+    protected Result run() {
+        int client = 0;
+
+        for(PriorityClass prio : PRIORITIES) {
+            int c = prio.ordinal();
+
+            if(config.open) {
+                if(interArrival[c] != null)
+                    schedule(interArrival[c].sample(rnd), ARRIVAL, prio, 0);
+            } else {
+                for(int i = 0; i < config.clients[c]; ++i)
+                    schedule(config.think.sample(rnd), ARRIVAL, prio, client++);
+            }
+        }
+
+        for(Event e = events.poll(); e != null && e.time < end; e = events.poll()) {
+            long now = e.time;
+
+            long elapsed = measured(lastTime, now);
+            if(elapsed > 0)
+                for(PriorityClass prio : PRIORITIES)
+                    result.queueArea[prio.ordinal()] += (double) policy.getWaiting(prio) * elapsed;
+
+            lastTime = now;
+
+            if(e.type == ARRIVAL)
+                arrive(e, now);
+            else
+                release(now);
+        }
+
+        long elapsed = measured(lastTime, end);
+        for(PriorityClass prio : PRIORITIES)
+            result.queueArea[prio.ordinal()] += (double) policy.getWaiting(prio) * elapsed;
+
+        if(holder != null)
+            result.busy += measured(grantTime, end);
+
+        return result;
+    }
+
+    /**
+     * Simulates the given workload with the given policy.
+     *
+     * @param config the workload
+     * @param policy the name of the policy, see {@link Policy#create(String)}
+     *
+     * @return the results of the simulation
+     */
+    protected static Result simulate(Config config, String policy) {
+        return new Simulator(config, Policy.create(policy)).run();
+    }
+
+    private static void printCsv(Config config, List<String> policies, List<Result> results) {
+        System.out.println("policy,mode,class,count,rejected,throughput,utilization,mean_waiting,mean_us,p50_us,p99_us,p99.9_us,max_us");
+
+        for(int i = 0; i < policies.size(); ++i) {
+            Result r = results.get(i);
+
+            for(PriorityClass prio : PRIORITIES) {
+                Histogram h = r.getWaits(prio);
+
+                System.out.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%.1f,%.4f,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f%n",
+                        policies.get(i).replace(',', ';'),
+                        config.open ? "open" : "closed",
+                        prio,
+                        h.getCount(),
+                        r.getRejected(prio),
+                        r.getThroughput(prio),
+                        r.getUtilization(),
+                        r.getMeanWaiting(prio),
+                        h.getMean() / 1e3,
+                        h.getValueAtPercentile(50) / 1e3,
+                        h.getValueAtPercentile(99) / 1e3,
+                        h.getValueAtPercentile(99.9) / 1e3,
+                        h.getMax() / 1e3);
+            }
+        }
+    }
+
+    private static void printJson(Config config, List<String> policies, List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+
+        for(int i = 0; i < policies.size(); ++i) {
+            Result r = results.get(i);
+
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append(String.format(Locale.ROOT,
+                    "  {\n    \"policy\": \"%s\",\n    \"mode\": \"%s\",\n"
+                    + "    \"duration_s\": %.3f,\n    \"utilization\": %.4f,\n    \"classes\": {",
+                    policies.get(i),
+                    config.open ? "open" : "closed",
+                    config.duration / 1e9,
+                    r.getUtilization()));
+
+            for(PriorityClass prio : PRIORITIES) {
+                Histogram h = r.getWaits(prio);
+
+                sb.append(prio.ordinal() == 0 ? "\n" : ",\n");
+                sb.append(String.format(Locale.ROOT,
+                        "      \"%s\": { \"count\": %d, \"rejected\": %d, \"throughput\": %.1f, \"mean_waiting\": %.3f,"
+                        + " \"wait\": { \"mean_us\": %.1f, \"p50_us\": %.1f, \"p99_us\": %.1f, \"p99.9_us\": %.1f, \"max_us\": %.1f } }",
+                        prio,
+                        h.getCount(),
+                        r.getRejected(prio),
+                        r.getThroughput(prio),
+                        r.getMeanWaiting(prio),
+                        h.getMean() / 1e3,
+                        h.getValueAtPercentile(50) / 1e3,
+                        h.getValueAtPercentile(99) / 1e3,
+                        h.getValueAtPercentile(99.9) / 1e3,
+                        h.getMax() / 1e3));
+            }
+
+            sb.append("\n    }\n  }");
+        }
+
+        sb.append("\n]");
+
+        System.out.println(sb);
+    }
+
+    /**
+     * Runs the simulator.
+     *
+     * @param args the options, see the description of this class
+     */
+    public static void main(String[] args) {
+        Config config;
+
+        try {
+            config = Config.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: Simulator [--policy P]... [--mode open|closed]");
+            System.err.println("       [--rate-a R] [--rate-b R] [--arrivals poisson|fixed]");
+            System.err.println("       [--clients-a N] [--clients-b N] [--think DIST]");
+            System.err.println("       [--hold DIST] [--hold-a DIST] [--hold-b DIST]");
+            System.err.println("       [--duration D] [--warmup D] [--seed N] [--format csv|json]");
+            System.exit(1);
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+
+        for(String p : config.policies) {
+            long wallStart = System.nanoTime();
+            results.add(simulate(config, p));
+
+            System.err.printf(Locale.ROOT, "%s: %.0f s simulated in %.2f s%n",
+                    p, (config.warmup + config.duration) / 1e9,
+                    (System.nanoTime() - wallStart) / 1e9);
+        }
+
+        if(config.json)
+            printJson(config, config.policies, results);
+        else
+            printCsv(config, config.policies, results);
+    }
+}
@@ -0,0 +1,94 @@
+package stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link Histogram} that can be recorded into by several threads at the
+ * same time, without any locking.
+ *
+ * <p>Values are recorded into one of several stripes, chosen by the recording
+ * thread, each with its own buckets, so that threads recording at the same
+ * time rarely update the same memory. A {@link #snapshot() snapshot} merges
+ * the stripes into a plain {@link Histogram}; it does not stop the recording
+ * threads, so values recorded while it is taken may or may not be
+ * included.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class ConcurrentHistogram {
+
+    private static final int MAX_STRIPES = 16;
+
+    // Position of the summary of each stripe, after its buckets
+    private static final int SUM = Histogram.BUCKETS;
+    private static final int MIN = SUM + 1;
+    private static final int MAX = SUM + 2;
+    private static final int STRIPE_SIZE = MAX + 1;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    /**
+     * Creates a new empty histogram, with a number of stripes proportional to
+     * the number of available processors.
+     */
+    public ConcurrentHistogram() {
+        int n = 1;
+        while(n < Runtime.getRuntime().availableProcessors() && n < MAX_STRIPES)
+            n <<= 1;
+
+        stripes = new AtomicLongArray[n];
+        for(int i = 0; i < n; ++i) {
+            stripes[i] = new AtomicLongArray(STRIPE_SIZE);
+            stripes[i].set(MIN, Long.MAX_VALUE);
+        }
+
+        mask = n - 1;
+    }
+
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().getId();
+
+        return stripes[(int) (id ^ (id >>> 16)) & mask];
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value to be recorded
+     */
+    public void record(long value) {
+        if(value < 0)
+            value = 0;
+
+        AtomicLongArray s = stripe();
+
+        s.incrementAndGet(Histogram.index(value));
+        s.addAndGet(SUM, value);
+
+        long min;
+        while(value < (min = s.get(MIN)) && !s.compareAndSet(MIN, min, value)) { }
+
+        long max;
+        while(value > (max = s.get(MAX)) && !s.compareAndSet(MAX, max, value)) { }
+    }
+
+    /**
+     * @return a new histogram with the values recorded so far
+     */
+    public Histogram snapshot() {
+        Histogram h = new Histogram();
+
+        for(AtomicLongArray s : stripes) {
+            for(int b = 0; b < Histogram.BUCKETS; ++b) {
+                long n = s.get(b);
+                if(n != 0)
+                    h.add(b, n);
+            }
+
+            h.addSummary(s.get(SUM), s.get(MIN), s.get(MAX));
+        }
+
+        return h;
+    }
+}
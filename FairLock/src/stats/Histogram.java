@@ -0,0 +1,235 @@
+package stats;
+
+/**
+ * A histogram of non-negative long values (typically latencies expressed in
+ * nanoseconds) with a bounded relative error and a fixed memory footprint.
+ *
+ * <p>Values are recorded into log-linear buckets: each power of two is split
+ * into {@value #SUB_BUCKETS} buckets of equal width, so every value is
+ * reported with a relative error smaller than 1/{@value #SUB_BUCKETS}, no
+ * matter how large it is. Values smaller than twice {@value #SUB_BUCKETS} are
+ * recorded exactly.</p>
+ *
+ * <p>This class is not thread safe: each thread is supposed to record into
+ * its own instance, that can later be merged with the others via
+ * {@link #add(Histogram) add}.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class Histogram {
+
+    /**
+     * Number of bits used to index the buckets within a power of two.
+     */
+    static final int SUB_BITS = 5;
+
+    /**
+     * Number of buckets in which each power of two is split.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Total number of buckets, enough to record any non-negative long.
+     */
+    static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long min;
+    private long max;
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public Histogram() {
+        counts = new long[BUCKETS];
+        reset();
+    }
+
+    /**
+     * @param value a non-negative value
+     *
+     * @return the index of the bucket the value belongs to
+     */
+    static int index(long value) {
+        if(value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        // The value is shifted so that its most significant bit is the one
+        // just above the sub-bucket index.
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+
+        return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index the index of a bucket
+     *
+     * @return the smallest value that belongs to the given bucket
+     */
+    static long lowerBound(int index) {
+        if(index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+
+        return (long) (index - shift * SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @param index the index of a bucket
+     *
+     * @return the largest value that belongs to the given bucket
+     */
+    static long upperBound(int index) {
+        if(index == BUCKETS - 1)
+            return Long.MAX_VALUE;
+
+        return lowerBound(index + 1) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value to be recorded
+     */
+    public void record(long value) {
+        if(value < 0)
+            value = 0;
+
+        ++counts[index(value)];
+        ++count;
+        sum += value;
+
+        if(value < min)
+            min = value;
+        if(value > max)
+            max = value;
+    }
+
+    /**
+     * Adds all the values recorded by another histogram to this one.
+     *
+     * @param other the histogram to be merged into this one
+     */
+    public void add(Histogram other) {
+        for(int i = 0; i < BUCKETS; ++i)
+            counts[i] += other.counts[i];
+
+        count += other.count;
+        sum += other.sum;
+
+        if(other.min < min)
+            min = other.min;
+        if(other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * Adds the values recorded elsewhere (e.g. by a
+     * {@link ConcurrentHistogram}) in the given bucket.
+     *
+     * @param index the index of the bucket
+     * @param n the number of values recorded in the bucket
+     */
+    void add(int index, long n) {
+        counts[index] += n;
+        count += n;
+    }
+
+    /**
+     * Merges the sum and the extremes of values recorded elsewhere, whose
+     * buckets are added via {@link #add(int, long)}.
+     */
+    void addSummary(long sum, long min, long max) {
+        this.sum += sum;
+
+        if(min < this.min)
+            this.min = min;
+        if(max > this.max)
+            this.max = max;
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public final void reset() {
+        for(int i = 0; i < BUCKETS; ++i)
+            counts[i] = 0;
+
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest recorded value, or zero if the histogram is empty
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the recorded values, or zero if the histogram is
+     *         empty
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values falls. The returned value is the upper bound of the bucket the
+     * percentile belongs to, capped to the largest recorded value.
+     *
+     * @param percentile the percentile of interest, between 0 and 100
+     *
+     * @return the value at the given percentile, or zero if the histogram is
+     *         empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if(rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+
+            if(seen >= rank)
+                return Math.min(upperBound(i), max);
+        }
+
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + " mean=" + (long) getMean()
+                + " p50=" + getValueAtPercentile(50)
+                + " p99=" + getValueAtPercentile(99)
+                + " p99.9=" + getValueAtPercentile(99.9)
+                + " max=" + getMax();
+    }
+}
@@ -0,0 +1,319 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import manager.RequestRejectedException;
+import manager.RequestRejectedException.Reason;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerAdmission;
+import manager.SingleResourceManagerFairLock;
+
+/**
+ * Test of the admission control of {@link SingleResourceManagerAdmission}.
+ *
+ * <p>In each test the main thread holds the resource while other clients
+ * request it, one at a time, so that the number of waiting clients of each
+ * class is known when a request is issued. Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>a free resource test, with a maximum queue length of zero for both
+ * classes: a client finding the resource free must be accepted, any client
+ * requesting it while busy must be rejected;</li>
+ *
+ * <li>a queue length test, with different limits for each class: requests
+ * must be accepted until the queue of their class is full, then rejected
+ * without being queued;</li>
+ *
+ * <li>a waiting time test, in which the resource has been held for longer
+ * than the average hold time: requests must be rejected once the clients of
+ * the same or of a higher class already waiting would hold the resource for
+ * longer than the limit.</li>
+ * </ul>
+ *
+ * <p>Each test also checks the reason and the class of each rejection and the
+ * number of rejected requests counted by the manager.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class AdmissionTest {
+
+    private static final long HOLD_MILLIS = 10;
+    private static final int WARMUP_REQUESTS = 8;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * A client requesting the resource once, which releases it as soon as
+     * it gets it.
+     */
+    protected static class Client extends Thread {
+        private final SingleResourceManagerAdmission manager;
+        private final PriorityClass priority;
+
+        volatile boolean granted;
+        volatile RequestRejectedException rejection;
+
+        Client(SingleResourceManagerAdmission manager, PriorityClass priority) {
+            this.manager = manager;
+            this.priority = priority;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                manager.request(priority);
+            } catch (RequestRejectedException ex) {
+                rejection = ex;
+                return;
+            }
+
+            granted = true;
+            manager.release();
+        }
+    }
+
+    private static void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long left = nanos; left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    /**
+     * Waits for the given condition to become true.
+     *
+     * @return false if it is still false after a timeout
+     */
+    private static boolean await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() - deadline > 0)
+                return false;
+
+            Thread.yield();
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts a client that must be accepted and queued, becoming the given
+     * waiting client of its class.
+     *
+     * @return false if the client has been rejected or not queued
+     */
+    private static boolean accepted(SingleResourceManagerAdmission manager,
+            PriorityClass prio, int waiting, List<Client> clients) {
+        Client c = new Client(manager, prio);
+        clients.add(c);
+        c.start();
+
+        if(!await(() -> c.rejection != null || manager.getSnapshot().getWaiting(prio) == waiting)
+                || c.rejection != null) {
+            System.out.println("Request of class " + prio + " with " + waiting
+                    + " waiting not accepted: " + c.rejection);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts a client that must be rejected for the given reason.
+     *
+     * @return false if the client has not been rejected, or for another
+     *         reason
+     */
+    private static boolean rejected(SingleResourceManagerAdmission manager,
+            PriorityClass prio, Reason reason, List<Client> clients) {
+        Client c = new Client(manager, prio);
+        clients.add(c);
+        c.start();
+
+        RequestRejectedException ex = await(() -> !c.isAlive()) ? c.rejection : null;
+        if(ex == null || ex.getReason() != reason || ex.getPriority() != prio) {
+            System.out.println("Request of class " + prio + " not rejected with reason "
+                    + reason + ": " + (ex == null ? "accepted" : ex.getMessage()));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases the resource held by the main thread and waits for the
+     * accepted clients to be served.
+     *
+     * @return false if any accepted client has not been granted the resource
+     */
+    private static boolean serve(SingleResourceManagerAdmission manager, List<Client> clients) {
+        manager.release();
+
+        for(Client c : clients) {
+            if(!await(() -> !c.isAlive()) || (c.rejection == null && !c.granted)) {
+                System.out.println("An accepted client of class " + c.priority
+                        + " has not been granted the resource!");
+                return false;
+            }
+        }
+
+        return await(() -> manager.getSnapshot().isFree());
+    }
+
+    /**
+     * @return false if the manager did not count exactly the given number of
+     *         rejections for the given class and reason, and none for any other
+     *         reason
+     */
+    private static boolean counted(SingleResourceManagerAdmission manager,
+            PriorityClass prio, Reason reason, long count) {
+        long all = manager.getRejectedCount(prio);
+        long counted = manager.getRejectedCount(prio, reason);
+
+        if(counted != count || all != count) {
+            System.out.println("Expected " + count + " rejections of class " + prio
+                    + " for " + reason + ", found " + counted + " of " + all);
+            return false;
+        }
+
+        return true;
+    }
+
+    protected static boolean testFreeResource() {
+        boolean passed = true;
+
+        SingleResourceManagerAdmission manager =
+                new SingleResourceManagerAdmission(new SingleResourceManagerFairLock());
+        List<Client> clients = new ArrayList<>();
+
+        for(PriorityClass prio : PriorityClass.values())
+            manager.setMaxQueueLength(prio, 0);
+
+        try {
+            manager.request(PriorityClass.PRIO_A);
+        } catch (RequestRejectedException ex) {
+            System.out.println("A request for a free resource has been rejected: " + ex.getMessage());
+            return false;
+        }
+
+        passed &= rejected(manager, PriorityClass.PRIO_A, Reason.QUEUE_FULL, clients);
+        passed &= rejected(manager, PriorityClass.PRIO_B, Reason.QUEUE_FULL, clients);
+        passed &= serve(manager, clients);
+
+        // Free again, so a new client takes it
+        Client c = new Client(manager, PriorityClass.PRIO_B);
+        c.start();
+        if(!await(() -> !c.isAlive()) || !c.granted) {
+            System.out.println("A request for a free resource has been rejected!");
+            passed = false;
+        }
+
+        passed &= counted(manager, PriorityClass.PRIO_A, Reason.QUEUE_FULL, 1);
+        passed &= counted(manager, PriorityClass.PRIO_B, Reason.QUEUE_FULL, 1);
+
+        System.out.println("Free resource, no queue allowed: rejected A="
+                + manager.getRejectedCount(PriorityClass.PRIO_A)
+                + " B=" + manager.getRejectedCount(PriorityClass.PRIO_B));
+
+        return passed;
+    }
+
+    protected static boolean testQueueFull() {
+        boolean passed = true;
+
+        SingleResourceManagerAdmission manager =
+                new SingleResourceManagerAdmission(new SingleResourceManagerFairLock());
+        List<Client> clients = new ArrayList<>();
+
+        manager.setMaxQueueLength(PriorityClass.PRIO_A, 2);
+        manager.setMaxQueueLength(PriorityClass.PRIO_B, 1);
+
+        manager.request(PriorityClass.PRIO_A);
+
+        passed &= accepted(manager, PriorityClass.PRIO_A, 1, clients);
+        passed &= accepted(manager, PriorityClass.PRIO_A, 2, clients);
+        passed &= rejected(manager, PriorityClass.PRIO_A, Reason.QUEUE_FULL, clients);
+        passed &= accepted(manager, PriorityClass.PRIO_B, 1, clients);
+        passed &= rejected(manager, PriorityClass.PRIO_B, Reason.QUEUE_FULL, clients);
+        passed &= rejected(manager, PriorityClass.PRIO_A, Reason.QUEUE_FULL, clients);
+
+        System.out.println("Queue length 2:1, " + manager.getSnapshot()
+                + ", rejected A=" + manager.getRejectedCount(PriorityClass.PRIO_A)
+                + " B=" + manager.getRejectedCount(PriorityClass.PRIO_B));
+
+        // The rejected requests must not have been queued
+        if(manager.getSnapshot().getWaiting(PriorityClass.PRIO_A) != 2
+                || manager.getSnapshot().getWaiting(PriorityClass.PRIO_B) != 1) {
+            System.out.println("A rejected request has been queued!");
+            passed = false;
+        }
+
+        passed &= serve(manager, clients);
+        passed &= counted(manager, PriorityClass.PRIO_A, Reason.QUEUE_FULL, 2);
+        passed &= counted(manager, PriorityClass.PRIO_B, Reason.QUEUE_FULL, 1);
+
+        return passed;
+    }
+
+    protected static boolean testWaitTooLong() {
+        boolean passed = true;
+
+        SingleResourceManagerAdmission manager =
+                new SingleResourceManagerAdmission(new SingleResourceManagerFairLock());
+        List<Client> clients = new ArrayList<>();
+
+        for(int i = 0; i < WARMUP_REQUESTS; ++i) {
+            manager.request(PriorityClass.PRIO_A);
+            sleep(TimeUnit.MILLISECONDS.toNanos(HOLD_MILLIS));
+            manager.release();
+        }
+
+        long mean = manager.getMeanHoldTime(TimeUnit.NANOSECONDS);
+
+        // Held for longer than the average, each waiting client counts for
+        // one average hold time: one B may wait, two may not
+        manager.request(PriorityClass.PRIO_A);
+        sleep(2 * mean);
+
+        for(PriorityClass prio : PriorityClass.values())
+            manager.setMaxWait(prio, mean * 3 / 2, TimeUnit.NANOSECONDS);
+
+        passed &= accepted(manager, PriorityClass.PRIO_B, 1, clients);
+        passed &= accepted(manager, PriorityClass.PRIO_B, 2, clients);
+        passed &= rejected(manager, PriorityClass.PRIO_B, Reason.WAIT_TOO_LONG, clients);
+
+        // Class B clients are served first, so class A must wait for them
+        passed &= rejected(manager, PriorityClass.PRIO_A, Reason.WAIT_TOO_LONG, clients);
+
+        System.out.printf("Mean hold time %.1f ms, estimated wait A=%.1f ms B=%.1f ms, rejected A=%d B=%d%n",
+                mean / 1e6,
+                manager.getEstimatedWait(PriorityClass.PRIO_A, TimeUnit.NANOSECONDS) / 1e6,
+                manager.getEstimatedWait(PriorityClass.PRIO_B, TimeUnit.NANOSECONDS) / 1e6,
+                manager.getRejectedCount(PriorityClass.PRIO_A),
+                manager.getRejectedCount(PriorityClass.PRIO_B));
+
+        passed &= serve(manager, clients);
+        passed &= counted(manager, PriorityClass.PRIO_A, Reason.WAIT_TOO_LONG, 1);
+        passed &= counted(manager, PriorityClass.PRIO_B, Reason.WAIT_TOO_LONG, 1);
+
+        return passed;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        passed &= testFreeResource();
+        passed &= testQueueFull();
+        passed &= testWaitTooLong();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,309 @@
+package test;
+
+import fairlock.CompactFairLock;
+import fairlock.FairLock;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Footprint and correctness test of {@link CompactFairLock}.
+ *
+ * <p>The test first reports the number of bytes used by each instance of
+ * {@link FairLock} and of {@link CompactFairLock} in each of their states:</p>
+ *
+ * <ul>
+ * <li>idle, with and without a condition variable;</li>
+ *
+ * <li>held by a thread, without contention;</li>
+ *
+ * <li>inflated, held by a thread with another one waiting in the entry queue
+ * (counting the waiting structures but not the waiting thread);</li>
+ *
+ * <li>deflated, after every waiting thread acquired and released the
+ * lock.</li>
+ * </ul>
+ *
+ * <p>Then several threads increment (without any atomic operation) counters
+ * protected by a few locks, while pairs of threads alternate on each lock via
+ * a condition variable; the final value of each counter must be equal to the
+ * number of increments and every lock must be deflated at the end.</p>
+ *
+ * <p>Finally, a thread that is interrupted before waiting for the lock must
+ * not spin while waiting, and must find its interruption status set once it
+ * acquires the lock.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class CompactFairLockTest {
+
+    private static final int IDLE_LOCKS = 1_000_000;
+    private static final int INFLATED_LOCKS = 256;
+
+    private static final int LOCKS = 8;
+    private static final int THREADS = 8;
+    private static final int INCREMENTS = 200_000;
+    private static final int PING_PONGS = 20_000;
+
+    private static final long INTERRUPTED_HOLD_MILLIS = 500;
+    private static final long INTERRUPTED_MAX_CPU_NANOS = 100_000_000L;
+
+    protected static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+
+        for(int i = 0; i < 3; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+
+            }
+        }
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void report(String what, long before, long after, int n) {
+        System.out.printf("%-40s %8.1f bytes%n", what, (after - before) / (double) n);
+    }
+
+    private static void join(Thread[] threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    protected static void testFootprint() {
+        FairLock[] fair = new FairLock[IDLE_LOCKS];
+        long array = usedMemory();
+        for(int i = 0; i < IDLE_LOCKS; ++i)
+            fair[i] = new FairLock();
+        report("FairLock, idle", array, usedMemory(), IDLE_LOCKS);
+
+        FairLock.Condition[] fairConditions = new FairLock.Condition[IDLE_LOCKS];
+        long conditions = usedMemory();
+        for(int i = 0; i < IDLE_LOCKS; ++i)
+            fairConditions[i] = fair[i].newCondition();
+        report("FairLock, each condition", conditions, usedMemory(), IDLE_LOCKS);
+
+        fair = null;
+        fairConditions = null;
+
+        CompactFairLock[] compact = new CompactFairLock[IDLE_LOCKS];
+        array = usedMemory();
+        for(int i = 0; i < IDLE_LOCKS; ++i)
+            compact[i] = new CompactFairLock();
+        long idle = usedMemory();
+        report("CompactFairLock, idle", array, idle, IDLE_LOCKS);
+
+        for(CompactFairLock l : compact)
+            l.lock();
+        report("CompactFairLock, held (extra)", idle, usedMemory(), IDLE_LOCKS);
+        for(CompactFairLock l : compact)
+            l.unlock();
+
+        CompactFairLock.Condition[] compactConditions = new CompactFairLock.Condition[IDLE_LOCKS];
+        conditions = usedMemory();
+        for(int i = 0; i < IDLE_LOCKS; ++i)
+            compactConditions[i] = compact[i].newCondition();
+        report("CompactFairLock, each condition", conditions, usedMemory(), IDLE_LOCKS);
+        compactConditions = null;
+
+        // Inflation: one waiting thread per lock, started before measuring
+        CompactFairLock[] contended = new CompactFairLock[INFLATED_LOCKS];
+        for(int i = 0; i < INFLATED_LOCKS; ++i) {
+            contended[i] = compact[i];
+            contended[i].lock();
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] waiters = new Thread[INFLATED_LOCKS];
+        for(int i = 0; i < INFLATED_LOCKS; ++i) {
+            CompactFairLock l = contended[i];
+            waiters[i] = new Thread(() -> {
+                while(start.getCount() > 0) {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+
+                    }
+                }
+
+                l.lock();
+                l.unlock();
+            });
+            waiters[i].start();
+        }
+
+        long held = usedMemory();
+        start.countDown();
+
+        for(CompactFairLock l : contended)
+            while(!l.isInflated())
+                LockSupport.parkNanos(1_000_000);
+
+        // Lets every waiting thread reach the entry queue
+        LockSupport.parkNanos(500_000_000);
+        report("CompactFairLock, inflated (extra)", held, usedMemory(), INFLATED_LOCKS);
+
+        for(CompactFairLock l : contended)
+            l.unlock();
+        join(waiters);
+
+        for(CompactFairLock l : contended) {
+            if(l.isInflated() || l.isLocked())
+                throw new AssertionError("Lock not deflated after use!");
+        }
+
+        report("CompactFairLock, deflated", array, usedMemory(), IDLE_LOCKS);
+
+        compact[0].lock();
+        compact[0].unlock();
+    }
+
+    protected static boolean testCorrectness() {
+        CompactFairLock[] locks = new CompactFairLock[LOCKS];
+        long[] counters = new long[LOCKS];
+        long[][] increments = new long[THREADS][LOCKS];
+
+        for(int i = 0; i < LOCKS; ++i)
+            locks[i] = new CompactFairLock();
+
+        Thread[] threads = new Thread[THREADS + 2 * LOCKS];
+
+        for(int t = 0; t < THREADS; ++t) {
+            long[] mine = increments[t];
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+                for(int i = 0; i < INCREMENTS; ++i) {
+                    int k = rnd.nextInt(LOCKS);
+
+                    locks[k].lock();
+                    try {
+                        // Deliberately not atomic
+                        counters[k] = counters[k] + 1;
+                    } finally {
+                        locks[k].unlock();
+                    }
+
+                    ++mine[k];
+                }
+            });
+        }
+
+        // Two threads per lock alternate by waiting on a condition, so the
+        // locks are inflated and deflated over and over
+        boolean[] turn = new boolean[LOCKS];
+        for(int k = 0; k < LOCKS; ++k) {
+            CompactFairLock l = locks[k];
+            CompactFairLock.Condition changed = l.newCondition();
+            int lock = k;
+
+            for(int side = 0; side < 2; ++side) {
+                boolean me = side == 0;
+                threads[THREADS + 2 * k + side] = new Thread(() -> {
+                    for(int i = 0; i < PING_PONGS; ++i) {
+                        l.lock();
+                        try {
+                            while(turn[lock] != me)
+                                changed.await();
+
+                            turn[lock] = !me;
+                        } catch (RuntimeException ex) {
+                            l.unlock();
+                            throw ex;
+                        }
+
+                        // Exercises both kinds of signal
+                        if(me) {
+                            changed.signalAndUnlock();
+                        } else {
+                            changed.signal();
+                            l.unlock();
+                        }
+                    }
+                });
+            }
+        }
+
+        long startTime = System.nanoTime();
+
+        for(Thread t : threads)
+            t.start();
+        join(threads);
+
+        System.out.printf("Correctness test completed in %.1f ms%n",
+                (System.nanoTime() - startTime) / 1e6);
+
+        boolean passed = true;
+        for(int k = 0; k < LOCKS; ++k) {
+            long expected = 0;
+            for(int t = 0; t < THREADS; ++t)
+                expected += increments[t][k];
+
+            if(counters[k] != expected) {
+                System.out.println("Lock " + k + ": counter is " + counters[k]
+                        + ", expected " + expected);
+                passed = false;
+            }
+
+            if(locks[k].isInflated() || locks[k].isLocked()) {
+                System.out.println("Lock " + k + " has not been deflated!");
+                passed = false;
+            }
+        }
+
+        return passed;
+    }
+
+    protected static boolean testInterrupted() throws InterruptedException {
+        CompactFairLock lock = new CompactFairLock();
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+        long[] cpu = new long[1];
+        boolean[] restored = new boolean[1];
+
+        lock.lock();
+
+        Thread waiter = new Thread(() -> {
+            long start = mx.getCurrentThreadCpuTime();
+
+            Thread.currentThread().interrupt();
+            lock.lock();
+
+            cpu[0] = mx.getCurrentThreadCpuTime() - start;
+            restored[0] = Thread.interrupted();
+            lock.unlock();
+        });
+        waiter.start();
+
+        Thread.sleep(INTERRUPTED_HOLD_MILLIS);
+        lock.unlock();
+        waiter.join();
+
+        System.out.printf("Interrupted waiter: %.1f ms of CPU while waiting %d ms, interrupt %s%n",
+                cpu[0] / 1e6, INTERRUPTED_HOLD_MILLIS, restored[0] ? "restored" : "lost");
+
+        return restored[0] && cpu[0] < INTERRUPTED_MAX_CPU_NANOS;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        testFootprint();
+
+        if(!testCorrectness() || !testInterrupted()) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
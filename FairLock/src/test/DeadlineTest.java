@@ -0,0 +1,124 @@
+package test;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import manager.RequestRejectedException;
+import manager.RequestRejectedException.Reason;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerEDF;
+import manager.SingleResourceManagerEDF.Ordering;
+import tools.Distribution;
+
+/**
+ * Compares the number of deadlines missed by {@link SingleResourceManagerEDF}
+ * with each {@link Ordering}, under the same overloaded workload.
+ *
+ * <p>Each client repeatedly requests the resource with a random relative
+ * deadline, holds it for a random time and then waits for a random think
+ * time. Class A clients have looser deadlines than class B ones. For each
+ * ordering, the test is run both with and without dropping the requests that
+ * cannot be served in time; the number of granted requests, of missed
+ * deadlines and of requests rejected when issued is printed for each
+ * class.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class DeadlineTest {
+
+    private static final int CLIENTS_PER_CLASS = 4;
+    private static final long DURATION_MILLIS = 3000;
+
+    private static final Distribution HOLD = Distribution.parse("exp:500us");
+    private static final Distribution THINK = Distribution.parse("exp:3ms");
+    private static final Distribution[] DEADLINES = {
+        Distribution.parse("uniform:2ms,30ms"),
+        Distribution.parse("uniform:1ms,10ms"),
+    };
+
+    protected static class ClientThread extends Thread {
+        private final SingleResourceManagerEDF manager;
+        private final PriorityClass priority;
+        private final long end;
+        private long granted;
+
+        public ClientThread(SingleResourceManagerEDF manager,
+                PriorityClass priority,
+                long end) {
+            this.manager = manager;
+            this.priority = priority;
+            this.end = end;
+            this.granted = 0;
+        }
+
+        @Override
+        public void run() {
+            Random rnd = ThreadLocalRandom.current();
+
+            while(System.nanoTime() < end) {
+                long deadline = DEADLINES[priority.ordinal()].sample(rnd);
+
+                try {
+                    manager.request(priority, deadline, TimeUnit.NANOSECONDS);
+
+                    ++granted;
+                    LockSupport.parkNanos(HOLD.sample(rnd));
+
+                    manager.release();
+                } catch (RequestRejectedException ex) {
+                    // Counted by the manager
+                }
+
+                LockSupport.parkNanos(THINK.sample(rnd));
+            }
+        }
+
+        public long getGranted() {
+            return granted;
+        }
+    }
+
+    protected static void test(Ordering ordering, boolean drop) {
+        SingleResourceManagerEDF manager = new SingleResourceManagerEDF(ordering, drop);
+        long end = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+
+        ClientThread[] threads = new ClientThread[2 * CLIENTS_PER_CLASS];
+        for(int i = 0; i < threads.length; ++i) {
+            threads[i] = new ClientThread(manager,
+                    i % 2 == 0 ? PriorityClass.PRIO_A : PriorityClass.PRIO_B,
+                    end);
+            threads[i].start();
+        }
+
+        long[] granted = new long[PriorityClass.values().length];
+        for(ClientThread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+
+            granted[t.priority.ordinal()] += t.getGranted();
+        }
+
+        for(PriorityClass prio : PriorityClass.values()) {
+            System.out.printf("%s,%b,%s,%d,%d,%d,%d%n",
+                    ordering, drop, prio,
+                    granted[prio.ordinal()],
+                    manager.getMissedCount(prio),
+                    manager.getRejectedCount(prio, Reason.DEADLINE_PASSED),
+                    manager.getRejectedCount(prio, Reason.DEADLINE_UNREACHABLE));
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("ordering,drop,class,granted,missed,rejected_passed,rejected_unreachable");
+
+        for(boolean drop : new boolean[] { false, true })
+            for(Ordering ordering : Ordering.values())
+                test(ordering, drop);
+    }
+}
@@ -0,0 +1,158 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import manager.EventLoopScheduler;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerEventLoop;
+
+/**
+ * Test of {@link SingleResourceManagerEventLoop} with many managers served by
+ * a single {@link EventLoopScheduler}.
+ *
+ * <p>The ring buffer of the scheduler is deliberately smaller than the number
+ * of clients, so that it is often full. Each client repeatedly acquires the
+ * resource of a random manager and increments (without any atomic operation)
+ * a counter associated with it; the final value of each counter must be equal
+ * to the number of times its resource was acquired. A release of a free
+ * resource must be rejected.</p>
+ *
+ * <p>Finally, a client that is interrupted before requesting a busy resource
+ * must not spin while waiting, and must find its interruption status set
+ * once it receives the resource.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class EventLoopTest {
+
+    private static final int MANAGERS = 64;
+    private static final int THREADS = 16;
+    private static final int CAPACITY = 8;
+    private static final int OPERATIONS = 50_000;
+
+    private static final long INTERRUPTED_HOLD_MILLIS = 500;
+    private static final long INTERRUPTED_MAX_CPU_NANOS = 100_000_000L;
+
+    protected static boolean testInterrupted(SingleResourceManagerEventLoop manager) {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+        long[] cpu = new long[1];
+        boolean[] restored = new boolean[1];
+
+        manager.request(PriorityClass.PRIO_A);
+
+        Thread client = new Thread(() -> {
+            long start = mx.getCurrentThreadCpuTime();
+
+            Thread.currentThread().interrupt();
+            manager.request(PriorityClass.PRIO_B);
+
+            cpu[0] = mx.getCurrentThreadCpuTime() - start;
+            restored[0] = Thread.interrupted();
+            manager.release();
+        });
+        client.start();
+
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(INTERRUPTED_HOLD_MILLIS));
+        manager.release();
+
+        while(client.isAlive()) {
+            try {
+                client.join();
+            } catch (InterruptedException ex) {
+
+            }
+        }
+
+        System.out.printf("Interrupted client: %.1f ms of CPU while waiting %d ms, interrupt %s%n",
+                cpu[0] / 1e6, INTERRUPTED_HOLD_MILLIS, restored[0] ? "restored" : "lost");
+
+        return restored[0] && cpu[0] < INTERRUPTED_MAX_CPU_NANOS;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        try(EventLoopScheduler scheduler = new EventLoopScheduler(CAPACITY, Thread::new)) {
+            SingleResourceManagerEventLoop[] managers = new SingleResourceManagerEventLoop[MANAGERS];
+            for(int i = 0; i < MANAGERS; ++i)
+                managers[i] = new SingleResourceManagerEventLoop(scheduler);
+
+            long[] counters = new long[MANAGERS];
+            long[][] acquired = new long[THREADS][MANAGERS];
+
+            Thread[] threads = new Thread[THREADS];
+            for(int t = 0; t < THREADS; ++t) {
+                long[] mine = acquired[t];
+                threads[t] = new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+                    for(int i = 0; i < OPERATIONS; ++i) {
+                        int k = rnd.nextInt(MANAGERS);
+                        PriorityClass prio = rnd.nextBoolean()
+                                ? PriorityClass.PRIO_A
+                                : PriorityClass.PRIO_B;
+
+                        managers[k].request(prio);
+                        // Deliberately not atomic
+                        counters[k] = counters[k] + 1;
+                        managers[k].release();
+
+                        ++mine[k];
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+
+            for(Thread t : threads)
+                t.start();
+
+            for(Thread t : threads) {
+                while(t.isAlive()) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException ex) {
+
+                    }
+                }
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d operations in %.2f s (%.0f ops/s)%n",
+                    THREADS * OPERATIONS, seconds, THREADS * OPERATIONS / seconds);
+
+            for(int k = 0; k < MANAGERS; ++k) {
+                long expected = 0;
+                for(int t = 0; t < THREADS; ++t)
+                    expected += acquired[t][k];
+
+                if(counters[k] != expected) {
+                    System.out.println("Manager " + k + ": counter is "
+                            + counters[k] + ", expected " + expected);
+                    passed = false;
+                }
+            }
+
+            try {
+                managers[0].release();
+                System.out.println("Release of a free resource not rejected!");
+                passed = false;
+            } catch (IllegalMonitorStateException ex) {
+                // Expected
+            }
+
+            passed &= testInterrupted(managers[0]);
+        }
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,318 @@
+package test;
+
+import concurrent.FairBoundedQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class used to test {@link FairBoundedQueue}, comparing it with a fair
+ * {@link ArrayBlockingQueue}.
+ *
+ * <p>Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>a consumer ordering test, in which several consumers start waiting on
+ * an empty queue one at a time and then items are inserted: the i-th consumer
+ * that started waiting must receive the i-th item;</li>
+ *
+ * <li>a producer ordering test, in which several producers start waiting on
+ * a full queue one at a time and then the queue is emptied: their items must
+ * be removed in the same order in which they started waiting;</li>
+ *
+ * <li>a stress test, in which producers insert batches of items via
+ * {@link FairBoundedQueue#putAll putAll} and consumers remove them via
+ * {@link FairBoundedQueue#take take} and
+ * {@link FairBoundedQueue#drainTo drainTo}: every item must be removed
+ * exactly once, and each consumer must receive the items of each producer in
+ * the order they were inserted.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class FairBoundedQueueTest {
+
+    private static final int ORDERING_THREADS = 6;
+
+    private static final int CAPACITY = 16;
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int BATCHES = 5_000;
+    private static final int BATCH_SIZE = 8;
+
+    private static final long STOP = -1;
+
+    /**
+     * The operations of a queue used by the ordering tests.
+     */
+    private interface Ops {
+        void put(int item) throws InterruptedException;
+
+        int take() throws InterruptedException;
+    }
+
+    private static Ops fair(FairBoundedQueue<Integer> q) {
+        return new Ops() {
+            @Override
+            public void put(int item) {
+                q.put(item);
+            }
+
+            @Override
+            public int take() {
+                return q.take();
+            }
+        };
+    }
+
+    private static Ops blocking(ArrayBlockingQueue<Integer> q) {
+        return new Ops() {
+            @Override
+            public void put(int item) throws InterruptedException {
+                q.put(item);
+            }
+
+            @Override
+            public int take() throws InterruptedException {
+                return q.take();
+            }
+        };
+    }
+
+    private interface Body {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread startAndWait(Body body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+        t.start();
+
+        while(t.getState() != Thread.State.WAITING)
+            LockSupport.parkNanos(100_000);
+
+        return t;
+    }
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the item received by each consumer, in the order the consumers
+     *         started waiting
+     */
+    protected static int[] consumerOrder(Ops q) throws InterruptedException {
+        int[] received = new int[ORDERING_THREADS];
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            final int id = i;
+            threads.add(startAndWait(() -> received[id] = q.take()));
+        }
+
+        for(int i = 0; i < ORDERING_THREADS; ++i)
+            q.put(i);
+
+        join(threads);
+
+        return received;
+    }
+
+    /**
+     * @return the items of the producers, in the order they were removed
+     */
+    protected static List<Integer> producerOrder(Ops q, int capacity) throws InterruptedException {
+        List<Integer> removed = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < capacity; ++i)
+            q.put(-1);
+
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            final int id = i;
+            threads.add(startAndWait(() -> q.put(id)));
+        }
+
+        for(int i = 0; i < capacity + ORDERING_THREADS; ++i) {
+            int item = q.take();
+            if(item >= 0)
+                removed.add(item);
+        }
+
+        join(threads);
+
+        return removed;
+    }
+
+    protected static boolean testOrdering() throws InterruptedException {
+        boolean passed = true;
+
+        List<Integer> expected = new ArrayList<>();
+        int[] expectedArray = new int[ORDERING_THREADS];
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            expected.add(i);
+            expectedArray[i] = i;
+        }
+
+        int[] fairConsumers = consumerOrder(fair(new FairBoundedQueue<>(2)));
+        int[] abqConsumers = consumerOrder(blocking(new ArrayBlockingQueue<>(2, true)));
+
+        System.out.println("Consumers, FairBoundedQueue: " + Arrays.toString(fairConsumers));
+        System.out.println("Consumers, ArrayBlockingQueue: " + Arrays.toString(abqConsumers));
+
+        if(!Arrays.equals(fairConsumers, expectedArray)) {
+            System.out.println("Consumers were not served in FIFO order!");
+            passed = false;
+        }
+
+        List<Integer> fairProducers = producerOrder(fair(new FairBoundedQueue<>(2)), 2);
+        List<Integer> abqProducers = producerOrder(blocking(new ArrayBlockingQueue<>(2, true)), 2);
+
+        System.out.println("Producers, FairBoundedQueue: " + fairProducers);
+        System.out.println("Producers, ArrayBlockingQueue: " + abqProducers);
+
+        if(!fairProducers.equals(expected)) {
+            System.out.println("Producers were not served in FIFO order!");
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    protected static boolean testStress() {
+        FairBoundedQueue<Long> q = new FairBoundedQueue<>(CAPACITY);
+        long total = (long) PRODUCERS * BATCHES * BATCH_SIZE;
+
+        // Item: producer * total + sequence number
+        List<Thread> producers = new ArrayList<>();
+        for(int p = 0; p < PRODUCERS; ++p) {
+            final long base = p * total;
+            producers.add(new Thread(() -> {
+                List<Long> batch = new ArrayList<>(BATCH_SIZE);
+                long seq = 0;
+
+                for(int b = 0; b < BATCHES; ++b) {
+                    batch.clear();
+                    for(int i = 0; i < BATCH_SIZE; ++i)
+                        batch.add(base + seq++);
+
+                    q.putAll(batch);
+                }
+            }));
+        }
+
+        AtomicLong consumed = new AtomicLong();
+        AtomicLong sum = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+
+        List<Thread> consumers = new ArrayList<>();
+        for(int c = 0; c < CONSUMERS; ++c) {
+            consumers.add(new Thread(() -> {
+                long[] last = new long[PRODUCERS];
+                Arrays.fill(last, -1);
+                List<Long> drained = new ArrayList<>();
+
+                for(;;) {
+                    drained.clear();
+
+                    if(ThreadLocalRandom.current().nextBoolean()) {
+                        q.drainTo(drained, BATCH_SIZE);
+                        if(drained.isEmpty()) {
+                            Thread.yield();
+                            continue;
+                        }
+                    } else {
+                        drained.add(q.take());
+                    }
+
+                    // Stop items are inserted after every other item, one
+                    // per consumer: the extra ones are given back
+                    int stops = 0;
+                    while(!drained.isEmpty() && drained.get(drained.size() - 1) == STOP) {
+                        drained.remove(drained.size() - 1);
+                        ++stops;
+                    }
+
+                    for(long item : drained) {
+                        int p = (int) (item / total);
+                        long seq = item % total;
+
+                        if(seq <= last[p])
+                            outOfOrder.incrementAndGet();
+                        last[p] = seq;
+
+                        sum.addAndGet(item);
+                    }
+
+                    consumed.addAndGet(drained.size());
+
+                    if(stops > 0) {
+                        for(int i = 1; i < stops; ++i)
+                            q.put(STOP);
+                        return;
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+
+        for(Thread t : producers)
+            t.start();
+        for(Thread t : consumers)
+            t.start();
+
+        join(producers);
+
+        for(int c = 0; c < CONSUMERS; ++c)
+            q.put(STOP);
+
+        join(consumers);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long expectedSum = 0;
+        for(int p = 0; p < PRODUCERS; ++p)
+            expectedSum += p * total * (total / PRODUCERS)
+                    + (total / PRODUCERS) * (total / PRODUCERS - 1) / 2;
+
+        System.out.printf("Stress: %d items in %.2f s (%.0f items/s), %d out of order%n",
+                consumed.get(), seconds, consumed.get() / seconds, outOfOrder.get());
+
+        return consumed.get() == total && sum.get() == expectedSum
+                && outOfOrder.get() == 0 && q.isEmpty();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = true;
+
+        passed &= testOrdering();
+        passed &= testStress();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
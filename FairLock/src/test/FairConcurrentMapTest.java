@@ -0,0 +1,262 @@
+package test;
+
+import concurrent.FairConcurrentMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class used to test {@link FairConcurrentMap}, comparing it with
+ * {@link ConcurrentHashMap}.
+ *
+ * <p>Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>an ordering test, in which a key is kept busy by a running operation
+ * while several writers of the same key arrive one at a time: they must
+ * update it in the same order in which they arrived;</li>
+ *
+ * <li>a contention test, in which many threads increment a few keys: the
+ * final values must be equal to the number of increments. Each thread takes
+ * a ticket right before its increment, and the number of increments applied
+ * to a key after one with a later ticket is reported together with the
+ * throughput;</li>
+ *
+ * <li>a batch test, in which threads transfer amounts between random pairs of
+ * accounts via {@link FairConcurrentMap#computeAll computeAll}, while other
+ * threads read the balances: the total must never change.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class FairConcurrentMapTest {
+
+    private static final int ORDERING_THREADS = 6;
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 4;
+    private static final int INCREMENTS = 50_000;
+
+    private static final int ACCOUNTS = 64;
+    private static final long BALANCE = 1000;
+    private static final int TRANSFERS = 20_000;
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        while(latch.getCount() > 0) {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+
+            }
+        }
+    }
+
+    /**
+     * @return the order in which writers that arrived in order 0, 1, ...
+     *         updated the same key
+     */
+    protected static List<Integer> writeOrder(ConcurrentMap<String, Integer> map) {
+        List<Integer> served = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        map.put("key", 0);
+
+        Thread blocker = new Thread(() -> {
+            map.compute("key", (String k, Integer v) -> {
+                started.countDown();
+                FairConcurrentMapTest.await(finish);
+                return v;
+            });
+        });
+
+        threads.add(blocker);
+        blocker.start();
+        await(started);
+
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                map.compute("key", (String k, Integer v) -> {
+                    served.add(id);
+                    return v + 1;
+                });
+            });
+
+            threads.add(t);
+            t.start();
+
+            while(t.getState() != Thread.State.WAITING
+                    && t.getState() != Thread.State.BLOCKED)
+                LockSupport.parkNanos(100_000);
+        }
+
+        finish.countDown();
+        join(threads);
+
+        return served;
+    }
+
+    protected static boolean testOrdering() {
+        List<Integer> expected = new ArrayList<>();
+        for(int i = 0; i < ORDERING_THREADS; ++i)
+            expected.add(i);
+
+        List<Integer> fair = writeOrder(new FairConcurrentMap<>());
+        List<Integer> chm = writeOrder(new ConcurrentHashMap<>());
+
+        System.out.println("FairConcurrentMap write order: " + fair);
+        System.out.println("ConcurrentHashMap write order: " + chm);
+
+        return fair.equals(expected);
+    }
+
+    /**
+     * Increments a few keys from many threads.
+     *
+     * @return true if no increment was lost
+     */
+    protected static boolean contention(String name, ConcurrentMap<Integer, long[]> map) {
+        AtomicLong tickets = new AtomicLong();
+        long[] inversions = new long[KEYS];
+
+        for(int k = 0; k < KEYS; ++k)
+            map.put(k, new long[] { 0, -1 });
+
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < THREADS; ++t) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+                for(int i = 0; i < INCREMENTS; ++i) {
+                    int key = rnd.nextInt(KEYS);
+                    long ticket = tickets.getAndIncrement();
+
+                    // Value: { count, last ticket }; the array is replaced,
+                    // never modified, except for the inversions counter
+                    map.compute(key, (Integer k, long[] v) -> {
+                        if(ticket < v[1])
+                            ++inversions[k];
+
+                        return new long[] { v[0] + 1, Math.max(v[1], ticket) };
+                    });
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+
+        for(Thread t : threads)
+            t.start();
+
+        join(threads);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        long inverted = 0;
+        for(int k = 0; k < KEYS; ++k) {
+            total += map.get(k)[0];
+            inverted += inversions[k];
+        }
+
+        System.out.printf("%s: %.0f ops/s, %d of %d updates applied after a later arrival%n",
+                name, THREADS * INCREMENTS / seconds, inverted, total);
+
+        return total == (long) THREADS * INCREMENTS;
+    }
+
+    protected static boolean testBatch() {
+        FairConcurrentMap<Integer, Long> accounts = new FairConcurrentMap<>();
+        for(int i = 0; i < ACCOUNTS; ++i)
+            accounts.put(i, BALANCE);
+
+        long expected = ACCOUNTS * BALANCE;
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < THREADS; ++t) {
+            writers.add(new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+                for(int i = 0; i < TRANSFERS; ++i) {
+                    int from = rnd.nextInt(ACCOUNTS);
+                    int to = (from + 1 + rnd.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                    long amount = rnd.nextLong(100);
+
+                    // Locks the segments of both accounts in a fixed order,
+                    // whatever the order of the keys
+                    accounts.computeAll(Arrays.asList(from, to), (Integer k, Long v) ->
+                            k == from ? v - amount : v + amount);
+                }
+            }));
+        }
+
+        Thread reader = new Thread(() -> {
+            while(running.get()) {
+                accounts.get(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+                reads.incrementAndGet();
+            }
+        });
+
+        reader.setDaemon(true);
+        reader.start();
+
+        for(Thread t : writers)
+            t.start();
+
+        join(writers);
+        running.set(false);
+
+        long total = 0;
+        for(Map.Entry<Integer, Long> e : accounts.entrySet())
+            total += e.getValue();
+
+        System.out.println("Batch transfers: total " + total + ", expected "
+                + expected + " (" + reads.get() + " concurrent reads)");
+
+        return total == expected;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        if(!testOrdering()) {
+            System.out.println("Writers were not served in arrival order!");
+            passed = false;
+        }
+
+        passed &= contention("FairConcurrentMap", new FairConcurrentMap<>());
+        passed &= contention("ConcurrentHashMap", new ConcurrentHashMap<>());
+        passed &= testBatch();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
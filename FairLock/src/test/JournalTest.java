@@ -0,0 +1,228 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import journal.AcquisitionJournal;
+import journal.AcquisitionJournal.Event;
+import journal.AcquisitionJournal.Record;
+import journal.JournalReplay;
+import journal.RecordingResourceManager;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerFairLock;
+
+/**
+ * Test of the recording and of the replay of an {@link AcquisitionJournal}.
+ *
+ * <p>Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>a recording test, in which clients of both classes use the resource
+ * through a {@link RecordingResourceManager}: once the journal is closed, it
+ * must contain every event exactly once, with consecutive sequence numbers,
+ * the request, grant and release of each client in this order and with the
+ * class of the client, and no grant while another client holds the
+ * resource;</li>
+ *
+ * <li>a wrap test, in which more records than the capacity of the journal
+ * are written: only the newest ones must be read back;</li>
+ *
+ * <li>a replay test, in which the journal of the recording test is replayed
+ * by {@link JournalReplay}: every recorded operation must be found and
+ * replayed without errors.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class JournalTest {
+
+    private static final int CLIENTS = 4;
+    private static final int OPERATIONS = 200;
+    private static final long HOLD_NANOS = 100_000L;
+
+    private static final int WRAP_CAPACITY = 64;
+
+    private static void hold(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long left = nanos; left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the given number of operations for each client, alternating
+     * the classes of the clients, into the given file.
+     *
+     * @return the class of each client, by thread id
+     */
+    protected static Map<Long, PriorityClass> record(File file, int capacity,
+            int clients, int operations) throws IOException {
+        Map<Long, PriorityClass> classes = new HashMap<>();
+
+        try(AcquisitionJournal journal = new AcquisitionJournal(file, capacity)) {
+            SingleResourceManager m = new RecordingResourceManager(
+                    new SingleResourceManagerFairLock(), journal);
+
+            List<Thread> threads = new ArrayList<>();
+            for(int i = 0; i < clients; ++i) {
+                PriorityClass prio = i % 2 == 0 ? PriorityClass.PRIO_A : PriorityClass.PRIO_B;
+
+                Thread t = new Thread(() -> {
+                    for(int k = 0; k < operations; ++k) {
+                        m.request(prio);
+                        hold(HOLD_NANOS);
+                        m.release();
+                    }
+                });
+
+                classes.put(t.getId(), prio);
+                threads.add(t);
+            }
+
+            for(Thread t : threads)
+                t.start();
+
+            join(threads);
+        }
+
+        return classes;
+    }
+
+    protected static boolean testRecord(File file) throws IOException {
+        int total = 3 * CLIENTS * OPERATIONS;
+        Map<Long, PriorityClass> classes = record(file, 2 * total, CLIENTS, OPERATIONS);
+        List<Record> records = AcquisitionJournal.read(file);
+
+        System.out.println("Recorded " + records.size() + " events of " + classes.size() + " clients");
+
+        if(records.size() != total) {
+            System.out.println("Expected " + total + " records, found " + records.size());
+            return false;
+        }
+
+        Map<Long, Record> last = new HashMap<>();
+        long holder = -1;
+
+        for(int i = 0; i < records.size(); ++i) {
+            Record r = records.get(i);
+            Record prev = last.put(r.getThreadId(), r);
+
+            Event expected = prev == null ? Event.REQUEST
+                    : Event.values()[(prev.getEvent().ordinal() + 1) % Event.values().length];
+
+            if(r.getSequence() != i || r.getPriority() != classes.get(r.getThreadId())
+                    || r.getEvent() != expected
+                    || (prev != null && r.getTimestamp() < prev.getTimestamp())) {
+                System.out.println("Unexpected record " + r + " after " + prev);
+                return false;
+            }
+
+            // The release is recorded before the resource is given to the
+            // next client, the grant after
+            if(r.getEvent() == Event.GRANT) {
+                if(holder >= 0) {
+                    System.out.println("Record " + r + " while held by " + holder);
+                    return false;
+                }
+
+                holder = r.getThreadId();
+            } else if(r.getEvent() == Event.RELEASE) {
+                holder = -1;
+            }
+        }
+
+        return true;
+    }
+
+    protected static boolean testWrap(File file) throws IOException {
+        int operations = 100;
+        int total = 3 * operations;
+
+        record(file, WRAP_CAPACITY, 1, operations);
+        List<Record> records = AcquisitionJournal.read(file);
+
+        System.out.println("Recorded " + total + " events with capacity " + WRAP_CAPACITY
+                + ", read " + records.size() + " from " + records.get(0).getSequence());
+
+        if(records.size() != WRAP_CAPACITY)
+            return false;
+
+        for(int i = 0; i < records.size(); ++i)
+            if(records.get(i).getSequence() != total - WRAP_CAPACITY + i)
+                return false;
+
+        return true;
+    }
+
+    protected static boolean testReplay(File file) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+
+        try {
+            System.setOut(new PrintStream(out, true));
+            JournalReplay.main(new String[] { file.getPath(), "fairlock" });
+        } catch (IOException ex) {
+            System.setOut(stdout);
+            System.out.println("The journal could not be replayed: " + ex);
+            return false;
+        } finally {
+            System.setOut(stdout);
+        }
+
+        System.out.print(out);
+
+        // Columns: manager, class, count, errors, then the waiting times
+        int rows = 0;
+        for(String line : out.toString().split("\\R")) {
+            String[] columns = line.split(",");
+
+            if(!columns[0].equals("recorded") && !columns[0].equals("fairlock"))
+                continue;
+
+            ++rows;
+            if(Integer.parseInt(columns[2]) != CLIENTS / 2 * OPERATIONS
+                    || Integer.parseInt(columns[3]) != 0)
+                return false;
+        }
+
+        return rows == 2 * PriorityClass.values().length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("journal-test", ".journal");
+        File wrapped = File.createTempFile("journal-test-wrap", ".journal");
+        file.deleteOnExit();
+        wrapped.deleteOnExit();
+
+        boolean passed = true;
+
+        passed &= testRecord(file);
+        passed &= testWrap(wrapped);
+        passed &= testReplay(file);
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,194 @@
+package test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import manager.KeyedResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Memory and throughput test of {@link KeyedResourceManager} with a large
+ * number of keys.
+ *
+ * <p>The test is composed of three phases:</p>
+ *
+ * <ul>
+ * <li>a single thread requests the resources of all the keys, without
+ * releasing them, so that the memory used by each busy key can be
+ * measured;</li>
+ *
+ * <li>the same thread releases all the resources, after which no state must
+ * remain: the memory used by each idle key is measured;</li>
+ *
+ * <li>several threads execute request/release operations on random keys for
+ * a fixed time, while also incrementing (without any atomic operation) a
+ * counter associated with a few hot keys; the final value of each counter
+ * must be equal to the number of times its key was acquired.</li>
+ * </ul>
+ *
+ * <p>The default number of keys is 10 million, which requires a heap of a
+ * few gigabytes (e.g. {@code -Xmx3g}).</p>
+ *
+ * @author Gabriele Ara
+ */
+public class KeyedResourceManagerTest {
+
+    private static final int THREADS = 8;
+    private static final int HOT_KEYS = 4;
+    private static final long DURATION_MILLIS = 5000;
+
+    protected static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+
+        for(int i = 0; i < 3; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+
+            }
+        }
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Executes request/release operations on random keys until the given
+     * deadline; one operation out of 16 acquires one of the hot keys, with
+     * the lowest keys, and increments its counter.
+     */
+    protected static class ClientThread extends Thread {
+        private final KeyedResourceManager<Integer> manager;
+        private final Integer[] keys;
+        private final long[] counters;
+        private final long[] acquired;
+        private final long deadline;
+        private long operations;
+
+        public ClientThread(KeyedResourceManager<Integer> manager,
+                Integer[] keys, long[] counters, long deadline) {
+            this.manager = manager;
+            this.keys = keys;
+            this.counters = counters;
+            this.acquired = new long[counters.length];
+            this.deadline = deadline;
+            this.operations = 0;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+            while(System.nanoTime() < deadline) {
+                for(int i = 0; i < 1024; ++i) {
+                    PriorityClass prio = rnd.nextBoolean()
+                            ? PriorityClass.PRIO_A
+                            : PriorityClass.PRIO_B;
+
+                    if(rnd.nextInt(16) == 0) {
+                        int k = rnd.nextInt(counters.length);
+
+                        manager.request(keys[k], prio);
+                        // Deliberately not atomic
+                        counters[k] = counters[k] + 1;
+                        manager.release(keys[k]);
+
+                        ++acquired[k];
+                    } else {
+                        Integer key = keys[rnd.nextInt(keys.length)];
+
+                        manager.request(key, prio);
+                        manager.release(key);
+                    }
+                }
+
+                operations += 1024;
+            }
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getAcquired(int k) {
+            return acquired[k];
+        }
+    }
+
+    /**
+     * @param args optionally, the number of keys (10 million by default)
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        // Keys are created in advance, so that they are not counted as memory
+        // used by the manager
+        Integer[] keys = new Integer[n];
+        for(int i = 0; i < n; ++i)
+            keys[i] = i;
+
+        KeyedResourceManager<Integer> manager = new KeyedResourceManager<>();
+
+        long baseline = usedMemory();
+
+        long start = System.nanoTime();
+        for(Integer key : keys)
+            manager.request(key, PriorityClass.PRIO_A);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long busy = usedMemory();
+
+        System.out.printf("Request of %d free keys: %.0f ops/s%n", n, n / seconds);
+        System.out.printf("Busy keys: %d, memory per busy key: %.1f bytes%n",
+                manager.size(), (double) (busy - baseline) / n);
+
+        start = System.nanoTime();
+        for(Integer key : keys)
+            manager.release(key);
+        seconds = (System.nanoTime() - start) / 1e9;
+
+        long idle = usedMemory();
+
+        System.out.printf("Release of %d busy keys: %.0f ops/s%n", n, n / seconds);
+        System.out.printf("Busy keys: %d, memory per idle key: %.1f bytes%n",
+                manager.size(), (double) Math.max(idle - baseline, 0) / n);
+
+        long[] counters = new long[HOT_KEYS];
+        ClientThread[] threads = new ClientThread[THREADS];
+        long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+
+        start = System.nanoTime();
+        for(int i = 0; i < THREADS; ++i) {
+            threads[i] = new ClientThread(manager, keys, counters, deadline);
+            threads[i].start();
+        }
+
+        long operations = 0;
+        long[] expected = new long[HOT_KEYS];
+        for(ClientThread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+
+            operations += t.getOperations();
+            for(int k = 0; k < HOT_KEYS; ++k)
+                expected[k] += t.getAcquired(k);
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d threads on %d keys: %.0f request/release ops/s%n",
+                THREADS, n, operations / seconds);
+
+        boolean ok = manager.size() == 0;
+        for(int k = 0; k < HOT_KEYS; ++k) {
+            System.out.println("Hot key " + k + ": counter = " + counters[k]
+                    + ", expected " + expected[k]);
+            ok &= counters[k] == expected[k];
+        }
+
+        System.out.println();
+        System.out.println(ok ? "Test finished!" : "Test FAILED!");
+    }
+}
@@ -0,0 +1,300 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerLease;
+import manager.SingleResourceManagerLease.Lease;
+import manager.SingleResourceManagerLease.LeaseState;
+
+/**
+ * Test of the revocation of leases by {@link SingleResourceManagerLease}.
+ *
+ * <p>Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>a revocation test, in which the holder and the waiting clients never
+ * release the resource: each lease must be revoked in turn, giving the
+ * resource to the waiting clients of class {@link PriorityClass#PRIO_B}
+ * first, each class in FIFO order; then every revoked holder must be
+ * rejected by {@link Lease#release()}, {@link Lease#close()} and the release
+ * of the manager;</li>
+ *
+ * <li>a renewal test, in which the holder renews its lease for several times
+ * its duration: the lease must never be revoked while renewed, and a renewal
+ * after the release must fail;</li>
+ *
+ * <li>a retry test, in which a lease expires while the lock of the manager is
+ * held by another expiration check: the timer must not wait for the lock,
+ * but retry later and then revoke the lease.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class LeaseTest {
+
+    private static final long LEASE_MILLIS = 50;
+    private static final long RENEW_MILLIS = 20;
+    private static final long RENEWED_MILLIS = 300;
+    private static final long STALL_MILLIS = 100;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * A timer that can be told to stall its next schedule call, after
+     * scheduling the task, and counts the tasks scheduled meanwhile.
+     */
+    protected static class StallingTimer extends ScheduledThreadPoolExecutor {
+        volatile boolean stallNext;
+        private volatile boolean stalling;
+        final AtomicInteger scheduledWhileStalling;
+
+        StallingTimer(int threads) {
+            super(threads, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+
+            scheduledWhileStalling = new AtomicInteger();
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledFuture<?> f = super.schedule(command, delay, unit);
+
+            if(stalling) {
+                scheduledWhileStalling.incrementAndGet();
+            } else if(stallNext) {
+                stallNext = false;
+                stalling = true;
+                sleep(STALL_MILLIS);
+                stalling = false;
+            }
+
+            return f;
+        }
+    }
+
+    private static void sleep(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for(long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    /**
+     * Waits for the given condition to become true.
+     *
+     * @return false if it is still false after a timeout
+     */
+    private static boolean await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() - deadline > 0)
+                return false;
+
+            sleep(1);
+        }
+
+        return true;
+    }
+
+    private static void join(Thread t) {
+        while(t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+
+            }
+        }
+    }
+
+    /**
+     * Starts a client that requests the resource with a lease, records its
+     * name when it gets it and never releases it.
+     */
+    private static Thread client(SingleResourceManagerLease manager, PriorityClass prio,
+            String name, List<String> order, List<Lease> leases) {
+        Thread t = new Thread(() -> {
+            Lease l = manager.request(prio, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            order.add(name);
+            leases.add(l);
+        });
+        t.start();
+
+        return t;
+    }
+
+    /**
+     * @return true if the given operation throws an
+     *         IllegalMonitorStateException
+     */
+    private static boolean rejected(Runnable operation) {
+        try {
+            operation.run();
+            return false;
+        } catch (IllegalMonitorStateException ex) {
+            return true;
+        }
+    }
+
+    protected static boolean testRevocation() {
+        boolean passed = true;
+
+        SingleResourceManagerLease manager = new SingleResourceManagerLease();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Lease> leases = Collections.synchronizedList(new ArrayList<>());
+
+        // Long enough for every client to be queued before it expires
+        Lease first = manager.request(PriorityClass.PRIO_A, 4 * LEASE_MILLIS, TimeUnit.MILLISECONDS);
+
+        String[] names = { "a1", "b1", "a2", "b2" };
+        List<Thread> clients = new ArrayList<>();
+        int[] waiting = new int[2];
+
+        for(String name : names) {
+            PriorityClass prio = name.startsWith("a") ? PriorityClass.PRIO_A : PriorityClass.PRIO_B;
+            int expected = ++waiting[prio.ordinal()];
+
+            clients.add(client(manager, prio, name, order, leases));
+
+            // Queued one at a time, so that the FIFO order is known
+            await(() -> manager.getSnapshot().getWaiting(prio) >= expected || !order.isEmpty());
+        }
+
+        for(Thread t : clients)
+            join(t);
+
+        Lease last = leases.get(leases.size() - 1);
+        if(!await(() -> last.getState() == LeaseState.REVOKED)) {
+            System.out.println("The last lease has not been revoked!");
+            passed = false;
+        }
+
+        System.out.println("Revocation order: " + order + ", revoked " + manager.getRevokedCount());
+
+        if(!order.equals(Arrays.asList("b1", "b2", "a1", "a2"))) {
+            System.out.println("The resource has not been given to B first, in FIFO order!");
+            passed = false;
+        }
+
+        if(manager.getRevokedCount() != 5 || !manager.getSnapshot().isFree()) {
+            System.out.println("Expected 5 revoked leases and a free resource, found "
+                    + manager.getRevokedCount() + " and " + manager.getSnapshot());
+            passed = false;
+        }
+
+        // Late releases of the revoked holders
+        leases.add(first);
+        for(Lease l : leases) {
+            if(l.getState() != LeaseState.REVOKED || l.isValid() || l.renew()
+                    || !rejected(l::release) || !rejected(l::close)) {
+                System.out.println("A revoked lease has not been rejected!");
+                passed = false;
+            }
+        }
+
+        if(!rejected(manager::release)) {
+            System.out.println("The release of a revoked holder has not been rejected!");
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    protected static boolean testRenewal() {
+        boolean passed = true;
+
+        SingleResourceManagerLease manager = new SingleResourceManagerLease();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Lease> leases = Collections.synchronizedList(new ArrayList<>());
+
+        Lease lease = manager.request(PriorityClass.PRIO_A, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+        Thread waiter = client(manager, PriorityClass.PRIO_B, "b", order, leases);
+        await(() -> manager.getSnapshot().getWaiting(PriorityClass.PRIO_B) == 1);
+
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RENEWED_MILLIS);
+        while(System.nanoTime() - end < 0) {
+            if(!lease.renew() || lease.getRemaining(TimeUnit.MILLISECONDS) <= LEASE_MILLIS - RENEW_MILLIS) {
+                System.out.println("The lease could not be renewed!");
+                passed = false;
+                break;
+            }
+
+            sleep(RENEW_MILLIS);
+        }
+
+        if(!lease.isValid() || !order.isEmpty()) {
+            System.out.println("A renewed lease has been revoked!");
+            passed = false;
+        }
+
+        lease.release();
+        join(waiter);
+
+        if(lease.getState() != LeaseState.RELEASED || lease.renew() || !rejected(lease::release)) {
+            System.out.println("A released lease has been renewed or released again!");
+            passed = false;
+        }
+
+        // Closing a released lease is allowed
+        lease.close();
+
+        System.out.println("Renewal: lease held for " + RENEWED_MILLIS + " ms, "
+                + manager.getRevokedCount() + " revoked, then given to " + order);
+
+        return passed && order.equals(Collections.singletonList("b"))
+                && manager.getRevokedCount() == 0;
+    }
+
+    protected static boolean testRetry() {
+        StallingTimer timer = new StallingTimer(2);
+        SingleResourceManagerLease manager = new SingleResourceManagerLease(timer);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Lease> leases = Collections.synchronizedList(new ArrayList<>());
+
+        Lease lease = manager.request(PriorityClass.PRIO_A, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+        Thread waiter = client(manager, PriorityClass.PRIO_B, "b", order, leases);
+        await(() -> manager.getSnapshot().getWaiting(PriorityClass.PRIO_B) == 1);
+
+        // The first check finds the lease renewed and schedules the next one
+        // while holding the lock, where the timer stalls: the next check runs
+        // on the other thread and finds the lock busy
+        sleep(LEASE_MILLIS / 2);
+        timer.stallNext = true;
+        lease.renew();
+
+        join(waiter);
+        timer.shutdownNow();
+
+        System.out.println("Retry: " + timer.scheduledWhileStalling.get()
+                + " checks scheduled while the lock was busy, lease " + lease.getState());
+
+        return lease.getState() == LeaseState.REVOKED
+                && timer.scheduledWhileStalling.get() > 0
+                && order.equals(Collections.singletonList("b"));
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        passed &= testRevocation();
+        passed &= testRenewal();
+        passed &= testRetry();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,120 @@
+package test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import manager.ManagerStatistics;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerFSM;
+import manager.SingleResourceManagerFairLock;
+import manager.SingleResourceManagerLock;
+import manager.StatisticsProvider;
+
+/**
+ * Checks the statistics recorded by the {@link StatisticsProvider}
+ * implementations under a random workload.
+ *
+ * <p>For each manager, clients of both classes repeatedly request the
+ * resource, hold it and release it for a fixed time. At the end, the number
+ * of grants recorded by the manager must match the ones counted by the
+ * clients, every grant must have a waiting time and a hold time, and the
+ * peak number of waiting clients cannot exceed the number of clients of each
+ * class. The statistics of each manager are printed on the standard
+ * output.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class ManagerStatisticsTest {
+
+    private static final long DURATION_MILLIS = 2000;
+    private static final long HOLD_NANOS = 50_000;
+    private static final long THINK_NANOS = 1_000_000;
+
+    /**
+     * Waits for at least the given time; a single parkNanos may return early
+     * if a permit was left by the condition variables of the manager.
+     */
+    private static void hold(long nanos) {
+        long end = System.nanoTime() + nanos;
+
+        for(long left = nanos; left > 0; left = end - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    protected static boolean test(String name, SingleResourceManager manager, int clientsA, int clientsB) {
+        long end = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+        int[] clients = { clientsA, clientsB };
+
+        Thread[] threads = new Thread[clientsA + clientsB];
+        long[][] grants = new long[threads.length][1];
+
+        for(int i = 0; i < threads.length; ++i) {
+            PriorityClass prio = i < clientsA ? PriorityClass.PRIO_A : PriorityClass.PRIO_B;
+            long[] mine = grants[i];
+
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+
+                while(System.nanoTime() < end) {
+                    manager.request(prio);
+                    ++mine[0];
+                    hold(HOLD_NANOS);
+                    manager.release();
+
+                    LockSupport.parkNanos(rnd.nextLong(THINK_NANOS));
+                }
+            });
+            threads[i].start();
+        }
+
+        long[] counted = new long[2];
+        for(int i = 0; i < threads.length; ++i) {
+            while(threads[i].isAlive()) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+
+            counted[i < clientsA ? 0 : 1] += grants[i][0];
+        }
+
+        ManagerStatistics stats = ((StatisticsProvider) manager).getStatistics();
+
+        System.out.println(name + ": " + stats);
+
+        boolean passed = stats.getUtilisation() > 0 && stats.getUtilisation() <= 1;
+
+        for(PriorityClass prio : PriorityClass.values()) {
+            int c = prio.ordinal();
+
+            passed &= stats.getGrants(prio) == counted[c];
+            passed &= stats.getWaitTime(prio).getCount() == counted[c];
+            passed &= stats.getHoldTime(prio).getCount() == counted[c];
+            passed &= stats.getHoldTime(prio).getMin() >= HOLD_NANOS;
+            passed &= stats.getPeakWaiting(prio) <= clients[c];
+            passed &= stats.getWaiting(prio) == 0;
+        }
+
+        passed &= stats.getPassOvers() <= stats.getGrants(PriorityClass.PRIO_B);
+
+        System.out.println(name + (passed ? ": passed" : ": FAILED") + System.lineSeparator());
+
+        return passed;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = test("fairlock", new SingleResourceManagerFairLock(true), 4, 4);
+        passed &= test("lock", new SingleResourceManagerLock(true), 4, 4);
+        // At most two clients of class A and one of class B can be waiting
+        passed &= test("fsm", new SingleResourceManagerFSM(true), 2, 1);
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("All tests passed!");
+    }
+}
@@ -0,0 +1,109 @@
+package test;
+
+import fairlock.FairLock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class used to test the optimistic reads of {@link FairLock}.
+ *
+ * <p>Writer threads repeatedly update two fields protected by the lock,
+ * keeping them equal at the end of each critical section, while reader
+ * threads read them via {@link FairLock#tryOptimisticRead()} and
+ * {@link FairLock#validate(long)}. Every validated read must see two equal
+ * values; the number of reads that were validated and of the ones that had to
+ * fall back to the lock is printed at the end.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class OptimisticReadTest {
+
+    private static final int WRITERS = 2;
+    private static final int READERS = 4;
+    private static final long DURATION_MILLIS = 3000;
+
+    private final FairLock lock = new FairLock();
+    // Read optimistically, so they must be volatile
+    private volatile long first;
+    private volatile long second;
+
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong inconsistent = new AtomicLong();
+
+    protected void write() {
+        lock.lock();
+        try {
+            ++first;
+
+            // Gives readers a chance to see the intermediate state
+            Thread.yield();
+
+            ++second;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void read() {
+        long stamp = lock.tryOptimisticRead();
+        long a = first;
+        long b = second;
+
+        if(lock.validate(stamp)) {
+            validated.incrementAndGet();
+        } else {
+            fallbacks.incrementAndGet();
+
+            lock.lock();
+            try {
+                a = first;
+                b = second;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if(a != b)
+            inconsistent.incrementAndGet();
+    }
+
+    public static void main(String[] args) {
+        OptimisticReadTest test = new OptimisticReadTest();
+        long end = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+
+        Thread[] threads = new Thread[WRITERS + READERS];
+        for(int i = 0; i < threads.length; ++i) {
+            boolean writer = i < WRITERS;
+            threads[i] = new Thread(() -> {
+                while(System.nanoTime() < end) {
+                    if(writer)
+                        test.write();
+                    else
+                        test.read();
+                }
+            });
+            threads[i].start();
+        }
+
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+
+        System.out.printf("writes=%d, validated reads=%d, fallback reads=%d, inconsistent reads=%d%n",
+                test.first, test.validated.get(), test.fallbacks.get(),
+                test.inconsistent.get());
+
+        if(test.inconsistent.get() != 0) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
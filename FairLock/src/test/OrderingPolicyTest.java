@@ -0,0 +1,162 @@
+package test;
+
+import fairlock.FairLock;
+import fairlock.OrderingPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class used to test the {@link OrderingPolicy ordering policies} of
+ * {@link FairLock}.
+ *
+ * <p>For each policy, the main thread holds the lock while several threads
+ * start waiting for it, one at a time, in the <i>entry queue</i>; then it
+ * releases the lock, and the order in which the threads obtain it is compared
+ * with the one expected from the policy. The same is done for a LIFO
+ * <i>condition queue</i> of a FIFO lock, whose threads are awakened one at a
+ * time by the main thread.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class OrderingPolicyTest {
+
+    private static final int THREADS = 6;
+
+    private static final long[] KEYS = { 3, 1, 2, 1, 0, 3 };
+
+    private static final ThreadLocal<Long> KEY = new ThreadLocal<>();
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the given thread is suspended.
+     */
+    private static void awaitSuspended(Thread t) {
+        while(t.getState() != Thread.State.WAITING)
+            LockSupport.parkNanos(100_000);
+    }
+
+    private static boolean check(String name, List<Integer> served, int... expected) {
+        List<Integer> e = new ArrayList<>();
+        for(int i : expected)
+            e.add(i);
+
+        System.out.println(name + ": " + served);
+
+        if(!served.equals(e)) {
+            System.out.println("Expected " + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    protected static List<Integer> entryOrder(OrderingPolicy policy) {
+        FairLock lock = new FairLock(policy);
+        List<Integer> served = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        lock.lock();
+
+        for(int i = 0; i < THREADS; ++i) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                KEY.set(KEYS[id]);
+
+                lock.lock();
+                try {
+                    served.add(id);
+                } finally {
+                    lock.unlock();
+                }
+            });
+
+            threads.add(t);
+            t.start();
+            awaitSuspended(t);
+        }
+
+        lock.unlock();
+        join(threads);
+
+        return served;
+    }
+
+    protected static List<Integer> conditionOrder() {
+        FairLock lock = new FairLock();
+        FairLock.Condition condition = lock.newCondition(OrderingPolicy.lifo());
+        List<Integer> served = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < THREADS; ++i) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                lock.lock();
+                try {
+                    condition.await();
+                    served.add(id);
+                } finally {
+                    lock.unlock();
+                }
+            });
+
+            threads.add(t);
+            t.start();
+
+            for(;;) {
+                lock.lock();
+                try {
+                    if(condition.size() == i + 1)
+                        break;
+                } finally {
+                    lock.unlock();
+                }
+
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        lock.lock();
+        try {
+            while(!condition.isEmpty())
+                condition.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        join(threads);
+
+        return served;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        passed &= check("fifo", entryOrder(OrderingPolicy.fifo()), 0, 1, 2, 3, 4, 5);
+        passed &= check("lifo", entryOrder(OrderingPolicy.lifo()), 5, 4, 3, 2, 1, 0);
+        passed &= check("keyed " + Arrays.toString(KEYS),
+                entryOrder(OrderingPolicy.keyed(t -> KEY.get())), 4, 1, 3, 2, 0, 5);
+        passed &= check("bounded-lifo:2", entryOrder(OrderingPolicy.boundedLifo(2)), 5, 4, 0, 3, 2, 1);
+        passed &= check("bounded-lifo:0", entryOrder(OrderingPolicy.boundedLifo(0)), 0, 1, 2, 3, 4, 5);
+        passed &= check("lifo condition", conditionOrder(), 5, 4, 3, 2, 1, 0);
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
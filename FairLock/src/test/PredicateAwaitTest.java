@@ -0,0 +1,278 @@
+package test;
+
+import fairlock.FairLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Class used to test {@link FairLock#awaitUntil(BooleanSupplier)}.
+ *
+ * <p>Three tests are executed:</p>
+ *
+ * <ul>
+ * <li>an ordering test, in which several threads wait on the same predicate
+ * and permits are made available one at a time: threads must obtain them in
+ * the same order in which they started waiting;</li>
+ *
+ * <li>a grouping test, in which many threads wait on two predicate instances:
+ * each release of the lock must evaluate at most one predicate per
+ * instance, no matter how many threads are waiting;</li>
+ *
+ * <li>a bounded buffer test, in which producers and consumers wait for the
+ * buffer to be not full or not empty without any explicit signal; every
+ * produced item must be consumed exactly once.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class PredicateAwaitTest {
+
+    private static final int ORDERING_THREADS = 16;
+    private static final int GROUPING_THREADS = 1000;
+
+    private static final int BUFFER_SIZE = 4;
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int ITEMS = 20000;
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the given number of threads started waiting, as counted by
+     * the given counter protected by the lock.
+     */
+    private static void awaitArrivals(FairLock lock, int[] arrived, int count) {
+        for(;;) {
+            lock.lock();
+            try {
+                if(arrived[0] >= count)
+                    return;
+            } finally {
+                lock.unlock();
+            }
+
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    protected static boolean testOrdering() {
+        FairLock lock = new FairLock();
+        int[] permits = { 0 };
+        int[] arrived = { 0 };
+        List<Integer> served = new ArrayList<>();
+        BooleanSupplier available = () -> permits[0] > 0;
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                lock.lock();
+                try {
+                    ++arrived[0];
+                    lock.awaitUntil(available);
+
+                    --permits[0];
+                    served.add(id);
+                } finally {
+                    lock.unlock();
+                }
+            });
+            threads.add(t);
+            t.start();
+
+            // The next thread starts only after this one is queued
+            awaitArrivals(lock, arrived, i + 1);
+        }
+
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            lock.lock();
+            try {
+                ++permits[0];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        join(threads);
+
+        for(int i = 0; i < ORDERING_THREADS; ++i) {
+            if(served.get(i) != i) {
+                System.out.println("Ordering test failed: " + served);
+                return false;
+            }
+        }
+
+        System.out.println("Ordering test passed: " + served);
+        return true;
+    }
+
+    protected static boolean testGrouping() {
+        FairLock lock = new FairLock();
+        boolean[] open = { false };
+        int[] arrived = { 0 };
+        AtomicLong evaluations = new AtomicLong();
+
+        BooleanSupplier never = () -> {
+            evaluations.incrementAndGet();
+            return false;
+        };
+        BooleanSupplier gate = () -> {
+            evaluations.incrementAndGet();
+            return open[0];
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < GROUPING_THREADS; ++i) {
+            BooleanSupplier predicate = i % 2 == 0 ? gate : never;
+            Thread t = new Thread(() -> {
+                lock.lock();
+                try {
+                    ++arrived[0];
+                    lock.awaitUntil(predicate);
+                } finally {
+                    lock.unlock();
+                }
+            });
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+
+        awaitArrivals(lock, arrived, GROUPING_THREADS);
+
+        evaluations.set(0);
+
+        lock.lock();
+        try {
+            open[0] = true;
+        } finally {
+            lock.unlock();
+        }
+
+        // Threads waiting on the other predicate are never awakened
+        for(int i = 0; i < GROUPING_THREADS; i += 2)
+            join(threads.subList(i, i + 1));
+
+        // One release by the main thread plus one by each thread waiting on
+        // the gate, each evaluating at most both predicates
+        int releases = 1 + GROUPING_THREADS / 2;
+        long max = 2L * releases;
+
+        System.out.printf("Grouping test: %d evaluations for %d releases with %d waiting threads%n",
+                evaluations.get(), releases, GROUPING_THREADS);
+
+        if(evaluations.get() > max) {
+            System.out.println("Grouping test failed: more than " + max + " evaluations");
+            return false;
+        }
+
+        System.out.println("Grouping test passed");
+        return true;
+    }
+
+    protected static boolean testBoundedBuffer() {
+        FairLock lock = new FairLock();
+        long[] buffer = new long[BUFFER_SIZE];
+        int[] count = { 0 };
+        int[] head = { 0 };
+        BooleanSupplier notFull = () -> count[0] < BUFFER_SIZE;
+        BooleanSupplier notEmpty = () -> count[0] > 0;
+
+        AtomicLong consumedSum = new AtomicLong();
+        AtomicLong consumedCount = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for(int p = 0; p < PRODUCERS; ++p) {
+            final int base = p * ITEMS;
+            threads.add(new Thread(() -> {
+                for(int i = 1; i <= ITEMS; ++i) {
+                    lock.lock();
+                    try {
+                        lock.awaitUntil(notFull);
+
+                        buffer[(head[0] + count[0]) % BUFFER_SIZE] = base + i;
+                        ++count[0];
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }));
+        }
+
+        for(int c = 0; c < CONSUMERS; ++c) {
+            threads.add(new Thread(() -> {
+                for(int i = 0; i < PRODUCERS * ITEMS / CONSUMERS; ++i) {
+                    long item;
+
+                    lock.lock();
+                    try {
+                        lock.awaitUntil(notEmpty);
+
+                        item = buffer[head[0]];
+                        head[0] = (head[0] + 1) % BUFFER_SIZE;
+                        --count[0];
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    consumedSum.addAndGet(item);
+                    consumedCount.incrementAndGet();
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+
+        for(Thread t : threads)
+            t.start();
+
+        join(threads);
+
+        long elapsed = System.nanoTime() - start;
+
+        long n = (long) PRODUCERS * ITEMS;
+        long expected = 0;
+        for(int p = 0; p < PRODUCERS; ++p)
+            expected += (long) p * ITEMS * ITEMS + (long) ITEMS * (ITEMS + 1) / 2;
+
+        System.out.printf("Bounded buffer test: %d items in %.1f ms%n",
+                consumedCount.get(), elapsed / 1e6);
+
+        if(consumedCount.get() != n || consumedSum.get() != expected) {
+            System.out.println("Bounded buffer test failed: consumed "
+                    + consumedCount.get() + " items with sum "
+                    + consumedSum.get() + ", expected " + n
+                    + " items with sum " + expected);
+            return false;
+        }
+
+        System.out.println("Bounded buffer test passed");
+        return true;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = testOrdering();
+        passed &= testGrouping();
+        passed &= testBoundedBuffer();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("All tests passed!");
+    }
+}
@@ -0,0 +1,376 @@
+package test;
+
+import concurrent.PriorityClassExecutor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import manager.SingleResourceManager.PriorityClass;
+import stats.Histogram;
+
+/**
+ * Class used to test {@link PriorityClassExecutor}.
+ *
+ * <p>Six tests are executed:</p>
+ *
+ * <ul>
+ * <li>a strict priority test, in which tasks of both classes are queued
+ * while the only worker is busy: all the tasks of class
+ * {@link PriorityClass#PRIO_B} must be started before the ones of class
+ * {@link PriorityClass#PRIO_A}, each class in FIFO order;</li>
+ *
+ * <li>a weighted test, in which both classes have always queued tasks of the
+ * same duration: each class must receive a share of the execution time
+ * close to its weight;</li>
+ *
+ * <li>an idle credit test, in which class A runs alone for a while, one task
+ * at a time, and then both classes queue tasks: with equal weights, class B
+ * must not use the time class A ran alone to run all its tasks first;</li>
+ *
+ * <li>a work stealing test, in which a task submits many tasks from a worker,
+ * queueing them all to that worker: the other workers must steal some of
+ * them, and all of them must complete;</li>
+ *
+ * <li>an interrupt test, in which a task leaves its worker interrupted: the
+ * idle worker must not spin, and the next task must not see the
+ * interrupt;</li>
+ *
+ * <li>a shutdown test: queued tasks are still executed after a shutdown, new
+ * ones are rejected, and queued tasks are returned by a shutdownNow.</li>
+ * </ul>
+ *
+ * <p>The queueing latency of each class is printed for each executor.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class PriorityClassExecutorTest {
+
+    private static final int ORDERING_TASKS = 5;
+
+    private static final int WEIGHTED_TASKS = 800;
+    private static final long WEIGHTED_TASK_NANOS = 200_000L;
+
+    private static final int IDLE_TASKS = 30;
+    private static final int IDLE_QUEUED = 20;
+    private static final long IDLE_TASK_NANOS = 2_000_000L;
+    private static final int IDLE_MAX_RUN = 3;
+
+    private static final int STEALING_WORKERS = 4;
+    private static final int STEALING_TASKS = 10_000;
+
+    private static final long INTERRUPTED_IDLE_MILLIS = 500;
+    private static final long INTERRUPTED_MAX_CPU_NANOS = 100_000_000L;
+
+    private static void await(CountDownLatch latch) {
+        while(latch.getCount() > 0) {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+
+            }
+        }
+    }
+
+    /**
+     * Keeps the current thread busy for (at least) the given time.
+     */
+    private static void hold(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long left = nanos; left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    private static void printLatency(String name, PriorityClassExecutor e) {
+        for(PriorityClass prio : PriorityClass.values()) {
+            Histogram h = e.getQueueingLatency(prio);
+
+            System.out.printf("  %s %s: %d tasks, queueing mean %.1f us, p99 %.1f us%n",
+                    name, prio, h.getCount(), h.getMean() / 1e3,
+                    h.getValueAtPercentile(99) / 1e3);
+        }
+    }
+
+    private static void close(PriorityClassExecutor e) throws InterruptedException {
+        e.shutdown();
+        if(!e.awaitTermination(10, TimeUnit.SECONDS))
+            throw new IllegalStateException("The executor did not terminate!");
+    }
+
+    protected static boolean testStrictPriority() throws Exception {
+        PriorityClassExecutor e = new PriorityClassExecutor(1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        e.execute(() -> {
+            started.countDown();
+            PriorityClassExecutorTest.await(release);
+        });
+        await(started);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < ORDERING_TASKS; ++i) {
+            String a = "a" + i;
+            String b = "b" + i;
+            futures.add(e.submit(() -> order.add(a), PriorityClass.PRIO_A));
+            futures.add(e.submit(() -> order.add(b), PriorityClass.PRIO_B));
+        }
+
+        release.countDown();
+        for(Future<?> f : futures)
+            f.get();
+
+        printLatency("strict", e);
+        close(e);
+
+        List<String> expected = new ArrayList<>();
+        for(int i = 0; i < ORDERING_TASKS; ++i)
+            expected.add("b" + i);
+        for(int i = 0; i < ORDERING_TASKS; ++i)
+            expected.add("a" + i);
+
+        System.out.println("Strict priority order: " + order);
+
+        return order.equals(expected);
+    }
+
+    protected static boolean testWeighted() throws Exception {
+        PriorityClassExecutor e = new PriorityClassExecutor(1, Thread::new, 1, 3);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<PriorityClass> order = Collections.synchronizedList(new ArrayList<>());
+        List<Long> durations = Collections.synchronizedList(new ArrayList<>());
+
+        // Executed by class A while the others are queued, it is recorded
+        // like any other task of the class
+        e.execute(() -> {
+            long start = System.nanoTime();
+            started.countDown();
+            PriorityClassExecutorTest.await(release);
+
+            order.add(PriorityClass.PRIO_A);
+            durations.add(System.nanoTime() - start);
+        });
+        await(started);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < WEIGHTED_TASKS; ++i) {
+            for(PriorityClass prio : PriorityClass.values()) {
+                futures.add(e.submit(() -> {
+                    long start = System.nanoTime();
+                    hold(WEIGHTED_TASK_NANOS);
+
+                    // Tasks run one at a time, so the two lists are aligned
+                    order.add(prio);
+                    durations.add(System.nanoTime() - start);
+                }, prio));
+            }
+        }
+
+        release.countDown();
+        for(Future<?> f : futures)
+            f.get();
+
+        printLatency("weighted", e);
+        close(e);
+
+        // Measured while both classes are still queued: class B runs at most
+        // three quarters of the first WEIGHTED_TASKS tasks
+        long total = 0;
+        long b = 0;
+
+        for(int i = 0; i < WEIGHTED_TASKS; ++i) {
+            total += durations.get(i);
+            if(order.get(i) == PriorityClass.PRIO_B)
+                b += durations.get(i);
+        }
+
+        double share = (double) b / total;
+        System.out.printf("Weighted 1:3, time share of class B while both are queued: %.2f%n", share);
+
+        return share > 0.6 && share < 0.9;
+    }
+
+    protected static boolean testIdleCredit() throws Exception {
+        PriorityClassExecutor e = new PriorityClassExecutor(1, Thread::new, 1, 1);
+
+        // Class A runs alone, one task at a time, while B is idle
+        for(int i = 0; i < IDLE_TASKS; ++i)
+            e.submit(() -> hold(IDLE_TASK_NANOS), PriorityClass.PRIO_A).get();
+
+        StringBuffer order = new StringBuffer();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for(int i = 0; i < IDLE_QUEUED; ++i) {
+            for(PriorityClass prio : new PriorityClass[] { PriorityClass.PRIO_B, PriorityClass.PRIO_A }) {
+                char name = prio == PriorityClass.PRIO_A ? 'A' : 'B';
+                futures.add(e.submit(() -> {
+                    order.append(name);
+                    hold(IDLE_TASK_NANOS);
+                }, prio));
+            }
+        }
+
+        for(Future<?> f : futures)
+            f.get();
+
+        close(e);
+
+        System.out.println("Idle credit, weighted 1:1 after A ran alone: " + order);
+
+        // The tail is all of one class once the other one runs out
+        String head = order.substring(0, IDLE_QUEUED);
+
+        return head.contains("A") && head.contains("B")
+                && longest(head) <= IDLE_MAX_RUN;
+    }
+
+    /**
+     * @return the length of the longest run of equal characters
+     */
+    private static int longest(String s) {
+        int run = 0;
+        int longest = 0;
+
+        for(int i = 0; i < s.length(); ++i) {
+            run = i > 0 && s.charAt(i) == s.charAt(i - 1) ? run + 1 : 1;
+            longest = Math.max(longest, run);
+        }
+
+        return longest;
+    }
+
+    protected static boolean testStealing() throws Exception {
+        PriorityClassExecutor e = new PriorityClassExecutor(STEALING_WORKERS);
+        AtomicInteger done = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(STEALING_TASKS);
+
+        // Submitted from a worker, so every task is queued to it
+        e.submit(() -> {
+            for(int i = 0; i < STEALING_TASKS; ++i) {
+                e.execute(() -> {
+                    done.incrementAndGet();
+                    finished.countDown();
+                }, i % 2 == 0 ? PriorityClass.PRIO_A : PriorityClass.PRIO_B);
+            }
+        }, PriorityClass.PRIO_B).get();
+
+        await(finished);
+
+        printLatency("stealing", e);
+        close(e);
+
+        System.out.println("Work stealing: " + done.get() + " tasks, "
+                + e.getStealCount() + " stolen");
+
+        return done.get() == STEALING_TASKS && e.getStealCount() > 0;
+    }
+
+    protected static boolean testInterrupted() throws Exception {
+        PriorityClassExecutor e = new PriorityClassExecutor(1);
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+        Thread[] worker = new Thread[1];
+        e.submit(() -> {
+            worker[0] = Thread.currentThread();
+            worker[0].interrupt();
+        }).get();
+
+        long start = mx.getThreadCpuTime(worker[0].getId());
+        Thread.sleep(INTERRUPTED_IDLE_MILLIS);
+        long cpu = mx.getThreadCpuTime(worker[0].getId()) - start;
+
+        boolean leaked = e.submit(() -> Thread.currentThread().isInterrupted()).get();
+
+        close(e);
+
+        System.out.printf("Interrupted worker: %.1f ms of CPU while idle for %d ms, interrupt %s%n",
+                cpu / 1e6, INTERRUPTED_IDLE_MILLIS, leaked ? "leaked" : "cleared");
+
+        return !leaked && cpu < INTERRUPTED_MAX_CPU_NANOS;
+    }
+
+    protected static boolean testShutdown() throws Exception {
+        boolean passed = true;
+
+        PriorityClassExecutor e = new PriorityClassExecutor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+
+        e.execute(() -> {
+            started.countDown();
+            PriorityClassExecutorTest.await(release);
+        });
+        await(started);
+
+        for(int i = 0; i < 3; ++i)
+            e.execute(executed::incrementAndGet, PriorityClass.PRIO_B);
+
+        e.shutdown();
+
+        try {
+            e.execute(executed::incrementAndGet);
+            System.out.println("Task accepted after shutdown!");
+            passed = false;
+        } catch (RejectedExecutionException ex) {
+            // Expected
+        }
+
+        release.countDown();
+
+        if(!e.awaitTermination(10, TimeUnit.SECONDS) || executed.get() != 3) {
+            System.out.println("Queued tasks not executed after shutdown!");
+            passed = false;
+        }
+
+        PriorityClassExecutor now = new PriorityClassExecutor(1);
+        CountDownLatch nowStarted = new CountDownLatch(1);
+
+        now.execute(() -> {
+            nowStarted.countDown();
+            // Returns when interrupted by shutdownNow
+            LockSupport.park();
+        });
+        await(nowStarted);
+
+        for(int i = 0; i < 3; ++i)
+            now.execute(executed::incrementAndGet, PriorityClass.PRIO_A);
+
+        int dropped = now.shutdownNow().size();
+
+        if(!now.awaitTermination(10, TimeUnit.SECONDS) || dropped != 3) {
+            System.out.println("shutdownNow returned " + dropped + " tasks, expected 3");
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+
+        passed &= testStrictPriority();
+        passed &= testWeighted();
+        passed &= testIdleCredit();
+        passed &= testStealing();
+        passed &= testInterrupted();
+        passed &= testShutdown();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
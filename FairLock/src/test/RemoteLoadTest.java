@@ -0,0 +1,144 @@
+package test;
+
+import java.io.IOException;
+import manager.SingleResourceManager.PriorityClass;
+import remote.RemoteSingleResourceManager;
+import remote.ResourceManagerServer;
+import stats.Histogram;
+
+/**
+ * Load test of {@link ResourceManagerServer} and
+ * {@link RemoteSingleResourceManager} over the loopback interface.
+ *
+ * <p>For each number of clients, a server is started and each client opens
+ * its own connection to it, exactly like a separate process would do. Each
+ * client thread then executes a given number of request/release operations
+ * without holding the resource, so that the measured time is dominated by
+ * the round trips to the server. Half of the clients use the priority
+ * {@link PriorityClass#PRIO_A} and the other half
+ * {@link PriorityClass#PRIO_B}.</p>
+ *
+ * <p>For each number of clients, the throughput and the distribution of the
+ * time between the issue of a request and the grant of the resource are
+ * printed on the standard output, in microseconds.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class RemoteLoadTest {
+
+    private static final int[] CLIENTS = { 1, 2, 4, 8, 16, 32 };
+
+    /**
+     * A client that executes a given number of request/release operations
+     * through its own connection, recording the latency of every grant.
+     */
+    protected static class ClientThread extends Thread {
+        private final RemoteSingleResourceManager manager;
+        private final PriorityClass priority;
+        private final Histogram latency;
+        private final int N;
+
+        public ClientThread(RemoteSingleResourceManager manager,
+                PriorityClass priority,
+                int n) {
+            this.manager = manager;
+            this.priority = priority;
+            this.latency = new Histogram();
+            this.N = n;
+        }
+
+        @Override
+        public void run() {
+            for(int i = 0; i < N; ++i) {
+                long start = System.nanoTime();
+
+                manager.request(priority);
+
+                latency.record(System.nanoTime() - start);
+
+                manager.release();
+            }
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * Runs the test with the given number of clients.
+     *
+     * @param clients the number of clients, each with its own connection
+     * @param n the number of operations executed by each client
+     *
+     * @return the latency of all the grants
+     */
+    protected static Histogram test(int clients, int n) throws IOException {
+        Histogram total = new Histogram();
+
+        try(ResourceManagerServer server = new ResourceManagerServer(0)) {
+            server.start();
+
+            RemoteSingleResourceManager[] managers =
+                    new RemoteSingleResourceManager[clients];
+            ClientThread[] threads = new ClientThread[clients];
+
+            for(int i = 0; i < clients; ++i) {
+                managers[i] = new RemoteSingleResourceManager(server.getPort());
+                threads[i] = new ClientThread(managers[i],
+                        i % 2 == 0 ? PriorityClass.PRIO_A : PriorityClass.PRIO_B,
+                        n);
+            }
+
+            for(ClientThread t : threads)
+                t.start();
+
+            for(ClientThread t : threads) {
+                while(t.isAlive()) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException ex) {
+
+                    }
+                }
+
+                total.add(t.getLatency());
+            }
+
+            for(RemoteSingleResourceManager m : managers)
+                m.close();
+        }
+
+        return total;
+    }
+
+    /**
+     * Executes the test for an increasing number of clients.
+     *
+     * @param args optionally, the number of operations executed by each
+     * client (10000 by default)
+     */
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+        // Warm up both the server and the clients
+        test(2, n);
+
+        System.out.println("clients,ops/s,mean_us,p50_us,p99_us,p99.9_us,max_us");
+
+        for(int clients : CLIENTS) {
+            long start = System.nanoTime();
+            Histogram h = test(clients, n);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f%n",
+                    clients,
+                    h.getCount() / seconds,
+                    h.getMean() / 1e3,
+                    h.getValueAtPercentile(50) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3,
+                    h.getValueAtPercentile(99.9) / 1e3,
+                    h.getMax() / 1e3);
+        }
+    }
+}
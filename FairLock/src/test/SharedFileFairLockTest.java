@@ -0,0 +1,247 @@
+package test;
+
+import fairlock.SharedFileFairLock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to test {@link SharedFileFairLock} with several processes.
+ *
+ * <p>When executed without arguments, this class runs three tests; the first
+ * two start new JVMs executing this same class with different
+ * arguments:</p>
+ *
+ * <ul>
+ * <li>a mutual exclusion test, in which several processes (each with several
+ * threads) increment a counter stored in a shared file while holding the
+ * lock; the final value of the counter must be equal to the total number of
+ * increments;</li>
+ *
+ * <li>a recovery test, in which a process acquires the lock and then dies
+ * without releasing it; another process must be able to acquire the lock
+ * anyway;</li>
+ *
+ * <li>a late waiter test, in which a thread holds a new lock, taken without
+ * waiting, for longer than the timeout used to skip tickets that are never
+ * recorded; a thread that requests the lock meanwhile must wait for it to be
+ * released, without skipping the holder.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class SharedFileFairLockTest {
+
+    private static final int PROCESSES = 4;
+    private static final int THREADS = 2;
+    private static final int INCREMENTS = 2000;
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private static final long HOLD_MILLIS = 1500;
+    private static final long LATE_MILLIS = 20;
+
+    /**
+     * Starts a new JVM executing this class with the given arguments.
+     */
+    protected static Process spawn(String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SharedFileFairLockTest.class.getName());
+
+        for(String a : args)
+            command.add(a);
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    protected static boolean waitFor(Process p) {
+        for(;;) {
+            try {
+                if(!p.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    p.destroyForcibly();
+                    return false;
+                }
+
+                return p.exitValue() == 0;
+            } catch (InterruptedException ex) {
+
+            }
+        }
+    }
+
+    /**
+     * Body of the processes of the mutual exclusion test: increments the
+     * counter stored in the data file while holding the lock.
+     */
+    protected static void increment(File lockFile, File dataFile)
+            throws IOException, InterruptedException {
+        try(SharedFileFairLock lock = new SharedFileFairLock(lockFile);
+                FileChannel ch = FileChannel.open(dataFile.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer data = ch.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+
+            Thread[] threads = new Thread[THREADS];
+            for(int i = 0; i < THREADS; ++i) {
+                threads[i] = new Thread(() -> {
+                    for(int k = 0; k < INCREMENTS; ++k) {
+                        lock.lock();
+                        try {
+                            // Deliberately not atomic
+                            long value = data.getLong(0);
+                            Thread.yield();
+                            data.putLong(0, value + 1);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            for(Thread t : threads)
+                t.join();
+        }
+    }
+
+    protected static boolean testMutualExclusion(File lockFile, File dataFile)
+            throws IOException {
+        try(FileChannel ch = FileChannel.open(dataFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer data = ch.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            data.putLong(0, 0);
+
+            List<Process> processes = new ArrayList<>();
+            for(int i = 0; i < PROCESSES; ++i)
+                processes.add(spawn("increment", lockFile.getPath(), dataFile.getPath()));
+
+            boolean ok = true;
+            for(Process p : processes)
+                ok &= waitFor(p);
+
+            long expected = (long) PROCESSES * THREADS * INCREMENTS;
+            long actual = data.getLong(0);
+
+            System.out.println("Mutual exclusion: counter = " + actual + ", expected " + expected);
+
+            return ok && actual == expected;
+        }
+    }
+
+    protected static boolean testRecovery(File lockFile) throws IOException {
+        // The first process always exits with an error, since it halts
+        waitFor(spawn("die", lockFile.getPath()));
+
+        boolean ok = waitFor(spawn("lock", lockFile.getPath()));
+
+        try(SharedFileFairLock lock = new SharedFileFairLock(lockFile)) {
+            System.out.println("Recovery: " + (ok ? "lock acquired" : "lock NOT acquired")
+                    + ", recovered tickets = " + lock.getRecoveredCount());
+
+            return ok && lock.getRecoveredCount() > 0;
+        }
+    }
+
+    protected static boolean testLateWaiter(File lockFile) throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        try(SharedFileFairLock lock = new SharedFileFairLock(lockFile)) {
+            Runnable holder = () -> {
+                lock.lock();
+                try {
+                    if(inside.incrementAndGet() > 1)
+                        errors.incrementAndGet();
+
+                    Thread.sleep(HOLD_MILLIS);
+                } catch (InterruptedException ex) {
+                    errors.incrementAndGet();
+                } finally {
+                    inside.decrementAndGet();
+                    try {
+                        lock.unlock();
+                    } catch (IllegalMonitorStateException ex) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+
+            Thread first = new Thread(holder);
+            first.start();
+            Thread.sleep(LATE_MILLIS);
+
+            Thread second = new Thread(holder);
+            second.start();
+
+            first.join();
+            second.join();
+
+            System.out.println("Late waiter: " + errors.get() + " errors, recovered tickets = "
+                    + lock.getRecoveredCount());
+
+            return errors.get() == 0 && lock.getRecoveredCount() == 0;
+        }
+    }
+
+    /**
+     * Runs the tests or, when started by the tests themselves, the body of
+     * one of their processes.
+     *
+     * @param args empty to run the tests
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length > 0) {
+            switch(args[0]) {
+                case "increment":
+                    increment(new File(args[1]), new File(args[2]));
+                    return;
+                case "die": {
+                    SharedFileFairLock lock = new SharedFileFairLock(new File(args[1]));
+                    lock.lock();
+                    // Dies holding the lock, without any cleanup
+                    Runtime.getRuntime().halt(1);
+                    return;
+                }
+                case "lock": {
+                    try(SharedFileFairLock lock = new SharedFileFairLock(new File(args[1]))) {
+                        lock.lock();
+                        lock.unlock();
+                    }
+                    return;
+                }
+                default:
+                    throw new IllegalArgumentException(args[0]);
+            }
+        }
+
+        File lockFile = File.createTempFile("fairlock", ".lock");
+        File dataFile = File.createTempFile("fairlock", ".data");
+        File lateFile = File.createTempFile("fairlock", ".lock");
+
+        try {
+            boolean ok = testMutualExclusion(lockFile, dataFile);
+            ok &= testRecovery(lockFile);
+            ok &= testLateWaiter(lateFile);
+
+            System.out.println();
+            System.out.println(ok ? "Test finished!" : "Test FAILED!");
+
+            if(!ok)
+                System.exit(1);
+        } finally {
+            lockFile.delete();
+            dataFile.delete();
+            lateFile.delete();
+        }
+    }
+}
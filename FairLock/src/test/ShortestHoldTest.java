@@ -0,0 +1,213 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import journal.AcquisitionJournal;
+import journal.JournalReplay;
+import journal.RecordingResourceManager;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerFairLock;
+import manager.SingleResourceManagerShortestHold;
+
+/**
+ * Test of {@link SingleResourceManagerShortestHold}.
+ *
+ * <p>First, the order of the grants is checked: after learning that a tag
+ * holds the resource for a long time and another one for a short time, a
+ * client with the short tag must be served before a client with the long tag
+ * that started waiting earlier, unless the latter exceeded the maximum
+ * waiting time; clients of class {@link PriorityClass#PRIO_B} must still be
+ * served before the ones of class {@link PriorityClass#PRIO_A}.</p>
+ *
+ * <p>Then a workload in which few clients hold the resource for a long time
+ * and many clients hold it for a short time is recorded into an
+ * {@link AcquisitionJournal} and replayed via {@link JournalReplay} against
+ * the FIFO manager and this one, so that their waiting times can be
+ * compared.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class ShortestHoldTest {
+
+    private static final long LONG_HOLD = 2_000_000L;
+    private static final long SHORT_HOLD = 100_000L;
+
+    private static final int LONG_CLIENTS = 2;
+    private static final int SHORT_CLIENTS = 6;
+    private static final long THINK = 1_000_000L;
+    private static final long DURATION = 3_000_000_000L;
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the resource for (at least) the given time; parkNanos can return
+     * early, so it is called until the time elapses.
+     */
+    private static void hold(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long left = nanos; left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    private static void train(SingleResourceManagerShortestHold m, Object tag, long nanos) {
+        for(int i = 0; i < 5; ++i) {
+            m.request(PriorityClass.PRIO_B, tag);
+            hold(nanos);
+            m.release();
+        }
+    }
+
+    /**
+     * While the main thread holds the resource, the given clients start
+     * waiting one at a time, in order; then the resource is released after
+     * the given delay.
+     *
+     * @return the tags of the clients in the order they were served
+     */
+    private static List<String> grantOrder(SingleResourceManagerShortestHold m,
+            long delay, String[] tags, PriorityClass[] prios) {
+        List<String> served = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        m.request(PriorityClass.PRIO_B, "main");
+
+        for(int i = 0; i < tags.length; ++i) {
+            String tag = tags[i];
+            PriorityClass prio = prios[i];
+
+            Thread t = new Thread(() -> {
+                m.request(prio, tag);
+                synchronized(served) {
+                    served.add(tag);
+                }
+                m.release();
+            });
+
+            threads.add(t);
+            t.start();
+
+            while(t.getState() != Thread.State.WAITING)
+                LockSupport.parkNanos(100_000);
+        }
+
+        hold(delay);
+        m.release();
+        join(threads);
+
+        return served;
+    }
+
+    private static boolean check(String name, List<String> served, String... expected) {
+        List<String> e = new ArrayList<>();
+        for(String s : expected)
+            e.add(s);
+
+        System.out.println(name + ": " + served);
+
+        if(!served.equals(e)) {
+            System.out.println("Expected " + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    protected static boolean testOrdering() {
+        boolean passed = true;
+
+        String[] tags = { "long", "short" };
+        PriorityClass[] sameClass = { PriorityClass.PRIO_B, PriorityClass.PRIO_B };
+        PriorityClass[] longFirst = { PriorityClass.PRIO_B, PriorityClass.PRIO_A };
+
+        SingleResourceManagerShortestHold m =
+                new SingleResourceManagerShortestHold(1, TimeUnit.SECONDS);
+        train(m, "long", LONG_HOLD);
+        train(m, "short", 0);
+        train(m, "main", 0);
+
+        System.out.println("Expected hold: long "
+                + m.getExpectedHoldTime("long", TimeUnit.MICROSECONDS) + " us, short "
+                + m.getExpectedHoldTime("short", TimeUnit.MICROSECONDS) + " us");
+
+        passed &= check("shortest first", grantOrder(m, 0, tags, sameClass),
+                "short", "long");
+        passed &= check("class B first", grantOrder(m, 0, tags, longFirst),
+                "long", "short");
+
+        SingleResourceManagerShortestHold capped =
+                new SingleResourceManagerShortestHold(1, TimeUnit.MILLISECONDS);
+        train(capped, "long", LONG_HOLD);
+        train(capped, "short", 0);
+        train(capped, "main", 0);
+
+        passed &= check("max wait exceeded", grantOrder(capped, 5_000_000L, tags, sameClass),
+                "long", "short");
+
+        return passed;
+    }
+
+    /**
+     * Records a closed-loop workload with long and short clients, executed on
+     * the FIFO manager, into the given file.
+     */
+    protected static void record(File file) throws IOException {
+        try(AcquisitionJournal journal = new AcquisitionJournal(file, 1 << 18)) {
+            SingleResourceManager m = new RecordingResourceManager(
+                    new SingleResourceManagerFairLock(), journal);
+
+            long end = System.nanoTime() + DURATION;
+            List<Thread> threads = new ArrayList<>();
+
+            for(int i = 0; i < LONG_CLIENTS + SHORT_CLIENTS; ++i) {
+                long holdTime = i < LONG_CLIENTS ? LONG_HOLD : SHORT_HOLD;
+
+                threads.add(new Thread(() -> {
+                    while(System.nanoTime() < end) {
+                        m.request(PriorityClass.PRIO_B);
+                        hold(holdTime);
+                        m.release();
+
+                        hold(THINK);
+                    }
+                }));
+            }
+
+            for(Thread t : threads)
+                t.start();
+
+            join(threads);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(!testOrdering()) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        File file = File.createTempFile("shortest-hold", ".journal");
+        file.deleteOnExit();
+
+        System.out.println();
+        record(file);
+        JournalReplay.main(new String[] { file.getPath(), "fairlock", "shortest-hold" });
+
+        System.out.println();
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,208 @@
+package test;
+
+import fairlock.FairLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Test of {@link FairLock.Condition#signalAndUnlock()}.
+ *
+ * <p>A thread waits on a condition while another one, the signaller, holds
+ * the lock and two more threads are waiting in the <i>entry queue</i>. The
+ * signaller then calls signalAndUnlock, while the awakened thread keeps the
+ * lock until the test lets it go. The test checks that:</p>
+ *
+ * <ul>
+ * <li>the signaller returns while the awakened thread still holds the lock,
+ * without waiting in the <i>urgent queue</i>, and does not hold the lock
+ * any more;</li>
+ *
+ * <li>the lock is given to the awakened thread before any thread in the
+ * <i>entry queue</i>, which then obtain it in FIFO order.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class SignalAndUnlockTest {
+
+    private static final int ENTRY_THREADS = 2;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * A FairLock exposing its owner and the length of its queues.
+     */
+    protected static class InspectableLock extends FairLock {
+        Thread owner() {
+            return getOwner();
+        }
+
+        synchronized int entryQueueSize() {
+            return entryQueue.size();
+        }
+
+        synchronized int urgentQueueSize() {
+            return urgentQueue.size();
+        }
+    }
+
+    /**
+     * Waits for the given condition to become true.
+     *
+     * @return false if it is still false after a timeout
+     */
+    private static boolean await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() - deadline > 0)
+                return false;
+
+            Thread.yield();
+        }
+
+        return true;
+    }
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    private static volatile boolean signal;
+    private static volatile boolean proceed;
+    private static volatile boolean signallerLocked;
+    private static volatile boolean signallerReturned;
+    private static volatile boolean signallerOwner;
+    private static volatile boolean signallerRejected;
+
+    public static void main(String[] args) {
+        InspectableLock lock = new InspectableLock();
+        FairLock.Condition cond = lock.newCondition();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+
+        Thread waiter = new Thread(() -> {
+            lock.lock();
+            cond.await();
+
+            // Keep the lock until the checks on the signaller are done
+            while(!proceed)
+                LockSupport.park();
+
+            order.add("waiter");
+            lock.unlock();
+        });
+
+        Thread signaller = new Thread(() -> {
+            lock.lock();
+            signallerLocked = true;
+
+            while(!signal)
+                LockSupport.park();
+
+            cond.signalAndUnlock();
+            signallerReturned = true;
+            signallerOwner = lock.owner() == Thread.currentThread();
+
+            try {
+                lock.unlock();
+            } catch (IllegalMonitorStateException ex) {
+                signallerRejected = true;
+            }
+        });
+
+        // Daemons, so that a signaller stuck in the urgent queue does not
+        // keep the test from failing
+        waiter.setDaemon(true);
+        signaller.setDaemon(true);
+        threads.add(waiter);
+        threads.add(signaller);
+
+        expected.add("waiter");
+        waiter.start();
+        boolean passed = await(() -> cond.size() == 1);
+
+        signaller.start();
+        passed &= await(() -> signallerLocked);
+
+        for(int i = 0; i < ENTRY_THREADS; ++i) {
+            String name = "entry " + i;
+            int queued = i + 1;
+            expected.add(name);
+
+            Thread t = new Thread(() -> {
+                lock.lock();
+                order.add(name);
+                lock.unlock();
+            });
+            t.setDaemon(true);
+            threads.add(t);
+
+            t.start();
+            passed &= await(() -> lock.entryQueueSize() == queued);
+        }
+
+        if(!passed) {
+            System.out.println("The threads could not be queued!");
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        signal = true;
+        LockSupport.unpark(signaller);
+
+        if(!await(() -> signallerReturned)) {
+            System.out.println("signalAndUnlock did not return while the awakened thread holds the lock!");
+            passed = false;
+        } else {
+            System.out.println("After signalAndUnlock: owner is "
+                    + (lock.owner() == waiter ? "the awakened thread" : lock.owner())
+                    + ", " + lock.entryQueueSize() + " in the entry queue, "
+                    + lock.urgentQueueSize() + " in the urgent queue");
+
+            if(lock.owner() != waiter || lock.urgentQueueSize() != 0
+                    || lock.entryQueueSize() != ENTRY_THREADS || !order.isEmpty()) {
+                System.out.println("The lock has not been given to the awakened thread!");
+                passed = false;
+            }
+
+            if(!await(() -> !signaller.isAlive()) || signallerOwner || !signallerRejected) {
+                System.out.println("The signaller still holds the lock!");
+                passed = false;
+            }
+        }
+
+        proceed = true;
+        LockSupport.unpark(waiter);
+
+        if(passed) {
+            join(threads);
+
+            System.out.println("Lock obtained by: " + order);
+
+            if(!order.equals(expected)) {
+                System.out.println("The awakened thread did not obtain the lock first!");
+                passed = false;
+            }
+        }
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,208 @@
+package test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import manager.ResourceSnapshot;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerEventLoop;
+import manager.SingleResourceManagerFSM;
+import manager.SingleResourceManagerFairLock;
+import manager.SingleResourceManagerLease;
+import manager.SingleResourceManagerLock;
+import sim.Policy;
+import sim.Request;
+
+/**
+ * Checks the policies of the {@link sim.Simulator} against the managers they
+ * model.
+ *
+ * <p>For each policy, the same random sequence of requests and releases is
+ * executed both by the policy and by a real manager, one step at a time: each
+ * request is issued by a new client thread, and each release by the client
+ * holding the resource. After each step the manager must have rejected the
+ * same requests, granted the resource to the same client and have the same
+ * number of waiting clients of each class as the policy.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class SimulatorTest {
+
+    private static final int STEPS = 400;
+    private static final long SEED = 42;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * A client requesting the resource once, which releases it when told to.
+     */
+    protected static class Client extends Thread {
+        private final SingleResourceManager manager;
+        private final PriorityClass priority;
+
+        volatile boolean granted;
+        volatile boolean rejected;
+        volatile boolean release;
+
+        Client(SingleResourceManager manager, PriorityClass priority) {
+            this.manager = manager;
+            this.priority = priority;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                manager.request(priority);
+            } catch (IllegalMonitorStateException ex) {
+                rejected = true;
+                return;
+            }
+
+            granted = true;
+
+            while(!release)
+                LockSupport.park(this);
+
+            manager.release();
+        }
+    }
+
+    /**
+     * Waits for the given condition to become true.
+     *
+     * @return false if it is still false after a timeout
+     */
+    private static boolean await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+
+        while(!condition.getAsBoolean()) {
+            if(System.nanoTime() - deadline > 0)
+                return false;
+
+            Thread.yield();
+        }
+
+        return true;
+    }
+
+    private static boolean sameWaiting(SingleResourceManager manager, Policy policy) {
+        ResourceSnapshot s = manager.getSnapshot();
+
+        for(PriorityClass prio : PriorityClass.values())
+            if(s.getWaiting(prio) != policy.getWaiting(prio))
+                return false;
+
+        return true;
+    }
+
+    protected static boolean test(String name, Supplier<SingleResourceManager> factory) {
+        SingleResourceManager manager = factory.get();
+        Policy policy = Policy.create(name);
+        Random rnd = new Random(SEED);
+
+        Client[] clients = new Client[STEPS];
+        int holder = -1;
+        int requests = 0;
+        int rejections = 0;
+
+        for(int step = 0; step < STEPS; ++step) {
+            if(holder < 0 || rnd.nextInt(10) < 6) {
+                PriorityClass prio = rnd.nextBoolean()
+                        ? PriorityClass.PRIO_A
+                        : PriorityClass.PRIO_B;
+
+                Request r = new Request(prio, step, 0, requests);
+                Client c = new Client(manager, prio);
+                clients[requests++] = c;
+
+                boolean accepted;
+                if(holder < 0) {
+                    policy.acquired(prio);
+                    holder = r.getClient();
+                    accepted = true;
+                } else {
+                    accepted = policy.enqueue(r, clients[holder].priority);
+                }
+
+                c.start();
+
+                boolean settled;
+                if(!accepted)
+                    settled = await(() -> !c.isAlive());
+                else if(holder == r.getClient())
+                    settled = await(() -> c.granted || c.rejected);
+                else
+                    settled = await(() -> c.rejected || sameWaiting(manager, policy));
+
+                if(!settled || c.rejected == accepted) {
+                    System.out.printf("%s: step %d, request of class %s %s by the policy but not by the manager%n",
+                            name, step, prio, accepted ? "accepted" : "rejected");
+                    return false;
+                }
+
+                if(!accepted)
+                    ++rejections;
+            } else {
+                Client c = clients[holder];
+                Request next = policy.next(c.priority, 0);
+
+                c.release = true;
+                LockSupport.unpark(c);
+
+                holder = next == null ? -1 : next.getClient();
+                Client n = next == null ? null : clients[holder];
+
+                boolean settled = await(() -> !c.isAlive() && (n == null
+                        ? manager.getSnapshot().isFree()
+                        : n.granted));
+
+                if(!settled) {
+                    System.out.printf("%s: step %d, the manager did not grant the resource to %s%n",
+                            name, step, next == null ? "nobody" : "client " + next.getClient());
+                    return false;
+                }
+            }
+
+            for(int i = 0; i < requests; ++i) {
+                if(clients[i].granted && clients[i].isAlive() && i != holder) {
+                    System.out.printf("%s: step %d, client %d holds the resource instead of %d%n",
+                            name, step, i, holder);
+                    return false;
+                }
+            }
+
+            if(!await(() -> sameWaiting(manager, policy))) {
+                System.out.printf("%s: step %d, the manager has %s, the policy A=%d B=%d waiting%n",
+                        name, step, manager.getSnapshot(),
+                        policy.getWaiting(PriorityClass.PRIO_A),
+                        policy.getWaiting(PriorityClass.PRIO_B));
+                return false;
+            }
+        }
+
+        System.out.printf("%s: %d requests, %d rejected, same as the manager%n",
+                name, requests, rejections);
+
+        return true;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        passed &= test("fsm", SingleResourceManagerFSM::new);
+        passed &= test("fairlock", SingleResourceManagerFairLock::new);
+        passed &= test("lock", SingleResourceManagerLock::new);
+        passed &= test("lease", SingleResourceManagerLease::new);
+        passed &= test("eventloop", SingleResourceManagerEventLoop::new);
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,165 @@
+package test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagerWeighted;
+
+/**
+ * Test of the weighted sharing of {@link SingleResourceManagerWeighted}.
+ *
+ * <p>Two tests are executed:</p>
+ *
+ * <ul>
+ * <li>a share test, in which both classes always have waiting clients, with
+ * weights 20 and 80: class B must hold the resource for about 80% of the
+ * time;</li>
+ *
+ * <li>an idle credit test, in which class A uses the resource alone for a
+ * while and then both classes compete for it with equal weights, class B
+ * finding the resource free: class B must not use the time class A used
+ * alone to hold the resource for many turns in a row.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public class WeightedTest {
+
+    private static final int CLIENTS = 2;
+    private static final long HOLD_NANOS = 1_000_000L;
+
+    private static final long SHARE_MILLIS = 2000;
+    private static final double SHARE_MIN = 0.7;
+    private static final double SHARE_MAX = 0.9;
+
+    private static final long ALONE_MILLIS = 200;
+    private static final int IDLE_REQUESTS = 20;
+    private static final int IDLE_MAX_RUN = 3;
+
+    /**
+     * Keeps the current thread busy for (at least) the given time.
+     */
+    private static void hold(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for(long left = nanos; left > 0; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+    }
+
+    private static void join(Thread[] threads) {
+        for(Thread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+    }
+
+    protected static boolean testShare() {
+        SingleResourceManagerWeighted manager = new SingleResourceManagerWeighted(20, 80);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHARE_MILLIS);
+
+        Thread[] threads = new Thread[2 * CLIENTS];
+        for(int i = 0; i < threads.length; ++i) {
+            PriorityClass prio = i % 2 == 0 ? PriorityClass.PRIO_A : PriorityClass.PRIO_B;
+
+            threads[i] = new Thread(() -> {
+                while(System.nanoTime() - end < 0) {
+                    manager.request(prio);
+                    hold(HOLD_NANOS);
+                    manager.release();
+                }
+            });
+            threads[i].start();
+        }
+
+        join(threads);
+
+        long a = manager.getServiceTime(PriorityClass.PRIO_A, TimeUnit.NANOSECONDS);
+        long b = manager.getServiceTime(PriorityClass.PRIO_B, TimeUnit.NANOSECONDS);
+        double share = (double) b / (a + b);
+
+        System.out.printf("Weighted 20:80, time share of class B: %.2f%n", share);
+
+        return share > SHARE_MIN && share < SHARE_MAX;
+    }
+
+    protected static boolean testIdleCredit() {
+        SingleResourceManagerWeighted manager = new SingleResourceManagerWeighted(1, 1);
+
+        // Class A uses the resource alone, which is free between its requests
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ALONE_MILLIS);
+        while(System.nanoTime() - end < 0) {
+            manager.request(PriorityClass.PRIO_A);
+            hold(HOLD_NANOS);
+            manager.release();
+        }
+
+        StringBuffer order = new StringBuffer();
+
+        // Class B comes back first and finds the resource free
+        Thread[] threads = new Thread[2 * CLIENTS];
+        for(int i = 0; i < threads.length; ++i) {
+            PriorityClass prio = i < CLIENTS ? PriorityClass.PRIO_B : PriorityClass.PRIO_A;
+
+            threads[i] = new Thread(() -> {
+                for(int k = 0; k < IDLE_REQUESTS; ++k) {
+                    manager.request(prio);
+                    order.append(prio);
+                    hold(HOLD_NANOS);
+                    manager.release();
+                }
+            });
+        }
+
+        for(int i = 0; i < CLIENTS; ++i)
+            threads[i].start();
+
+        while(order.length() == 0)
+            Thread.yield();
+
+        for(int i = CLIENTS; i < threads.length; ++i)
+            threads[i].start();
+
+        join(threads);
+
+        System.out.println("Idle credit, weighted 1:1 after A used the resource alone: " + order);
+
+        // The tail is all of one class once the other one runs out
+        String head = order.substring(0, IDLE_REQUESTS);
+
+        return head.contains("A") && head.contains("B")
+                && longest(head) <= IDLE_MAX_RUN;
+    }
+
+    /**
+     * @return the length of the longest run of equal characters
+     */
+    private static int longest(String s) {
+        int run = 0;
+        int longest = 0;
+
+        for(int i = 0; i < s.length(); ++i) {
+            run = i > 0 && s.charAt(i) == s.charAt(i - 1) ? run + 1 : 1;
+            longest = Math.max(longest, run);
+        }
+
+        return longest;
+    }
+
+    public static void main(String[] args) {
+        boolean passed = true;
+
+        passed &= testShare();
+        passed &= testIdleCredit();
+
+        if(!passed) {
+            System.out.println("Test failed!");
+            System.exit(1);
+        }
+
+        System.out.println("Test passed!");
+    }
+}
@@ -0,0 +1,231 @@
+package tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of durations, expressed in nanoseconds, used to generate
+ * think times, hold times and inter-arrival times.
+ *
+ * <p>Distributions are created from a textual specification via
+ * {@link #parse(String)}; durations in a specification are numbers followed
+ * by an optional unit, see {@link #parseDuration(String)}:</p>
+ *
+ * <ul>
+ * <li>{@code zero}: always zero;</li>
+ * <li>{@code D} or {@code const:D}: always {@code D};</li>
+ * <li>{@code exp:MEAN}: exponential with the given mean;</li>
+ * <li>{@code uniform:MIN,MAX}: uniform between the two bounds;</li>
+ * <li>{@code pareto:MIN,ALPHA}: Pareto with the given scale and shape, to
+ * model heavy-tailed hold times.</li>
+ * </ul>
+ *
+ * @author Gabriele Ara
+ */
+public abstract class Distribution {
+
+    /**
+     * A distribution that is always zero.
+     */
+    public static final Distribution ZERO = constant(0);
+
+    private final String spec;
+
+    protected Distribution(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @param rnd the source of randomness to be used
+     *
+     * @return a new sample, in nanoseconds
+     */
+    public abstract long sample(Random rnd);
+
+    /**
+     * @return the mean of the distribution, in nanoseconds
+     */
+    public abstract double getMean();
+
+    /**
+     * @return the specification this distribution was created from
+     */
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     *
+     * @return a distribution that is always equal to the given duration
+     */
+    public static Distribution constant(long nanos) {
+        return constant(nanos + "ns", nanos);
+    }
+
+    /**
+     * @param mean the mean of the distribution in nanoseconds
+     *
+     * @return an exponential distribution with the given mean
+     */
+    public static Distribution exponential(double mean) {
+        return exponential("exp:" + (long) mean + "ns", mean);
+    }
+
+    private static Distribution constant(String spec, long nanos) {
+        return new Distribution(spec) {
+            @Override
+            public long sample(Random rnd) {
+                return nanos;
+            }
+
+            @Override
+            public double getMean() {
+                return nanos;
+            }
+        };
+    }
+
+    private static Distribution exponential(String spec, double mean) {
+        return new Distribution(spec) {
+            @Override
+            public long sample(Random rnd) {
+                return (long) (-mean * Math.log(1.0 - rnd.nextDouble()));
+            }
+
+            @Override
+            public double getMean() {
+                return mean;
+            }
+        };
+    }
+
+    /**
+     * Parses the specification of a distribution.
+     *
+     * @param spec the specification, see the description of this class
+     *
+     * @return the corresponding distribution
+     *
+     * @throws IllegalArgumentException if the specification is not valid
+     */
+    public static Distribution parse(String spec) {
+        String s = spec.trim();
+
+        if(s.equals("zero"))
+            return ZERO;
+
+        int colon = s.indexOf(':');
+
+        String kind = colon < 0 ? "const" : s.substring(0, colon);
+        String[] args = (colon < 0 ? s : s.substring(colon + 1)).split(",");
+
+        switch(kind) {
+            case "const":
+                check(spec, args, 1);
+                return constant(spec, parseDuration(args[0]));
+            case "exp":
+                check(spec, args, 1);
+                return exponential(spec, parseDuration(args[0]));
+            case "uniform": {
+                check(spec, args, 2);
+                long min = parseDuration(args[0]);
+                long max = parseDuration(args[1]);
+                if(max < min)
+                    throw new IllegalArgumentException("Invalid distribution: " + spec);
+
+                return new Distribution(spec) {
+                    @Override
+                    public long sample(Random rnd) {
+                        return min + (long) (rnd.nextDouble() * (max - min));
+                    }
+
+                    @Override
+                    public double getMean() {
+                        return (min + max) / 2.0;
+                    }
+                };
+            }
+            case "pareto": {
+                check(spec, args, 2);
+                double min = parseDuration(args[0]);
+                double alpha;
+                try {
+                    alpha = Double.parseDouble(args[1].trim());
+                } catch (NumberFormatException ex) {
+                    alpha = 0;
+                }
+                if(alpha <= 0)
+                    throw new IllegalArgumentException("Invalid distribution: " + spec);
+
+                double shape = alpha;
+                return new Distribution(spec) {
+                    @Override
+                    public long sample(Random rnd) {
+                        return (long) (min / Math.pow(1.0 - rnd.nextDouble(), 1.0 / shape));
+                    }
+
+                    @Override
+                    public double getMean() {
+                        return shape > 1 ? shape * min / (shape - 1) : Double.POSITIVE_INFINITY;
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Invalid distribution: " + spec);
+        }
+    }
+
+    private static void check(String spec, String[] args, int n) {
+        if(args.length != n)
+            throw new IllegalArgumentException("Invalid distribution: " + spec);
+    }
+
+    /**
+     * Parses a duration, like {@code 10ms} or {@code 250us}.
+     *
+     * @param s the duration, as a number followed by an optional unit
+     * ({@code ns}, {@code us}, {@code ms}, {@code s}, {@code m} or {@code h};
+     * milliseconds by default)
+     *
+     * @return the duration in nanoseconds
+     *
+     * @throws IllegalArgumentException if the duration is not valid
+     */
+    public static long parseDuration(String s) {
+        String d = s.trim();
+        int i = d.length();
+        while(i > 0 && Character.isLetter(d.charAt(i - 1)))
+            --i;
+
+        String unit = d.substring(i);
+        double value;
+        try {
+            value = Double.parseDouble(d.substring(0, i));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid duration: " + s);
+        }
+
+        if(value < 0)
+            throw new IllegalArgumentException("Invalid duration: " + s);
+
+        switch(unit) {
+            case "ns":
+                return (long) value;
+            case "us":
+                return (long) (value * TimeUnit.MICROSECONDS.toNanos(1));
+            case "":
+            case "ms":
+                return (long) (value * TimeUnit.MILLISECONDS.toNanos(1));
+            case "s":
+                return (long) (value * TimeUnit.SECONDS.toNanos(1));
+            case "m":
+                return (long) (value * TimeUnit.MINUTES.toNanos(1));
+            case "h":
+                return (long) (value * TimeUnit.HOURS.toNanos(1));
+            default:
+                throw new IllegalArgumentException("Invalid duration: " + s);
+        }
+    }
+}
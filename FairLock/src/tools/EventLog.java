@@ -0,0 +1,124 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import manager.SingleResourceManager.PriorityClass;
+
+/**
+ * Log of the arrival, grant and release events of the operations executed
+ * on a lock or on a {@link manager.SingleResourceManager}, recorded with
+ * negligible overhead so that it can be used under real load.
+ *
+ * <p>Each thread records its events into its own {@link Buffer}, preallocated
+ * with a fixed capacity: recording an event never allocates memory and never
+ * acquires a lock. Events are stamped with both a global sequence number,
+ * which gives a total order consistent with the order in which events
+ * happened, and with {@link System#nanoTime()}. The buffers are merged only
+ * after the threads have terminated, see {@link OrderingVerifier}.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class EventLog {
+
+    /**
+     * Number of longs recorded for each operation.
+     */
+    static final int FIELDS = 5;
+
+    static final int ARRIVAL_SEQ = 0;
+    static final int ARRIVAL_TIME = 1;
+    static final int GRANT_SEQ = 2;
+    static final int RELEASE_SEQ = 3;
+    static final int RELEASE_TIME = 4;
+
+    private final AtomicLong sequence;
+    private final Buffer[] buffers;
+
+    /**
+     * The events recorded by a single thread; its methods must be called only
+     * by that thread, in the order arrive, grant, release for each
+     * operation.
+     */
+    public final class Buffer {
+        final long[] events;
+        final byte[] priorities;
+        int size;
+
+        Buffer(int capacity) {
+            events = new long[capacity * FIELDS];
+            priorities = new byte[capacity];
+            size = 0;
+        }
+
+        /**
+         * Records the arrival of a new operation, right before the lock or
+         * the resource is requested.
+         *
+         * @param prio the priority of the request
+         *
+         * @throws IllegalStateException if the buffer is full
+         */
+        public void arrive(PriorityClass prio) {
+            if(size == priorities.length)
+                throw new IllegalStateException("The buffer is full!");
+
+            int base = size * FIELDS;
+            events[base + ARRIVAL_TIME] = System.nanoTime();
+            events[base + ARRIVAL_SEQ] = sequence.getAndIncrement();
+            priorities[size] = (byte) prio.ordinal();
+        }
+
+        /**
+         * Records the grant of the last arrived operation, right after the
+         * lock or the resource has been obtained.
+         */
+        public void grant() {
+            events[size * FIELDS + GRANT_SEQ] = sequence.getAndIncrement();
+        }
+
+        /**
+         * Records the release of the last granted operation, right before
+         * the lock or the resource is released.
+         */
+        public void release() {
+            int base = size * FIELDS;
+            events[base + RELEASE_SEQ] = sequence.getAndIncrement();
+            events[base + RELEASE_TIME] = System.nanoTime();
+            ++size;
+        }
+
+        /**
+         * @return the number of complete operations recorded
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * @param threads the number of buffers to be allocated
+     * @param capacity the number of operations each buffer can hold
+     */
+    public EventLog(int threads, int capacity) {
+        sequence = new AtomicLong(0);
+        buffers = new Buffer[threads];
+
+        for(int i = 0; i < threads; ++i)
+            buffers[i] = new Buffer(capacity);
+    }
+
+    /**
+     * @param thread the index of a thread
+     *
+     * @return the buffer of the given thread
+     */
+    public Buffer getBuffer(int thread) {
+        return buffers[thread];
+    }
+
+    /**
+     * @return the number of buffers
+     */
+    public int getThreadCount() {
+        return buffers.length;
+    }
+}
@@ -0,0 +1,463 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagers;
+import stats.Histogram;
+
+/**
+ * Non-interactive load generator for the {@link SingleResourceManager}
+ * implementations.
+ *
+ * <p>A configurable number of clients of each {@link PriorityClass} execute
+ * request/release operations on the same manager, holding the resource for a
+ * time drawn from a {@link Distribution}. Two modes are supported:</p>
+ *
+ * <ul>
+ * <li>closed loop: each client issues its next request after it has released
+ * the resource and waited for a think time;</li>
+ *
+ * <li>open loop: the requests of each class arrive at a fixed rate (evenly
+ * divided among its clients), either at fixed intervals or as a Poisson
+ * process. A client that is late with respect to its schedule issues its next
+ * request immediately. The waiting time is measured from the time the request
+ * was supposed to be issued, not from the time it actually was, so that the
+ * time a client spends waiting for the resource does not hide the requests it
+ * could not issue meanwhile (coordinated omission); the uncorrected waiting
+ * time is reported too.</li>
+ * </ul>
+ *
+ * <p>Waiting and holding are implemented via {@link LockSupport#parkNanos},
+ * so the clients do not compete for the CPU and the actual hold times may be
+ * slightly longer than the requested ones.</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java tools.LoadGenerator [option value]...
+ *
+ *   --manager NAME       one of {@link SingleResourceManagers#names()} (fairlock)
+ *   --clients-a N        number of clients of class A (4)
+ *   --clients-b N        number of clients of class B (4)
+ *   --mode closed|open   closed or open loop (closed)
+ *   --think DIST         think time, closed loop only (exp:1ms)
+ *   --rate-a R           requests per second of class A, open loop only (500)
+ *   --rate-b R           requests per second of class B, open loop only (500)
+ *   --arrivals KIND      poisson or fixed inter-arrival times (poisson)
+ *   --hold DIST          hold time (exp:100us)
+ *   --duration D         duration of the measurement (10s)
+ *   --warmup D           duration of the warm up, not measured (1s)
+ *   --format csv|json    output format (csv)
+ * </pre>
+ *
+ * <p>Distributions and durations follow the syntax of
+ * {@link Distribution#parse(String)}. For each class, the throughput and the
+ * distribution of the waiting times (in microseconds) are printed on the
+ * standard output. Requests rejected by the manager are counted as
+ * errors.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class LoadGenerator {
+
+    private static final PriorityClass[] PRIORITIES = PriorityClass.values();
+
+    /**
+     * The configuration of a run, parsed from the command line.
+     */
+    protected static final class Config {
+        String manager = "fairlock";
+        int[] clients = { 4, 4 };
+        boolean open = false;
+        Distribution think = Distribution.parse("exp:1ms");
+        double[] rates = { 500, 500 };
+        boolean poisson = true;
+        Distribution hold = Distribution.parse("exp:100us");
+        long duration = Distribution.parseDuration("10s");
+        long warmup = Distribution.parseDuration("1s");
+        boolean json = false;
+
+        static Config parse(String[] args) {
+            Config c = new Config();
+
+            if(args.length % 2 != 0)
+                throw new IllegalArgumentException("Missing value for option " + args[args.length - 1]);
+
+            for(int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+
+                switch(args[i]) {
+                    case "--manager":
+                        c.manager = value;
+                        break;
+                    case "--clients-a":
+                        c.clients[0] = Integer.parseInt(value);
+                        break;
+                    case "--clients-b":
+                        c.clients[1] = Integer.parseInt(value);
+                        break;
+                    case "--mode":
+                        if(!value.equals("open") && !value.equals("closed"))
+                            throw new IllegalArgumentException("Invalid mode: " + value);
+                        c.open = value.equals("open");
+                        break;
+                    case "--think":
+                        c.think = Distribution.parse(value);
+                        break;
+                    case "--rate-a":
+                        c.rates[0] = Double.parseDouble(value);
+                        break;
+                    case "--rate-b":
+                        c.rates[1] = Double.parseDouble(value);
+                        break;
+                    case "--arrivals":
+                        if(!value.equals("poisson") && !value.equals("fixed"))
+                            throw new IllegalArgumentException("Invalid arrivals: " + value);
+                        c.poisson = value.equals("poisson");
+                        break;
+                    case "--hold":
+                        c.hold = Distribution.parse(value);
+                        break;
+                    case "--duration":
+                        c.duration = Distribution.parseDuration(value);
+                        break;
+                    case "--warmup":
+                        c.warmup = Distribution.parseDuration(value);
+                        break;
+                    case "--format":
+                        if(!value.equals("csv") && !value.equals("json"))
+                            throw new IllegalArgumentException("Invalid format: " + value);
+                        c.json = value.equals("json");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+
+            for(int i = 0; i < c.clients.length; ++i) {
+                if(c.clients[i] < 0)
+                    throw new IllegalArgumentException("The number of clients cannot be negative!");
+                if(c.open && c.clients[i] > 0 && !(c.rates[i] > 0))
+                    throw new IllegalArgumentException("Arrival rates must be positive!");
+            }
+
+            return c;
+        }
+
+        /**
+         * @return the inter-arrival times of each client of the given class,
+         *         in open loop mode
+         */
+        Distribution interArrival(PriorityClass prio) {
+            double mean = 1e9 * clients[prio.ordinal()] / rates[prio.ordinal()];
+            return poisson
+                    ? Distribution.exponential(mean)
+                    : Distribution.constant((long) mean);
+        }
+    }
+
+    /**
+     * The measurements of one or more clients of the same class.
+     */
+    protected static final class Result {
+        final Histogram wait = new Histogram();
+        final Histogram uncorrected = new Histogram();
+        long errors = 0;
+
+        void add(Result other) {
+            wait.add(other.wait);
+            uncorrected.add(other.uncorrected);
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * A client executing request/release operations until the end of the
+     * run.
+     */
+    protected static class ClientThread extends Thread {
+        private final SingleResourceManager manager;
+        private final PriorityClass priority;
+        private final Config config;
+        private final Distribution interArrival;
+        private final long measureStart;
+        private final long end;
+        private final Result result;
+
+        public ClientThread(SingleResourceManager manager,
+                PriorityClass priority,
+                Config config,
+                long start) {
+            this.manager = manager;
+            this.priority = priority;
+            this.config = config;
+            this.interArrival = config.open ? config.interArrival(priority) : null;
+            this.measureStart = start + config.warmup;
+            this.end = measureStart + config.duration;
+            this.result = new Result();
+
+            setDaemon(true);
+        }
+
+        private static void sleepUntil(long deadline) {
+            for(long delay = deadline - System.nanoTime();
+                    delay > 0;
+                    delay = deadline - System.nanoTime())
+                LockSupport.parkNanos(delay);
+        }
+
+        /**
+         * Waits for the given time; parkNanos may return early, so it is
+         * called until the time has elapsed.
+         */
+        private static void pause(long nanos) {
+            if(nanos > 0)
+                sleepUntil(System.nanoTime() + nanos);
+        }
+
+        private void think(Random rnd) {
+            if(!config.open)
+                pause(config.think.sample(rnd));
+        }
+
+        @Override
+        public void run() {
+            Random rnd = ThreadLocalRandom.current();
+            long next = measureStart - config.warmup;
+
+            // Clients of the same class start at different phases
+            if(config.open)
+                next += (long) (rnd.nextDouble() * interArrival.getMean());
+
+            for(;;) {
+                long intended;
+
+                if(config.open) {
+                    intended = next;
+                    next += interArrival.sample(rnd);
+
+                    if(intended >= end)
+                        break;
+
+                    sleepUntil(intended);
+                } else {
+                    intended = System.nanoTime();
+
+                    if(intended >= end)
+                        break;
+                }
+
+                boolean measured = intended >= measureStart;
+                long issued = System.nanoTime();
+
+                try {
+                    manager.request(priority);
+                } catch (RuntimeException ex) {
+                    if(measured)
+                        ++result.errors;
+
+                    // A rejected client tries again after thinking, as in
+                    // sim.Simulator, instead of spinning on the manager
+                    think(rnd);
+                    continue;
+                }
+
+                long granted = System.nanoTime();
+
+                if(measured) {
+                    result.wait.record(granted - intended);
+                    result.uncorrected.record(granted - issued);
+                }
+
+                pause(config.hold.sample(rnd));
+
+                manager.release();
+
+                think(rnd);
+            }
+        }
+    }
+
+    /**
+     * Executes a run with the given configuration.
+     *
+     * @return the measurements of each class
+     */
+    protected static Result[] run(Config config) {
+        SingleResourceManager manager = SingleResourceManagers.create(config.manager);
+
+        // Leave some time to start every thread before the first request
+        long start = System.nanoTime() + 100_000_000L;
+
+        List<ClientThread> threads = new ArrayList<>();
+        for(PriorityClass prio : PRIORITIES)
+            for(int i = 0; i < config.clients[prio.ordinal()]; ++i)
+                threads.add(new ClientThread(manager, prio, config, start));
+
+        for(ClientThread t : threads)
+            t.start();
+
+        Result[] results = new Result[PRIORITIES.length];
+        for(int i = 0; i < results.length; ++i)
+            results[i] = new Result();
+
+        for(ClientThread t : threads) {
+            while(t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+
+            results[t.priority.ordinal()].add(t.result);
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the values reported for a histogram, in microseconds
+     */
+    private static Map<String, Double> summary(Histogram h) {
+        Map<String, Double> m = new LinkedHashMap<>();
+
+        m.put("mean_us", h.getMean() / 1e3);
+        m.put("p50_us", h.getValueAtPercentile(50) / 1e3);
+        m.put("p99_us", h.getValueAtPercentile(99) / 1e3);
+        m.put("p99.9_us", h.getValueAtPercentile(99.9) / 1e3);
+        m.put("max_us", h.getMax() / 1e3);
+
+        return m;
+    }
+
+    private static void printCsv(Config config, Result[] results) {
+        System.out.println("manager,mode,class,clients,count,errors,throughput,metric,mean_us,p50_us,p99_us,p99.9_us,max_us");
+
+        double seconds = config.duration / 1e9;
+
+        for(PriorityClass prio : PRIORITIES) {
+            Result r = results[prio.ordinal()];
+
+            for(int k = 0; k < (config.open ? 2 : 1); ++k) {
+                StringBuilder sb = new StringBuilder();
+
+                sb.append(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.1f,%s",
+                        config.manager,
+                        config.open ? "open" : "closed",
+                        prio,
+                        config.clients[prio.ordinal()],
+                        r.wait.getCount(),
+                        r.errors,
+                        r.wait.getCount() / seconds,
+                        k == 0 ? "wait" : "wait_uncorrected"));
+
+                for(double v : summary(k == 0 ? r.wait : r.uncorrected).values())
+                    sb.append(String.format(Locale.ROOT, ",%.1f", v));
+
+                System.out.println(sb);
+            }
+        }
+    }
+
+    private static void printJson(Config config, Result[] results) {
+        double seconds = config.duration / 1e9;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append(String.format(Locale.ROOT,
+                "  \"manager\": \"%s\",\n  \"mode\": \"%s\",\n  \"hold\": \"%s\",\n",
+                config.manager, config.open ? "open" : "closed", config.hold));
+
+        if(config.open)
+            sb.append(String.format(Locale.ROOT, "  \"arrivals\": \"%s\",\n",
+                    config.poisson ? "poisson" : "fixed"));
+        else
+            sb.append(String.format(Locale.ROOT, "  \"think\": \"%s\",\n", config.think));
+
+        sb.append(String.format(Locale.ROOT, "  \"duration_s\": %.3f,\n", seconds));
+        sb.append("  \"classes\": {");
+
+        for(PriorityClass prio : PRIORITIES) {
+            Result r = results[prio.ordinal()];
+
+            sb.append(prio.ordinal() == 0 ? "\n" : ",\n");
+            sb.append(String.format(Locale.ROOT,
+                    "    \"%s\": {\n      \"clients\": %d,\n      \"count\": %d,\n"
+                    + "      \"errors\": %d,\n      \"throughput\": %.1f,\n",
+                    prio,
+                    config.clients[prio.ordinal()],
+                    r.wait.getCount(),
+                    r.errors,
+                    r.wait.getCount() / seconds));
+
+            if(config.open)
+                sb.append(String.format(Locale.ROOT, "      \"rate\": %.1f,\n",
+                        config.rates[prio.ordinal()]));
+
+            appendJson(sb, "wait", r.wait);
+
+            if(config.open) {
+                sb.append(",\n");
+                appendJson(sb, "wait_uncorrected", r.uncorrected);
+            }
+
+            sb.append("\n    }");
+        }
+
+        sb.append("\n  }\n}");
+
+        System.out.println(sb);
+    }
+
+    private static void appendJson(StringBuilder sb, String name, Histogram h) {
+        sb.append("      \"").append(name).append("\": {");
+
+        boolean first = true;
+        for(Map.Entry<String, Double> e : summary(h).entrySet()) {
+            sb.append(first ? " " : ", ");
+            sb.append(String.format(Locale.ROOT, "\"%s\": %.1f", e.getKey(), e.getValue()));
+            first = false;
+        }
+
+        sb.append(" }");
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args the options, see the description of this class
+     */
+    public static void main(String[] args) {
+        Config config;
+
+        try {
+            config = Config.parse(args);
+            SingleResourceManagers.create(config.manager);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: LoadGenerator [--manager NAME] [--clients-a N] [--clients-b N]");
+            System.err.println("       [--mode closed|open] [--think DIST] [--rate-a R] [--rate-b R]");
+            System.err.println("       [--arrivals poisson|fixed] [--hold DIST] [--duration D]");
+            System.err.println("       [--warmup D] [--format csv|json]");
+            System.err.println("Available managers: " + SingleResourceManagers.names());
+            System.exit(1);
+            return;
+        }
+
+        Result[] results = run(config);
+
+        if(config.json)
+            printJson(config, results);
+        else
+            printCsv(config, results);
+    }
+}
@@ -0,0 +1,535 @@
+package tools;
+
+import fairlock.FairLock;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import manager.SingleResourceManager;
+import manager.SingleResourceManager.PriorityClass;
+import manager.SingleResourceManagers;
+
+/**
+ * Verifies, under real load, that a lock grants itself in FIFO order and
+ * that a {@link SingleResourceManager} respects both the priority between
+ * classes and the FIFO order within each class.
+ *
+ * <p>Worker threads execute operations on the verified target, recording
+ * their events into an {@link EventLog}; after they have terminated, the
+ * operations are sorted in the order they were granted and checked for:</p>
+ *
+ * <ul>
+ * <li>mutual exclusion violations: an operation granted before the previous
+ * one was released;</li>
+ *
+ * <li>overtakes: an operation granted before another one of the same class
+ * (or of any class, for plain locks) which arrived earlier;</li>
+ *
+ * <li>priority inversions (managers only): an operation of class
+ * {@link PriorityClass#PRIO_A} granted while an operation of class
+ * {@link PriorityClass#PRIO_B} had already arrived and was granted
+ * later.</li>
+ * </ul>
+ *
+ * <p>An arrival is recorded right before the request is issued, so a thread
+ * may be preempted after recording its arrival but before actually joining
+ * the queue of the target; in that case, an overtake or an inversion is
+ * detected even if the target behaved correctly. For this reason, an
+ * overtake or an inversion is counted as a violation only if the earlier
+ * arrival happened more than a given slack before the later one (or before
+ * the release that caused the grant, for inversions). The slack must cover
+ * the time a thread can be preempted for: the default one is larger than the
+ * time slice of a machine running more threads than it has processors, and
+ * it can be lowered when each thread has its own processor. The largest lag
+ * of the detected overtakes and inversions is reported anyway. The analysis is
+ * {@code O(n log n)} in the number of operations and uses a few arrays of
+ * primitives, so millions of operations can be verified in seconds.</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java tools.OrderingVerifier [option value]...
+ *
+ *   --target NAME        FairLock, reentrant-fair, reentrant-unfair or one of
+ *                        {@link SingleResourceManagers#names()} (FairLock)
+ *   --threads N          number of worker threads (8)
+ *   --ops N              operations executed by each thread (125000)
+ *   --mix-b P            percentage of operations of class B (50)
+ *   --hold DIST          hold time (zero)
+ *   --think DIST         time between operations of a thread (zero)
+ *   --slack D            tolerance on arrival times (10ms)
+ * </pre>
+ *
+ * <p>The program exits with status 1 if any violation is found.</p>
+ *
+ * @author Gabriele Ara
+ */
+public class OrderingVerifier {
+
+    /**
+     * The results of the verification of a log.
+     */
+    public static final class Report {
+        long operations;
+        long exclusionViolations;
+        long overtakes;
+        long fifoViolations;
+        long inversions;
+        long priorityViolations;
+        long maxOvertakeLag;
+        long maxInversionLag;
+
+        /**
+         * @return the number of verified operations
+         */
+        public long getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return the number of operations granted before the previous one
+         *         was released
+         */
+        public long getExclusionViolations() {
+            return exclusionViolations;
+        }
+
+        /**
+         * @return the number of operations that overtook at least another
+         *         one, including the ones within the slack
+         */
+        public long getOvertakes() {
+            return overtakes;
+        }
+
+        /**
+         * @return the number of overtakes beyond the slack
+         */
+        public long getFifoViolations() {
+            return fifoViolations;
+        }
+
+        /**
+         * @return the number of operations of class A granted while an
+         *         operation of class B was waiting, including the ones within
+         *         the slack
+         */
+        public long getInversions() {
+            return inversions;
+        }
+
+        /**
+         * @return the number of priority inversions beyond the slack
+         */
+        public long getPriorityViolations() {
+            return priorityViolations;
+        }
+
+        /**
+         * @param unit the unit of the result
+         *
+         * @return the largest time by which an overtaken operation arrived
+         *         before the operation that overtook it
+         */
+        public long getMaxOvertakeLag(TimeUnit unit) {
+            return unit.convert(maxOvertakeLag, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param unit the unit of the result
+         *
+         * @return the largest time by which a waiting operation of class B
+         *         arrived before an operation of class A was granted instead
+         */
+        public long getMaxInversionLag(TimeUnit unit) {
+            return unit.convert(maxInversionLag, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return true if no violation has been found
+         */
+        public boolean isValid() {
+            return exclusionViolations == 0
+                    && fifoViolations == 0
+                    && priorityViolations == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "operations=%d, exclusion violations=%d%n"
+                    + "overtakes=%d, beyond slack=%d, max lag=%.1f us%n"
+                    + "priority inversions=%d, beyond slack=%d, max lag=%.1f us",
+                    operations, exclusionViolations,
+                    overtakes, fifoViolations, maxOvertakeLag / 1e3,
+                    inversions, priorityViolations, maxInversionLag / 1e3);
+        }
+    }
+
+    /**
+     * The operations of a log, sorted in the order they were granted.
+     */
+    private static final class Operations {
+        final int n;
+        final long[] arrivalSeq;
+        final long[] arrivalTime;
+        final long[] grantSeq;
+        final long[] releaseSeq;
+        final long[] releaseTime;
+        final byte[] priorities;
+
+        Operations(EventLog log) {
+            int total = 0;
+            for(int t = 0; t < log.getThreadCount(); ++t)
+                total += log.getBuffer(t).size();
+
+            n = total;
+
+            // Sorting primitive keys is much faster than sorting objects: the
+            // grant sequence number is in the upper half, the position of the
+            // operation in its buffer in the lower one
+            long[] keys = new long[n];
+            int[] threads = new int[n];
+            int k = 0;
+
+            for(int t = 0; t < log.getThreadCount(); ++t) {
+                EventLog.Buffer b = log.getBuffer(t);
+                for(int i = 0; i < b.size(); ++i) {
+                    long seq = b.events[i * EventLog.FIELDS + EventLog.GRANT_SEQ];
+                    if(seq >= 1L << 31)
+                        throw new IllegalArgumentException("Too many events to be verified!");
+
+                    keys[k] = seq << 32 | k;
+                    threads[k] = t;
+                    ++k;
+                }
+            }
+
+            // Position of each operation within its own buffer
+            int[] positions = new int[n];
+            k = 0;
+            for(int t = 0; t < log.getThreadCount(); ++t)
+                for(int i = 0; i < log.getBuffer(t).size(); ++i)
+                    positions[k++] = i;
+
+            Arrays.sort(keys);
+
+            arrivalSeq = new long[n];
+            arrivalTime = new long[n];
+            grantSeq = new long[n];
+            releaseSeq = new long[n];
+            releaseTime = new long[n];
+            priorities = new byte[n];
+
+            for(int j = 0; j < n; ++j) {
+                int op = (int) keys[j];
+                EventLog.Buffer b = log.getBuffer(threads[op]);
+                int base = positions[op] * EventLog.FIELDS;
+
+                arrivalSeq[j] = b.events[base + EventLog.ARRIVAL_SEQ];
+                arrivalTime[j] = b.events[base + EventLog.ARRIVAL_TIME];
+                grantSeq[j] = b.events[base + EventLog.GRANT_SEQ];
+                releaseSeq[j] = b.events[base + EventLog.RELEASE_SEQ];
+                releaseTime[j] = b.events[base + EventLog.RELEASE_TIME];
+                priorities[j] = b.priorities[positions[op]];
+            }
+        }
+    }
+
+    /**
+     * Verifies the operations recorded in a log.
+     *
+     * @param log a log whose threads have all terminated
+     * @param priorities true if the log has been produced by a
+     * {@link SingleResourceManager} (FIFO order is checked within each class
+     * and priority inversions are checked), false if it has been produced by
+     * a plain lock (FIFO order is checked among all operations)
+     * @param slackNanos the tolerance on arrival times, in nanoseconds
+     *
+     * @return the results of the verification
+     */
+    public static Report verify(EventLog log, boolean priorities, long slackNanos) {
+        Operations ops = new Operations(log);
+        Report report = new Report();
+        int n = ops.n;
+
+        report.operations = n;
+
+        for(int i = 1; i < n; ++i)
+            if(ops.grantSeq[i] < ops.releaseSeq[i - 1])
+                ++report.exclusionViolations;
+
+        int classes = priorities ? PriorityClass.values().length : 1;
+
+        // Scanning backwards, the minimum arrival among the operations of the
+        // same class granted later tells whether the current one overtook any
+        for(int c = 0; c < classes; ++c) {
+            long minSeq = Long.MAX_VALUE;
+            long minTime = Long.MAX_VALUE;
+
+            for(int i = n - 1; i >= 0; --i) {
+                if(priorities && ops.priorities[i] != c)
+                    continue;
+
+                if(minSeq < ops.arrivalSeq[i]) {
+                    ++report.overtakes;
+
+                    long lag = ops.arrivalTime[i] - minTime;
+                    if(lag > slackNanos)
+                        ++report.fifoViolations;
+                    report.maxOvertakeLag = Math.max(report.maxOvertakeLag, lag);
+                }
+
+                minSeq = Math.min(minSeq, ops.arrivalSeq[i]);
+                minTime = Math.min(minTime, ops.arrivalTime[i]);
+            }
+        }
+
+        if(priorities) {
+            int b = PriorityClass.PRIO_B.ordinal();
+            long minSeq = Long.MAX_VALUE;
+            long minTime = Long.MAX_VALUE;
+
+            for(int i = n - 1; i >= 0; --i) {
+                if(ops.priorities[i] == b) {
+                    minSeq = Math.min(minSeq, ops.arrivalSeq[i]);
+                    minTime = Math.min(minTime, ops.arrivalTime[i]);
+                    continue;
+                }
+
+                // The grant was decided either when the previous operation
+                // released the resource or, if it was free, on arrival
+                long decisionSeq = ops.arrivalSeq[i];
+                long decisionTime = ops.arrivalTime[i];
+                if(i > 0) {
+                    decisionSeq = Math.max(decisionSeq, ops.releaseSeq[i - 1]);
+                    decisionTime = Math.max(decisionTime, ops.releaseTime[i - 1]);
+                }
+
+                if(minSeq < decisionSeq) {
+                    ++report.inversions;
+
+                    long lag = decisionTime - minTime;
+                    if(lag > slackNanos)
+                        ++report.priorityViolations;
+                    report.maxInversionLag = Math.max(report.maxInversionLag, lag);
+                }
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * The lock or manager being verified.
+     */
+    protected interface Target {
+        void acquire(PriorityClass prio);
+
+        void release();
+    }
+
+    protected static Target lockTarget(Lock lock) {
+        return new Target() {
+            @Override
+            public void acquire(PriorityClass prio) {
+                lock.lock();
+            }
+
+            @Override
+            public void release() {
+                lock.unlock();
+            }
+        };
+    }
+
+    protected static Target createTarget(String name) {
+        switch(name) {
+            case "FairLock": {
+                FairLock lock = new FairLock();
+                return new Target() {
+                    @Override
+                    public void acquire(PriorityClass prio) {
+                        lock.lock();
+                    }
+
+                    @Override
+                    public void release() {
+                        lock.unlock();
+                    }
+                };
+            }
+            case "reentrant-fair":
+                return lockTarget(new ReentrantLock(true));
+            case "reentrant-unfair":
+                return lockTarget(new ReentrantLock(false));
+            default: {
+                SingleResourceManager manager = SingleResourceManagers.create(name);
+                return new Target() {
+                    @Override
+                    public void acquire(PriorityClass prio) {
+                        manager.request(prio);
+                    }
+
+                    @Override
+                    public void release() {
+                        manager.release();
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * A thread executing operations on the target and recording them.
+     */
+    protected static class WorkerThread extends Thread {
+        private final Target target;
+        private final EventLog.Buffer buffer;
+        private final int ops;
+        private final int mixB;
+        private final Distribution hold;
+        private final Distribution think;
+
+        public WorkerThread(Target target, EventLog.Buffer buffer, int ops,
+                int mixB, Distribution hold, Distribution think) {
+            this.target = target;
+            this.buffer = buffer;
+            this.ops = ops;
+            this.mixB = mixB;
+            this.hold = hold;
+            this.think = think;
+        }
+
+        @Override
+        public void run() {
+            Random rnd = ThreadLocalRandom.current();
+
+            for(int i = 0; i < ops; ++i) {
+                PriorityClass prio = rnd.nextInt(100) < mixB
+                        ? PriorityClass.PRIO_B
+                        : PriorityClass.PRIO_A;
+
+                buffer.arrive(prio);
+                target.acquire(prio);
+                buffer.grant();
+
+                long h = hold.sample(rnd);
+                if(h > 0)
+                    LockSupport.parkNanos(h);
+
+                buffer.release();
+                target.release();
+
+                long t = think.sample(rnd);
+                if(t > 0)
+                    LockSupport.parkNanos(t);
+            }
+        }
+    }
+
+    /**
+     * Runs the verifier.
+     *
+     * @param args the options, see the description of this class
+     */
+    public static void main(String[] args) {
+        String name = "FairLock";
+        int threads = 8;
+        int ops = 125_000;
+        int mixB = 50;
+        Distribution hold = Distribution.ZERO;
+        Distribution think = Distribution.ZERO;
+        long slack = Distribution.parseDuration("10ms");
+        Target target;
+
+        try {
+            if(args.length % 2 != 0)
+                throw new IllegalArgumentException("Missing value for option " + args[args.length - 1]);
+
+            for(int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+
+                switch(args[i]) {
+                    case "--target":
+                        name = value;
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--ops":
+                        ops = Integer.parseInt(value);
+                        break;
+                    case "--mix-b":
+                        mixB = Integer.parseInt(value);
+                        break;
+                    case "--hold":
+                        hold = Distribution.parse(value);
+                        break;
+                    case "--think":
+                        think = Distribution.parse(value);
+                        break;
+                    case "--slack":
+                        slack = Distribution.parseDuration(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+
+            if(threads <= 0 || ops <= 0)
+                throw new IllegalArgumentException("The number of threads and operations must be positive!");
+
+            target = createTarget(name);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: OrderingVerifier [--target NAME] [--threads N] [--ops N] [--mix-b P]");
+            System.err.println("       [--hold DIST] [--think DIST] [--slack D]");
+            System.err.println("Available targets: FairLock, reentrant-fair, reentrant-unfair, "
+                    + SingleResourceManagers.names());
+            System.exit(1);
+            return;
+        }
+
+        boolean priorities = SingleResourceManagers.names().contains(name);
+        EventLog log = new EventLog(threads, ops);
+
+        WorkerThread[] workers = new WorkerThread[threads];
+        for(int i = 0; i < threads; ++i)
+            workers[i] = new WorkerThread(target, log.getBuffer(i), ops, mixB, hold, think);
+
+        long start = System.nanoTime();
+
+        for(WorkerThread w : workers)
+            w.start();
+
+        for(WorkerThread w : workers) {
+            while(w.isAlive()) {
+                try {
+                    w.join();
+                } catch (InterruptedException ex) {
+
+                }
+            }
+        }
+
+        double runSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        Report report = verify(log, priorities, slack);
+        double verifySeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%s: %d operations in %.2f s, verified in %.2f s%n",
+                name, report.getOperations(), runSeconds, verifySeconds);
+        System.out.println(report);
+        System.out.println();
+        System.out.println(report.isValid() ? "Verification passed!" : "Verification FAILED!");
+
+        if(!report.isValid())
+            System.exit(1);
+    }
+}